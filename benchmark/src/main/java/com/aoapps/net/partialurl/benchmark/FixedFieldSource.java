@@ -0,0 +1,76 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl.benchmark;
+
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.partialurl.FieldSource;
+
+/**
+ * A {@link FieldSource} with all fields already parsed, so benchmarks measure only the lookup.
+ *
+ * <p>This is immutable and may be shared between threads.</p>
+ */
+final class FixedFieldSource implements FieldSource {
+
+  private final String scheme;
+  private final HostAddress host;
+  private final Port port;
+  private final Path contextPath;
+  private final Path path;
+
+  FixedFieldSource(String scheme, HostAddress host, Port port, Path contextPath, Path path) {
+    this.scheme = scheme;
+    this.host = host;
+    this.port = port;
+    this.contextPath = contextPath;
+    this.path = path;
+  }
+
+  @Override
+  public String getScheme() {
+    return scheme;
+  }
+
+  @Override
+  public HostAddress getHost() {
+    return host;
+  }
+
+  @Override
+  public Port getPort() {
+    return port;
+  }
+
+  @Override
+  public Path getContextPath() {
+    return contextPath;
+  }
+
+  @Override
+  public Path getPath() {
+    return path;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl.benchmark;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.partialurl.PartialURLMap;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reports the heap retained by a {@link PartialURLMap}, in total and per entry, for each
+ * {@linkplain PartialURLMap.Storage index storage} and number of entries.  The retained heap is the used heap after
+ * garbage collection with only the map reachable, less the used heap before the map was built.  This includes the
+ * {@link com.aoapps.net.partialurl.PartialURL} and value of each entry, but not the direct memory of
+ * {@link PartialURLMap.Storage#OFF_HEAP}, which is reported separately.
+ *
+ * <p>This is not a JMH benchmark, since it measures memory instead of time.  Run by:</p>
+ * <pre>java -cp benchmark/target/benchmarks.jar com.aoapps.net.partialurl.benchmark.FootprintReport [name=value]...</pre>
+ * <p>with any of the following options:</p>
+ * <ul>
+ * <li>{@code storage} - Comma-separated storages, defaults to all</li>
+ * <li>{@code size} - Comma-separated numbers of entries, defaults to {@code 1000,100000,500000}</li>
+ * <li>{@code depth} - The number of segments in each prefix, defaults to {@code 1}</li>
+ * <li>{@code wildcardDensity} - The fraction of entries that match any host, defaults to {@code 0.0}</li>
+ * <li>{@code type} - {@code SINGLE} or {@code MULTI}, defaults to {@code SINGLE}</li>
+ * </ul>
+ *
+ * <p>Run with a fixed heap size, such as {@code -Xms4g -Xmx4g}, for consistent results.</p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public final class FootprintReport {
+
+  /** Make no instances. */
+  private FootprintReport() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The maximum number of garbage collections while waiting for the used heap to stop decreasing.
+   */
+  private static final int MAX_GCS = 10;
+
+  /**
+   * Gets the used heap after garbage collection.
+   */
+  private static long getUsedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < MAX_GCS; i++) {
+      System.gc();
+      Thread.sleep(100);
+      long newUsed = runtime.totalMemory() - runtime.freeMemory();
+      if (newUsed >= used) {
+        break;
+      }
+      used = newUsed;
+    }
+    return used;
+  }
+
+  /**
+   * Gets the memory used by direct byte buffers.
+   */
+  private static long getUsedDirect() {
+    long used = 0;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if ("direct".equals(pool.getName())) {
+        used += pool.getMemoryUsed();
+      }
+    }
+    return used;
+  }
+
+  private static void print(PrintStream out, String format, Object... args) {
+    out.println(String.format(Locale.ROOT, format, args));
+  }
+
+  /**
+   * Reports all the given storages and sizes, printing a row of results per combination.
+   *
+   * @param  args  The options, each in the form {@code name=value}
+   */
+  public static void main(String[] args) throws InterruptedException, ValidationException {
+    List<PartialURLMap.Storage> storages = Arrays.asList(PartialURLMap.Storage.values());
+    int[] sizes = {1000, 100000, 500000};
+    int depth = 1;
+    double wildcardDensity = 0.0;
+    Workload.Type type = Workload.Type.SINGLE;
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq == -1) {
+        throw new IllegalArgumentException("Option must be in the form name=value: " + arg);
+      }
+      String name = arg.substring(0, eq);
+      String value = arg.substring(eq + 1);
+      switch (name) {
+        case "storage":
+          storages = new ArrayList<>();
+          for (String storage : value.split(",")) {
+            storages.add(PartialURLMap.Storage.valueOf(storage.trim()));
+          }
+          break;
+        case "size":
+          String[] split = value.split(",");
+          sizes = new int[split.length];
+          for (int i = 0; i < split.length; i++) {
+            sizes[i] = Integer.parseInt(split[i].trim());
+            if (sizes[i] < 1) {
+              throw new IllegalArgumentException("Size must be positive: " + sizes[i]);
+            }
+          }
+          break;
+        case "depth":
+          depth = Integer.parseInt(value);
+          break;
+        case "wildcardDensity":
+          wildcardDensity = Double.parseDouble(value);
+          break;
+        case "type":
+          type = Workload.Type.valueOf(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unexpected option: " + name);
+      }
+    }
+    PrintStream out = System.out;
+    print(
+        out,
+        "%-10s %-6s %10s %16s %12s %14s",
+        "storage", "type", "entries", "retained (bytes)", "bytes/entry", "direct (bytes)"
+    );
+    for (PartialURLMap.Storage storage : storages) {
+      for (int size : sizes) {
+        long before = getUsedHeap();
+        long directBefore = getUsedDirect();
+        // Only the map remains reachable, the lookups of the workload are collected
+        PartialURLMap<Integer> map = new Workload(
+            PartialURLMap.Concurrency.READ_WRITE_LOCK,
+            storage,
+            size,
+            depth,
+            1.0,
+            wildcardDensity,
+            type
+        ).getMap();
+        long retained = getUsedHeap() - before;
+        long direct = getUsedDirect() - directBefore;
+        print(
+            out,
+            "%-10s %-6s %10d %16d %12.1f %14d",
+            storage, type, size, retained, retained / (double) size, direct
+        );
+        // Keep the map reachable through the measurement
+        if (map.getStorage() != storage) {
+          throw new AssertionError();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl.benchmark;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.partialurl.PartialURLMap;
+import com.aoapps.net.partialurl.PartialURLMatch;
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput and allocation rate of {@link PartialURLMap#get(com.aoapps.net.partialurl.FieldSource)}.
+ *
+ * <p>The map is populated with {@link #size} entries, each with a prefix {@link #depth} segments deep.  A fraction
+ * {@link #wildcardDensity} of the entries match any host.  Lookups are pre-parsed, so only the map itself is measured,
+ * and a fraction {@link #hitRatio} of them match an entry.</p>
+ *
+ * <p>Run all combinations, with the GC profiler reporting allocation rate, by either:</p>
+ * <pre>java -jar benchmark/target/benchmarks.jar PartialURLMapBenchmark -prof gc</pre>
+ * <p>or {@link #main(java.lang.String[])}, which adds the GC profiler itself.  Any parameter may be narrowed, such as
+ * {@code -p size=1000,1000000 -p type=MULTI}.</p>
+ *
+ * @author  AO Industries, Inc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PartialURLMapBenchmark {
+
+  @Param({"READ_WRITE_LOCK", "COPY_ON_WRITE"})
+  public PartialURLMap.Concurrency concurrency;
+
+  @Param({"NESTED", "FLATTENED", "OFF_HEAP"})
+  public PartialURLMap.Storage storage;
+
+  @Param({"10", "1000", "100000", "1000000"})
+  public int size;
+
+  /**
+   * The number of segments in each prefix.
+   */
+  @Param({"1", "4", "16"})
+  public int depth;
+
+  /**
+   * The fraction of lookups that match an entry.
+   */
+  @Param({"1.0", "0.5", "0.0"})
+  public double hitRatio;
+
+  /**
+   * The fraction of entries that match any host.
+   */
+  @Param({"0.0", "0.1", "0.5"})
+  public double wildcardDensity;
+
+  @Param({"SINGLE", "MULTI"})
+  public Workload.Type type;
+
+  private Workload workload;
+
+  @Setup(Level.Trial)
+  public void setup() throws ValidationException {
+    workload = new Workload(concurrency, storage, size, depth, hitRatio, wildcardDensity, type);
+  }
+
+  /**
+   * The position of each thread within the pre-parsed lookups.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int next;
+
+    int next() {
+      return next++;
+    }
+  }
+
+  @Benchmark
+  public PartialURLMatch<Integer> get(Cursor cursor) throws MalformedURLException {
+    return workload.getMap().get(workload.getLookup(cursor.next()));
+  }
+
+  /**
+   * Runs this benchmark with the GC profiler, accepting the standard JMH command line options.
+   */
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+        new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .include(PartialURLMapBenchmark.class.getName())
+            .addProfiler(GCProfiler.class)
+            .build()
+    ).run();
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl.benchmark;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.partialurl.PartialURLMap;
+import com.aoapps.net.partialurl.PartialURLMatch;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how {@link PartialURLMap#get(com.aoapps.net.partialurl.FieldSource)} scales with the number of concurrent
+ * readers, while a background thread periodically calls {@link PartialURLMap#put(com.aoapps.net.partialurl.PartialURL,
+ * java.lang.Object)}.  Each {@linkplain PartialURLMap.Concurrency concurrency strategy} is run with increasing numbers
+ * of platform threads, then with thousands of virtual threads when supported by the JVM.
+ *
+ * <p>Throughput and the 50th, 99th, and 99.9th percentile latency are reported per thread count.  Latency is measured
+ * around every lookup, so throughput includes the overhead of timing.</p>
+ *
+ * <p>This is not a JMH benchmark, since JMH does not run on virtual threads.  Run by:</p>
+ * <pre>java -cp benchmark/target/benchmarks.jar com.aoapps.net.partialurl.benchmark.ReadScalingBenchmark [name=value]...</pre>
+ * <p>with any of the following options:</p>
+ * <ul>
+ * <li>{@code concurrency} - Comma-separated strategies, defaults to all</li>
+ * <li>{@code storage} - {@code NESTED}, {@code FLATTENED}, or {@code OFF_HEAP}, defaults to {@code NESTED}</li>
+ * <li>{@code threads} - Comma-separated platform thread counts, defaults to powers of two through twice the number
+ *                       of processors</li>
+ * <li>{@code virtualThreads} - Comma-separated virtual thread counts, defaults to {@code 1000,10000}, empty to skip</li>
+ * <li>{@code size} - The number of entries, defaults to {@code 100000}</li>
+ * <li>{@code depth} - The number of segments in each prefix, defaults to {@code 4}</li>
+ * <li>{@code hitRatio} - The fraction of lookups that match an entry, defaults to {@code 0.5}</li>
+ * <li>{@code wildcardDensity} - The fraction of entries that match any host, defaults to {@code 0.1}</li>
+ * <li>{@code type} - {@code SINGLE} or {@code MULTI}, defaults to {@code SINGLE}</li>
+ * <li>{@code warmup} - Seconds of warmup before each measurement, defaults to {@code 5}</li>
+ * <li>{@code duration} - Seconds measured per thread count, defaults to {@code 10}</li>
+ * <li>{@code writeInterval} - Milliseconds between background puts, defaults to {@code 10}, {@code 0} for no
+ *                             writer</li>
+ * </ul>
+ *
+ * @author  AO Industries, Inc.
+ */
+public final class ReadScalingBenchmark {
+
+  /** Make no instances. */
+  private ReadScalingBenchmark() {
+    throw new AssertionError();
+  }
+
+  private static final ThreadFactory PLATFORM_THREAD_FACTORY = runnable -> {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    return thread;
+  };
+
+  /**
+   * Gets a factory for virtual threads.  Accessed reflectively, since virtual threads are not available in all
+   * supported versions of Java.
+   *
+   * @return  The factory or {@code null} when virtual threads not supported
+   */
+  private static ThreadFactory getVirtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The combined results of all readers for one thread count.
+   */
+  private static final class Result {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long nanos;
+    private int puts;
+  }
+
+  /**
+   * Flags shared between the controlling thread, readers, and the writer.
+   */
+  private static final class Control {
+    private volatile boolean measure;
+    private volatile boolean stop;
+    // Only accessed by the writer until after it is joined
+    private int puts;
+  }
+
+  /**
+   * Runs the readers and background writer for one thread count.
+   */
+  private static Result run(
+      Workload workload,
+      ThreadFactory threadFactory,
+      int threads,
+      long warmupNanos,
+      long durationNanos,
+      long writeIntervalNanos,
+      AtomicInteger writeCounter
+  ) throws InterruptedException {
+    final PartialURLMap<Integer> map = workload.getMap();
+    final Result result = new Result();
+    final CountDownLatch done = new CountDownLatch(threads);
+    final Control control = new Control();
+    for (int t = 0; t < threads; t++) {
+      // Spread the threads across the lookups
+      final int start = (int) ((long) t * Workload.LOOKUPS / threads);
+      threadFactory.newThread(() -> {
+        LatencyHistogram latencies = new LatencyHistogram();
+        try {
+          int next = start;
+          while (!control.stop) {
+            long startNanos = System.nanoTime();
+            PartialURLMatch<Integer> match = map.get(workload.getLookup(next++));
+            long endNanos = System.nanoTime();
+            if (control.measure) {
+              latencies.record(endNanos - startNanos);
+            }
+            if (match != null && match.getValue() == null) {
+              throw new AssertionError("Match must have a value");
+            }
+          }
+        } catch (MalformedURLException e) {
+          throw new AssertionError(e);
+        } finally {
+          synchronized (result) {
+            result.latencies.add(latencies);
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    Thread writer = null;
+    if (writeIntervalNanos > 0) {
+      writer = PLATFORM_THREAD_FACTORY.newThread(() -> {
+        try {
+          while (!control.stop) {
+            workload.write(writeCounter.incrementAndGet());
+            if (control.measure) {
+              control.puts++;
+            }
+            LockSupport.parkNanos(writeIntervalNanos);
+          }
+        } catch (ValidationException e) {
+          throw new AssertionError(e);
+        }
+      });
+      writer.start();
+    }
+    TimeUnit.NANOSECONDS.sleep(warmupNanos);
+    long startNanos = System.nanoTime();
+    control.measure = true;
+    TimeUnit.NANOSECONDS.sleep(durationNanos);
+    control.measure = false;
+    result.nanos = System.nanoTime() - startNanos;
+    control.stop = true;
+    done.await();
+    if (writer != null) {
+      writer.join();
+    }
+    result.puts = control.puts;
+    return result;
+  }
+
+  private static void print(PrintStream out, String format, Object... args) {
+    out.println(String.format(Locale.ROOT, format, args));
+  }
+
+  private static int[] parseCounts(String value) {
+    if (value.isEmpty()) {
+      return new int[0];
+    }
+    String[] split = value.split(",");
+    int[] counts = new int[split.length];
+    for (int i = 0; i < split.length; i++) {
+      counts[i] = Integer.parseInt(split[i].trim());
+      if (counts[i] < 1) {
+        throw new IllegalArgumentException("Thread count must be positive: " + counts[i]);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Runs all the given concurrency strategies and thread counts, printing a row of results per thread count.
+   *
+   * @param  args  The options, each in the form {@code name=value}
+   */
+  public static void main(String[] args) throws InterruptedException, ValidationException {
+    List<PartialURLMap.Concurrency> concurrencies = Arrays.asList(PartialURLMap.Concurrency.values());
+    PartialURLMap.Storage storage = PartialURLMap.Storage.NESTED;
+    List<Integer> defaultThreads = new ArrayList<>();
+    int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads < maxThreads; threads *= 2) {
+      defaultThreads.add(threads);
+    }
+    defaultThreads.add(maxThreads);
+    int[] platformThreads = defaultThreads.stream().mapToInt(Integer::intValue).toArray();
+    int[] virtualThreads = {1000, 10000};
+    int size = 100000;
+    int depth = 4;
+    double hitRatio = 0.5;
+    double wildcardDensity = 0.1;
+    Workload.Type type = Workload.Type.SINGLE;
+    long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+    long durationNanos = TimeUnit.SECONDS.toNanos(10);
+    long writeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq == -1) {
+        throw new IllegalArgumentException("Option must be in the form name=value: " + arg);
+      }
+      String name = arg.substring(0, eq);
+      String value = arg.substring(eq + 1);
+      switch (name) {
+        case "concurrency":
+          concurrencies = new ArrayList<>();
+          for (String concurrency : value.split(",")) {
+            concurrencies.add(PartialURLMap.Concurrency.valueOf(concurrency.trim()));
+          }
+          break;
+        case "storage":
+          storage = PartialURLMap.Storage.valueOf(value);
+          break;
+        case "threads":
+          platformThreads = parseCounts(value);
+          break;
+        case "virtualThreads":
+          virtualThreads = parseCounts(value);
+          break;
+        case "size":
+          size = Integer.parseInt(value);
+          break;
+        case "depth":
+          depth = Integer.parseInt(value);
+          break;
+        case "hitRatio":
+          hitRatio = Double.parseDouble(value);
+          break;
+        case "wildcardDensity":
+          wildcardDensity = Double.parseDouble(value);
+          break;
+        case "type":
+          type = Workload.Type.valueOf(value);
+          break;
+        case "warmup":
+          warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+          break;
+        case "duration":
+          durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+          break;
+        case "writeInterval":
+          writeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unexpected option: " + name);
+      }
+    }
+    ThreadFactory virtualThreadFactory = getVirtualThreadFactory();
+    PrintStream out = System.out;
+    if (virtualThreadFactory == null && virtualThreads.length > 0) {
+      out.println("Virtual threads not supported by this JVM, skipping");
+    }
+    print(
+        out,
+        "%-16s %-8s %7s %14s %8s %10s %10s %10s",
+        "concurrency", "kind", "threads", "ops/s", "puts", "p50 (ns)", "p99 (ns)", "p99.9 (ns)"
+    );
+    AtomicInteger writeCounter = new AtomicInteger();
+    for (PartialURLMap.Concurrency concurrency : concurrencies) {
+      Workload workload = new Workload(concurrency, storage, size, depth, hitRatio, wildcardDensity, type);
+      for (int pass = 0; pass < 2; pass++) {
+        boolean virtual = pass == 1;
+        ThreadFactory threadFactory = virtual ? virtualThreadFactory : PLATFORM_THREAD_FACTORY;
+        if (threadFactory != null) {
+          for (int threads : virtual ? virtualThreads : platformThreads) {
+            Result result = run(
+                workload,
+                threadFactory,
+                threads,
+                warmupNanos,
+                durationNanos,
+                writeIntervalNanos,
+                writeCounter
+            );
+            print(
+                out,
+                "%-16s %-8s %7d %14.0f %8d %10d %10d %10d",
+                concurrency,
+                virtual ? "virtual" : "platform",
+                threads,
+                result.latencies.getCount() * (double) TimeUnit.SECONDS.toNanos(1) / result.nanos,
+                result.puts,
+                result.latencies.getPercentile(0.5),
+                result.latencies.getPercentile(0.99),
+                result.latencies.getPercentile(0.999)
+            );
+          }
+        }
+      }
+    }
+  }
+}
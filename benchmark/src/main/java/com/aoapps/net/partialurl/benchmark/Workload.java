@@ -0,0 +1,178 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl.benchmark;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import com.aoapps.net.partialurl.PartialURL;
+import com.aoapps.net.partialurl.PartialURLMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A populated {@link PartialURLMap} along with pre-parsed lookups against it, shared by the benchmarks.
+ *
+ * <p>The map is populated with {@code size} entries, each with a prefix {@code depth} segments deep.  A fraction
+ * {@code wildcardDensity} of the entries match any host.  A fraction {@code hitRatio} of the lookups match an
+ * entry.</p>
+ *
+ * @author  AO Industries, Inc.
+ */
+public final class Workload {
+
+  /**
+   * The number of pre-parsed lookups, cycled through by each thread.  A power of two.
+   */
+  static final int LOOKUPS = 1 << 12;
+
+  /**
+   * The maximum number of distinct hosts.  Larger maps register more prefixes per host.
+   */
+  private static final int HOSTS = 1024;
+
+  private static final String SCHEME = "https";
+
+  /**
+   * The kind of {@link PartialURL} registered for each entry.
+   */
+  public enum Type {
+    /**
+     * Each entry is a {@link com.aoapps.net.partialurl.SinglePartialURL} of host and prefix.
+     */
+    SINGLE,
+
+    /**
+     * Each entry is a {@link com.aoapps.net.partialurl.MultiPartialURL} of two schemes, two hosts (with and without
+     * "www."), and the prefix.
+     */
+    MULTI
+  }
+
+  private final Type type;
+  private final PartialURLMap<Integer> map;
+  private final FixedFieldSource[] lookups;
+
+  Workload(
+      PartialURLMap.Concurrency concurrency,
+      PartialURLMap.Storage storage,
+      int size,
+      int depth,
+      double hitRatio,
+      double wildcardDensity,
+      Type type
+  ) throws ValidationException {
+    this.type = type;
+    final Random random = new Random(size);
+    final Port port = Port.valueOf(443, Protocol.TCP);
+    boolean[] wildcards = new boolean[size];
+    // Added all at once, since each put under COPY_ON_WRITE copies at least the top level of the index
+    Map<PartialURL, Integer> entries = new LinkedHashMap<>();
+    for (int entry = 0; entry < size; entry++) {
+      boolean wildcard = random.nextDouble() < wildcardDensity;
+      wildcards[entry] = wildcard;
+      entries.put(
+          newPartialUrl(wildcard ? null : getHost(entry), Path.valueOf(getPrefix(entry, wildcard, depth))),
+          entry
+      );
+    }
+    map = new PartialURLMap<>(concurrency, storage);
+    map.putAll(entries);
+    lookups = new FixedFieldSource[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      int entry = random.nextInt(size);
+      HostAddress host = getHost(entry);
+      if (type == Type.MULTI && random.nextBoolean()) {
+        host = HostAddress.valueOf("www." + host);
+      }
+      String path;
+      if (random.nextDouble() < hitRatio) {
+        path = getPrefix(entry, wildcards[entry], depth) + "index.html";
+      } else {
+        path = "/missing" + entry + "/index.html";
+      }
+      lookups[i] = new FixedFieldSource(SCHEME, host, port, Path.ROOT, Path.valueOf(path));
+    }
+  }
+
+  /**
+   * Gets the host of the given entry, which is registered only when not a wildcard.
+   */
+  private static HostAddress getHost(int entry) throws ValidationException {
+    return HostAddress.valueOf("host" + (entry % HOSTS) + ".example.com");
+  }
+
+  /**
+   * Gets the prefix of the given entry.  The first segment is unique to the entry.
+   */
+  private static String getPrefix(int entry, boolean wildcard, int depth) {
+    StringBuilder prefix = new StringBuilder();
+    prefix.append(wildcard ? "/w" : "/e").append(entry).append('/');
+    for (int segment = 1; segment < depth; segment++) {
+      prefix.append("segment").append(segment).append('/');
+    }
+    return prefix.toString();
+  }
+
+  private PartialURL newPartialUrl(HostAddress host, Path prefix) throws ValidationException {
+    switch (type) {
+      case SINGLE:
+        return PartialURL.valueOf(null, host, null, null, prefix);
+      case MULTI:
+        return PartialURL.valueOf(
+            Arrays.asList(SCHEME, "http"),
+            host == null ? null : Arrays.asList(host, HostAddress.valueOf("www." + host)),
+            null,
+            null,
+            Arrays.asList(prefix)
+        );
+      default:
+        throw new AssertionError(type);
+    }
+  }
+
+  PartialURLMap<Integer> getMap() {
+    return map;
+  }
+
+  /**
+   * Gets the pre-parsed lookup at the given index, wrapping around.
+   */
+  FixedFieldSource getLookup(int index) {
+    return lookups[index & (LOOKUPS - 1)];
+  }
+
+  /**
+   * Puts an additional entry, as done by a background writer, that is not matched by any lookup.
+   *
+   * @param  n  Unique per call
+   */
+  void write(int n) throws ValidationException {
+    map.put(newPartialUrl(getHost(n), Path.valueOf("/written" + n + "/")), -n);
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Obtains fields for {@link PartialURL} directly from the bytes of a request, such as the {@code Host} header and the
+ * path of the request line read into a {@link ByteBuffer}.  The bytes are not copied.
+ *
+ * <p>The {@link HostAddress}, {@link Port}, and {@link Path} are only created when first requested.  When looked-up in
+ * a {@link PartialURLMap} using {@link PartialURLMap.Storage#OFF_HEAP}, the host and path are hashed and compared as
+ * text directly from the bytes, so {@link PartialURLMap#getValue(com.aoapps.net.partialurl.FieldSource)} does not
+ * create them at all.  This is limited to hostnames of ASCII letters, digits, hyphens, and periods; paths of printable
+ * ASCII beginning with a slash (/); and a valid port.  Other requests, such as by IP address, are looked-up by the
+ * created objects, which are validated as usual.</p>
+ *
+ * <p>The bytes are read as ISO-8859-1, one character per byte, which matches the ASCII hosts and percent-encoded paths
+ * of HTTP requests.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This implementation is not thread safe due to results caching.  The bytes must not be modified while in use.</p>
+ */
+public class ByteFieldSource implements FieldSource {
+
+  /**
+   * A view of a range of bytes as characters, one character per byte.
+   */
+  private static final class ByteSequence implements CharSequence {
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+
+    private ByteSequence(ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= end - start) {
+        throw new IndexOutOfBoundsException(Integer.toString(index));
+      }
+      return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      if (from < 0 || to > end - start || from > to) {
+        throw new IndexOutOfBoundsException("from = " + from + ", to = " + to);
+      }
+      return new ByteSequence(buffer, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+      char[] chars = new char[end - start];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) (buffer.get(start + i) & 0xFF);
+      }
+      return new String(chars);
+    }
+  }
+
+  private final String scheme;
+  private final ByteSequence hostText;
+  private final int portNumber;
+  private final ByteSequence pathText;
+
+  // Cached results
+  private HostAddress host;
+  private Port port;
+  private Path path;
+
+  /**
+   * Whether the host and path are plain enough to be compared as text: {@code 0} when not yet checked, {@code 1} when
+   * plain, or {@code -1} when not.
+   */
+  private byte plainText;
+
+  /**
+   * Creates a field source over a range of bytes in a buffer.  Only absolute reads are performed, so the position and
+   * limit of the buffer are not used.
+   *
+   * @param  scheme          The scheme of the request, such as {@link PartialURL#HTTPS} for a secure connection,
+   *                         converted to lower-case.  Must not be {@code null}.
+   * @param  authorityStart  The start of the authority, which is the value of the {@code Host} header: a host, which
+   *                         may be a bracketed IPv6 address, optionally followed by a colon and the port
+   * @param  authorityEnd    The end of the authority, exclusive
+   * @param  pathStart       The start of the path, which does not include any query string or fragment
+   * @param  pathEnd         The end of the path, exclusive, and the same as {@code pathStart} for an empty path
+   */
+  public ByteFieldSource(String scheme, ByteBuffer buffer, int authorityStart, int authorityEnd, int pathStart, int pathEnd) {
+    if (authorityStart < 0 || authorityEnd < authorityStart || authorityEnd > buffer.capacity()) {
+      throw new IndexOutOfBoundsException("authorityStart = " + authorityStart + ", authorityEnd = " + authorityEnd);
+    }
+    if (pathStart < 0 || pathEnd < pathStart || pathEnd > buffer.capacity()) {
+      throw new IndexOutOfBoundsException("pathStart = " + pathStart + ", pathEnd = " + pathEnd);
+    }
+    this.scheme = PartialURL.toLowerCaseScheme(Objects.requireNonNull(scheme, "scheme"));
+    ByteSequence authority = new ByteSequence(buffer, authorityStart, authorityEnd);
+    int authorityLen = authority.length();
+    int hostEnd = PartialURLParser.findHostEnd(authority, 0, authorityLen);
+    this.hostText = new ByteSequence(buffer, authorityStart, authorityStart + hostEnd);
+    this.portNumber = PartialURLParser.parsePortNumber(authority, hostEnd, authorityLen, this.scheme);
+    this.pathText = new ByteSequence(buffer, pathStart, pathEnd);
+  }
+
+  /**
+   * Creates a field source over a range of bytes in an array.
+   *
+   * @see  #ByteFieldSource(java.lang.String, java.nio.ByteBuffer, int, int, int, int)
+   */
+  public ByteFieldSource(String scheme, byte[] bytes, int authorityStart, int authorityEnd, int pathStart, int pathEnd) {
+    this(scheme, ByteBuffer.wrap(bytes), authorityStart, authorityEnd, pathStart, pathEnd);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This is the scheme given to the constructor, already converted to lower-case.</p>
+   */
+  @Override
+  public String getScheme() {
+    return scheme;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This is the same as {@link #getScheme()}, converted once by the constructor.</p>
+   */
+  @Override
+  public String getSchemeLowerCase() {
+    return scheme;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see  HostAddress#valueOf(java.lang.String)
+   */
+  @Override
+  public HostAddress getHost() throws MalformedURLException {
+    if (host == null) {
+      try {
+        host = HostAddress.valueOf(hostText.toString());
+      } catch (ValidationException e) {
+        MalformedURLException newErr = new MalformedURLException();
+        newErr.initCause(e);
+        throw newErr;
+      }
+      if (host == null) {
+        throw new MalformedURLException("No host");
+      }
+    }
+    return host;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * The implementation assumes {@link Protocol#TCP}.  When the authority has no port, this is the default port of
+   * {@link PartialURL#HTTP} or {@link PartialURL#HTTPS}.</p>
+   */
+  @Override
+  public Port getPort() throws MalformedURLException {
+    if (port == null) {
+      if (portNumber == PartialURLParser.NO_PORT) {
+        throw new MalformedURLException("No default port for scheme: " + scheme);
+      }
+      if (portNumber == PartialURLParser.INVALID_PORT) {
+        throw new MalformedURLException("Invalid port");
+      }
+      try {
+        port = Port.valueOf(portNumber, Protocol.TCP);
+      } catch (ValidationException e) {
+        MalformedURLException newErr = new MalformedURLException();
+        newErr.initCause(e);
+        throw newErr;
+      }
+    }
+    return port;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This always returns {@link Path#ROOT}.</p>
+   */
+  @Override
+  public Path getContextPath() {
+    return Path.ROOT;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see  Path#valueOf(java.lang.String)
+   */
+  @Override
+  public Path getPath() throws MalformedURLException {
+    if (pathText.length() == 0) {
+      return null;
+    }
+    if (path == null) {
+      try {
+        path = Path.valueOf(pathText.toString());
+      } catch (ValidationException e) {
+        MalformedURLException newErr = new MalformedURLException();
+        newErr.initCause(e);
+        throw newErr;
+      }
+    }
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see  PartialURLParser#isInvalid(java.lang.CharSequence, int, java.lang.CharSequence)
+   */
+  @Override
+  public boolean isInvalid() {
+    return PartialURLParser.isInvalid(hostText, portNumber, pathText);
+  }
+
+  /**
+   * Checks if the host, port, and path may be compared as text, without creating the objects.
+   *
+   * @see  OffHeapIndex#isPlainText(java.lang.CharSequence, java.lang.CharSequence, int)
+   */
+  boolean isPlainText() {
+    if (plainText == 0) {
+      plainText = OffHeapIndex.isPlainText(hostText, pathText, portNumber) ? (byte) 1 : (byte) -1;
+    }
+    return plainText == 1;
+  }
+
+  /**
+   * Gets the text of the host, excluding any port.
+   *
+   * @see  #isPlainText()
+   */
+  CharSequence getHostText() {
+    return hostText;
+  }
+
+  /**
+   * Gets the text of the path, which is empty when there is no path.
+   *
+   * @see  #isPlainText()
+   */
+  CharSequence getPathText() {
+    return pathText;
+  }
+
+  /**
+   * Gets the port number, including the default port for the scheme.
+   *
+   * @return  The port number or a negative value when there is no port or it is not a number
+   *
+   * @see  #isPlainText()
+   */
+  int getPortNumber() {
+    return portNumber;
+  }
+}
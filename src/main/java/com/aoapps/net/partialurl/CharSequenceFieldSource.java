@@ -0,0 +1,376 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.CharBuffer;
+import java.util.Locale;
+
+/**
+ * Obtains fields for {@link PartialURL} from the text of a URL, such as {@code https://aoindustries.com/path}, without
+ * creating a {@link URL}.
+ *
+ * <p>The URL is split into its scheme, host, port, and path by offsets on first use, and each field is created only
+ * when first requested then cached.  The userinfo, query, and fragment are ignored.  As with {@link ByteFieldSource},
+ * a {@link PartialURLMap} using {@link PartialURLMap.Storage#OFF_HEAP} searches plain hosts and paths by their text,
+ * without creating the {@link HostAddress}, {@link Port}, or {@link Path}.</p>
+ *
+ * <p>Unlike {@link URL}, only the {@link PartialURL#HTTP} and {@link PartialURL#HTTPS} schemes have a default port.
+ * The fields are validated when created, not when the field source is created, so an invalid URL is only reported by
+ * the fields that are requested.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This implementation is not thread safe due to results caching.  The characters must not be modified while in
+ * use.</p>
+ */
+public class CharSequenceFieldSource implements FieldSource {
+
+  private final CharSequence url;
+
+  // Offsets, set by split
+  private boolean split;
+  private int hostStart;
+  private int hostEnd;
+  private int portNumber;
+  private int pathStart;
+  private int pathEnd;
+
+  // Cached results
+  private String scheme;
+  private HostAddress host;
+  private Port port;
+  private Path path;
+  private boolean pathCached;
+  private CharBuffer hostText;
+  private CharBuffer pathText;
+
+  /**
+   * Whether the host and path are plain enough to be compared as text: {@code 0} when not yet checked, {@code 1} when
+   * plain, or {@code -1} when not.
+   */
+  private byte plainText;
+
+  /**
+   * Creates a field source for the given URL.
+   */
+  public CharSequenceFieldSource(CharSequence url) {
+    this.url = url;
+  }
+
+  /**
+   * Checks if a range of the URL is equal to the given lower-case string, ignoring case.
+   */
+  private boolean regionEqualsIgnoreCase(int start, int end, String lower) {
+    int len = end - start;
+    if (len != lower.length()) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (Character.toLowerCase(url.charAt(start + i)) != lower.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the first of the given characters at or after the given index.
+   *
+   * @return  The index or the length of the URL when not found
+   */
+  private int indexOfAny(int from, String chars) {
+    int len = url.length();
+    for (int i = from; i < len; i++) {
+      if (chars.indexOf(url.charAt(i)) != -1) {
+        return i;
+      }
+    }
+    return len;
+  }
+
+  /**
+   * Splits the URL into its fields by offsets, once, without creating an exception.
+   *
+   * @return  {@code null} when split or the reason the URL does not begin with a scheme followed by "://"
+   */
+  private String trySplit() {
+    if (!split) {
+      int len = url.length();
+      int schemeEnd = 0;
+      while (true) {
+        if (schemeEnd == len) {
+          return "No scheme: ";
+        }
+        char ch = url.charAt(schemeEnd);
+        if (ch == ':') {
+          break;
+        }
+        if (
+            !(ch >= 'a' && ch <= 'z')
+                && !(ch >= 'A' && ch <= 'Z')
+                && (
+                  schemeEnd == 0
+                      || (
+                        !(ch >= '0' && ch <= '9')
+                            && ch != '+' && ch != '-' && ch != '.'
+                      )
+                )
+        ) {
+          return "Invalid scheme: ";
+        }
+        schemeEnd++;
+      }
+      if (schemeEnd == 0) {
+        return "No scheme: ";
+      }
+      if (schemeEnd + 2 >= len || url.charAt(schemeEnd + 1) != '/' || url.charAt(schemeEnd + 2) != '/') {
+        return "No authority: ";
+      }
+      // Common schemes without allocation
+      String newScheme;
+      if (regionEqualsIgnoreCase(0, schemeEnd, PartialURL.HTTPS)) {
+        newScheme = PartialURL.HTTPS;
+      } else if (regionEqualsIgnoreCase(0, schemeEnd, PartialURL.HTTP)) {
+        newScheme = PartialURL.HTTP;
+      } else {
+        newScheme = url.subSequence(0, schemeEnd).toString().toLowerCase(Locale.ROOT);
+      }
+      int authorityStart = schemeEnd + 3;
+      int authorityEnd = indexOfAny(authorityStart, "/?#");
+      // Skip any userinfo
+      int newHostStart = authorityStart;
+      for (int i = authorityEnd - 1; i >= authorityStart; i--) {
+        if (url.charAt(i) == '@') {
+          newHostStart = i + 1;
+          break;
+        }
+      }
+      int newHostEnd = PartialURLParser.findHostEnd(url, newHostStart, authorityEnd);
+      int newPortNumber = PartialURLParser.parsePortNumber(url, newHostEnd, authorityEnd, newScheme);
+      scheme = newScheme;
+      hostStart = newHostStart;
+      hostEnd = newHostEnd;
+      portNumber = newPortNumber;
+      pathStart = authorityEnd;
+      pathEnd = indexOfAny(authorityEnd, "?#");
+      split = true;
+    }
+    return null;
+  }
+
+  /**
+   * Splits the URL into its fields by offsets, once.
+   *
+   * @throws  MalformedURLException  When the URL does not begin with a scheme followed by "://"
+   */
+  private void split() throws MalformedURLException {
+    String reason = trySplit();
+    if (reason != null) {
+      throw new MalformedURLException(reason + url);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * The scheme is converted to lower-case once, and {@link PartialURL#HTTP} and {@link PartialURL#HTTPS} are returned
+   * without allocation.</p>
+   */
+  @Override
+  public String getScheme() throws MalformedURLException {
+    split();
+    return scheme;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This is the same as {@link #getScheme()}, converted once.</p>
+   */
+  @Override
+  public String getSchemeLowerCase() throws MalformedURLException {
+    split();
+    return scheme;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see  HostAddress#valueOf(java.lang.String)
+   */
+  @Override
+  public HostAddress getHost() throws MalformedURLException {
+    if (host == null) {
+      split();
+      if (hostStart == hostEnd) {
+        throw new MalformedURLException("No host: " + url);
+      }
+      try {
+        host = HostAddress.valueOf(url.subSequence(hostStart, hostEnd).toString());
+      } catch (ValidationException e) {
+        MalformedURLException newErr = new MalformedURLException();
+        newErr.initCause(e);
+        throw newErr;
+      }
+    }
+    return host;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * The implementation assumes {@link Protocol#TCP}.  When the URL has no port, this is the default port of
+   * {@link PartialURL#HTTP} or {@link PartialURL#HTTPS}.</p>
+   */
+  @Override
+  public Port getPort() throws MalformedURLException {
+    if (port == null) {
+      split();
+      if (portNumber == PartialURLParser.NO_PORT) {
+        throw new MalformedURLException("No default port for URL: " + url);
+      }
+      if (portNumber == PartialURLParser.INVALID_PORT) {
+        throw new MalformedURLException("Invalid port: " + url);
+      }
+      try {
+        port = Port.valueOf(portNumber, Protocol.TCP);
+      } catch (ValidationException e) {
+        MalformedURLException newErr = new MalformedURLException();
+        newErr.initCause(e);
+        throw newErr;
+      }
+    }
+    return port;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This always returns {@link Path#ROOT}.</p>
+   */
+  @Override
+  public Path getContextPath() {
+    return Path.ROOT;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The path does not include the query or fragment.</p>
+   *
+   * @see  Path#valueOf(java.lang.String)
+   */
+  @Override
+  public Path getPath() throws MalformedURLException {
+    if (!pathCached) {
+      split();
+      if (pathStart != pathEnd) {
+        try {
+          path = Path.valueOf(url.subSequence(pathStart, pathEnd).toString());
+        } catch (ValidationException e) {
+          MalformedURLException newErr = new MalformedURLException();
+          newErr.initCause(e);
+          throw newErr;
+        }
+      }
+      pathCached = true;
+    }
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This includes a URL that cannot be split into its fields.</p>
+   *
+   * @see  PartialURLParser#isInvalid(java.lang.CharSequence, int, java.lang.CharSequence)
+   */
+  @Override
+  public boolean isInvalid() {
+    return trySplit() != null || PartialURLParser.isInvalid(getHostText(), portNumber, getPathText());
+  }
+
+  /**
+   * Checks if the host, port, and path may be compared as text, without creating the objects.
+   *
+   * @return  {@code false} when the URL cannot be split, so the lookup reports the error by the objects
+   *
+   * @see  OffHeapIndex#isPlainText(java.lang.CharSequence, java.lang.CharSequence, int)
+   */
+  boolean isPlainText() {
+    if (plainText == 0) {
+      boolean plain = trySplit() == null && OffHeapIndex.isPlainText(getHostText(), getPathText(), portNumber);
+      plainText = plain ? (byte) 1 : (byte) -1;
+    }
+    return plainText == 1;
+  }
+
+  /**
+   * Gets the text of the host, excluding any userinfo and port.  Must have already been split.
+   *
+   * @see  #isPlainText()
+   */
+  CharSequence getHostText() {
+    assert split;
+    if (hostText == null) {
+      hostText = CharBuffer.wrap(url, hostStart, hostEnd);
+    }
+    return hostText;
+  }
+
+  /**
+   * Gets the text of the path, which is empty when there is no path.  Must have already been split.
+   *
+   * @see  #isPlainText()
+   */
+  CharSequence getPathText() {
+    assert split;
+    if (pathText == null) {
+      pathText = CharBuffer.wrap(url, pathStart, pathEnd);
+    }
+    return pathText;
+  }
+
+  /**
+   * Gets the port number, including the default port for the scheme.  Must have already been split.
+   *
+   * @return  The port number or a negative value when there is no port or it is not a number
+   *
+   * @see  #isPlainText()
+   */
+  int getPortNumber() {
+    assert split;
+    return portNumber;
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A map that chooses its representation by size, used for the levels of the nested index of {@link PartialURLMap}.
+ * Most levels have only one or a few entries, such as a host with a single contextPath, a prefix with a single port,
+ * or a port with a single scheme, so a full {@link HashMap} with its table and one node per entry is mostly overhead.
+ *
+ * <ul>
+ * <li>A single entry is stored directly in fields.</li>
+ * <li>Up to {@link #ARRAY_MAX_SIZE} entries are stored in an array of alternating keys and values, searched
+ *     linearly.</li>
+ * <li>More entries are stored in a {@link HashMap}.</li>
+ * </ul>
+ *
+ * <p>Unlike {@link com.aoapps.collections.MinimalMap}, which replaces the map as it grows, the representation is changed
+ * in place.  This keeps the identity of the map, as required by the copy-on-write tracking of {@link PartialURLMap}.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This class is not thread safe.  Once published in an immutable snapshot, it may be read concurrently.  Lookups do not
+ * allocate.</p>
+ *
+ * @param  <K>  The type of key, which may be {@code null}
+ * @param  <V>  The type of value
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+
+  /**
+   * The maximum number of entries stored in an array.
+   */
+  static final int ARRAY_MAX_SIZE = 8;
+
+  /**
+   * The number of entries an array is initially created for.
+   */
+  private static final int ARRAY_INITIAL_SIZE = 4;
+
+  /**
+   * The number of entries at or below which a {@link HashMap} is converted back to an array.  Less than
+   * {@link #ARRAY_MAX_SIZE} to avoid converting back and forth.
+   */
+  private static final int ARRAY_SHRINK_SIZE = ARRAY_MAX_SIZE / 2;
+
+  /**
+   * The number of entries when stored in fields or in {@link #array}.
+   */
+  private int size;
+
+  /**
+   * The key of the single entry, when not stored in {@link #array} or {@link #map}.
+   */
+  private K key;
+
+  /**
+   * The value of the single entry, when not stored in {@link #array} or {@link #map}.
+   */
+  private V value;
+
+  /**
+   * The alternating keys and values, when stored in an array.
+   */
+  private Object[] array;
+
+  /**
+   * The entries, when stored in a {@link HashMap}.
+   */
+  private HashMap<K, V> map;
+
+  /**
+   * Creates a new, empty map.
+   */
+  CompactMap() {
+    // Empty
+  }
+
+  /**
+   * Creates a copy of a map.
+   */
+  CompactMap(Map<? extends K, ? extends V> other) {
+    if (other instanceof CompactMap) {
+      @SuppressWarnings("unchecked")
+      CompactMap<K, V> compact = (CompactMap<K, V>) other;
+      size = compact.size;
+      key = compact.key;
+      value = compact.value;
+      array = (compact.array == null) ? null : compact.array.clone();
+      map = (compact.map == null) ? null : new HashMap<>(compact.map);
+    } else {
+      putAll(other);
+    }
+  }
+
+  /**
+   * Finds the index of a key in {@link #array}.
+   *
+   * @return  The index of the key or {@code -1} when not found
+   */
+  private int indexOf(Object k) {
+    Object[] a = array;
+    for (int i = 0, end = size * 2; i < end; i += 2) {
+      if (Objects.equals(a[i], k)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Removes the entry at the given index of {@link #array}, shifting the following entries down to keep their order.
+   */
+  private void removeAt(int i) {
+    int end = size * 2;
+    System.arraycopy(array, i + 2, array, i, end - i - 2);
+    array[end - 2] = null;
+    array[end - 1] = null;
+    size--;
+  }
+
+  @Override
+  public int size() {
+    return (map != null) ? map.size() : size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object k) {
+    if (map != null) {
+      return map.get(k);
+    }
+    if (array != null) {
+      int i = indexOf(k);
+      return (i == -1) ? null : (V) array[i + 1];
+    }
+    return (size == 1 && Objects.equals(key, k)) ? value : null;
+  }
+
+  @Override
+  public boolean containsKey(Object k) {
+    if (map != null) {
+      return map.containsKey(k);
+    }
+    if (array != null) {
+      return indexOf(k) != -1;
+    }
+    return size == 1 && Objects.equals(key, k);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V put(K k, V v) {
+    if (map != null) {
+      return map.put(k, v);
+    }
+    if (array != null) {
+      int i = indexOf(k);
+      if (i != -1) {
+        V previous = (V) array[i + 1];
+        array[i + 1] = v;
+        return previous;
+      }
+      if (size < ARRAY_MAX_SIZE) {
+        if (size * 2 == array.length) {
+          Object[] newArray = new Object[ARRAY_MAX_SIZE * 2];
+          System.arraycopy(array, 0, newArray, 0, size * 2);
+          array = newArray;
+        }
+        array[size * 2] = k;
+        array[size * 2 + 1] = v;
+        size++;
+      } else {
+        HashMap<K, V> newMap = new HashMap<>();
+        for (int j = 0, end = size * 2; j < end; j += 2) {
+          newMap.put((K) array[j], (V) array[j + 1]);
+        }
+        newMap.put(k, v);
+        map = newMap;
+        array = null;
+        size = 0;
+      }
+      return null;
+    }
+    if (size == 0) {
+      key = k;
+      value = v;
+      size = 1;
+      return null;
+    }
+    if (Objects.equals(key, k)) {
+      V previous = value;
+      value = v;
+      return previous;
+    }
+    Object[] newArray = new Object[ARRAY_INITIAL_SIZE * 2];
+    newArray[0] = key;
+    newArray[1] = value;
+    newArray[2] = k;
+    newArray[3] = v;
+    array = newArray;
+    key = null;
+    value = null;
+    size = 2;
+    return null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V remove(Object k) {
+    if (map != null) {
+      if (!map.containsKey(k)) {
+        return null;
+      }
+      V previous = map.remove(k);
+      if (map.size() <= ARRAY_SHRINK_SIZE) {
+        Object[] newArray = new Object[ARRAY_MAX_SIZE * 2];
+        int i = 0;
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+          newArray[i++] = entry.getKey();
+          newArray[i++] = entry.getValue();
+        }
+        size = map.size();
+        array = newArray;
+        map = null;
+      }
+      return previous;
+    }
+    if (array != null) {
+      int i = indexOf(k);
+      if (i == -1) {
+        return null;
+      }
+      V previous = (V) array[i + 1];
+      removeAt(i);
+      if (size == 1) {
+        key = (K) array[0];
+        value = (V) array[1];
+        array = null;
+      }
+      return previous;
+    }
+    if (size == 1 && Objects.equals(key, k)) {
+      V previous = value;
+      clear();
+      return previous;
+    }
+    return null;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    key = null;
+    value = null;
+    array = null;
+    map = null;
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+      @Override
+      public int size() {
+        return CompactMap.this.size();
+      }
+
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        if (map != null) {
+          return map.entrySet().iterator();
+        }
+        return new Iterator<Map.Entry<K, V>>() {
+          /**
+           * The number of entries returned, not counting those removed.
+           */
+          private int next;
+          private boolean canRemove;
+
+          @Override
+          public boolean hasNext() {
+            return next < size;
+          }
+
+          @Override
+          @SuppressWarnings("unchecked")
+          public Map.Entry<K, V> next() {
+            if (next >= size) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry;
+            if (array != null) {
+              entry = new AbstractMap.SimpleImmutableEntry<>((K) array[next * 2], (V) array[next * 2 + 1]);
+            } else {
+              entry = new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+            next++;
+            canRemove = true;
+            return entry;
+          }
+
+          @Override
+          public void remove() {
+            if (!canRemove) {
+              throw new IllegalStateException();
+            }
+            canRemove = false;
+            next--;
+            if (array != null) {
+              // Remains an array until the iteration completes
+              removeAt(next * 2);
+            } else {
+              CompactMap.this.clear();
+            }
+          }
+        };
+      }
+    };
+  }
+}
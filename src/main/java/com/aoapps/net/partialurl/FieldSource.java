@@ -43,6 +43,23 @@ public interface FieldSource {
    */
   String getScheme() throws MalformedURLException;
 
+  /**
+   * Gets the scheme for this URL converted to lower-case, as used in matching.  Matching may request the scheme
+   * many times per request, such as once for each {@link PartialURLMap} and each {@link MultiPartialURL} tried, so
+   * implementations should convert the scheme once and cache it.
+   *
+   * <p>The default implementation converts {@link #getScheme()} on each call.  The {@link PartialURL#HTTP} and
+   * {@link PartialURL#HTTPS} constants are returned for those schemes in any case, and any other scheme already in
+   * lower-case is returned without allocation.</p>
+   *
+   * @throws MalformedURLException  When unable to obtain the scheme or the obtained scheme is invalid
+   *
+   * @see  #getScheme()
+   */
+  default String getSchemeLowerCase() throws MalformedURLException {
+    return PartialURL.toLowerCaseScheme(getScheme());
+  }
+
   /**
    * Gets the IP address or hostname for this URL.
    *
@@ -79,4 +96,18 @@ public interface FieldSource {
    * @see  SinglePartialURL#getPrefix()
    */
   Path getPath() throws MalformedURLException;
+
+  /**
+   * Checks, without creating an exception, whether the fields are known to be invalid.  This allows
+   * {@link PartialURLMap#getValue(com.aoapps.net.partialurl.FieldSource, java.lang.Object)} to reject bad input, such
+   * as a flood of requests with malformed hosts, without the cost of a {@link MalformedURLException} for each.
+   *
+   * <p>This is a quick check of syntax only: when {@code true}, at least one getter would throw
+   * {@link MalformedURLException}, but when {@code false}, the getters may still throw.</p>
+   *
+   * <p>The default implementation returns {@code false}, leaving invalid fields to be reported by the getters.</p>
+   */
+  default boolean isInvalid() {
+    return false;
+  }
 }
@@ -0,0 +1,542 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+
+/**
+ * A single-level index of {@link SinglePartialURL single partial URLs}, used by {@link PartialURLMap} as an
+ * alternative to its nested index.  Entries are stored in one open-addressed table keyed by a composite hash of all five
+ * fields, so a lookup directly probes each candidate combination of fields instead of following a chain of nested maps.
+ *
+ * <p>The hash of a prefix is the {@link String#hashCode() hash code} of the prefix.  This is computed from the path
+ * being searched without creating any substrings, and is updated as each shorter prefix is probed.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This class is not thread safe.  Once published in an immutable snapshot, it may be read concurrently.</p>
+ *
+ * @param  <V>  The type of value stored in each entry
+ */
+final class FlatIndex<V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * The multiplicative inverse of 31 modulo 2<sup>32</sup>, used to remove the last character from a
+   * {@link String#hashCode() string hash}.
+   */
+  private static final int INVERSE_31 = 0xBDEF7BDF;
+
+  /**
+   * The table, replaced as a whole when resized so that concurrent readers always see arrays of the same length.
+   */
+  private static final class Table<V> {
+
+    private final int[] hashes;
+    private final HostAddress[] hosts;
+    private final Path[] contextPaths;
+    private final String[] prefixes;
+    private final Port[] ports;
+    private final String[] schemes;
+
+    /**
+     * The entries, {@code null} for an empty slot.
+     */
+    private final ImmutableTriple<PartialURL, SinglePartialURL, V>[] entries;
+
+    @SuppressWarnings("unchecked")
+    private Table(int capacity) {
+      hashes = new int[capacity];
+      hosts = new HostAddress[capacity];
+      contextPaths = new Path[capacity];
+      prefixes = new String[capacity];
+      ports = new Port[capacity];
+      schemes = new String[capacity];
+      entries = (ImmutableTriple<PartialURL, SinglePartialURL, V>[]) new ImmutableTriple<?, ?, ?>[capacity];
+    }
+
+    private Table(Table<V> other) {
+      hashes = other.hashes.clone();
+      hosts = other.hosts.clone();
+      contextPaths = other.contextPaths.clone();
+      prefixes = other.prefixes.clone();
+      ports = other.ports.clone();
+      schemes = other.schemes.clone();
+      entries = other.entries.clone();
+    }
+
+    private void set(int slot, int hash, HostAddress host, Path contextPath, String prefix, Port port, String scheme,
+        ImmutableTriple<PartialURL, SinglePartialURL, V> entry) {
+      hashes[slot] = hash;
+      hosts[slot] = host;
+      contextPaths[slot] = contextPath;
+      prefixes[slot] = prefix;
+      ports[slot] = port;
+      schemes[slot] = scheme;
+      entries[slot] = entry;
+    }
+
+    private void clear(int slot) {
+      set(slot, 0, null, null, null, null, null, null);
+    }
+
+    /**
+     * Re-inserts the entry at the given slot, moving it to the first empty slot for its hash.
+     */
+    private void reinsert(int slot) {
+      int hash = hashes[slot];
+      HostAddress host = hosts[slot];
+      Path contextPath = contextPaths[slot];
+      String prefix = prefixes[slot];
+      Port port = ports[slot];
+      String scheme = schemes[slot];
+      ImmutableTriple<PartialURL, SinglePartialURL, V> entry = entries[slot];
+      clear(slot);
+      set(findEmpty(hash), hash, host, contextPath, prefix, port, scheme, entry);
+    }
+
+    /**
+     * Finds the empty slot for a hash.
+     */
+    private int findEmpty(int hash) {
+      int mask = entries.length - 1;
+      int slot = hash & mask;
+      while (entries[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * Finds the slot of the given key.
+     *
+     * @param  prefixEnd  The length of the prefix at the beginning of {@code path}, or {@code -1} for a {@code null}
+     *                    prefix
+     *
+     * @return  The slot or {@code -1} when not found
+     */
+    private int find(int hash, HostAddress host, Path contextPath, String path, int prefixEnd, Port port, String scheme) {
+      int mask = entries.length - 1;
+      for (int slot = hash & mask; entries[slot] != null; slot = (slot + 1) & mask) {
+        if (
+            hashes[slot] == hash
+                && Objects.equals(hosts[slot], host)
+                && Objects.equals(contextPaths[slot], contextPath)
+                && prefixMatches(prefixes[slot], path, prefixEnd)
+                && Objects.equals(ports[slot], port)
+                && Objects.equals(schemes[slot], scheme)
+        ) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private Table<V> table;
+
+  private int size;
+
+  /**
+   * The number of entries with a {@code null} host, used to skip searching for them.
+   */
+  private int nullHostCount;
+
+  /**
+   * The number of entries by host, excluding the {@code null} host, used to reject hosts not in the index before
+   * probing any prefix.
+   */
+  private final Map<HostAddress, Integer> hostCounts;
+
+  /**
+   * The length of the longest prefix added.  Not reduced on removal, so may be longer than any remaining prefix.
+   * Used to skip probing deeper prefixes.
+   */
+  private int maxPrefixLength;
+
+  /**
+   * Creates a new, empty index.
+   */
+  FlatIndex() {
+    table = new Table<>(INITIAL_CAPACITY);
+    hostCounts = new HashMap<>();
+  }
+
+  /**
+   * Creates a copy of an index.  The entries are shared, but the table is copied.
+   */
+  FlatIndex(FlatIndex<V> other) {
+    table = new Table<>(other.table);
+    size = other.size;
+    nullHostCount = other.nullHostCount;
+    hostCounts = new HashMap<>(other.hostCounts);
+    maxPrefixLength = other.maxPrefixLength;
+  }
+
+  /**
+   * Checks if a stored prefix matches the given region at the beginning of a path.
+   *
+   * @param  prefixEnd  The length of the prefix at the beginning of {@code path}, or {@code -1} for a {@code null} prefix
+   */
+  private static boolean prefixMatches(String prefix, String path, int prefixEnd) {
+    if (prefixEnd == -1) {
+      return prefix == null;
+    }
+    return
+        prefix != null
+            && prefix.length() == prefixEnd
+            && path.regionMatches(0, prefix, 0, prefixEnd);
+  }
+
+  /**
+   * Combines the hashes of the fields, using {@code 0} for {@code null} fields.
+   */
+  private static int hash(int hostHash, int contextPathHash, int prefixHash, int portHash, int schemeHash) {
+    int hash = hostHash;
+    hash = 31 * hash + contextPathHash;
+    hash = 31 * hash + prefixHash;
+    hash = 31 * hash + portHash;
+    hash = 31 * hash + schemeHash;
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int hash(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    return hash(
+        Objects.hashCode(host),
+        Objects.hashCode(contextPath),
+        Objects.hashCode(prefix),
+        Objects.hashCode(port),
+        Objects.hashCode(scheme)
+    );
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Checks if any entry may match the given host, either by the host itself or by matching any host.
+   *
+   * @param  host  The host or {@code null} to only check for entries matching any host
+   */
+  boolean mayMatchHost(HostAddress host) {
+    return nullHostCount != 0 || (host != null && hostCounts.containsKey(host));
+  }
+
+  /**
+   * Gets the entry for exactly the given fields.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   *
+   * @return  The entry or {@code null} when not in the index
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> get(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    Table<V> t = table;
+    int slot = t.find(
+        hash(host, contextPath, prefix, port, scheme),
+        host,
+        contextPath,
+        prefix,
+        (prefix == null) ? -1 : prefix.length(),
+        port,
+        scheme
+    );
+    return (slot == -1) ? null : t.entries[slot];
+  }
+
+  /**
+   * Adds or replaces the entry for the given fields.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   *
+   * @return  The previous entry or {@code null} when added
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> put(HostAddress host, Path contextPath, String prefix, Port port, String scheme,
+      ImmutableTriple<PartialURL, SinglePartialURL, V> entry) {
+    Objects.requireNonNull(entry);
+    int hash = hash(host, contextPath, prefix, port, scheme);
+    Table<V> t = table;
+    int slot = t.find(hash, host, contextPath, prefix, (prefix == null) ? -1 : prefix.length(), port, scheme);
+    if (slot != -1) {
+      ImmutableTriple<PartialURL, SinglePartialURL, V> previous = t.entries[slot];
+      t.entries[slot] = entry;
+      return previous;
+    }
+    if ((size + 1) * 2 > t.entries.length) {
+      Table<V> newTable = new Table<>(t.entries.length * 2);
+      for (int i = 0; i < t.entries.length; i++) {
+        if (t.entries[i] != null) {
+          int newSlot = newTable.findEmpty(t.hashes[i]);
+          newTable.set(newSlot, t.hashes[i], t.hosts[i], t.contextPaths[i], t.prefixes[i], t.ports[i], t.schemes[i], t.entries[i]);
+        }
+      }
+      table = t = newTable;
+    }
+    t.set(t.findEmpty(hash), hash, host, contextPath, prefix, port, scheme, entry);
+    size++;
+    if (host == null) {
+      nullHostCount++;
+    } else {
+      hostCounts.merge(host, 1, Integer::sum);
+    }
+    if (prefix != null && prefix.length() > maxPrefixLength) {
+      maxPrefixLength = prefix.length();
+    }
+    return null;
+  }
+
+  /**
+   * Removes the entry for the given fields.  The following entries in the same probe sequence are re-inserted, so they
+   * remain reachable by linear probing.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   *
+   * @return  The removed entry or {@code null} when not in the index
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> remove(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    Table<V> t = table;
+    int slot = t.find(
+        hash(host, contextPath, prefix, port, scheme),
+        host,
+        contextPath,
+        prefix,
+        (prefix == null) ? -1 : prefix.length(),
+        port,
+        scheme
+    );
+    if (slot == -1) {
+      return null;
+    }
+    ImmutableTriple<PartialURL, SinglePartialURL, V> removed = t.entries[slot];
+    t.clear(slot);
+    size--;
+    if (host == null) {
+      nullHostCount--;
+    } else {
+      hostCounts.computeIfPresent(host, (h, count) -> (count == 1) ? null : (count - 1));
+    }
+    int mask = t.entries.length - 1;
+    for (int i = (slot + 1) & mask; t.entries[i] != null; i = (i + 1) & mask) {
+      t.reinsert(i);
+    }
+    return removed;
+  }
+
+  /**
+   * Finds any entry whose single partial URL matches the given predicate.
+   *
+   * @return  The first matching entry found or {@code null} when none match
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> find(Predicate<? super SinglePartialURL> predicate) {
+    for (ImmutableTriple<PartialURL, SinglePartialURL, V> entry : table.entries) {
+      if (entry != null && predicate.test(entry.middle)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Searches for the most specific entry matching a lookup, in the same order as the nested index of
+   * {@link PartialURLMap}: by host then {@code null} host, contextPath then {@code null} contextPath, deepest prefix first
+   * then {@code null} prefix, port then {@code null} port, and scheme then {@code null} scheme.  No objects are allocated.
+   *
+   * @param  host         The host or {@code null} to only search for entries matching any host
+   * @param  contextPath  The contextPath or {@code null} to only search for entries matching any contextPath
+   * @param  anyContextPath  Also search for entries matching any contextPath
+   * @param  port         The port or {@code null} to only search for entries matching any port
+   * @param  anyPort      Also search for entries matching any port
+   * @param  scheme       The scheme or {@code null} to only search for entries matching any scheme
+   * @param  anyScheme    Also search for entries matching any scheme
+   *
+   * @return  The match or {@code null} when not found
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> search(
+      HostAddress host,
+      Path contextPath,
+      boolean anyContextPath,
+      String path,
+      Port port,
+      boolean anyPort,
+      String scheme,
+      boolean anyScheme
+  ) {
+    return search(host, contextPath, anyContextPath, path, null, null, port, anyPort, scheme, anyScheme);
+  }
+
+  /**
+   * Searches for the most specific entry matching a lookup, with the prefixes of the path optionally precomputed by
+   * {@link RequestKey}, so the path is not scanned and hashed on each search.
+   *
+   * @param  prefixEnds    The end of each prefix of the path, in ascending order, or {@code null} to scan the path
+   * @param  prefixHashes  The hash of each prefix of the path, by the same index as {@code prefixEnds}
+   *
+   * @see  #search(com.aoapps.net.HostAddress, com.aoapps.net.Path, boolean, java.lang.String, com.aoapps.net.Port, boolean, java.lang.String, boolean)
+   * @see  RequestKey#getPrefixEnds()
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> search(
+      HostAddress host,
+      Path contextPath,
+      boolean anyContextPath,
+      String path,
+      int[] prefixEnds,
+      int[] prefixHashes,
+      Port port,
+      boolean anyPort,
+      String scheme,
+      boolean anyScheme
+  ) {
+    Table<V> t = table;
+    // Find the deepest candidate prefix and its hash
+    int limit = Math.min(path.length(), maxPrefixLength);
+    int deepestIndex;
+    int deepestEnd;
+    int deepestHash;
+    if (prefixEnds != null) {
+      deepestIndex = RequestKey.deepestPrefix(prefixEnds, limit);
+      deepestEnd = (deepestIndex == -1) ? -1 : prefixEnds[deepestIndex];
+      deepestHash = (deepestIndex == -1) ? 0 : prefixHashes[deepestIndex];
+    } else {
+      deepestIndex = -1;
+      deepestEnd = path.lastIndexOf(Path.SEPARATOR_CHAR, limit - 1) + 1;
+      deepestHash = 0;
+      for (int i = 0; i < deepestEnd; i++) {
+        deepestHash = 31 * deepestHash + path.charAt(i);
+      }
+      if (deepestEnd == 0) {
+        // Only the null prefix
+        deepestEnd = -1;
+      }
+    }
+    int portHash = Objects.hashCode(port);
+    int schemeHash = Objects.hashCode(scheme);
+    for (int h = 0; h < 2; h++) {
+      HostAddress searchHost;
+      if (h == 0) {
+        if (host == null || !hostCounts.containsKey(host)) {
+          continue;
+        }
+        searchHost = host;
+      } else {
+        if (nullHostCount == 0) {
+          break;
+        }
+        searchHost = null;
+      }
+      int hostHash = Objects.hashCode(searchHost);
+      for (int c = 0; c < 2; c++) {
+        Path searchContextPath;
+        if (c == 0) {
+          if (contextPath == null) {
+            continue;
+          }
+          searchContextPath = contextPath;
+        } else {
+          if (!anyContextPath) {
+            break;
+          }
+          searchContextPath = null;
+        }
+        int contextPathHash = Objects.hashCode(searchContextPath);
+        // Deepest prefix first, removing one segment at a time from the hash
+        int prefixIndex = deepestIndex;
+        int prefixEnd = deepestEnd;
+        int prefixHash = deepestHash;
+        while (true) {
+          ImmutableTriple<PartialURL, SinglePartialURL, V> match = searchPortScheme(
+              t, hostHash, searchHost, contextPathHash, searchContextPath, path, prefixEnd, prefixHash,
+              portHash, port, anyPort, schemeHash, scheme, anyScheme
+          );
+          if (match != null) {
+            return match;
+          }
+          if (prefixEnd == -1) {
+            break;
+          }
+          if (prefixEnds != null) {
+            // Precomputed, after the root prefix is the null prefix
+            prefixIndex--;
+            prefixEnd = (prefixIndex == -1) ? -1 : prefixEnds[prefixIndex];
+            prefixHash = (prefixIndex == -1) ? 0 : prefixHashes[prefixIndex];
+            continue;
+          }
+          int newEnd = path.lastIndexOf(Path.SEPARATOR_CHAR, prefixEnd - 2) + 1;
+          for (int i = prefixEnd - 1; i >= newEnd; i--) {
+            prefixHash = (prefixHash - path.charAt(i)) * INVERSE_31;
+          }
+          // After the root prefix, search the null prefix, which also has a hash of zero
+          prefixEnd = (newEnd == 0) ? -1 : newEnd;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Searches by port then {@code null} port, and scheme then {@code null} scheme.
+   */
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> searchPortScheme(
+      Table<V> t,
+      int hostHash,
+      HostAddress host,
+      int contextPathHash,
+      Path contextPath,
+      String path,
+      int prefixEnd,
+      int prefixHash,
+      int portHash,
+      Port port,
+      boolean anyPort,
+      int schemeHash,
+      String scheme,
+      boolean anyScheme
+  ) {
+    for (int p = 0; p < 2; p++) {
+      if (p == 0 ? (port == null) : !anyPort) {
+        continue;
+      }
+      Port searchPort = (p == 0) ? port : null;
+      int searchPortHash = (p == 0) ? portHash : 0;
+      for (int s = 0; s < 2; s++) {
+        if (s == 0 ? (scheme == null) : !anyScheme) {
+          continue;
+        }
+        String searchScheme = (s == 0) ? scheme : null;
+        int hash = hash(hostHash, contextPathHash, prefixHash, searchPortHash, (s == 0) ? schemeHash : 0);
+        int slot = t.find(hash, host, contextPath, path, prefixEnd, searchPort, searchScheme);
+        if (slot != -1) {
+          return t.entries[slot];
+        }
+      }
+    }
+    return null;
+  }
+}
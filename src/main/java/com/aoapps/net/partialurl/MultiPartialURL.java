@@ -1,6 +1,6 @@
 /*
  * ao-net-partial-url - Matches and resolves partial URLs.
- * Copyright (C) 2018, 2019, 2020, 2021, 2022, 2024  AO Industries, Inc.
+ * Copyright (C) 2018, 2019, 2020, 2021, 2022, 2024, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -23,20 +23,21 @@
 
 package com.aoapps.net.partialurl;
 
-import com.aoapps.collections.AoCollections;
 import com.aoapps.lang.math.SafeMath;
 import com.aoapps.net.HostAddress;
 import com.aoapps.net.Path;
 import com.aoapps.net.Port;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collections;
-import java.util.Locale;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
  * A {@link PartialURL} that may contains multiple values for each field matched.
@@ -169,7 +170,12 @@ public class MultiPartialURL extends PartialURL {
     } else if (contextPaths.size() == 1) {
       Path contextPath = contextPaths.iterator().next();
       if (contextPath != Path.ROOT) {
-        toString.append(contextPath);
+        if (prefixes != null && prefixes.size() == 1) {
+          // Braces mark where the context path ends and the prefix begins
+          toString.append('{').append(contextPath).append('}');
+        } else {
+          toString.append(contextPath);
+        }
       }
     } else {
       toString.append('{');
@@ -224,7 +230,7 @@ public class MultiPartialURL extends PartialURL {
   public int hashCode() {
     return Objects.hash(
         schemes,
-        hosts.keySet(),
+        (hosts == null) ? null : hosts.keySet(),
         ports,
         contextPaths,
         prefixes
@@ -255,7 +261,7 @@ public class MultiPartialURL extends PartialURL {
   public SinglePartialURL matches(FieldSource fieldSource) throws MalformedURLException {
     SinglePartialURL match;
     String scheme = null;
-    if (schemes != null && !schemes.contains(scheme = fieldSource.getScheme().toLowerCase(Locale.ROOT))) {
+    if (schemes != null && !schemes.contains(scheme = fieldSource.getSchemeLowerCase())) {
       match = null;
     } else {
       HostAddress host = null;
@@ -330,15 +336,170 @@ public class MultiPartialURL extends PartialURL {
   }
 
   /**
-   * Iterates a single null value.
+   * Gets the number of {@link #getCombinations() combinations}, without generating them.
    */
-  private static final Iterable<?> NULL_ITERABLE = Collections.singleton(null);
+  long getCombinationCount() {
+    return SafeMath.multiply(
+        (hosts        == null ? 1 : hosts.size()),
+        (contextPaths == null ? 1 : contextPaths.size()),
+        (prefixes     == null ? 1 : prefixes.size()),
+        (ports        == null ? 1 : ports.size()),
+        (schemes      == null ? 1 : schemes.size())
+    );
+  }
+
+  /**
+   * Gets an array of the values of a set, or an array of a single {@code null} when the set is {@code null}.
+   */
+  private static <T> T[] arrayOf(Set<T> set, T[] empty) {
+    return (set == null) ? Arrays.copyOf(empty, 1) : set.toArray(empty);
+  }
+
+  /**
+   * A lazy, random-access view of all combinations.  Each combination is decoded from its index by mixed-radix
+   * arithmetic, in the order of {@link MultiPartialURL#getCombinations()}, with the scheme varying fastest.  Only
+   * created when there are not more than {@link Integer#MAX_VALUE} combinations.
+   */
+  private final class Combinations extends AbstractList<SinglePartialURL> implements RandomAccess {
+
+    private final HostAddress[] hostArray = arrayOf((hosts == null) ? null : hosts.keySet(), new HostAddress[0]);
+    private final Path[] contextPathArray = arrayOf(contextPaths, new Path[0]);
+    private final Path[] prefixArray;
+    private final Port[] portArray = arrayOf(ports, new Port[0]);
+    private final String[] schemeArray = arrayOf(schemes, new String[0]);
+    private final int count;
+
+    /**
+     * The index of the {@link #primary} combination.
+     */
+    private final int primaryIndex;
+
+    private Combinations(int count) {
+      this.count = count;
+      prefixArray = arrayOf(prefixes, new Path[0]);
+      // Sort by deepest first for consistency with SinglePartialURL#compareTo
+      Arrays.sort(prefixArray, SinglePartialURL.prefixComparator);
+      int primaryPrefixIndex = 0;
+      if (prefixes != null) {
+        Path primaryPrefix = primary.getPrefix();
+        while (prefixArray[primaryPrefixIndex] != primaryPrefix) {
+          primaryPrefixIndex++;
+        }
+      }
+      primaryIndex = primaryPrefixIndex * portArray.length * schemeArray.length;
+    }
+
+    @Override
+    public SinglePartialURL get(int index) {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException("index: " + index + ", count: " + count);
+      }
+      if (index == primaryIndex) {
+        return primary;
+      }
+      int remaining = index;
+      final String scheme = schemeArray[remaining % schemeArray.length];
+      remaining /= schemeArray.length;
+      final Port port = portArray[remaining % portArray.length];
+      remaining /= portArray.length;
+      final Path prefix = prefixArray[remaining % prefixArray.length];
+      remaining /= prefixArray.length;
+      Path contextPath = contextPathArray[remaining % contextPathArray.length];
+      remaining /= contextPathArray.length;
+      assert remaining < hostArray.length;
+      HostAddress host = hostArray[remaining];
+      return valueOf(scheme, host, port, contextPath, prefix);
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof SinglePartialURL)) {
+        return false;
+      }
+      SinglePartialURL single = (SinglePartialURL) o;
+      return
+          contains(schemes, single.getScheme())
+              && contains((hosts == null) ? null : hosts.keySet(), single.getHost())
+              && contains(ports, single.getPort())
+              && contains(contextPaths, single.getContextPath())
+              && contains(prefixes, single.getPrefix());
+    }
+
+    private <T> boolean contains(Set<T> set, T value) {
+      return (set == null) ? (value == null) : (value != null && set.contains(value));
+    }
+
+    /**
+     * Encodes the index of a combination by mixed-radix arithmetic from the position of each of its fields, the inverse
+     * of {@link #get(int)}.
+     */
+    @Override
+    public int indexOf(Object o) {
+      if (!contains(o)) {
+        return -1;
+      }
+      SinglePartialURL single = (SinglePartialURL) o;
+      int index = indexOf(hostArray, single.getHost());
+      index = index * contextPathArray.length + indexOf(contextPathArray, single.getContextPath());
+      index = index * prefixArray.length + indexOf(prefixArray, single.getPrefix());
+      index = index * portArray.length + indexOf(portArray, single.getPort());
+      return index * schemeArray.length + indexOf(schemeArray, single.getScheme());
+    }
+
+    /**
+     * Finds a value known to be in an array of field values.
+     */
+    private <T> int indexOf(T[] array, T value) {
+      for (int i = 0; i < array.length; i++) {
+        if (Objects.equals(array[i], value)) {
+          return i;
+        }
+      }
+      throw new AssertionError("Value not found: " + value);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+      // Each combination is distinct
+      return indexOf(o);
+    }
+
+    @Override
+    public Iterator<SinglePartialURL> iterator() {
+      return new Iterator<SinglePartialURL>() {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+          return next < count;
+        }
 
-  @SuppressWarnings("unchecked")
-  private static <T> Iterable<T> nullIterable() {
-    return (Iterable<T>) NULL_ITERABLE;
+        @Override
+        public SinglePartialURL next() {
+          if (next >= count) {
+            throw new NoSuchElementException();
+          }
+          return get(next++);
+        }
+      };
+    }
   }
 
+  /**
+   * The lazily created view of all combinations.
+   */
+  private volatile Combinations combinations;
+
   /**
    * {@inheritDoc}
    *
@@ -355,90 +516,29 @@ public class MultiPartialURL extends PartialURL {
    * <p>When there is not more than one {@link #getPrefixes() prefix}, the first value returned
    * will be the {@link #getPrimary() primary}.</p>
    *
-   * <p>TODO: A more space-efficient implementation could generate these on-the-fly.
-   * Or should we just return the generated {@link Set}?
-   * Will depend on how his is used.</p>
-   *
    * <p><b>Implementation Note:</b><br>
-   * This currently generates the full set at the time of method invocation.
-   * This is not a performance-oriented implementation.  Please see
-   * {@link  PartialURLMap} for a fast way to index partial URLs.</p>
+   * This returns an unmodifiable, random-access view that creates each combination on access.  {@link List#size()},
+   * {@link List#get(int)}, and {@link List#contains(java.lang.Object)} are constant-time, {@link List#indexOf(java.lang.Object)}
+   * is linear in the number of values of each field, and no combinations are stored.  Please see {@link  PartialURLMap}
+   * for a fast way to index partial URLs.</p>
+   *
+   * @throws  IllegalStateException  When there are more than {@link Integer#MAX_VALUE} combinations
    *
    * @see  #getPrimary()
    */
   @Override
-  public Iterable<SinglePartialURL> getCombinations() {
-    long combinations = SafeMath.multiply(
-        (hosts        == null ? 1 : hosts.size()),
-        (contextPaths == null ? 1 : contextPaths.size()),
-        (prefixes     == null ? 1 : prefixes.size()),
-        (ports        == null ? 1 : ports.size()),
-        (schemes      == null ? 1 : schemes.size())
-    );
-    if (combinations > Integer.MAX_VALUE) {
-      throw new IllegalStateException("Too many combinations: " + combinations);
-    }
-    final Set<SinglePartialURL> results = AoCollections.newLinkedHashSet((int) combinations);
-
-    Iterable<HostAddress> hostIter;
-    if (hosts == null) {
-      hostIter = nullIterable();
-    } else {
-      hostIter = hosts.keySet();
-    }
-
-    Iterable<Path> contextPathIter;
-    if (contextPaths == null) {
-      contextPathIter = nullIterable();
-    } else {
-      contextPathIter = contextPaths;
-    }
-
-    Iterable<Path> prefixIter;
-    if (prefixes == null) {
-      prefixIter = nullIterable();
-    } else {
-      SortedSet<Path> sortedPrefixes = new TreeSet<>(SinglePartialURL.prefixComparator);
-      sortedPrefixes.addAll(prefixes);
-      prefixIter = sortedPrefixes;
-    }
-
-    Iterable<Port> portIter;
-    if (ports == null) {
-      portIter = nullIterable();
-    } else {
-      portIter = ports;
-    }
-
-    Iterable<String> schemesIter;
-    if (schemes == null) {
-      schemesIter = nullIterable();
-    } else {
-      schemesIter = schemes;
-    }
-
-    for (HostAddress host : hostIter) {
-      for (Path contextPath : contextPathIter) {
-        for (Path prefix : prefixIter) {
-          for (Port port : portIter) {
-            for (String scheme : schemesIter) {
-              SinglePartialURL single = valueOf(scheme, host, port, contextPath, prefix);
-              // Use existing primary object when matches the result
-              if (single.equals(primary)) {
-                single = primary;
-              }
-              if (!results.add(single)) {
-                throw new AssertionError("Unexpected duplicate partial URL combination: " + single);
-              }
-            }
-          }
-        }
+  public List<SinglePartialURL> getCombinations() throws IllegalStateException {
+    Combinations c = combinations;
+    if (c == null) {
+      long count = getCombinationCount();
+      if (count > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Too many combinations: " + count);
       }
+      // Racy single-check: concurrent first accesses may each create an equivalent view
+      c = new Combinations((int) count);
+      combinations = c;
     }
-    if (results.size() != combinations) {
-      throw new AssertionError("Unexpected number of combinations.  Expected " + combinations + ", got " + results.size());
-    }
-    return results;
+    return c;
   }
 
   /**
@@ -457,7 +557,7 @@ public class MultiPartialURL extends PartialURL {
           schemeStr = fieldSource.getScheme();
         } else {
           String sourceSchemeLower;
-          if (fieldSource != null && schemes.contains(sourceSchemeLower = fieldSource.getScheme().toLowerCase(Locale.ROOT))) {
+          if (fieldSource != null && schemes.contains(sourceSchemeLower = fieldSource.getSchemeLowerCase())) {
             schemeStr = sourceSchemeLower;
           } else {
             schemeStr = schemes.iterator().next();
@@ -535,7 +635,7 @@ public class MultiPartialURL extends PartialURL {
           fieldSource != null
               && (prefixes == null || prefixes.size() == 1) // toURL prefix by original order, matches by deepest, but will be same order always when zero or one prefix
               && (match = matches(fieldSource)) != null
-              && !match.toURL(fieldSource).equals(url)
+              && !PartialURLMatch.urlEquals(match.toURL(fieldSource), url)
       ) : "matches().toURL() must be consistent with toURL() when fieldSource provided and less than two prefixes";
       return url;
     } catch (MalformedURLException e) {
@@ -566,7 +666,7 @@ public class MultiPartialURL extends PartialURL {
    * @see  FieldSource#getHost()
    */
   public Set<HostAddress> getHosts() {
-    return hosts.keySet();
+    return (hosts == null) ? null : hosts.keySet();
   }
 
   /**
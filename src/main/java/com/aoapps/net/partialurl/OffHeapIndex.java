@@ -0,0 +1,1289 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+
+/**
+ * A single-level index of {@link SinglePartialURL single partial URLs}, like {@link FlatIndex}, but with the table and
+ * the keys stored outside the heap in direct {@link ByteBuffer byte buffers}.  Only one entry per {@link PartialURL} is
+ * stored on the heap, shared by all of its combinations, so the size of the heap and the work of the garbage collector
+ * do not grow with the number of combinations.
+ *
+ * <p>Each slot of the table is three {@code int}: the composite hash, one plus the offset of the key, and the id of the
+ * entry.  Each key is the five fields, encoded in order: host, contextPath, and prefix as a length ({@code -1} for
+ * {@code null}) followed by the characters; port as the port number ({@code -1} for {@code null}) and the
+ * {@link com.aoapps.net.Protocol} ordinal; then scheme as a length and characters.  Hosts are compared ignoring case,
+ * consistent with {@link HostAddress#equals(java.lang.Object)}.</p>
+ *
+ * <p>Unlike {@link FlatIndex}, the composite hash is computed from the text of the fields instead of their
+ * {@link Object#hashCode()}, so a lookup may be hashed and compared directly from the text of a request, without
+ * creating the objects.</p>
+ *
+ * <p>Entries are reference-counted by the number of keys using them, and their ids are reused once no longer used.
+ * Keys are appended, and space left by removed keys is reclaimed by rebuilding the index once more than half of the
+ * keys are removed.</p>
+ *
+ * <p>An index may also be created over buffers mapped from a {@link SnapshotFile snapshot file}.  The entries are then
+ * read from the file only as first used, each published by a compare-and-set so that concurrent lookups agree on the
+ * entry.  Before the first modification, all entries are read and the buffers are copied, since mapped buffers are
+ * read-only.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This class is not thread safe.  Once published in an immutable snapshot, it may be read concurrently.</p>
+ *
+ * @param  <V>  The type of value stored in each entry
+ */
+final class OffHeapIndex<V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final int INITIAL_KEYS_CAPACITY = 1024;
+
+  private static final int INITIAL_ENTRIES_CAPACITY = 16;
+
+  /**
+   * The highest valid port number.
+   */
+  private static final int MAX_PORT = 65535;
+
+  /**
+   * The longest domain name, excluding any trailing period.
+   */
+  private static final int MAX_DOMAIN_LENGTH = 253;
+
+  /**
+   * The longest label of a domain name.
+   */
+  private static final int MAX_LABEL_LENGTH = 63;
+
+  /**
+   * The number of bytes per slot.
+   */
+  static final int SLOT_BYTES = 3 * Integer.BYTES;
+
+  /**
+   * The multiplicative inverse of 31 modulo 2<sup>32</sup>, used to remove the last character from a
+   * {@link String#hashCode() string hash}.
+   */
+  private static final int INVERSE_31 = 0xBDEF7BDF;
+
+  /**
+   * The off-heap buffers, replaced as a whole when either is reallocated so that concurrent readers always see
+   * consistent buffers.
+   */
+  private static final class Table {
+
+    private final ByteBuffer slots;
+    private final int capacity;
+    private final ByteBuffer keys;
+
+    private Table(ByteBuffer slots, ByteBuffer keys) {
+      this.slots = slots;
+      this.capacity = slots.capacity() / SLOT_BYTES;
+      this.keys = keys;
+    }
+
+    private int getHash(int slot) {
+      return slots.getInt(slot * SLOT_BYTES);
+    }
+
+    /**
+     * Gets one plus the offset of the key in the slot, or {@code 0} for an empty slot.
+     */
+    private int getKey(int slot) {
+      return slots.getInt(slot * SLOT_BYTES + Integer.BYTES);
+    }
+
+    private int getId(int slot) {
+      return slots.getInt(slot * SLOT_BYTES + 2 * Integer.BYTES);
+    }
+
+    private void set(int slot, int hash, int key, int id) {
+      int pos = slot * SLOT_BYTES;
+      slots.putInt(pos, hash);
+      slots.putInt(pos + Integer.BYTES, key);
+      slots.putInt(pos + 2 * Integer.BYTES, id);
+    }
+
+    /**
+     * Finds the empty slot for a hash.
+     */
+    private int findEmpty(int hash) {
+      int mask = capacity - 1;
+      int slot = hash & mask;
+      while (getKey(slot) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * Finds the slot of the given key.
+     *
+     * @param  prefixEnd  The length of the prefix at the beginning of {@code path}, or {@code -1} for a {@code null}
+     *                    prefix
+     *
+     * @return  The slot or {@code -1} when not found
+     *
+     * @see  #keyMatches(java.nio.ByteBuffer, int, java.lang.CharSequence, java.lang.String, java.lang.CharSequence, int, int, int, java.lang.String)
+     */
+    private int find(int hash, CharSequence host, String contextPath, CharSequence path, int prefixEnd, int port, int protocol, String scheme) {
+      int mask = capacity - 1;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        int key = getKey(slot);
+        if (key == 0) {
+          return -1;
+        }
+        if (getHash(slot) == hash && keyMatches(keys, key - 1, host, contextPath, path, prefixEnd, port, protocol, scheme)) {
+          return slot;
+        }
+      }
+    }
+  }
+
+  /**
+   * The number of keys by the {@link #hostHash(java.lang.CharSequence) hash of their host}, excluding the {@code null}
+   * host.  Hosts with the same hash share a count, so a host not in the index may still be searched, but a host in the
+   * index is never skipped.
+   *
+   * <p>Open addressing with linear probing, like the slots of the {@link Table}, where a count of {@code 0} is an
+   * empty slot.</p>
+   */
+  private static final class HostCounts {
+
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+
+    private HostCounts() {
+      hashes = new int[INITIAL_CAPACITY];
+      counts = new int[INITIAL_CAPACITY];
+    }
+
+    private HostCounts(HostCounts other) {
+      hashes = other.hashes.clone();
+      counts = other.counts.clone();
+      size = other.size;
+    }
+
+    /**
+     * Finds the slot of a hash or the empty slot where it would be added.
+     */
+    private int find(int hash) {
+      int mask = counts.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (counts[slot] != 0 && hashes[slot] != hash) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private boolean contains(int hash) {
+      return counts[find(hash)] != 0;
+    }
+
+    private void add(int hash, int count) {
+      int slot = find(hash);
+      if (counts[slot] == 0) {
+        if ((size + 1) * 2 > counts.length) {
+          int[] oldHashes = hashes;
+          int[] oldCounts = counts;
+          hashes = new int[oldCounts.length * 2];
+          counts = new int[oldCounts.length * 2];
+          for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) {
+              int newSlot = find(oldHashes[i]);
+              hashes[newSlot] = oldHashes[i];
+              counts[newSlot] = oldCounts[i];
+            }
+          }
+          slot = find(hash);
+        }
+        hashes[slot] = hash;
+        size++;
+      }
+      counts[slot] += count;
+    }
+
+    /**
+     * Removes one from the count of a hash.  Once no longer counted, the following slots in the same probe sequence are
+     * re-inserted, so they remain reachable by linear probing.
+     */
+    private void remove(int hash) {
+      int slot = find(hash);
+      assert counts[slot] != 0;
+      if (--counts[slot] == 0) {
+        size--;
+        int mask = counts.length - 1;
+        for (int i = (slot + 1) & mask; counts[i] != 0; i = (i + 1) & mask) {
+          int count = counts[i];
+          counts[i] = 0;
+          int newSlot = find(hashes[i]);
+          hashes[newSlot] = hashes[i];
+          counts[newSlot] = count;
+        }
+      }
+    }
+
+    /**
+     * Gets each hash followed by its count.
+     */
+    private int[] toArray() {
+      int[] array = new int[size * 2];
+      int pos = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] != 0) {
+          array[pos++] = hashes[i];
+          array[pos++] = counts[i];
+        }
+      }
+      return array;
+    }
+  }
+
+  private Table table;
+
+  /**
+   * The end of the keys written.
+   */
+  private int keysEnd;
+
+  /**
+   * The number of bytes of removed keys, reclaimed when the index is rebuilt.
+   */
+  private int keysRemoved;
+
+  private int size;
+
+  /**
+   * The number of entries with a {@code null} host, used to skip searching for them.
+   */
+  private int nullHostCount;
+
+  /**
+   * The number of keys by the hash of their host, used to skip searching for a host not in the index.
+   */
+  private final HostCounts hostCounts;
+
+  /**
+   * The length of the longest prefix added.  Not reduced on removal, so may be longer than any remaining prefix.
+   * Used to skip probing deeper prefixes.
+   */
+  private int maxPrefixLength;
+
+  /**
+   * The entries by id, {@code null} when the id is not used or not yet read from the snapshot file.
+   */
+  private AtomicReferenceArray<ImmutableTriple<PartialURL, SinglePartialURL, V>> entries;
+
+  /**
+   * The number of keys using each entry, or {@code null} until counted by {@link #loadAll()}.
+   */
+  private int[] referenceCounts;
+
+  /**
+   * The ids that may be reused, in {@code freeIds[0]} through {@code freeIds[freeCount - 1]}.
+   */
+  private int[] freeIds;
+
+  private int freeCount;
+
+  /**
+   * The number of ids ever assigned, which is one more than the highest id.
+   */
+  private int idCount;
+
+  /**
+   * Reads the entries not yet read from a snapshot file, or {@code null} when all entries have been read.
+   *
+   * @see  #getEntry(int)
+   */
+  private IntFunction<ImmutableTriple<PartialURL, SinglePartialURL, V>> loader;
+
+  /**
+   * Creates a new, empty index.
+   */
+  OffHeapIndex() {
+    table = new Table(allocate(INITIAL_CAPACITY * SLOT_BYTES), allocate(INITIAL_KEYS_CAPACITY));
+    hostCounts = new HostCounts();
+    entries = new AtomicReferenceArray<>(INITIAL_ENTRIES_CAPACITY);
+    referenceCounts = new int[INITIAL_ENTRIES_CAPACITY];
+    freeIds = new int[INITIAL_ENTRIES_CAPACITY];
+  }
+
+  /**
+   * Creates a copy of an index.  The entries are shared, but the buffers are copied.
+   */
+  OffHeapIndex(OffHeapIndex<V> other) {
+    Table t = other.table;
+    table = new Table(copy(t.slots, t.slots.capacity()), copy(t.keys, t.keys.capacity()));
+    keysEnd = other.keysEnd;
+    keysRemoved = other.keysRemoved;
+    size = other.size;
+    nullHostCount = other.nullHostCount;
+    hostCounts = new HostCounts(other.hostCounts);
+    maxPrefixLength = other.maxPrefixLength;
+    entries = copy(other.entries, other.entries.length());
+    // Not yet counted while entries are still to be read from a snapshot file
+    referenceCounts = (other.referenceCounts == null) ? null : other.referenceCounts.clone();
+    freeIds = (other.freeIds == null) ? null : other.freeIds.clone();
+    freeCount = other.freeCount;
+    idCount = other.idCount;
+    loader = other.loader;
+  }
+
+  /**
+   * Creates an index over the buffers read from a {@link SnapshotFile snapshot file}.  The buffers may be read-only.
+   * There are no unused ids, so every id less than {@code idCount} is read by the loader on first use.
+   *
+   * @param  slots       The slots, with a capacity of a power of two slots
+   * @param  keys        The keys, with a capacity of exactly the keys written
+   * @param  hostCounts  Each host hash followed by its count, as given by {@link #getHostCounts()}
+   * @param  loader      Reads the entry for an id
+   */
+  OffHeapIndex(
+      ByteBuffer slots,
+      ByteBuffer keys,
+      int size,
+      int nullHostCount,
+      int[] hostCounts,
+      int maxPrefixLength,
+      int idCount,
+      IntFunction<ImmutableTriple<PartialURL, SinglePartialURL, V>> loader
+  ) {
+    table = new Table(slots, keys);
+    keysEnd = keys.capacity();
+    this.size = size;
+    this.nullHostCount = nullHostCount;
+    this.hostCounts = new HostCounts();
+    for (int i = 0; i < hostCounts.length; i += 2) {
+      this.hostCounts.add(hostCounts[i], hostCounts[i + 1]);
+    }
+    this.maxPrefixLength = maxPrefixLength;
+    entries = new AtomicReferenceArray<>(Math.max(idCount, INITIAL_ENTRIES_CAPACITY));
+    referenceCounts = null;
+    freeIds = null;
+    this.idCount = idCount;
+    this.loader = Objects.requireNonNull(loader);
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Copies a buffer into a new buffer of the given capacity, which must be at least the capacity of the buffer.  The
+   * new buffer has the same byte order, since the bytes are copied as-is.
+   */
+  private static ByteBuffer copy(ByteBuffer buffer, int capacity) {
+    ByteBuffer newBuffer = allocate(capacity).order(buffer.order());
+    ByteBuffer source = buffer.duplicate();
+    source.clear();
+    newBuffer.put(source);
+    newBuffer.clear();
+    return newBuffer;
+  }
+
+  /**
+   * Copies entries into a new array of the given length, which must be at least the length of the entries.
+   */
+  private static <V> AtomicReferenceArray<ImmutableTriple<PartialURL, SinglePartialURL, V>> copy(
+      AtomicReferenceArray<ImmutableTriple<PartialURL, SinglePartialURL, V>> entries,
+      int length
+  ) {
+    AtomicReferenceArray<ImmutableTriple<PartialURL, SinglePartialURL, V>> newEntries = new AtomicReferenceArray<>(length);
+    for (int id = 0, oldLength = entries.length(); id < oldLength; id++) {
+      newEntries.set(id, entries.get(id));
+    }
+    return newEntries;
+  }
+
+  /**
+   * Gets the number of bytes to encode a string.
+   */
+  private static int getEncodedLength(String s) {
+    return Integer.BYTES + ((s == null) ? 0 : (s.length() * Character.BYTES));
+  }
+
+  /**
+   * Encodes a string at the given position.
+   *
+   * @return  The position following the string
+   */
+  private static int putString(ByteBuffer keys, int pos, String s) {
+    if (s == null) {
+      keys.putInt(pos, -1);
+      return pos + Integer.BYTES;
+    }
+    int len = s.length();
+    keys.putInt(pos, len);
+    pos += Integer.BYTES;
+    for (int i = 0; i < len; i++) {
+      keys.putChar(pos, s.charAt(i));
+      pos += Character.BYTES;
+    }
+    return pos;
+  }
+
+  /**
+   * Compares the string encoded at the given position to the beginning of a string.
+   *
+   * @param  len  The number of characters at the beginning of {@code s}, or {@code -1} for {@code null}
+   *
+   * @return  The position following the encoded string or {@code -1} when not equal
+   */
+  private static int matchString(ByteBuffer keys, int pos, CharSequence s, int len, boolean ignoreCase) {
+    if (keys.getInt(pos) != len) {
+      return -1;
+    }
+    pos += Integer.BYTES;
+    for (int i = 0; i < len; i++) {
+      char ch1 = keys.getChar(pos);
+      char ch2 = s.charAt(i);
+      if (
+          ch1 != ch2
+              && !(ignoreCase && Character.toLowerCase(ch1) == Character.toLowerCase(ch2))
+      ) {
+        return -1;
+      }
+      pos += Character.BYTES;
+    }
+    return pos;
+  }
+
+  /**
+   * Checks if the key encoded at the given offset is the given fields.
+   *
+   * @param  host       The text of the host, compared ignoring case, or {@code null}
+   * @param  prefixEnd  The length of the prefix at the beginning of {@code path}, or {@code -1} for a {@code null} prefix
+   * @param  port       The port number or {@code -1} for a {@code null} port
+   * @param  protocol   The {@link com.aoapps.net.Protocol} ordinal of the port
+   */
+  private static boolean keyMatches(ByteBuffer keys, int pos, CharSequence host, String contextPath, CharSequence path, int prefixEnd, int port, int protocol, String scheme) {
+    pos = matchString(keys, pos, host, (host == null) ? -1 : host.length(), true);
+    if (pos == -1) {
+      return false;
+    }
+    pos = matchString(keys, pos, contextPath, (contextPath == null) ? -1 : contextPath.length(), false);
+    if (pos == -1) {
+      return false;
+    }
+    pos = matchString(keys, pos, path, prefixEnd, false);
+    if (pos == -1) {
+      return false;
+    }
+    if (port == -1) {
+      if (keys.getInt(pos) != -1) {
+        return false;
+      }
+    } else if (
+        keys.getInt(pos) != port
+            || keys.getInt(pos + Integer.BYTES) != protocol
+    ) {
+      return false;
+    }
+    pos += 2 * Integer.BYTES;
+    return matchString(keys, pos, scheme, (scheme == null) ? -1 : scheme.length(), false) != -1;
+  }
+
+  /**
+   * Hashes the text of a host, ignoring case consistent with {@link #matchString(java.nio.ByteBuffer, int, java.lang.CharSequence, int, boolean)}.
+   *
+   * @return  The hash or {@code 0} for {@code null}
+   */
+  private static int hostHash(CharSequence host) {
+    if (host == null) {
+      return 0;
+    }
+    int hash = 0;
+    for (int i = 0, len = host.length(); i < len; i++) {
+      hash = 31 * hash + Character.toLowerCase(host.charAt(i));
+    }
+    return hash;
+  }
+
+  /**
+   * Hashes a port.
+   *
+   * @param  port  The port number or {@code -1} for a {@code null} port
+   *
+   * @return  The hash or {@code 0} for a {@code null} port
+   */
+  private static int portHash(int port, int protocol) {
+    return (port == -1) ? 0 : (31 * port + protocol + 1);
+  }
+
+  /**
+   * Combines the hashes of the fields, using {@code 0} for {@code null} fields.
+   */
+  private static int hash(int hostHash, int contextPathHash, int prefixHash, int portHash, int schemeHash) {
+    int hash = hostHash;
+    hash = 31 * hash + contextPathHash;
+    hash = 31 * hash + prefixHash;
+    hash = 31 * hash + portHash;
+    hash = 31 * hash + schemeHash;
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Hashes the fields by their text, so that {@link #search(java.lang.CharSequence, com.aoapps.net.Path, boolean, java.lang.CharSequence, int, int, boolean, java.lang.String, boolean)}
+   * may hash a lookup from text without creating the objects.  The prefix and scheme hashes are
+   * {@link String#hashCode()}.
+   */
+  @SuppressWarnings("deprecation")
+  private static int hash(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    return hash(
+        hostHash(Objects.toString(host, null)),
+        Objects.hashCode(Objects.toString(contextPath, null)),
+        Objects.hashCode(prefix),
+        (port == null) ? 0 : portHash(port.getPort(), port.getProtocol().ordinal()),
+        Objects.hashCode(scheme)
+    );
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int getNullHostCount() {
+    return nullHostCount;
+  }
+
+  /**
+   * Gets the number of keys by the hash of their host, for writing to a {@link SnapshotFile snapshot file}.
+   *
+   * @return  Each host hash followed by its count
+   */
+  int[] getHostCounts() {
+    return hostCounts.toArray();
+  }
+
+  /**
+   * Checks if any key may match the given host, either by the host or by a {@code null} host.  A host with the same
+   * hash as a host in the index may match, but a host that does match is never rejected.
+   *
+   * @param  host  The text of the host, as given by {@link HostAddress#toString()}, or {@code null}
+   */
+  boolean mayMatchHost(CharSequence host) {
+    return nullHostCount != 0 || (host != null && hostCounts.contains(hostHash(host)));
+  }
+
+  int getMaxPrefixLength() {
+    return maxPrefixLength;
+  }
+
+  /**
+   * Gets the number of ids ever assigned, which is one more than the highest id.
+   */
+  int getIdCount() {
+    return idCount;
+  }
+
+  /**
+   * Gets the slots, for writing to a {@link SnapshotFile snapshot file}.
+   *
+   * @return  A read-only view of all slots
+   */
+  ByteBuffer getSlots() {
+    return table.slots.asReadOnlyBuffer().order(table.slots.order()).clear();
+  }
+
+  /**
+   * Gets the keys, for writing to a {@link SnapshotFile snapshot file}.  Includes the space of any removed keys.
+   *
+   * @return  A read-only view of the keys, from the beginning to the end of the keys written
+   */
+  ByteBuffer getKeys() {
+    ByteBuffer keys = table.keys.asReadOnlyBuffer().order(table.keys.order());
+    keys.clear().limit(keysEnd);
+    return keys;
+  }
+
+  /**
+   * Gets the entry for an id, reading it from the snapshot file on first use.
+   *
+   * <p>Reads may be concurrent, so a first use may read the entry more than once.  Only the first read is published,
+   * by a compare-and-set, so all lookups get the same entry.  An entry is never read into an array that has been
+   * replaced by {@link #loadAll()}, so a modification is not overwritten by a concurrent read.</p>
+   *
+   * @return  The entry or {@code null} when the id is not used
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> getEntry(int id) {
+    AtomicReferenceArray<ImmutableTriple<PartialURL, SinglePartialURL, V>> e = entries;
+    ImmutableTriple<PartialURL, SinglePartialURL, V> entry = e.get(id);
+    if (entry == null) {
+      IntFunction<ImmutableTriple<PartialURL, SinglePartialURL, V>> l = loader;
+      if (l != null) {
+        entry = l.apply(id);
+        if (!e.compareAndSet(id, null, entry)) {
+          entry = e.get(id);
+        }
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Prepares for a modification: reads all entries not yet read from the snapshot file, counts the references to each
+   * entry, and copies any read-only buffers.  Does nothing once done or when not created from a snapshot file.
+   */
+  private void loadAll() {
+    IntFunction<ImmutableTriple<PartialURL, SinglePartialURL, V>> l = loader;
+    if (l != null) {
+      // Read into a new array, so concurrent lookups cannot overwrite modified entries
+      AtomicReferenceArray<ImmutableTriple<PartialURL, SinglePartialURL, V>> newEntries =
+          new AtomicReferenceArray<>(entries.length());
+      for (int id = 0; id < idCount; id++) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> entry = entries.get(id);
+        newEntries.set(id, (entry == null) ? l.apply(id) : entry);
+      }
+      int[] newReferenceCounts = new int[newEntries.length()];
+      Table t = table;
+      for (int slot = 0; slot < t.capacity; slot++) {
+        if (t.getKey(slot) != 0) {
+          newReferenceCounts[t.getId(slot)]++;
+        }
+      }
+      entries = newEntries;
+      referenceCounts = newReferenceCounts;
+      freeIds = new int[newEntries.length()];
+      freeCount = 0;
+      loader = null;
+    }
+    Table t = table;
+    if (t.slots.isReadOnly() || t.keys.isReadOnly()) {
+      rebuild(t.capacity, t.keys.capacity());
+    }
+  }
+
+  /**
+   * Adds an entry, which must then be {@link #put(com.aoapps.net.HostAddress, com.aoapps.net.Path, java.lang.String, com.aoapps.net.Port, java.lang.String, int) put}
+   * by at least one key.  The entry is removed once no longer used by any key.
+   *
+   * @return  The id of the entry
+   */
+  int addEntry(ImmutableTriple<PartialURL, SinglePartialURL, V> entry) {
+    Objects.requireNonNull(entry);
+    loadAll();
+    int id;
+    if (freeCount > 0) {
+      id = freeIds[--freeCount];
+    } else {
+      id = idCount++;
+      if (id == entries.length()) {
+        int newLength = entries.length() * 2;
+        entries = copy(entries, newLength);
+        referenceCounts = Arrays.copyOf(referenceCounts, newLength);
+        freeIds = Arrays.copyOf(freeIds, newLength);
+      }
+    }
+    entries.set(id, entry);
+    return id;
+  }
+
+  /**
+   * Replaces an entry, which changes the entry for all keys using it.
+   */
+  void setEntry(int id, ImmutableTriple<PartialURL, SinglePartialURL, V> entry) {
+    loadAll();
+    assert entries.get(id) != null;
+    entries.set(id, Objects.requireNonNull(entry));
+  }
+
+  /**
+   * Removes an entry no longer used by any key.
+   */
+  private void removeEntry(int id) {
+    assert entries.get(id) != null;
+    assert referenceCounts[id] == 0;
+    entries.set(id, null);
+    freeIds[freeCount++] = id;
+  }
+
+  /**
+   * Gets the id of the entry for exactly the given fields.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   *
+   * @return  The id or {@code -1} when not in the index
+   */
+  @SuppressWarnings("deprecation")
+  int getId(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    Table t = table;
+    int slot = t.find(
+        hash(host, contextPath, prefix, port, scheme),
+        Objects.toString(host, null),
+        Objects.toString(contextPath, null),
+        prefix,
+        (prefix == null) ? -1 : prefix.length(),
+        (port == null) ? -1 : port.getPort(),
+        (port == null) ? -1 : port.getProtocol().ordinal(),
+        scheme
+    );
+    return (slot == -1) ? -1 : t.getId(slot);
+  }
+
+  /**
+   * Gets the entry for exactly the given fields.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   *
+   * @return  The entry or {@code null} when not in the index
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> get(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    int id = getId(host, contextPath, prefix, port, scheme);
+    return (id == -1) ? null : getEntry(id);
+  }
+
+  /**
+   * Rebuilds the index into new buffers, reclaiming the space of removed keys.
+   */
+  private void rebuild(int capacity, int keysCapacity) {
+    Table t = table;
+    // Keys are copied as bytes, so keep their byte order
+    Table newTable = new Table(allocate(capacity * SLOT_BYTES), allocate(keysCapacity).order(t.keys.order()));
+    int newKeysEnd = 0;
+    for (int slot = 0; slot < t.capacity; slot++) {
+      int key = t.getKey(slot);
+      if (key != 0) {
+        int pos = key - 1;
+        int len = getKeyLength(t.keys, pos);
+        for (int i = 0; i < len; i++) {
+          newTable.keys.put(newKeysEnd + i, t.keys.get(pos + i));
+        }
+        int hash = t.getHash(slot);
+        newTable.set(newTable.findEmpty(hash), hash, newKeysEnd + 1, t.getId(slot));
+        newKeysEnd += len;
+      }
+    }
+    table = newTable;
+    keysEnd = newKeysEnd;
+    keysRemoved = 0;
+  }
+
+  /**
+   * Gets the number of bytes of the key encoded at the given position.
+   */
+  private static int getKeyLength(ByteBuffer keys, int pos) {
+    int start = pos;
+    // host, contextPath, prefix
+    for (int i = 0; i < 3; i++) {
+      pos += Integer.BYTES + Math.max(keys.getInt(pos), 0) * Character.BYTES;
+    }
+    // port
+    pos += 2 * Integer.BYTES;
+    // scheme
+    pos += Integer.BYTES + Math.max(keys.getInt(pos), 0) * Character.BYTES;
+    return pos - start;
+  }
+
+  /**
+   * Adds the given fields, which must not already be in the index, using the given entry.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   * @param  id      The id of the entry, from {@link #addEntry(org.apache.commons.lang3.tuple.ImmutableTriple)}
+   */
+  @SuppressWarnings("deprecation")
+  void put(HostAddress host, Path contextPath, String prefix, Port port, String scheme, int id) {
+    loadAll();
+    assert entries.get(id) != null;
+    assert getId(host, contextPath, prefix, port, scheme) == -1 : "Already in index";
+    String hostStr = Objects.toString(host, null);
+    String contextPathStr = Objects.toString(contextPath, null);
+    int keyLength =
+        getEncodedLength(hostStr)
+            + getEncodedLength(contextPathStr)
+            + getEncodedLength(prefix)
+            + 2 * Integer.BYTES
+            + getEncodedLength(scheme);
+    Table t = table;
+    if ((size + 1) * 2 > t.capacity || keysEnd + keyLength > t.keys.capacity()) {
+      int capacity = ((size + 1) * 2 > t.capacity) ? (t.capacity * 2) : t.capacity;
+      // At least the initial capacity, since the keys mapped from a snapshot file may be empty
+      int keysCapacity = Math.max(t.keys.capacity(), INITIAL_KEYS_CAPACITY);
+      // Double when more than half used after reclaiming removed keys
+      while ((keysEnd - keysRemoved + keyLength) * 2 > keysCapacity) {
+        keysCapacity *= 2;
+      }
+      rebuild(capacity, keysCapacity);
+      t = table;
+    }
+    int pos = keysEnd;
+    ByteBuffer keys = t.keys;
+    pos = putString(keys, pos, hostStr);
+    pos = putString(keys, pos, contextPathStr);
+    pos = putString(keys, pos, prefix);
+    if (port == null) {
+      keys.putInt(pos, -1);
+      keys.putInt(pos + Integer.BYTES, -1);
+    } else {
+      keys.putInt(pos, port.getPort());
+      keys.putInt(pos + Integer.BYTES, port.getProtocol().ordinal());
+    }
+    pos += 2 * Integer.BYTES;
+    pos = putString(keys, pos, scheme);
+    assert pos - keysEnd == keyLength;
+    int hash = hash(host, contextPath, prefix, port, scheme);
+    t.set(t.findEmpty(hash), hash, keysEnd + 1, id);
+    keysEnd = pos;
+    referenceCounts[id]++;
+    size++;
+    if (host == null) {
+      nullHostCount++;
+    } else {
+      hostCounts.add(hostHash(hostStr), 1);
+    }
+    if (prefix != null && prefix.length() > maxPrefixLength) {
+      maxPrefixLength = prefix.length();
+    }
+  }
+
+  /**
+   * Removes the given fields.  The entry is removed once no longer used by any key.  The following slots in the same
+   * probe sequence are re-inserted, so they remain reachable by linear probing.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null}
+   *
+   * @return  {@code true} when removed or {@code false} when not in the index
+   */
+  @SuppressWarnings("deprecation")
+  boolean remove(HostAddress host, Path contextPath, String prefix, Port port, String scheme) {
+    loadAll();
+    Table t = table;
+    int slot = t.find(
+        hash(host, contextPath, prefix, port, scheme),
+        Objects.toString(host, null),
+        Objects.toString(contextPath, null),
+        prefix,
+        (prefix == null) ? -1 : prefix.length(),
+        (port == null) ? -1 : port.getPort(),
+        (port == null) ? -1 : port.getProtocol().ordinal(),
+        scheme
+    );
+    if (slot == -1) {
+      return false;
+    }
+    int id = t.getId(slot);
+    keysRemoved += getKeyLength(t.keys, t.getKey(slot) - 1);
+    t.set(slot, 0, 0, 0);
+    size--;
+    if (host == null) {
+      nullHostCount--;
+    } else {
+      hostCounts.remove(hostHash(host.toString()));
+    }
+    if (--referenceCounts[id] == 0) {
+      removeEntry(id);
+    }
+    int mask = t.capacity - 1;
+    for (int i = (slot + 1) & mask; t.getKey(i) != 0; i = (i + 1) & mask) {
+      int hash = t.getHash(i);
+      int newSlot = t.findEmpty(hash);
+      if (newSlot != i) {
+        t.set(newSlot, hash, t.getKey(i), t.getId(i));
+        t.set(i, 0, 0, 0);
+      }
+    }
+    if (keysRemoved * 2 > keysEnd && keysEnd > INITIAL_KEYS_CAPACITY) {
+      rebuild(t.capacity, t.keys.capacity());
+    }
+    return true;
+  }
+
+  /**
+   * Finds any entry with a combination matching the given predicate.
+   *
+   * @return  The first matching entry found or {@code null} when none match
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> find(Predicate<? super SinglePartialURL> predicate) {
+    for (int id = 0; id < idCount; id++) {
+      ImmutableTriple<PartialURL, SinglePartialURL, V> entry = getEntry(id);
+      if (entry != null) {
+        for (SinglePartialURL singleUrl : entry.left.getCombinations()) {
+          if (predicate.test(singleUrl)) {
+            return entry;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Searches for the most specific entry matching a lookup, in the same order as
+   * {@link FlatIndex#search(com.aoapps.net.HostAddress, com.aoapps.net.Path, boolean, java.lang.String, com.aoapps.net.Port, boolean, java.lang.String, boolean)}.
+   * The single partial URL of the entry returned is {@code null}.
+   *
+   * @param  host         The host or {@code null} to only search for entries matching any host
+   * @param  contextPath  The contextPath or {@code null} to only search for entries matching any contextPath
+   * @param  anyContextPath  Also search for entries matching any contextPath
+   * @param  port         The port or {@code null} to only search for entries matching any port
+   * @param  anyPort      Also search for entries matching any port
+   * @param  scheme       The scheme or {@code null} to only search for entries matching any scheme
+   * @param  anyScheme    Also search for entries matching any scheme
+   *
+   * @return  The match or {@code null} when not found
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> search(
+      HostAddress host,
+      Path contextPath,
+      boolean anyContextPath,
+      String path,
+      Port port,
+      boolean anyPort,
+      String scheme,
+      boolean anyScheme
+  ) {
+    return search(host, contextPath, anyContextPath, path, null, null, port, anyPort, scheme, anyScheme);
+  }
+
+  /**
+   * Searches for the most specific entry matching a lookup, with the prefixes of the path optionally precomputed by
+   * {@link RequestKey}, so the path is not scanned and hashed on each search.
+   *
+   * @param  prefixEnds    The end of each prefix of the path, in ascending order, or {@code null} to scan the path
+   * @param  prefixHashes  The hash of each prefix of the path, by the same index as {@code prefixEnds}
+   *
+   * @see  #search(com.aoapps.net.HostAddress, com.aoapps.net.Path, boolean, java.lang.String, com.aoapps.net.Port, boolean, java.lang.String, boolean)
+   * @see  RequestKey#getPrefixEnds()
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> search(
+      HostAddress host,
+      Path contextPath,
+      boolean anyContextPath,
+      String path,
+      int[] prefixEnds,
+      int[] prefixHashes,
+      Port port,
+      boolean anyPort,
+      String scheme,
+      boolean anyScheme
+  ) {
+    return search(
+        Objects.toString(host, null),
+        contextPath,
+        anyContextPath,
+        path,
+        prefixEnds,
+        prefixHashes,
+        (port == null) ? -1 : port.getPort(),
+        (port == null) ? -1 : port.getProtocol().ordinal(),
+        anyPort,
+        scheme,
+        anyScheme
+    );
+  }
+
+  /**
+   * Searches for the most specific entry matching a lookup by the text of its host and path, such as read directly
+   * from the bytes of a request by {@link ByteFieldSource} or from a URL by {@link CharSequenceFieldSource}, without
+   * creating the {@link HostAddress}, {@link Path}, or {@link Port}.
+   *
+   * @param  host         The text of the host, as given by {@link HostAddress#toString()} and compared ignoring case,
+   *                      or {@code null} to only search for entries matching any host
+   * @param  contextPath  The contextPath or {@code null} to only search for entries matching any contextPath
+   * @param  anyContextPath  Also search for entries matching any contextPath
+   * @param  path         The text of the path, as given by {@link Path#toString()}, or empty when there is no path
+   * @param  port         The port number or {@code -1} to only search for entries matching any port
+   * @param  protocol     The {@link com.aoapps.net.Protocol} ordinal of the port
+   * @param  anyPort      Also search for entries matching any port
+   * @param  scheme       The scheme or {@code null} to only search for entries matching any scheme
+   * @param  anyScheme    Also search for entries matching any scheme
+   *
+   * @return  The match or {@code null} when not found
+   *
+   * @see  #search(com.aoapps.net.HostAddress, com.aoapps.net.Path, boolean, java.lang.String, com.aoapps.net.Port, boolean, java.lang.String, boolean)
+   */
+  ImmutableTriple<PartialURL, SinglePartialURL, V> search(
+      CharSequence host,
+      Path contextPath,
+      boolean anyContextPath,
+      CharSequence path,
+      int port,
+      int protocol,
+      boolean anyPort,
+      String scheme,
+      boolean anyScheme
+  ) {
+    return search(host, contextPath, anyContextPath, path, null, null, port, protocol, anyPort, scheme, anyScheme);
+  }
+
+  /**
+   * Searches by the text of the host and path, with the prefixes of the path optionally precomputed.
+   *
+   * @param  prefixEnds    The end of each prefix of the path, in ascending order, or {@code null} to scan the path
+   * @param  prefixHashes  The hash of each prefix of the path, by the same index as {@code prefixEnds}
+   *
+   * @see  #search(java.lang.CharSequence, com.aoapps.net.Path, boolean, java.lang.CharSequence, int, int, boolean, java.lang.String, boolean)
+   */
+  @SuppressWarnings("deprecation")
+  private ImmutableTriple<PartialURL, SinglePartialURL, V> search(
+      CharSequence host,
+      Path contextPath,
+      boolean anyContextPath,
+      CharSequence path,
+      int[] prefixEnds,
+      int[] prefixHashes,
+      int port,
+      int protocol,
+      boolean anyPort,
+      String scheme,
+      boolean anyScheme
+  ) {
+    Table t = table;
+    // Find the deepest candidate prefix and its hash
+    int limit = Math.min(path.length(), maxPrefixLength);
+    int deepestIndex;
+    int deepestEnd;
+    int deepestHash;
+    if (prefixEnds != null) {
+      deepestIndex = RequestKey.deepestPrefix(prefixEnds, limit);
+      deepestEnd = (deepestIndex == -1) ? -1 : prefixEnds[deepestIndex];
+      deepestHash = (deepestIndex == -1) ? 0 : prefixHashes[deepestIndex];
+    } else {
+      deepestIndex = -1;
+      deepestEnd = lastIndexOfSeparator(path, limit - 1) + 1;
+      deepestHash = 0;
+      for (int i = 0; i < deepestEnd; i++) {
+        deepestHash = 31 * deepestHash + path.charAt(i);
+      }
+      if (deepestEnd == 0) {
+        // Only the null prefix
+        deepestEnd = -1;
+      }
+    }
+    int portHash = portHash(port, protocol);
+    int schemeHash = Objects.hashCode(scheme);
+    for (int h = 0; h < 2; h++) {
+      CharSequence searchHost;
+      if (h == 0) {
+        if (host == null || !hostCounts.contains(hostHash(host))) {
+          continue;
+        }
+        searchHost = host;
+      } else {
+        if (nullHostCount == 0) {
+          break;
+        }
+        searchHost = null;
+      }
+      int hostHash = hostHash(searchHost);
+      for (int c = 0; c < 2; c++) {
+        String searchContextPath;
+        if (c == 0) {
+          if (contextPath == null) {
+            continue;
+          }
+          searchContextPath = contextPath.toString();
+        } else {
+          if (!anyContextPath) {
+            break;
+          }
+          searchContextPath = null;
+        }
+        int contextPathHash = Objects.hashCode(searchContextPath);
+        // Deepest prefix first, removing one segment at a time from the hash
+        int prefixIndex = deepestIndex;
+        int prefixEnd = deepestEnd;
+        int prefixHash = deepestHash;
+        while (true) {
+          int id = searchPortScheme(
+              t, hostHash, searchHost, contextPathHash, searchContextPath, path, prefixEnd, prefixHash,
+              portHash, port, protocol, anyPort, schemeHash, scheme, anyScheme
+          );
+          if (id != -1) {
+            return getEntry(id);
+          }
+          if (prefixEnd <= 0) {
+            break;
+          }
+          if (prefixEnds != null) {
+            // Precomputed, after the root prefix is the null prefix
+            prefixIndex--;
+            prefixEnd = (prefixIndex == -1) ? -1 : prefixEnds[prefixIndex];
+            prefixHash = (prefixIndex == -1) ? 0 : prefixHashes[prefixIndex];
+            continue;
+          }
+          int newEnd = lastIndexOfSeparator(path, prefixEnd - 2) + 1;
+          for (int i = prefixEnd - 1; i >= newEnd; i--) {
+            prefixHash = (prefixHash - path.charAt(i)) * INVERSE_31;
+          }
+          // Past the root prefix, search the null prefix
+          prefixEnd = (newEnd == 0) ? -1 : newEnd;
+          if (prefixEnd == -1) {
+            prefixHash = 0;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks if a lookup may be searched by the text of its host and path, by
+   * {@link #search(java.lang.CharSequence, com.aoapps.net.Path, boolean, java.lang.CharSequence, int, int, boolean, java.lang.String, boolean)},
+   * with the same result as searching by the {@link HostAddress} and {@link Path} created from the text.  This is the
+   * case when the text is the same as {@link HostAddress#toString()} and {@link Path#toString()} would give, and the
+   * objects could be created without error.  Any other lookup must be searched by the created objects, so that invalid
+   * input is reported the same as by the other {@link PartialURLMap.Storage storage}.
+   *
+   * <p>The host must be a domain name of at most 253 characters, ending in a letter so that it is not an IP address.
+   * Each of its labels, separated by periods, must be 1 to 63 ASCII letters, digits, and hyphens, not beginning or
+   * ending with a hyphen.  The path must be empty or printable ASCII beginning with a slash (/), without any empty,
+   * {@code .}, or {@code ..} segments.  The port must be a valid port number.</p>
+   */
+  static boolean isPlainText(CharSequence host, CharSequence path, int port) {
+    if (port < 1 || port > MAX_PORT) {
+      return false;
+    }
+    int hostLen = host.length();
+    if (hostLen == 0 || hostLen > MAX_DOMAIN_LENGTH) {
+      return false;
+    }
+    int labelStart = 0;
+    for (int i = 0; i <= hostLen; i++) {
+      char ch = (i == hostLen) ? '.' : host.charAt(i);
+      if (ch == '.') {
+        int labelLen = i - labelStart;
+        if (
+            labelLen == 0
+                || labelLen > MAX_LABEL_LENGTH
+                || host.charAt(labelStart) == '-'
+                || host.charAt(i - 1) == '-'
+        ) {
+          return false;
+        }
+        labelStart = i + 1;
+      } else if (
+          !(ch >= 'a' && ch <= 'z')
+              && !(ch >= 'A' && ch <= 'Z')
+              && !(ch >= '0' && ch <= '9')
+              && ch != '-'
+      ) {
+        return false;
+      }
+    }
+    char last = host.charAt(hostLen - 1);
+    if (!(last >= 'a' && last <= 'z') && !(last >= 'A' && last <= 'Z')) {
+      return false;
+    }
+    int pathLen = path.length();
+    if (pathLen > 0) {
+      if (path.charAt(0) != Path.SEPARATOR_CHAR) {
+        return false;
+      }
+      int segmentStart = 1;
+      for (int i = 1; i <= pathLen; i++) {
+        char ch = (i == pathLen) ? Path.SEPARATOR_CHAR : path.charAt(i);
+        if (ch == Path.SEPARATOR_CHAR) {
+          int segmentLen = i - segmentStart;
+          if (
+              // Empty segments, except the end of a path ending in a slash
+              (segmentLen == 0 && i < pathLen)
+                  || (segmentLen == 1 && path.charAt(segmentStart) == '.')
+                  || (segmentLen == 2 && path.charAt(segmentStart) == '.' && path.charAt(segmentStart + 1) == '.')
+          ) {
+            return false;
+          }
+          segmentStart = i + 1;
+        } else if (ch <= ' ' || ch >= 0x7F) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the last slash (/) at or before the given index, like {@link String#lastIndexOf(int, int)}.
+   *
+   * @return  The index or {@code -1} when not found
+   */
+  private static int lastIndexOfSeparator(CharSequence path, int fromIndex) {
+    for (int i = Math.min(fromIndex, path.length() - 1); i >= 0; i--) {
+      if (path.charAt(i) == Path.SEPARATOR_CHAR) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Searches by port then {@code null} port, and scheme then {@code null} scheme.
+   *
+   * @return  The id of the entry or {@code -1} when not found
+   */
+  private static int searchPortScheme(
+      Table t,
+      int hostHash,
+      CharSequence host,
+      int contextPathHash,
+      String contextPath,
+      CharSequence path,
+      int prefixEnd,
+      int prefixHash,
+      int portHash,
+      int port,
+      int protocol,
+      boolean anyPort,
+      int schemeHash,
+      String scheme,
+      boolean anyScheme
+  ) {
+    for (int p = 0; p < 2; p++) {
+      if (p == 0 ? (port == -1) : !anyPort) {
+        continue;
+      }
+      int searchPort = (p == 0) ? port : -1;
+      int searchPortHash = (p == 0) ? portHash : 0;
+      for (int s = 0; s < 2; s++) {
+        if (s == 0 ? (scheme == null) : !anyScheme) {
+          continue;
+        }
+        String searchScheme = (s == 0) ? scheme : null;
+        int hash = hash(hostHash, contextPathHash, prefixHash, searchPortHash, (s == 0) ? schemeHash : 0);
+        int slot = t.find(hash, host, contextPath, path, prefixEnd, searchPort, protocol, searchScheme);
+        if (slot != -1) {
+          return t.getId(slot);
+        }
+      }
+    }
+    return -1;
+  }
+}
@@ -61,6 +61,23 @@ public abstract class PartialURL {
    */
   public static final String HTTPS = "https";
 
+  /**
+   * Converts a scheme to lower-case, returning the {@link #HTTP} and {@link #HTTPS} constants for those schemes in any
+   * case, so the common schemes are shared and compared by identity.
+   *
+   * @see  FieldSource#getSchemeLowerCase()
+   */
+  static String toLowerCaseScheme(String scheme) {
+    if (HTTPS.equalsIgnoreCase(scheme)) {
+      return HTTPS;
+    }
+    if (HTTP.equalsIgnoreCase(scheme)) {
+      return HTTP;
+    }
+    // Returns the same string when already lower-case
+    return scheme.toLowerCase(Locale.ROOT);
+  }
+
   /**
    * The character used to represent request-value substitutions.
    *
@@ -118,7 +135,7 @@ public abstract class PartialURL {
       return DEFAULT;
     } else {
       return new SinglePartialURL(
-          (scheme == null) ? null : scheme.toLowerCase(Locale.ROOT),
+          (scheme == null) ? null : toLowerCaseScheme(scheme),
           host,
           port,
           contextPath,
@@ -169,7 +186,7 @@ public abstract class PartialURL {
     } else {
       Set<String> schemesLower = new LinkedHashSet<>();
       for (String scheme : IterableUtils.filteredIterable(schemes, NotNullPredicate.notNullPredicate())) {
-        schemesLower.add(scheme.toLowerCase(Locale.ROOT));
+        schemesLower.add(toLowerCaseScheme(scheme));
       }
       schemeSet = AoCollections.optimalUnmodifiableSet(schemesLower);
       if (schemeSet.isEmpty()) {
@@ -295,6 +312,22 @@ public abstract class PartialURL {
     return PartialURL.valueOf(Arrays.asList(prefixes));
   }
 
+  /**
+   * Parses a partial URL from the syntax produced by {@link #toString()}, such as
+   * {@code {http,https}://{aoindustries.com,www.aoindustries.com}:*{/context}/prefix/}.
+   * Each field is a single value, a set of values in braces, or a wildcard.
+   *
+   * <p>When parsing many partial URLs, {@link PartialURLMap#load(java.io.Reader, java.util.function.Function)} shares
+   * the hosts, ports, and paths between them.</p>
+   *
+   * @throws  MalformedURLException  When the syntax is invalid or any field is not valid
+   *
+   * @see  PartialURLParser
+   */
+  public static PartialURL parse(CharSequence partialUrl) throws MalformedURLException {
+    return new PartialURLParser().parse(partialUrl);
+  }
+
   /**
    * Creates a new partial URL.
    */
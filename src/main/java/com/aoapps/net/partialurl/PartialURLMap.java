@@ -1,6 +1,6 @@
 /*
  * ao-net-partial-url - Matches and resolves partial URLs.
- * Copyright (C) 2018, 2019, 2020, 2021, 2022, 2024  AO Industries, Inc.
+ * Copyright (C) 2018, 2019, 2020, 2021, 2022, 2024, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -23,24 +23,38 @@
 
 package com.aoapps.net.partialurl;
 
-import com.aoapps.collections.MinimalMap;
 import com.aoapps.net.HostAddress;
 import com.aoapps.net.Path;
 import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import org.apache.commons.lang3.StringUtils;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
-import org.apache.commons.lang3.tuple.MutablePair;
 
 /**
  * Maps {@link PartialURL partial URLs} to arbitrary values and provides fast lookups.
@@ -56,95 +70,1022 @@ public class PartialURLMap<V> {
     ASSERTIONS_ENABLED = assertsEnabled;
   }
 
+  /**
+   * The strategies available for coordinating concurrent access to a {@link PartialURLMap}.
+   */
+  public enum Concurrency {
+    /**
+     * Lookups hold the read lock of a {@link ReentrantReadWriteLock}, while modifications update the index in-place
+     * while holding the write lock.
+     *
+     * <p>This is the default and is best suited to maps that are modified frequently.</p>
+     */
+    READ_WRITE_LOCK,
+
+    /**
+     * Lookups dereference a volatile, immutable snapshot of the index without any locking.  Modifications copy the
+     * parts of the index they change then atomically publish a new snapshot.
+     *
+     * <p>This is best suited to read-mostly maps, such as those only modified during configuration reloads.  A lookup
+     * writes no shared memory, which avoids cache line contention between processors.  Every modification copies at
+     * least the top-level host index, so is more expensive than {@link #READ_WRITE_LOCK}.</p>
+     *
+     * <p>Since a new snapshot is only published once complete, a modification that fails leaves the map unchanged.</p>
+     */
+    COPY_ON_WRITE
+  }
+
+  /**
+   * The structures available for storing the index of a {@link PartialURLMap}.
+   */
+  public enum Storage {
+    /**
+     * The index is nested by host, contextPath, prefix, port, and then scheme, with prefixes in a radix trie.
+     *
+     * <p>This is the default.  Modifications under {@link Concurrency#COPY_ON_WRITE} only copy the parts of the index
+     * they change.</p>
+     */
+    NESTED,
+
+    /**
+     * The index is a single open-addressed table keyed by a composite hash of all five fields.  A lookup directly
+     * probes each candidate combination of fields, deepest prefix first, instead of following a chain of nested maps.
+     * This has better cache locality and much less overhead per entry than {@link #NESTED}.
+     *
+     * <p>Every modification under {@link Concurrency#COPY_ON_WRITE} copies the entire table, so use
+     * {@link PartialURLMap#putAll(java.util.Map)} or {@link PartialURLMap#setAll(java.util.Map)} to make many
+     * changes at once.  Adding a factorized {@link MultiPartialURL} checks every entry of the table for
+     * conflicts.</p>
+     */
+    FLATTENED,
+
+    /**
+     * Like {@link #FLATTENED}, but the table and its keys are stored outside the heap, in direct
+     * {@link java.nio.ByteBuffer byte buffers}.  Only one entry per {@link PartialURL} is kept on the heap, shared by
+     * all of its combinations, so the heap and garbage collection do not grow with the number of combinations.
+     *
+     * <p>Lookups compare the fields against the encoded keys, so are slower than {@link #FLATTENED}, and the
+     * {@link SinglePartialURL} of each match is resolved by {@link PartialURL#matches(com.aoapps.net.partialurl.FieldSource)}.
+     * As with {@link #FLATTENED}, every modification under {@link Concurrency#COPY_ON_WRITE} copies the entire table.
+     * The direct memory is released once the buffers are garbage collected, so may need a larger
+     * {@code -XX:MaxDirectMemorySize} under frequent modification.</p>
+     */
+    OFF_HEAP
+  }
+
+  /**
+   * Converts values to and from the ids stored in a snapshot file.
+   *
+   * @see  #writeSnapshot(java.nio.file.Path, com.aoapps.net.partialurl.PartialURLMap.ValueCodec)
+   * @see  #mapSnapshot(java.nio.file.Path, com.aoapps.net.partialurl.PartialURLMap.Concurrency, com.aoapps.net.partialurl.PartialURLMap.ValueCodec)
+   */
+  public interface ValueCodec<V> {
+    /**
+     * Gets the id stored for a value, which may be {@code null}.
+     */
+    int encode(V value);
+
+    /**
+     * Gets the value for an id previously returned by {@link #encode(java.lang.Object)}.
+     *
+     * <p>Values are decoded as first used, possibly during a lookup and possibly more than once for the same id, so
+     * this should be fast and must be thread safe.</p>
+     */
+    V decode(int id);
+  }
+
+  private final Concurrency concurrency;
+
+  private final Storage storage;
+
   // Java 1.8: StampedLock since not needing reentrant
   private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
   private final Lock readLock = readWriteLock.readLock();
   private final Lock writeLock = readWriteLock.writeLock();
 
-  private final Map<
-      HostAddress,
-      Map<
-          Path,
-          MutablePair<
-              Integer,
-              Map<
-                  String,
-                  Map<
-                      Port,
-                      Map<
-                          String,
-                          ImmutableTriple<
-                              PartialURL,
-                              SinglePartialURL,
-                              V
-                          >
-                      >
-                  >
-              >
-          >
-      >
-      > index = new HashMap<>();
-
-  /**
-   * For sequential implementation used for assertions only.
-   *
-   * @see  #getSequential(com.aoapps.net.partialurl.FieldSource)
-   */
-  private final SortedMap<SinglePartialURL, ImmutablePair<PartialURL, V>> sequential = ASSERTIONS_ENABLED ? new TreeMap<>() : null;
+  /**
+   * Serializes modifications, so that a modification may build a new snapshot from the current snapshot without holding
+   * {@link #writeLock}.  Always acquired before {@link #writeLock}.
+   */
+  private final Lock updateLock = new ReentrantLock();
+
+  /**
+   * A {@link MultiPartialURL} with at least this many {@link MultiPartialURL#getCombinations() combinations} is
+   * indexed by the set of values of each field, instead of by every combination.
+   *
+   * @see  FactorizedEntry
+   */
+  private static final long FACTORIZE_MIN_COMBINATIONS = 32;
+
+  /**
+   * The size of the buffer used to read lines when the {@link Reader} given to
+   * {@link #load(java.io.Reader, java.util.function.Function)} is not already buffered.
+   */
+  private static final int LOAD_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Ranks a match by the specificity of its fields, consistent with the search order of
+   * {@link #getIndexed(com.aoapps.net.partialurl.PartialURLMap.Snapshot, com.aoapps.net.partialurl.FieldSource)} and
+   * with {@link SinglePartialURL#compareTo(com.aoapps.net.partialurl.SinglePartialURL)} for matches of the same lookup.
+   * A higher rank is more specific.
+   *
+   * @param  prefixLength  The length of the matching prefix or {@code -1} for a {@code null} prefix
+   */
+  private static long rank(boolean host, boolean contextPath, int prefixLength, boolean port, boolean scheme) {
+    return
+        (host ? (1L << 35) : 0)
+            | (contextPath ? (1L << 34) : 0)
+            | ((prefixLength + 1L) << 2)
+            | (port ? 2 : 0)
+            | (scheme ? 1 : 0);
+  }
+
+  /**
+   * Ranks a single partial URL that matches a lookup.
+   *
+   * @see  #rank(boolean, boolean, int, boolean, boolean)
+   */
+  private static long rank(SinglePartialURL singleUrl) {
+    Path prefix = singleUrl.getPrefix();
+    return rank(
+        singleUrl.getHost() != null,
+        singleUrl.getContextPath() != null,
+        (prefix == null) ? -1 : prefix.toString().length(),
+        singleUrl.getPort() != null,
+        singleUrl.getScheme() != null
+    );
+  }
+
+  /**
+   * Iterates the given set or a single {@code null} when the set is {@code null}.
+   */
+  private static <T> Iterable<T> orNull(Set<T> set) {
+    return (set == null) ? Collections.singleton(null) : set;
+  }
+
+  /**
+   * A {@link MultiPartialURL} indexed by the set of values of each field instead of by every combination, so memory
+   * is proportional to the sum of the set sizes instead of their product.  Entries are listed once per host.
+   *
+   * <p>The matching {@link SinglePartialURL} is not stored, and is found on lookup by
+   * {@link MultiPartialURL#matches(com.aoapps.net.partialurl.FieldSource)}, which also provides the
+   * {@link MultiPartialURL#getPrimary() primary} identity guarantee.</p>
+   */
+  private static final class FactorizedEntry<V> {
+
+    private final MultiPartialURL multiUrl;
+    private final Set<String> schemes;
+    private final Set<Port> ports;
+    private final Set<Path> contextPaths;
+
+    /**
+     * The prefixes, for finding the deepest matching prefix in a single pass, or {@code null} to match all paths.
+     */
+    private final PrefixTrie<Boolean> prefixes;
+
+    /**
+     * The entry returned by lookups, with a {@code null} single partial URL.
+     */
+    private final ImmutableTriple<PartialURL, SinglePartialURL, V> entry;
+
+    private FactorizedEntry(MultiPartialURL multiUrl, V value) {
+      this.multiUrl = multiUrl;
+      this.schemes = multiUrl.getSchemes();
+      this.ports = multiUrl.getPorts();
+      this.contextPaths = multiUrl.getContextPaths();
+      Set<Path> prefixSet = multiUrl.getPrefixes();
+      if (prefixSet == null) {
+        this.prefixes = null;
+      } else {
+        this.prefixes = new PrefixTrie<>();
+        for (Path prefix : prefixSet) {
+          @SuppressWarnings("deprecation")
+          String prefixStr = prefix.toString();
+          this.prefixes.modifiableValue(prefixStr, () -> Boolean.TRUE, UnaryOperator.identity(), null);
+        }
+      }
+      this.entry = ImmutableTriple.of(multiUrl, null, value);
+    }
+
+    /**
+     * Ranks this entry for a lookup.  Does not check the host, which is implied by the list the entry is found in.
+     *
+     * @return  The rank or {@code -1} when does not match
+     *
+     * @see  #rank(boolean, boolean, int, boolean, boolean)
+     */
+    private long rank(boolean host, String scheme, Port port, Path contextPath, String pathStr) {
+      if (
+          (schemes != null && !schemes.contains(scheme))
+              || (ports != null && !ports.contains(port))
+              || (contextPaths != null && !contextPaths.contains(contextPath))
+      ) {
+        return -1;
+      }
+      int prefixLength;
+      if (prefixes == null) {
+        prefixLength = -1;
+      } else {
+        // Find the deepest matching prefix
+        prefixLength = -1;
+        PrefixTrie<Boolean> node = prefixes;
+        int pos = 0;
+        while ((node = node.getChild(pathStr, pos)) != null) {
+          pos += node.getLabelLength();
+          if (node.getValue() != null) {
+            prefixLength = pos;
+          }
+        }
+        if (prefixLength == -1) {
+          return -1;
+        }
+      }
+      return PartialURLMap.rank(host, contextPaths != null, prefixLength, ports != null, schemes != null);
+    }
+
+    /**
+     * Checks if the given single partial URL is one of the combinations of this entry.  Does not check the host.
+     */
+    private boolean contains(SinglePartialURL singleUrl) {
+      return
+          contains(schemes, singleUrl.getScheme())
+              && contains(ports, singleUrl.getPort())
+              && contains(contextPaths, singleUrl.getContextPath())
+              && contains(multiUrl.getPrefixes(), singleUrl.getPrefix());
+    }
+
+    private static <T> boolean contains(Set<T> set, T value) {
+      return (set == null) ? (value == null) : (value != null && set.contains(value));
+    }
+
+    /**
+     * Checks if any combination of this entry is also a combination of another entry.  Does not check the host.
+     */
+    private boolean intersects(FactorizedEntry<?> other) {
+      return
+          intersects(schemes, other.schemes)
+              && intersects(ports, other.ports)
+              && intersects(contextPaths, other.contextPaths)
+              && intersects(multiUrl.getPrefixes(), other.multiUrl.getPrefixes());
+    }
+
+    private static boolean intersects(Set<?> set1, Set<?> set2) {
+      return (set1 == null) ? (set2 == null) : (set2 != null && !Collections.disjoint(set1, set2));
+    }
+  }
+
+  /**
+   * The index along with the sequential implementation used for assertions.
+   *
+   * <p>Under {@link Concurrency#COPY_ON_WRITE}, a snapshot is never modified once published.  Otherwise, a snapshot
+   * built by {@link #putAll(java.util.Map)} shares the unmodified parts of the index with the snapshot it replaces,
+   * which is no longer used once replaced.</p>
+   */
+  private static final class Snapshot<V> {
+
+    /**
+     * The nested index.  Below the top level, which typically has many hosts, each level is a {@link CompactMap}, since
+     * most have only one or a few entries.
+     */
+    private final Map<
+        HostAddress,
+        Map<
+            Path,
+            PrefixTrie<
+                Map<
+                    Port,
+                    Map<
+                        String,
+                        ImmutableTriple<
+                            PartialURL,
+                            SinglePartialURL,
+                            V
+                        >
+                    >
+                >
+            >
+        >
+        > index;
+
+    /**
+     * The flattened index under {@link Storage#FLATTENED}, used instead of {@link #index}, otherwise {@code null}.
+     */
+    private final FlatIndex<V> flat;
+
+    /**
+     * The off-heap index under {@link Storage#OFF_HEAP}, used instead of {@link #index}, otherwise {@code null}.
+     */
+    private final OffHeapIndex<V> offHeap;
+
+    /**
+     * The {@link FactorizedEntry factorized entries} by host, including {@code null} for entries matching any host.
+     * Searched in addition to {@link #index}, taking the most specific match of either.
+     */
+    private final Map<HostAddress, List<FactorizedEntry<V>>> factorized;
+
+    /**
+     * For sequential implementation used for assertions only.
+     *
+     * @see  #getSequential(com.aoapps.net.partialurl.PartialURLMap.Snapshot, com.aoapps.net.partialurl.FieldSource)
+     */
+    private final SortedMap<SinglePartialURL, ImmutablePair<PartialURL, V>> sequential;
+
+    /**
+     * The number of index entries by scheme, port, and contextPath, including {@code null} for entries matching any
+     * value.  Used to reject lookups early, before searching the index.
+     *
+     * @see  #mayMatch(java.util.Map, java.lang.Object)
+     */
+    private final Map<String, Integer> schemeCounts;
+    private final Map<Port, Integer> portCounts;
+    private final Map<Path, Integer> contextPathCounts;
+
+    /**
+     * Creates a new, empty snapshot.
+     */
+    private Snapshot(Storage storage) {
+      this.index = new HashMap<>();
+      this.flat = (storage == Storage.FLATTENED) ? new FlatIndex<>() : null;
+      this.offHeap = (storage == Storage.OFF_HEAP) ? new OffHeapIndex<>() : null;
+      this.factorized = new HashMap<>();
+      this.sequential = ASSERTIONS_ENABLED ? new TreeMap<>() : null;
+      this.schemeCounts = new HashMap<>();
+      this.portCounts = new HashMap<>();
+      this.contextPathCounts = new HashMap<>();
+    }
+
+    /**
+     * Creates a copy of a snapshot.  Only the top level of the index is copied, the remainder is shared and must be
+     * copied before being modified.  The flattened and off-heap indexes are copied entirely.
+     */
+    private Snapshot(Snapshot<V> other) {
+      this.index = new HashMap<>(other.index);
+      this.flat = (other.flat == null) ? null : new FlatIndex<>(other.flat);
+      this.offHeap = (other.offHeap == null) ? null : new OffHeapIndex<>(other.offHeap);
+      this.factorized = new HashMap<>(other.factorized);
+      this.sequential = ASSERTIONS_ENABLED ? new TreeMap<>(other.sequential) : null;
+      this.schemeCounts = new HashMap<>(other.schemeCounts);
+      this.portCounts = new HashMap<>(other.portCounts);
+      this.contextPathCounts = new HashMap<>(other.contextPathCounts);
+    }
+
+    /**
+     * Creates a snapshot from the contents of a snapshot file.
+     */
+    private Snapshot(SnapshotFile.Contents<V> contents) {
+      this.index = new HashMap<>();
+      this.flat = null;
+      this.offHeap = contents.getOffHeap();
+      this.factorized = new HashMap<>();
+      for (Map.Entry<MultiPartialURL, V> entry : contents.getFactorized().entrySet()) {
+        FactorizedEntry<V> factorizedEntry = new FactorizedEntry<>(entry.getKey(), entry.getValue());
+        for (HostAddress host : orNull(entry.getKey().getHosts())) {
+          factorized.computeIfAbsent(host, h -> new ArrayList<>()).add(factorizedEntry);
+        }
+      }
+      if (ASSERTIONS_ENABLED) {
+        // Reads every entry, which is only done with assertions enabled
+        this.sequential = new TreeMap<>();
+        for (int id = 0, idCount = offHeap.getIdCount(); id < idCount; id++) {
+          ImmutableTriple<PartialURL, SinglePartialURL, V> entry = offHeap.getEntry(id);
+          for (SinglePartialURL singleUrl : entry.left.getCombinations()) {
+            sequential.put(singleUrl, ImmutablePair.of(entry.left, entry.right));
+          }
+        }
+        for (Map.Entry<MultiPartialURL, V> entry : contents.getFactorized().entrySet()) {
+          for (SinglePartialURL singleUrl : entry.getKey().getCombinations()) {
+            sequential.put(singleUrl, ImmutablePair.of(entry.getKey(), entry.getValue()));
+          }
+        }
+      } else {
+        this.sequential = null;
+      }
+      this.schemeCounts = contents.getSchemeCounts();
+      this.portCounts = contents.getPortCounts();
+      this.contextPathCounts = contents.getContextPathCounts();
+    }
+  }
+
+  /**
+   * The current snapshot.  Modified in-place under {@link Concurrency#READ_WRITE_LOCK}, or replaced under
+   * {@link Concurrency#COPY_ON_WRITE}.
+   */
+  private volatile Snapshot<V> snapshot;
+
+  /**
+   * The partial URLs added to this map and their values, used to find the changes made by
+   * {@link #setAll(java.util.Map)}.  Not used by lookups.  Must be holding updateLock.
+   *
+   * @see  #getPartialUrls()
+   */
+  private final Map<PartialURL, V> partialUrls = new HashMap<>();
+
+  /**
+   * Whether {@link #partialUrls} is yet to be read from the index, when this map was mapped from a snapshot file.
+   * Must be holding updateLock.
+   */
+  private boolean partialUrlsPending;
+
+  /**
+   * Incremented after each modification, once the modification is visible to lookups.
+   *
+   * @see  #getVersion()
+   */
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Creates a new map using {@link Concurrency#READ_WRITE_LOCK}.
+   */
+  public PartialURLMap() {
+    this(Concurrency.READ_WRITE_LOCK);
+  }
+
+  /**
+   * Creates a new map using the given concurrency strategy and {@link Storage#NESTED}.
+   */
+  public PartialURLMap(Concurrency concurrency) {
+    this(concurrency, Storage.NESTED);
+  }
+
+  /**
+   * Creates a new map using the given concurrency strategy and index storage.
+   */
+  public PartialURLMap(Concurrency concurrency, Storage storage) {
+    this.concurrency = Objects.requireNonNull(concurrency);
+    this.storage = Objects.requireNonNull(storage);
+    this.snapshot = new Snapshot<>(storage);
+  }
+
+  /**
+   * Maps a snapshot file written by {@link #writeSnapshot(java.nio.file.Path, com.aoapps.net.partialurl.PartialURLMap.ValueCodec)}.
+   * The map is ready for lookups once the file is mapped, without adding each partial URL.
+   *
+   * <p>The returned map uses {@link Storage#OFF_HEAP}, with the table and keys used directly from the read-only mapped
+   * file.  Each partial URL and value is only read from the file on its first match.  The map may be modified, but the
+   * first modification reads every partial URL and copies the table from the file, so takes about as long as adding
+   * all the partial URLs.  The file itself is never modified.</p>
+   *
+   * <p>The file remains mapped until the map is garbage collected.  To update a snapshot while it may be mapped,
+   * write a new snapshot, which replaces the file without modifying the mapped content.</p>
+   *
+   * @param  codec  Decodes the values from their ids, the same as used to write the snapshot
+   *
+   * @throws  IOException  When unable to map the file or the file is not a valid snapshot
+   */
+  public static <V> PartialURLMap<V> mapSnapshot(java.nio.file.Path file, Concurrency concurrency, ValueCodec<V> codec) throws IOException {
+    SnapshotFile.Contents<V> contents = SnapshotFile.read(file, codec);
+    PartialURLMap<V> map = new PartialURLMap<>(concurrency, Storage.OFF_HEAP);
+    map.updateLock.lock();
+    try {
+      map.snapshot = new Snapshot<>(contents);
+      map.partialUrlsPending = true;
+    } finally {
+      map.updateLock.unlock();
+    }
+    return map;
+  }
+
+  /**
+   * Writes the index of this map to a snapshot file, to be mapped by
+   * {@link #mapSnapshot(java.nio.file.Path, com.aoapps.net.partialurl.PartialURLMap.Concurrency, com.aoapps.net.partialurl.PartialURLMap.ValueCodec)}.
+   * Values are stored as the ids from the codec.
+   *
+   * <p>The file is written to a temporary file in the same directory then moved into place, so any existing file
+   * mapped by another map is replaced without being modified.</p>
+   *
+   * <p><b>Implementation Note:</b><br>
+   * A compact {@link Storage#OFF_HEAP} index is built from the entries of this map, regardless of
+   * {@link #getStorage() its storage}, which takes about as long as adding all the entries to a new map.  Modifications
+   * are blocked while the index is built, but lookups are not.</p>
+   *
+   * @param  codec  Encodes the values to their ids
+   *
+   * @throws  IOException  When unable to write the file or the index is too large for a snapshot
+   */
+  public void writeSnapshot(java.nio.file.Path file, ValueCodec<V> codec) throws IOException {
+    Snapshot<V> compiled = new Snapshot<>(Storage.OFF_HEAP);
+    Map<MultiPartialURL, V> factorizedUrls = new LinkedHashMap<>();
+    updateLock.lock();
+    try {
+      for (Map.Entry<PartialURL, V> entry : getPartialUrls().entrySet()) {
+        PartialURL partialUrl = entry.getKey();
+        // Not yet published, so modified in-place
+        putPartialUrl(compiled, null, partialUrl, entry.getValue());
+        if (isFactorized(partialUrl)) {
+          factorizedUrls.put((MultiPartialURL) partialUrl, entry.getValue());
+        }
+      }
+    } finally {
+      updateLock.unlock();
+    }
+    SnapshotFile.write(
+        file,
+        new SnapshotFile.Contents<>(compiled.offHeap, factorizedUrls, compiled.schemeCounts, compiled.portCounts, compiled.contextPathCounts),
+        codec
+    );
+  }
+
+  /**
+   * Gets the partial URLs added to this map and their values, first reading them from the index when this map was
+   * mapped from a snapshot file.
+   * Must be holding updateLock already.
+   */
+  private Map<PartialURL, V> getPartialUrls() {
+    if (partialUrlsPending) {
+      // Not modified while holding updateLock, so may be read without holding readLock
+      Snapshot<V> current = snapshot;
+      OffHeapIndex<V> offHeap = current.offHeap;
+      for (int id = 0, idCount = offHeap.getIdCount(); id < idCount; id++) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> entry = offHeap.getEntry(id);
+        if (entry != null) {
+          partialUrls.put(entry.left, entry.right);
+        }
+      }
+      for (List<FactorizedEntry<V>> factorizedList : current.factorized.values()) {
+        for (FactorizedEntry<V> factorizedEntry : factorizedList) {
+          partialUrls.put(factorizedEntry.multiUrl, factorizedEntry.entry.right);
+        }
+      }
+      partialUrlsPending = false;
+    }
+    return partialUrls;
+  }
+
+  /**
+   * Gets the concurrency strategy used by this map.
+   */
+  public Concurrency getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * Gets the index storage used by this map.
+   */
+  public Storage getStorage() {
+    return storage;
+  }
+
+  /**
+   * Gets the version of this map, which changes after each modification.  A lookup performed after reading a version is
+   * consistent with at least that version.  When the version is unchanged after the lookup, the lookup is consistent
+   * with exactly that version.
+   *
+   * @see  PartialURLMapCache
+   */
+  long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Gets a child of the index that may be modified by the current update, creating it when missing.
+   *
+   * @param  copied  The set of objects created by the current update, by identity, or {@code null} to modify in-place.
+   *                 When non-null, an existing child not created by the current update is first copied and replaced in
+   *                 the parent, leaving any published snapshot unchanged.  The parent must already be modifiable.
+   */
+  private static <K, C> C modifiableChild(
+      Map<K, C> parent,
+      K key,
+      Supplier<? extends C> create,
+      UnaryOperator<C> copy,
+      Set<Object> copied
+  ) {
+    C child = parent.get(key);
+    if (child == null) {
+      child = create.get();
+    } else if (copied == null || copied.contains(child)) {
+      return child;
+    } else {
+      child = copy.apply(child);
+    }
+    if (copied != null) {
+      copied.add(child);
+    }
+    parent.put(key, child);
+    return child;
+  }
 
   /**
    * Adds a new partial URL to this map while checking for conflicts.
    *
-   * <p>TODO: Use {@link MinimalMap} in the index?</p>
+   * <p><b>Implementation Note:</b><br>
+   * When a conflict is found under {@link Concurrency#READ_WRITE_LOCK}, any combinations already added to the index are
+   * removed before the write lock is released.  Under {@link Concurrency#COPY_ON_WRITE}, the new index is not
+   * published.  Either way, the map is unchanged.
+   * Use {@link #putAll(java.util.Map)} to add many entries at once.</p>
+   *
+   * @throws  IllegalStateException  If the partial URL conflicts with an existing entry.
+   */
+  public void put(PartialURL partialUrl, V value) throws IllegalStateException {
+    updateLock.lock();
+    try {
+      boolean existing = getPartialUrls().containsKey(partialUrl);
+      modify((target, copied) -> {
+        try {
+          putPartialUrl(target, copied, partialUrl, value);
+        } catch (IllegalStateException e) {
+          if (copied == null && !existing) {
+            // Roll-back any combinations added in-place before the conflict
+            removePartialUrl(target, null, partialUrl);
+          }
+          throw e;
+        }
+      });
+      partialUrls.put(partialUrl, value);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Modifies the current snapshot.
+   */
+  @FunctionalInterface
+  private interface SnapshotModifier<V> {
+    /**
+     * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+     */
+    void modify(Snapshot<V> snapshot, Set<Object> copied);
+  }
+
+  /**
+   * Modifies the current snapshot in-place under the write lock, or modifies and publishes a copy under
+   * {@link Concurrency#COPY_ON_WRITE}.
+   * Must be holding updateLock already.
+   */
+  private void modify(SnapshotModifier<V> modifier) {
+    if (concurrency == Concurrency.COPY_ON_WRITE) {
+      Snapshot<V> updated = new Snapshot<>(snapshot);
+      modifier.modify(updated, Collections.newSetFromMap(new IdentityHashMap<>()));
+      publish(updated);
+    } else {
+      writeLock.lock();
+      try {
+        modifier.modify(snapshot, null);
+      } finally {
+        // Incremented even on failure, since the index may have been modified before being rolled-back
+        version.incrementAndGet();
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Removes a partial URL from this map.  The partial URL must be {@link PartialURL#equals(java.lang.Object) equal} to
+   * the partial URL that was added, other partial URLs having some of the same combinations are not removed.
+   *
+   * <p><b>Implementation Note:</b><br>
+   * The index is updated incrementally, removing any levels of the index left empty, so later lookups do not search
+   * them.</p>
+   *
+   * @return  The value that was associated with the partial URL or {@code null} when the partial URL is not in this map
+   */
+  public V remove(PartialURL partialUrl) {
+    updateLock.lock();
+    try {
+      if (!getPartialUrls().containsKey(partialUrl)) {
+        return null;
+      }
+      modify((target, copied) -> removePartialUrl(target, copied, partialUrl));
+      return partialUrls.remove(partialUrl);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the value associated with a partial URL, only when the partial URL is already in this map.  The partial URL
+   * must be {@link PartialURL#equals(java.lang.Object) equal} to the partial URL that was added.
+   *
+   * <p><b>Implementation Note:</b><br>
+   * The structure of the index is unchanged, only the entries for the partial URL are replaced.</p>
+   *
+   * @return  The value that was associated with the partial URL or {@code null} when the partial URL is not in this map
+   */
+  public V replace(PartialURL partialUrl, V value) {
+    updateLock.lock();
+    try {
+      if (!getPartialUrls().containsKey(partialUrl)) {
+        return null;
+      }
+      modify((target, copied) -> replacePartialUrl(target, copied, partialUrl, value));
+      return partialUrls.put(partialUrl, value);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Adds all the given partial URLs to this map while checking for conflicts, both with existing entries and with each
+   * other.  Either all entries are added or, when any conflict is found, the map is unchanged.
+   *
+   * <p><b>Implementation Note:</b><br>
+   * The entries are added to a copy of the index, sharing the parts of the index not modified, without blocking
+   * lookups.  The new index is then published at once, holding the write lock only long enough to replace the index.
+   * This is much faster than adding each entry by {@link #put(com.aoapps.net.partialurl.PartialURL, java.lang.Object)}
+   * under {@link Concurrency#COPY_ON_WRITE}, which copies the top-level index for each entry.</p>
+   *
+   * @throws  IllegalStateException  If any partial URL conflicts with an existing entry or with another partial URL
+   *                                 being added.
+   */
+  public void putAll(Map<? extends PartialURL, ? extends V> entries) throws IllegalStateException {
+    if (!entries.isEmpty()) {
+      updateLock.lock();
+      try {
+        Map<PartialURL, V> current = getPartialUrls();
+        // Not modified while holding updateLock, so may be read without holding readLock
+        Snapshot<V> updated = new Snapshot<>(snapshot);
+        Set<Object> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<? extends PartialURL, ? extends V> entry : entries.entrySet()) {
+          putPartialUrl(updated, copied, entry.getKey(), entry.getValue());
+        }
+        publish(updated);
+        current.putAll(entries);
+      } finally {
+        updateLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Changes this map to contain exactly the given partial URLs and values.  Only the differences from the current
+   * contents are applied: partial URLs no longer present are removed, partial URLs with a different value are replaced,
+   * and new partial URLs are added.  Either all changes are made or, when any conflict is found, the map is unchanged.
+   *
+   * <p>Partial URLs are compared by {@link PartialURL#equals(java.lang.Object)} and values by
+   * {@link Object#equals(java.lang.Object)}.</p>
+   *
+   * <p><b>Implementation Note:</b><br>
+   * As with {@link #putAll(java.util.Map)}, the changes are made to a copy of the index, sharing the parts of the index
+   * not modified, and then published at once.  Finding the changes compares every entry, but the index is only updated
+   * in proportion to the size of the changes.  When there are no changes, the map is not modified.</p>
+   *
+   * @throws  IllegalStateException  If any partial URL being added conflicts with a remaining entry or with another
+   *                                 partial URL being added.
+   */
+  public void setAll(Map<? extends PartialURL, ? extends V> entries) throws IllegalStateException {
+    updateLock.lock();
+    try {
+      Map<PartialURL, V> current = getPartialUrls();
+      // Find the changes
+      List<PartialURL> removed = new ArrayList<>();
+      Map<PartialURL, V> replaced = new HashMap<>();
+      for (Map.Entry<PartialURL, V> entry : current.entrySet()) {
+        PartialURL partialUrl = entry.getKey();
+        if (!entries.containsKey(partialUrl)) {
+          removed.add(partialUrl);
+        } else {
+          V value = entries.get(partialUrl);
+          if (!Objects.equals(entry.getValue(), value)) {
+            replaced.put(partialUrl, value);
+          }
+        }
+      }
+      Map<PartialURL, V> added = new LinkedHashMap<>();
+      for (Map.Entry<? extends PartialURL, ? extends V> entry : entries.entrySet()) {
+        if (!current.containsKey(entry.getKey())) {
+          added.put(entry.getKey(), entry.getValue());
+        }
+      }
+      if (!removed.isEmpty() || !replaced.isEmpty() || !added.isEmpty()) {
+        // Not modified while holding updateLock, so may be read without holding readLock
+        Snapshot<V> updated = new Snapshot<>(snapshot);
+        Set<Object> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Removed first, so added partial URLs may reuse their combinations
+        for (PartialURL partialUrl : removed) {
+          removePartialUrl(updated, copied, partialUrl);
+        }
+        for (Map.Entry<PartialURL, V> entry : replaced.entrySet()) {
+          replacePartialUrl(updated, copied, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<PartialURL, V> entry : added.entrySet()) {
+          putPartialUrl(updated, copied, entry.getKey(), entry.getValue());
+        }
+        publish(updated);
+        for (PartialURL partialUrl : removed) {
+          current.remove(partialUrl);
+        }
+        current.putAll(replaced);
+        current.putAll(added);
+      }
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Loads partial URLs from a text file with one entry per line, adding them to this map as by
+   * {@link #putAll(java.util.Map)}.
+   *
+   * @see  #load(java.io.Reader, java.util.function.Function)
+   */
+  public void load(java.nio.file.Path file, Function<? super String, ? extends V> valueParser)
+      throws IOException, IllegalStateException {
+    try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      load(in, valueParser);
+    }
+  }
+
+  /**
+   * Loads partial URLs from text with one entry per line, adding them to this map as by
+   * {@link #putAll(java.util.Map)}.  Either all entries are added or, when any line is invalid or conflicts, the map is
+   * unchanged.
+   *
+   * <p>Each line is a partial URL in the syntax of {@link PartialURL#parse(java.lang.CharSequence)}, optionally followed
+   * by whitespace and the text of its value.  Leading and trailing whitespace is ignored, as are blank lines and lines
+   * beginning with {@code #}.</p>
    *
    * <p><b>Implementation Note:</b><br>
-   * Currently, when an exception occurs, the index may be in a partial state.  Changes are not rolled-back.</p>
+   * All lines share a single {@link PartialURLParser}, so repeated hosts, ports, and paths are the same instances
+   * across the loaded partial URLs.  The entries are added in a single update, so lookups see either none or all of
+   * them.</p>
+   *
+   * @param  valueParser  Parses the text of each value, which is empty when the line has only a partial URL
+   *
+   * @throws  MalformedURLException  When any partial URL is not valid, with the line number in the message
+   * @throws  IllegalStateException  If any partial URL is repeated, conflicts with an existing entry, or conflicts with
+   *                                 another partial URL being added.
+   */
+  public void load(Reader in, Function<? super String, ? extends V> valueParser)
+      throws IOException, IllegalStateException {
+    BufferedReader reader = (in instanceof BufferedReader)
+        ? (BufferedReader) in
+        : new BufferedReader(in, LOAD_BUFFER_SIZE);
+    PartialURLParser parser = new PartialURLParser();
+    Map<PartialURL, V> entries = new LinkedHashMap<>();
+    int lineNum = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNum++;
+      int len = line.length();
+      int start = 0;
+      while (start < len && Character.isWhitespace(line.charAt(start))) {
+        start++;
+      }
+      if (start == len || line.charAt(start) == '#') {
+        continue;
+      }
+      int end = start + 1;
+      while (end < len && !Character.isWhitespace(line.charAt(end))) {
+        end++;
+      }
+      PartialURL partialUrl;
+      try {
+        partialUrl = parser.parse(line, start, end);
+      } catch (MalformedURLException e) {
+        MalformedURLException newErr = new MalformedURLException("Line " + lineNum + ": " + e.getMessage());
+        newErr.initCause(e);
+        throw newErr;
+      }
+      if (entries.containsKey(partialUrl)) {
+        throw new IllegalStateException("Line " + lineNum + ": Partial URL repeated: " + partialUrl);
+      }
+      entries.put(partialUrl, valueParser.apply(line.substring(end).trim()));
+    }
+    putAll(entries);
+  }
+
+  /**
+   * Publishes a new snapshot, replacing the current snapshot.
+   * Must be holding updateLock already.
+   */
+  private void publish(Snapshot<V> updated) {
+    if (concurrency == Concurrency.COPY_ON_WRITE) {
+      snapshot = updated;
+      version.incrementAndGet();
+    } else {
+      writeLock.lock();
+      try {
+        snapshot = updated;
+        version.incrementAndGet();
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Adds a partial URL to the given snapshot, either {@link #putFactorized(com.aoapps.net.partialurl.PartialURLMap.Snapshot, java.util.Set, com.aoapps.net.partialurl.MultiPartialURL, java.lang.Object) factorized}
+   * or by {@link #putCombinations(com.aoapps.net.partialurl.PartialURLMap.Snapshot, java.util.Set, com.aoapps.net.partialurl.PartialURL, java.lang.Object) all combinations}.
+   * Must be holding updateLock already, and also writeLock when modifying the current snapshot in-place.
+   *
+   * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+   *
+   * @throws  IllegalStateException  If the partial URL conflicts with an existing entry.
+   */
+  private static <V> void putPartialUrl(Snapshot<V> snapshot, Set<Object> copied, PartialURL partialUrl, V value) throws IllegalStateException {
+    if (isFactorized(partialUrl)) {
+      putFactorized(snapshot, copied, (MultiPartialURL) partialUrl, value);
+    } else {
+      putCombinations(snapshot, copied, partialUrl, value);
+    }
+  }
+
+  /**
+   * Checks if a partial URL is added as a {@link FactorizedEntry} instead of by all combinations.
+   */
+  private static boolean isFactorized(PartialURL partialUrl) {
+    return
+        partialUrl instanceof MultiPartialURL
+            && ((MultiPartialURL) partialUrl).getCombinationCount() >= FACTORIZE_MIN_COMBINATIONS;
+  }
+
+  /**
+   * Counts an index entry in the number of entries by scheme, port, and contextPath.
+   */
+  private static void countEntry(Snapshot<?> snapshot, String scheme, Port port, Path contextPath) {
+    snapshot.schemeCounts.merge(scheme, 1, Integer::sum);
+    snapshot.portCounts.merge(port, 1, Integer::sum);
+    snapshot.contextPathCounts.merge(contextPath, 1, Integer::sum);
+  }
+
+  /**
+   * Decrements the number of index entries for a value of a single dimension, removing the value once no entries remain.
+   */
+  private static <K> void uncount(Map<K, Integer> counts, K key) {
+    counts.computeIfPresent(key, (k, count) -> (count == 1) ? null : (count - 1));
+  }
+
+  /**
+   * Uncounts an index entry from the number of entries by scheme, port, and contextPath.
+   */
+  private static void uncountEntry(Snapshot<?> snapshot, String scheme, Port port, Path contextPath) {
+    uncount(snapshot.schemeCounts, scheme);
+    uncount(snapshot.portCounts, port);
+    uncount(snapshot.contextPathCounts, contextPath);
+  }
+
+  /**
+   * Adds all combinations of a partial URL to the given snapshot.
+   * Must be holding updateLock already, and also writeLock when modifying the current snapshot in-place.
+   *
+   * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
    *
    * @throws  IllegalStateException  If the partial URL conflicts with an existing entry.
    */
-  public void put(PartialURL partialUrl, V value) throws IllegalStateException {
-    writeLock.lock();
-    try {
-      for (SinglePartialURL singleUrl : partialUrl.getCombinations()) {
-        Path prefix = singleUrl.getPrefix();
-        @SuppressWarnings("deprecation")
-        String prefixStr = Objects.toString(prefix, null);
-        int slashCount = (prefixStr == null) ? 0 : StringUtils.countMatches(prefixStr, Path.SEPARATOR_CHAR);
-        // host
-        HostAddress host = singleUrl.getHost();
-        Map<Path, MutablePair<Integer, Map<String, Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>>> hostIndex = index.get(host);
-        if (hostIndex == null) {
-          hostIndex = new HashMap<>();
-          index.put(host, hostIndex);
-        }
-        // contextPath
-        Path contextPath = singleUrl.getContextPath();
-        MutablePair<Integer, Map<String, Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> contextPathPair = hostIndex.get(contextPath);
-        if (contextPathPair == null) {
-          contextPathPair = MutablePair.of(slashCount, new HashMap<>());
-          hostIndex.put(contextPath, contextPathPair);
-        } else {
-          // Store the maximum path depth for prefix-based match, only parse this far while inside "get"
-          if (slashCount > contextPathPair.left) {
-            contextPathPair.left = slashCount;
+  private static <V> void putCombinations(Snapshot<V> snapshot, Set<Object> copied, PartialURL partialUrl, V value) throws IllegalStateException {
+    // The off-heap entry shared by all combinations, added with the first combination
+    int offHeapId = -1;
+    for (SinglePartialURL singleUrl : partialUrl.getCombinations()) {
+      List<FactorizedEntry<V>> factorizedList = snapshot.factorized.get(singleUrl.getHost());
+      if (factorizedList != null) {
+        for (FactorizedEntry<V> factorizedEntry : factorizedList) {
+          if (factorizedEntry.contains(singleUrl)) {
+            throw new IllegalStateException(
+                "Partial URL already in index: partialUrl = " + partialUrl
+                    + ", singleUrl = " + singleUrl
+                    + ", existing = " + factorizedEntry.multiUrl);
           }
         }
-        Map<String, Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex = contextPathPair.right;
-        // prefix
-        Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex = contextPathIndex.get(prefixStr);
-        if (prefixIndex == null) {
-          prefixIndex = new HashMap<>();
-          contextPathIndex.put(prefixStr, prefixIndex);
+      }
+      Path prefix = singleUrl.getPrefix();
+      @SuppressWarnings("deprecation")
+      String prefixStr = Objects.toString(prefix, null);
+      String scheme = singleUrl.getScheme();
+      if (snapshot.offHeap != null) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> existing =
+            snapshot.offHeap.get(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), scheme);
+        if (existing != null) {
+          throw new IllegalStateException(
+              "Partial URL already in index: partialUrl = " + partialUrl
+                  + ", singleUrl = " + singleUrl
+                  + ", existing = " + existing.getLeft());
         }
-        // port
-        Port port = singleUrl.getPort();
-        Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>> portIndex = prefixIndex.get(port);
-        if (portIndex == null) {
-          portIndex = new HashMap<>();
-          prefixIndex.put(port, portIndex);
+        if (offHeapId == -1) {
+          offHeapId = snapshot.offHeap.addEntry(ImmutableTriple.of(partialUrl, null, value));
+        }
+        snapshot.offHeap.put(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), scheme, offHeapId);
+      } else if (snapshot.flat != null) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> existing =
+            snapshot.flat.get(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), scheme);
+        if (existing != null) {
+          throw new IllegalStateException(
+              "Partial URL already in index: partialUrl = " + partialUrl
+                  + ", singleUrl = " + singleUrl
+                  + ", existing = " + existing.getLeft());
         }
+        snapshot.flat.put(
+            singleUrl.getHost(),
+            singleUrl.getContextPath(),
+            prefixStr,
+            singleUrl.getPort(),
+            scheme,
+            ImmutableTriple.of(partialUrl, singleUrl, value)
+        );
+      } else {
+        // host
+        Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex =
+            modifiableChild(snapshot.index, singleUrl.getHost(), CompactMap::new, CompactMap::new, copied);
+        // contextPath
+        PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex =
+            modifiableChild(hostIndex, singleUrl.getContextPath(), PrefixTrie::new, PrefixTrie::new, copied);
+        // prefix
+        Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex =
+            contextPathIndex.modifiableValue(prefixStr, CompactMap::new, CompactMap::new, copied);
+        // port
+        Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>> portIndex =
+            modifiableChild(prefixIndex, singleUrl.getPort(), CompactMap::new, CompactMap::new, copied);
         // scheme
-        String scheme = singleUrl.getScheme();
         ImmutableTriple<PartialURL, SinglePartialURL, V> existing = portIndex.get(scheme);
         if (existing != null) {
           throw new IllegalStateException(
@@ -156,92 +1097,56 @@ public class PartialURLMap<V> {
             scheme,
             ImmutableTriple.of(partialUrl, singleUrl, value)
         );
-        if (ASSERTIONS_ENABLED) {
-          if (sequential.put(singleUrl, ImmutablePair.of(partialUrl, value)) != null) {
-            throw new AssertionError("Duplicate singleUrl: " + singleUrl);
-          }
+      }
+      countEntry(snapshot, scheme, singleUrl.getPort(), singleUrl.getContextPath());
+      if (ASSERTIONS_ENABLED) {
+        if (snapshot.sequential.put(singleUrl, ImmutablePair.of(partialUrl, value)) != null) {
+          throw new AssertionError("Duplicate singleUrl: " + singleUrl);
         }
       }
-    } finally {
-      writeLock.unlock();
     }
   }
 
   /**
-   * Indexed implementation of {@link #get(com.aoapps.net.partialurl.FieldSource)}.
+   * Finds an entry in the index that is also a combination of the given partial URL.  Only the combinations along
+   * existing paths of the index are searched.  Under {@link Storage#FLATTENED} and {@link Storage#OFF_HEAP}, every
+   * entry is checked instead.
    *
-   * @see  #index
-   * @see  #get(com.aoapps.net.partialurl.FieldSource)
+   * @return  The conflicting entry or {@code null} when none found
    */
-  private PartialURLMatch<V> getIndexed(FieldSource fieldSource) throws MalformedURLException {
-    // Must be holding readLock already
-    // TODO: CompletePartialURL (subclassing single) instead of toURL?
-    // TODO: A sequential implementation for assertions, like in PathSpace?
-    // TODO: Write tests
-    HostAddress[] hostSearchOrder = new HostAddress[]{fieldSource.getHost(), null};
-    Path[] contextPathSearchOrder = new Path[]{fieldSource.getContextPath(), null};
-    Path path = fieldSource.getPath();
-    String pathStr = (path == null) ? "" : path.toString();
-    Port[] portSearchOrder = new Port[]{fieldSource.getPort(), null};
-    String[] schemeSearchOrder = new String[]{fieldSource.getScheme().toLowerCase(Locale.ROOT), null};
-    for (HostAddress host : hostSearchOrder) {
-      Map<Path, MutablePair<Integer, Map<String, Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>>> hostIndex = index.get(host);
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> findIndexed(Snapshot<V> snapshot, MultiPartialURL multiUrl) {
+    if (snapshot.flat != null || snapshot.offHeap != null) {
+      Predicate<SinglePartialURL> isCombination = singleUrl ->
+          FactorizedEntry.contains(multiUrl.getHosts(), singleUrl.getHost())
+              && FactorizedEntry.contains(multiUrl.getSchemes(), singleUrl.getScheme())
+              && FactorizedEntry.contains(multiUrl.getPorts(), singleUrl.getPort())
+              && FactorizedEntry.contains(multiUrl.getContextPaths(), singleUrl.getContextPath())
+              && FactorizedEntry.contains(multiUrl.getPrefixes(), singleUrl.getPrefix());
+      return (snapshot.flat != null) ? snapshot.flat.find(isCombination) : snapshot.offHeap.find(isCombination);
+    }
+    for (HostAddress host : orNull(multiUrl.getHosts())) {
+      Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex = snapshot.index.get(host);
       if (hostIndex != null) {
-        for (Path contextPath : contextPathSearchOrder) {
-          MutablePair<Integer, Map<String, Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> contextPathPair = hostIndex.get(contextPath);
-          if (contextPathPair != null) {
-            final int maxSlashCount = contextPathPair.left;
-            Map<String, Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex = contextPathPair.right;
-            // TODO: Could store slash indexes in an array instead of searching back-and-forth
-            // TODO: Could also store the resulting substrings, too
-            // TODO: If doing this, track the maximum number of slashes anywhere in the index during put, and create the array this size
-            // TODO: Might not be worth this, because this slash scan is only done four times maximum (host, null) x (contextPath, null)
-            int slashCount = 0;
-            int lastSlashPos = -1;
-            // TODO: Track maximum path length in the index, and constrain that here, too, to avoid overhead for impossible-match lookups
-            while (slashCount < maxSlashCount) {
-              int slashPos = pathStr.indexOf(Path.SEPARATOR_CHAR, lastSlashPos + 1);
-              if (slashPos == -1) {
-                break;
-              }
-              lastSlashPos = slashPos;
-              slashCount++;
-            }
-            while (slashCount >= 0) {
-              String prefix;
-              if (slashCount == 0) {
-                // Looking for null key on slashCount 0
-                assert lastSlashPos == -1;
-                prefix = null;
-              } else {
-                // Get the current prefix of the lookup path
-                assert lastSlashPos != -1;
-                prefix = pathStr.substring(0, lastSlashPos + 1);
-              }
-              Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex = contextPathIndex.get(prefix);
+        for (Path contextPath : orNull(multiUrl.getContextPaths())) {
+          PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex = hostIndex.get(contextPath);
+          if (contextPathIndex != null) {
+            for (Path prefix : orNull(multiUrl.getPrefixes())) {
+              @SuppressWarnings("deprecation")
+              String prefixStr = Objects.toString(prefix, null);
+              Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex = contextPathIndex.get(prefixStr);
               if (prefixIndex != null) {
-                for (Port port : portSearchOrder) {
+                for (Port port : orNull(multiUrl.getPorts())) {
                   Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>> portIndex = prefixIndex.get(port);
                   if (portIndex != null) {
-                    for (String scheme : schemeSearchOrder) {
-                      ImmutableTriple<PartialURL, SinglePartialURL, V> match = portIndex.get(scheme);
-                      if (match != null) {
-                        assert Objects.equals(match.left.matches(fieldSource), match.middle) : "Get inconsistent with matches";
-                        assert Objects.equals(match.middle.matches(fieldSource), match.middle) : "Get inconsistent with matches";
-                        return new PartialURLMatch<>(
-                            match.left,
-                            match.middle,
-                            match.middle.toURL(fieldSource),
-                            match.right
-                        );
+                    for (String scheme : orNull(multiUrl.getSchemes())) {
+                      ImmutableTriple<PartialURL, SinglePartialURL, V> existing = portIndex.get(scheme);
+                      if (existing != null) {
+                        return existing;
                       }
                     }
                   }
                 }
               }
-              // Work up the path one slash at a time
-              lastSlashPos = pathStr.lastIndexOf(Path.SEPARATOR_CHAR, lastSlashPos - 1);
-              slashCount--;
             }
           }
         }
@@ -250,26 +1155,678 @@ public class PartialURLMap<V> {
     return null;
   }
 
+  /**
+   * Adds a multi partial URL to the given snapshot as a single {@link FactorizedEntry}, listed once per host.
+   * Must be holding updateLock already, and also writeLock when modifying the current snapshot in-place.
+   *
+   * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+   *
+   * @throws  IllegalStateException  If the partial URL conflicts with an existing entry.
+   */
+  private static <V> void putFactorized(Snapshot<V> snapshot, Set<Object> copied, MultiPartialURL multiUrl, V value) throws IllegalStateException {
+    FactorizedEntry<V> newEntry = new FactorizedEntry<>(multiUrl, value);
+    // Check for conflicts before any modification
+    ImmutableTriple<PartialURL, SinglePartialURL, V> existing = findIndexed(snapshot, multiUrl);
+    if (existing != null) {
+      throw new IllegalStateException(
+          "Partial URL already in index: partialUrl = " + multiUrl
+              + ", singleUrl = " + existing.getMiddle()
+              + ", existing = " + existing.getLeft());
+    }
+    Iterable<HostAddress> hosts = orNull(multiUrl.getHosts());
+    for (HostAddress host : hosts) {
+      List<FactorizedEntry<V>> factorizedList = snapshot.factorized.get(host);
+      if (factorizedList != null) {
+        for (FactorizedEntry<V> factorizedEntry : factorizedList) {
+          if (factorizedEntry.intersects(newEntry)) {
+            throw new IllegalStateException(
+                "Partial URL already in index: partialUrl = " + multiUrl
+                    + ", host = " + host
+                    + ", existing = " + factorizedEntry.multiUrl);
+          }
+        }
+      }
+    }
+    for (HostAddress host : hosts) {
+      modifiableChild(snapshot.factorized, host, ArrayList::new, ArrayList::new, copied).add(newEntry);
+    }
+    for (String scheme : orNull(multiUrl.getSchemes())) {
+      snapshot.schemeCounts.merge(scheme, 1, Integer::sum);
+    }
+    for (Port port : orNull(multiUrl.getPorts())) {
+      snapshot.portCounts.merge(port, 1, Integer::sum);
+    }
+    for (Path contextPath : orNull(multiUrl.getContextPaths())) {
+      snapshot.contextPathCounts.merge(contextPath, 1, Integer::sum);
+    }
+    if (ASSERTIONS_ENABLED) {
+      for (SinglePartialURL singleUrl : multiUrl.getCombinations()) {
+        if (snapshot.sequential.put(singleUrl, ImmutablePair.of(multiUrl, value)) != null) {
+          throw new AssertionError("Duplicate singleUrl: " + singleUrl);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the index entry for exactly the given single partial URL, without any matching.
+   *
+   * @return  The entry or {@code null} when not in the index
+   */
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> getIndexedExact(Snapshot<V> snapshot, SinglePartialURL singleUrl) {
+    if (snapshot.flat != null) {
+      @SuppressWarnings("deprecation")
+      String prefixStr = Objects.toString(singleUrl.getPrefix(), null);
+      return snapshot.flat.get(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), singleUrl.getScheme());
+    }
+    if (snapshot.offHeap != null) {
+      @SuppressWarnings("deprecation")
+      String prefixStr = Objects.toString(singleUrl.getPrefix(), null);
+      return snapshot.offHeap.get(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), singleUrl.getScheme());
+    }
+    Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex = snapshot.index.get(singleUrl.getHost());
+    if (hostIndex == null) {
+      return null;
+    }
+    PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex = hostIndex.get(singleUrl.getContextPath());
+    if (contextPathIndex == null) {
+      return null;
+    }
+    @SuppressWarnings("deprecation")
+    String prefixStr = Objects.toString(singleUrl.getPrefix(), null);
+    Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex = contextPathIndex.get(prefixStr);
+    if (prefixIndex == null) {
+      return null;
+    }
+    Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>> portIndex = prefixIndex.get(singleUrl.getPort());
+    return (portIndex == null) ? null : portIndex.get(singleUrl.getScheme());
+  }
+
+  /**
+   * Finds the factorized entry for exactly the given partial URL.
+   *
+   * @return  The entry or {@code null} when not found
+   */
+  private static <V> FactorizedEntry<V> getFactorizedExact(Snapshot<V> snapshot, MultiPartialURL multiUrl) {
+    // Listed under every host, so only the first host is searched
+    List<FactorizedEntry<V>> factorizedList = snapshot.factorized.get(orNull(multiUrl.getHosts()).iterator().next());
+    if (factorizedList != null) {
+      for (FactorizedEntry<V> factorizedEntry : factorizedList) {
+        if (factorizedEntry.multiUrl.equals(multiUrl)) {
+          return factorizedEntry;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes a partial URL from the given snapshot.  Any combinations added by other partial URLs are not removed.
+   * Must be holding updateLock already, and also writeLock when modifying the current snapshot in-place.
+   *
+   * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+   */
+  private static <V> void removePartialUrl(Snapshot<V> snapshot, Set<Object> copied, PartialURL partialUrl) {
+    if (isFactorized(partialUrl)) {
+      MultiPartialURL multiUrl = (MultiPartialURL) partialUrl;
+      if (getFactorizedExact(snapshot, multiUrl) != null) {
+        for (HostAddress host : orNull(multiUrl.getHosts())) {
+          List<FactorizedEntry<V>> factorizedList = modifiableChild(snapshot.factorized, host, ArrayList::new, ArrayList::new, copied);
+          factorizedList.removeIf(factorizedEntry -> factorizedEntry.multiUrl.equals(multiUrl));
+          if (factorizedList.isEmpty()) {
+            snapshot.factorized.remove(host);
+          }
+        }
+        for (String scheme : orNull(multiUrl.getSchemes())) {
+          uncount(snapshot.schemeCounts, scheme);
+        }
+        for (Port port : orNull(multiUrl.getPorts())) {
+          uncount(snapshot.portCounts, port);
+        }
+        for (Path contextPath : orNull(multiUrl.getContextPaths())) {
+          uncount(snapshot.contextPathCounts, contextPath);
+        }
+        if (ASSERTIONS_ENABLED) {
+          for (SinglePartialURL singleUrl : multiUrl.getCombinations()) {
+            snapshot.sequential.remove(singleUrl);
+          }
+        }
+      }
+    } else {
+      for (SinglePartialURL singleUrl : partialUrl.getCombinations()) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> existing = getIndexedExact(snapshot, singleUrl);
+        if (existing != null && existing.left.equals(partialUrl)) {
+          removeIndexed(snapshot, copied, singleUrl);
+          uncountEntry(snapshot, singleUrl.getScheme(), singleUrl.getPort(), singleUrl.getContextPath());
+          if (ASSERTIONS_ENABLED) {
+            snapshot.sequential.remove(singleUrl);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes a single partial URL known to be in the index.  Any levels of the index left empty are removed, so are not
+   * searched by later lookups.
+   *
+   * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+   */
+  private static <V> void removeIndexed(Snapshot<V> snapshot, Set<Object> copied, SinglePartialURL singleUrl) {
+    HostAddress host = singleUrl.getHost();
+    Path contextPath = singleUrl.getContextPath();
+    @SuppressWarnings("deprecation")
+    String prefixStr = Objects.toString(singleUrl.getPrefix(), null);
+    Port port = singleUrl.getPort();
+    if (snapshot.flat != null) {
+      if (snapshot.flat.remove(host, contextPath, prefixStr, port, singleUrl.getScheme()) == null) {
+        throw new AssertionError("Partial URL not in index: " + singleUrl);
+      }
+      return;
+    }
+    if (snapshot.offHeap != null) {
+      if (!snapshot.offHeap.remove(host, contextPath, prefixStr, port, singleUrl.getScheme())) {
+        throw new AssertionError("Partial URL not in index: " + singleUrl);
+      }
+      return;
+    }
+    Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex =
+        modifiableChild(snapshot.index, host, CompactMap::new, CompactMap::new, copied);
+    PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex =
+        modifiableChild(hostIndex, contextPath, PrefixTrie::new, PrefixTrie::new, copied);
+    Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex =
+        contextPathIndex.modifiableValue(prefixStr, CompactMap::new, CompactMap::new, copied);
+    Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>> portIndex =
+        modifiableChild(prefixIndex, port, CompactMap::new, CompactMap::new, copied);
+    if (portIndex.remove(singleUrl.getScheme()) == null) {
+      throw new AssertionError("Partial URL not in index: " + singleUrl);
+    }
+    if (portIndex.isEmpty()) {
+      prefixIndex.remove(port);
+      if (prefixIndex.isEmpty()) {
+        contextPathIndex.removeValue(prefixStr, copied);
+        if (contextPathIndex.isEmpty()) {
+          hostIndex.remove(contextPath);
+          if (hostIndex.isEmpty()) {
+            snapshot.index.remove(host);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Replaces the value of a partial URL in the given snapshot.  Any combinations added by other partial URLs are not
+   * replaced.
+   * Must be holding updateLock already, and also writeLock when modifying the current snapshot in-place.
+   *
+   * @param  copied  See {@link #modifiableChild(java.util.Map, java.lang.Object, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+   */
+  private static <V> void replacePartialUrl(Snapshot<V> snapshot, Set<Object> copied, PartialURL partialUrl, V value) {
+    if (isFactorized(partialUrl)) {
+      MultiPartialURL multiUrl = (MultiPartialURL) partialUrl;
+      if (getFactorizedExact(snapshot, multiUrl) != null) {
+        FactorizedEntry<V> newEntry = new FactorizedEntry<>(multiUrl, value);
+        for (HostAddress host : orNull(multiUrl.getHosts())) {
+          List<FactorizedEntry<V>> factorizedList = modifiableChild(snapshot.factorized, host, ArrayList::new, ArrayList::new, copied);
+          factorizedList.replaceAll(factorizedEntry -> factorizedEntry.multiUrl.equals(multiUrl) ? newEntry : factorizedEntry);
+        }
+        if (ASSERTIONS_ENABLED) {
+          for (SinglePartialURL singleUrl : multiUrl.getCombinations()) {
+            snapshot.sequential.put(singleUrl, ImmutablePair.of(multiUrl, value));
+          }
+        }
+      }
+    } else {
+      for (SinglePartialURL singleUrl : partialUrl.getCombinations()) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> existing = getIndexedExact(snapshot, singleUrl);
+        if (existing != null && existing.left.equals(partialUrl)) {
+          @SuppressWarnings("deprecation")
+          String prefixStr = Objects.toString(singleUrl.getPrefix(), null);
+          if (snapshot.offHeap != null) {
+            // Replaces the entry shared by all combinations
+            snapshot.offHeap.setEntry(
+                snapshot.offHeap.getId(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), singleUrl.getScheme()),
+                ImmutableTriple.of(existing.left, null, value)
+            );
+          } else if (snapshot.flat != null) {
+            ImmutableTriple<PartialURL, SinglePartialURL, V> newEntry = ImmutableTriple.of(existing.left, singleUrl, value);
+            snapshot.flat.put(singleUrl.getHost(), singleUrl.getContextPath(), prefixStr, singleUrl.getPort(), singleUrl.getScheme(), newEntry);
+          } else {
+            Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex =
+                modifiableChild(snapshot.index, singleUrl.getHost(), CompactMap::new, CompactMap::new, copied);
+            PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex =
+                modifiableChild(hostIndex, singleUrl.getContextPath(), PrefixTrie::new, PrefixTrie::new, copied);
+            Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex =
+                contextPathIndex.modifiableValue(prefixStr, CompactMap::new, CompactMap::new, copied);
+            modifiableChild(prefixIndex, singleUrl.getPort(), CompactMap::new, CompactMap::new, copied).put(
+                singleUrl.getScheme(),
+                ImmutableTriple.of(existing.left, singleUrl, value)
+            );
+          }
+          if (ASSERTIONS_ENABLED) {
+            snapshot.sequential.put(singleUrl, ImmutablePair.of(existing.left, value));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Searches the prefix trie for the deepest matching prefix, then by port and scheme.  The trie is searched
+   * recursively so that all matching prefixes are found in a single forward pass over the path, with deeper prefixes
+   * searched first.
+   *
+   * @param  pos            The position in the path, immediately following the label of {@code node}
+   * @param  prefixEnds     The end of each prefix of the path, from {@link RequestKey#getPrefixEnds()}, or {@code null}
+   *                        to scan the path
+   * @param  segmentHashes  The hash of each segment of the path, by the same index as {@code prefixEnds}
+   * @param  segment        The index in {@code prefixEnds} of the segment beginning at {@code pos}
+   *
+   * @return  The match or {@code null} when not found
+   */
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> getPrefixed(
+      PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> node,
+      String pathStr,
+      int pos,
+      int[] prefixEnds,
+      int[] segmentHashes,
+      int segment,
+      Port port,
+      String scheme
+  ) {
+    PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> child;
+    if (prefixEnds == null) {
+      child = node.getChild(pathStr, pos);
+    } else if (segment < prefixEnds.length) {
+      // Precomputed, no scan for the end of the segment
+      child = node.getChild(pathStr, pos, prefixEnds[segment] - pos, segmentHashes[segment]);
+    } else {
+      child = null;
+    }
+    if (child != null) {
+      int childPos = pos + child.getLabelLength();
+      int childSegment = segment;
+      if (prefixEnds != null) {
+        // Labels are whole segments, so the child ends at the end of a prefix
+        while (prefixEnds[childSegment] < childPos) {
+          childSegment++;
+        }
+        childSegment++;
+      }
+      ImmutableTriple<PartialURL, SinglePartialURL, V> match = getPrefixed(
+          child, pathStr, childPos, prefixEnds, segmentHashes, childSegment, port, scheme
+      );
+      if (match != null) {
+        return match;
+      }
+    }
+    Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>> prefixIndex = node.getValue();
+    if (prefixIndex != null) {
+      // port, then null port
+      Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>> portIndex = prefixIndex.get(port);
+      ImmutableTriple<PartialURL, SinglePartialURL, V> match;
+      if (portIndex != null) {
+        // scheme, then null scheme
+        match = portIndex.get(scheme);
+        if (match == null) {
+          match = portIndex.get(null);
+        }
+        if (match != null) {
+          return match;
+        }
+      }
+      portIndex = prefixIndex.get(null);
+      if (portIndex != null) {
+        // scheme, then null scheme
+        match = portIndex.get(scheme);
+        if (match == null) {
+          match = portIndex.get(null);
+        }
+        return match;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Searches a host index by contextPath, then by {@code null} contextPath.
+   *
+   * @param  hostIndex      The host index or {@code null} when not in the index
+   * @param  prefixEnds     The end of each prefix of the path, from {@link RequestKey#getPrefixEnds()}, or {@code null}
+   *                        to scan the path
+   * @param  segmentHashes  The hash of each segment of the path, by the same index as {@code prefixEnds}
+   *
+   * @return  The match or {@code null} when not found
+   */
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> getHosted(
+      Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex,
+      Path contextPath,
+      String pathStr,
+      int[] prefixEnds,
+      int[] segmentHashes,
+      Port port,
+      String scheme
+  ) {
+    if (hostIndex == null) {
+      return null;
+    }
+    PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>> contextPathIndex = hostIndex.get(contextPath);
+    if (contextPathIndex != null) {
+      ImmutableTriple<PartialURL, SinglePartialURL, V> match = getPrefixed(
+          contextPathIndex, pathStr, 0, prefixEnds, segmentHashes, 0, port, scheme
+      );
+      if (match != null) {
+        return match;
+      }
+    }
+    contextPathIndex = hostIndex.get(null);
+    return (contextPathIndex == null)
+        ? null
+        : getPrefixed(contextPathIndex, pathStr, 0, prefixEnds, segmentHashes, 0, port, scheme);
+  }
+
+  /**
+   * Checks if any index entry may match the given value of a single dimension.
+   *
+   * @param  counts  The number of index entries by value, including {@code null} for entries matching any value
+   */
+  private static <K> boolean mayMatch(Map<K, Integer> counts, K key) {
+    return counts.containsKey(key) || counts.containsKey(null);
+  }
+
+  /**
+   * Checks if any entry may match the given fields of a lookup, by the same early rejection as
+   * {@link #getIndexed(com.aoapps.net.partialurl.PartialURLMap.Snapshot, com.aoapps.net.partialurl.FieldSource)},
+   * without the path.  This allows {@link PartialURLMapCache} to reject a lookup before building its cache key.
+   *
+   * @param  scheme  The scheme, already lower-case
+   *
+   * @return  {@code false} when no entry can match or {@code true} when the lookup must be performed
+   */
+  boolean mayMatch(String scheme, Port port, Path contextPath, HostAddress host) {
+    if (concurrency == Concurrency.COPY_ON_WRITE) {
+      return mayMatch(snapshot, scheme, port, contextPath, host);
+    } else {
+      readLock.lock();
+      try {
+        return mayMatch(snapshot, scheme, port, contextPath, host);
+      } finally {
+        readLock.unlock();
+      }
+    }
+  }
+
+  private static <V> boolean mayMatch(Snapshot<V> snapshot, String scheme, Port port, Path contextPath, HostAddress host) {
+    // Must be holding readLock already or reading a snapshot that is no longer modified
+    if (
+        !mayMatch(snapshot.schemeCounts, scheme)
+            || !mayMatch(snapshot.portCounts, port)
+            || !mayMatch(snapshot.contextPathCounts, contextPath)
+    ) {
+      return false;
+    }
+    Map<HostAddress, List<FactorizedEntry<V>>> factorized = snapshot.factorized;
+    if (factorized.containsKey(host) || factorized.containsKey(null)) {
+      return true;
+    }
+    if (snapshot.flat != null) {
+      return snapshot.flat.mayMatchHost(host);
+    } else if (snapshot.offHeap != null) {
+      return snapshot.offHeap.mayMatchHost(Objects.toString(host, null));
+    } else {
+      return snapshot.index.containsKey(host) || snapshot.index.containsKey(null);
+    }
+  }
+
+  /**
+   * Indexed implementation of {@link #get(com.aoapps.net.partialurl.FieldSource)}.
+   *
+   * <p>Searches by host then {@code null} host, contextPath then {@code null} contextPath, deepest prefix first, port
+   * then {@code null} port, and scheme then {@code null} scheme.  No objects are allocated, provided the field source
+   * does not allocate, including for {@link FieldSource#getSchemeLowerCase()}.</p>
+   *
+   * <p>Lookups are rejected early, before searching the index, when the scheme, port, contextPath, or host is not in
+   * the index and there are no entries matching any value for that field.  Fields are obtained from the field source
+   * only as needed, in order of increasing expected cost, so the path is not obtained for rejected lookups.</p>
+   *
+   * @return  The match or {@code null} when not found
+   *
+   * @see  Snapshot#index
+   * @see  #get(com.aoapps.net.partialurl.FieldSource)
+   */
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> getIndexed(Snapshot<V> snapshot, FieldSource fieldSource) throws MalformedURLException {
+    // Must be holding readLock already or reading a snapshot that is no longer modified
+    // TODO: CompletePartialURL (subclassing single) instead of toURL?
+    Map<HostAddress, Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>>> index = snapshot.index;
+    FlatIndex<V> flat = snapshot.flat;
+    OffHeapIndex<V> offHeap = snapshot.offHeap;
+    Map<HostAddress, List<FactorizedEntry<V>>> factorized = snapshot.factorized;
+    boolean indexEmpty;
+    if (flat != null) {
+      indexEmpty = flat.isEmpty();
+    } else if (offHeap != null) {
+      indexEmpty = offHeap.isEmpty();
+    } else {
+      indexEmpty = index.isEmpty();
+    }
+    if (indexEmpty && factorized.isEmpty()) {
+      return null;
+    }
+    if (offHeap != null && factorized.isEmpty()) {
+      if (fieldSource instanceof ByteFieldSource) {
+        ByteFieldSource byteFieldSource = (ByteFieldSource) fieldSource;
+        if (byteFieldSource.isPlainText()) {
+          return getIndexedText(
+              snapshot,
+              byteFieldSource.getSchemeLowerCase(),
+              byteFieldSource.getHostText(),
+              byteFieldSource.getPortNumber(),
+              byteFieldSource.getContextPath(),
+              byteFieldSource.getPathText()
+          );
+        }
+      } else if (fieldSource instanceof CharSequenceFieldSource) {
+        CharSequenceFieldSource charSequenceFieldSource = (CharSequenceFieldSource) fieldSource;
+        if (charSequenceFieldSource.isPlainText()) {
+          return getIndexedText(
+              snapshot,
+              charSequenceFieldSource.getSchemeLowerCase(),
+              charSequenceFieldSource.getHostText(),
+              charSequenceFieldSource.getPortNumber(),
+              charSequenceFieldSource.getContextPath(),
+              charSequenceFieldSource.getPathText()
+          );
+        }
+      }
+    }
+    String scheme = fieldSource.getSchemeLowerCase();
+    if (!mayMatch(snapshot.schemeCounts, scheme)) {
+      return null;
+    }
+    Port port = fieldSource.getPort();
+    if (!mayMatch(snapshot.portCounts, port)) {
+      return null;
+    }
+    Path contextPath = fieldSource.getContextPath();
+    if (!mayMatch(snapshot.contextPathCounts, contextPath)) {
+      return null;
+    }
+    HostAddress host = fieldSource.getHost();
+    Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> hostIndex;
+    Map<Path, PrefixTrie<Map<Port, Map<String, ImmutableTriple<PartialURL, SinglePartialURL, V>>>>> nullHostIndex;
+    if (flat == null && offHeap == null) {
+      hostIndex = index.get(host);
+      nullHostIndex = index.get(null);
+    } else {
+      hostIndex = null;
+      nullHostIndex = null;
+    }
+    List<FactorizedEntry<V>> hostFactorized;
+    List<FactorizedEntry<V>> nullHostFactorized;
+    if (factorized.isEmpty()) {
+      hostFactorized = null;
+      nullHostFactorized = null;
+    } else {
+      hostFactorized = factorized.get(host);
+      nullHostFactorized = factorized.get(null);
+    }
+    boolean indexMayMatch;
+    if (flat != null) {
+      indexMayMatch = flat.mayMatchHost(host);
+    } else if (offHeap != null) {
+      indexMayMatch = offHeap.mayMatchHost(Objects.toString(host, null));
+    } else {
+      indexMayMatch = hostIndex != null || nullHostIndex != null;
+    }
+    if (!indexMayMatch && hostFactorized == null && nullHostFactorized == null) {
+      return null;
+    }
+    String pathStr;
+    int[] prefixEnds;
+    int[] prefixHashes;
+    int[] segmentHashes;
+    if (fieldSource instanceof RequestKey) {
+      // Already scanned once for all maps
+      RequestKey requestKey = (RequestKey) fieldSource;
+      pathStr = requestKey.getPathString();
+      prefixEnds = requestKey.getPrefixEnds();
+      prefixHashes = requestKey.getPrefixHashes();
+      segmentHashes = requestKey.getSegmentHashes();
+    } else {
+      Path path = fieldSource.getPath();
+      pathStr = (path == null) ? "" : path.toString();
+      prefixEnds = null;
+      prefixHashes = null;
+      segmentHashes = null;
+    }
+    ImmutableTriple<PartialURL, SinglePartialURL, V> match;
+    if (flat == null && offHeap == null) {
+      match = getHosted(hostIndex, contextPath, pathStr, prefixEnds, segmentHashes, port, scheme);
+      if (match == null) {
+        match = getHosted(nullHostIndex, contextPath, pathStr, prefixEnds, segmentHashes, port, scheme);
+      }
+    } else if (!indexMayMatch) {
+      match = null;
+    } else {
+      // Only probe the fields that may match, as already checked by mayMatch
+      Path searchContextPath = snapshot.contextPathCounts.containsKey(contextPath) ? contextPath : null;
+      boolean anyContextPath = snapshot.contextPathCounts.containsKey(null);
+      Port searchPort = snapshot.portCounts.containsKey(port) ? port : null;
+      boolean anyPort = snapshot.portCounts.containsKey(null);
+      String searchScheme = snapshot.schemeCounts.containsKey(scheme) ? scheme : null;
+      boolean anyScheme = snapshot.schemeCounts.containsKey(null);
+      if (flat != null) {
+        match = flat.search(
+            host, searchContextPath, anyContextPath, pathStr, prefixEnds, prefixHashes, searchPort, anyPort, searchScheme, anyScheme
+        );
+      } else {
+        match = offHeap.search(
+            host, searchContextPath, anyContextPath, pathStr, prefixEnds, prefixHashes, searchPort, anyPort, searchScheme, anyScheme
+        );
+      }
+    }
+    if (hostFactorized != null || nullHostFactorized != null) {
+      // Take the most specific of the indexed match and any factorized matches
+      long bestRank;
+      if (match == null) {
+        bestRank = -1;
+      } else if (match.middle == null) {
+        // Off-heap entries are shared by all combinations
+        bestRank = rank(match.left.matches(fieldSource));
+      } else {
+        bestRank = rank(match.middle);
+      }
+      for (int i = 0; i < 2; i++) {
+        List<FactorizedEntry<V>> list = (i == 0) ? hostFactorized : nullHostFactorized;
+        if (list != null) {
+          // Iterate by index to avoid iterator allocation
+          for (int j = 0, size = list.size(); j < size; j++) {
+            FactorizedEntry<V> factorizedEntry = list.get(j);
+            long rank = factorizedEntry.rank(i == 0, scheme, port, contextPath, pathStr);
+            assert rank == -1 || rank != bestRank : "Conflicting entries should have been rejected by put";
+            if (rank > bestRank) {
+              bestRank = rank;
+              match = factorizedEntry.entry;
+            }
+          }
+        }
+      }
+    }
+    return match;
+  }
+
+  /**
+   * Implementation of {@link #getIndexed(com.aoapps.net.partialurl.PartialURLMap.Snapshot, com.aoapps.net.partialurl.FieldSource)}
+   * for {@link Storage#OFF_HEAP} that searches by the text of the host and path, such as directly from the bytes of
+   * the request, without creating the {@link HostAddress}, {@link Port}, or {@link Path}.
+   *
+   * <p>Without the {@link Port}, the port is not rejected early by {@link Snapshot#portCounts}.  It is only searched when
+   * any entry has a specific port.</p>
+   *
+   * @param  scheme    The scheme, already lower-case
+   * @param  host      The text of the host, which must be {@link OffHeapIndex#isPlainText(java.lang.CharSequence, java.lang.CharSequence, int) plain}
+   * @param  port      The port number
+   * @param  path      The text of the path, which is empty when there is no path
+   *
+   * @return  The match or {@code null} when not found
+   *
+   * @see  ByteFieldSource#isPlainText()
+   * @see  CharSequenceFieldSource#isPlainText()
+   */
+  private static <V> ImmutableTriple<PartialURL, SinglePartialURL, V> getIndexedText(
+      Snapshot<V> snapshot,
+      String scheme,
+      CharSequence host,
+      int port,
+      Path contextPath,
+      CharSequence path
+  ) {
+    // Must be holding readLock already or reading a snapshot that is no longer modified
+    if (!mayMatch(snapshot.schemeCounts, scheme)) {
+      return null;
+    }
+    if (!mayMatch(snapshot.contextPathCounts, contextPath)) {
+      return null;
+    }
+    if (!snapshot.offHeap.mayMatchHost(host)) {
+      return null;
+    }
+    boolean anyPort = snapshot.portCounts.containsKey(null);
+    boolean specificPort = snapshot.portCounts.size() > (anyPort ? 1 : 0);
+    return snapshot.offHeap.search(
+        host,
+        snapshot.contextPathCounts.containsKey(contextPath) ? contextPath : null,
+        snapshot.contextPathCounts.containsKey(null),
+        path,
+        specificPort ? port : -1,
+        Protocol.TCP.ordinal(),
+        anyPort,
+        snapshot.schemeCounts.containsKey(scheme) ? scheme : null,
+        snapshot.schemeCounts.containsKey(null)
+    );
+  }
+
   /**
    * Sequential implementation of {@link #get(com.aoapps.net.partialurl.FieldSource)} used for assertions only.
    * Verifies that a sequential scan calling {@link SinglePartialURL#matches(com.aoapps.net.partialurl.FieldSource)}
    * yields the same result as the indexed lookup performed in {@link #get(com.aoapps.net.partialurl.FieldSource)}.
    *
-   * @see  #sequential
+   * @see  Snapshot#sequential
    * @see  #get(com.aoapps.net.partialurl.FieldSource)
    */
-  private PartialURLMatch<V> getSequential(FieldSource fieldSource) throws MalformedURLException {
-    // Must be holding readLock already
-    for (Map.Entry<SinglePartialURL, ImmutablePair<PartialURL, V>> entry : sequential.entrySet()) {
+  private static <V> PartialURLMatch<V> getSequential(Snapshot<V> snapshot, FieldSource fieldSource) throws MalformedURLException {
+    // Must be holding readLock already or reading a snapshot that is no longer modified
+    for (Map.Entry<SinglePartialURL, ImmutablePair<PartialURL, V>> entry : snapshot.sequential.entrySet()) {
       SinglePartialURL singleUrl = entry.getKey();
       SinglePartialURL match = singleUrl.matches(fieldSource);
       if (match != null) {
         assert match == singleUrl;
         ImmutablePair<PartialURL, V> pair = entry.getValue();
-        return new PartialURLMatch<>(
+        return PartialURLMatch.valueOf(
             pair.left,
             singleUrl,
-            singleUrl.toURL(fieldSource),
+            fieldSource,
             pair.right
         );
       }
@@ -289,25 +1846,128 @@ public class PartialURLMap<V> {
    * </ul>
    *
    * <p><b>Implementation Note:</b><br>
-   * The maximum number of internal map lookups is: {@code (host, null) * (contextPath, null) * (maxSlashCount + 1) * (scheme, null) * (port, null)},
-   * or {@code 2 * 2 * (maxSlashCount + 1) * 2 * 2}, or {@code 16 * (maxSlashCount + 1)}.  The actual number of map lookups
+   * The path is matched against a radix trie of prefixes, per (host, contextPath), in a single forward pass.  The maximum
+   * number of internal map lookups is: {@code (host, null) * (contextPath, null) * (matchingPrefixes + 1) * (scheme, null) * (port, null)},
+   * or {@code 2 * 2 * (matchingPrefixes + 1) * 2 * 2}, or {@code 16 * (matchingPrefixes + 1)}.  The actual number of map lookups
    * will typically be much less than this due to a sparsely populated index.</p>
    *
+   * <p>Under {@link Storage#FLATTENED} and {@link Storage#OFF_HEAP}, each candidate combination, deepest prefix first,
+   * is instead probed directly in a single table, skipping any field value known to be absent from the map.</p>
+   *
+   * <p>When the same request is looked-up in many maps, obtain its fields once with
+   * {@link RequestKey#valueOf(com.aoapps.net.partialurl.FieldSource)} and pass the key to each map.  The prefixes of its
+   * path are then scanned and hashed once, instead of by each map.</p>
+   *
+   * <p>A {@link MultiPartialURL} with many combinations is factorized: it is indexed once per host, by the sets of its
+   * other fields, instead of once per combination.  These are checked after the index search, taking the most specific
+   * match of either.</p>
+   *
+   * <p>Locking depends on the {@link #getConcurrency() concurrency strategy}.  Under {@link Concurrency#COPY_ON_WRITE},
+   * no locks are acquired.</p>
+   *
    * @return  The matching value or {@code null} of no match
+   *
+   * @see  #getValue(com.aoapps.net.partialurl.FieldSource)
    */
   public PartialURLMatch<V> get(FieldSource fieldSource) throws MalformedURLException {
-    PartialURLMatch<V> indexedMatch;
+    ImmutableTriple<PartialURL, SinglePartialURL, V> match;
     PartialURLMatch<V> sequentialMatch;
-    readLock.lock();
-    try {
-      indexedMatch = getIndexed(fieldSource);
-      sequentialMatch = ASSERTIONS_ENABLED ? getSequential(fieldSource) : null;
-    } finally {
-      readLock.unlock();
+    if (concurrency == Concurrency.COPY_ON_WRITE) {
+      Snapshot<V> current = snapshot;
+      match = getIndexed(current, fieldSource);
+      sequentialMatch = ASSERTIONS_ENABLED ? getSequential(current, fieldSource) : null;
+    } else {
+      readLock.lock();
+      try {
+        Snapshot<V> current = snapshot;
+        match = getIndexed(current, fieldSource);
+        sequentialMatch = ASSERTIONS_ENABLED ? getSequential(current, fieldSource) : null;
+      } finally {
+        readLock.unlock();
+      }
+    }
+    PartialURLMatch<V> indexedMatch;
+    if (match == null) {
+      indexedMatch = null;
+    } else {
+      SinglePartialURL singleUrl = match.middle;
+      if (singleUrl == null) {
+        // Factorized entries find the matching combination on lookup
+        singleUrl = match.left.matches(fieldSource);
+        assert singleUrl != null : "Factorized entry must match";
+      } else {
+        assert Objects.equals(match.left.matches(fieldSource), singleUrl) : "Get inconsistent with matches";
+      }
+      assert Objects.equals(singleUrl.matches(fieldSource), singleUrl) : "Get inconsistent with matches";
+      indexedMatch = PartialURLMatch.valueOf(
+          match.left,
+          singleUrl,
+          fieldSource,
+          match.right
+      );
     }
     if (ASSERTIONS_ENABLED && !Objects.equals(indexedMatch, sequentialMatch)) {
       throw new AssertionError("getIndexed is inconsistent with getSequential: indexedMatch = " + indexedMatch + ", sequentialMatch = " + sequentialMatch);
     }
     return indexedMatch;
   }
+
+  /**
+   * Gets the value associated with the given URL, returning the most specific match.
+   * This is equivalent to {@code get(fieldSource).getValue()}, but without creating the {@link PartialURLMatch} or
+   * its URL.  This is the preferred lookup for routing, where only the value is needed.
+   *
+   * <p>Ordering is consistent with {@link #get(com.aoapps.net.partialurl.FieldSource)}.</p>
+   *
+   * <p><b>Implementation Note:</b><br>
+   * No objects are allocated, provided the field source does not allocate, including for
+   * {@link FieldSource#getSchemeLowerCase()}.
+   * Under {@link Concurrency#READ_WRITE_LOCK}, the read lock itself may allocate when contended.</p>
+   *
+   * @return  The matching value or {@code null} when no match or the matching value is {@code null}
+   *
+   * @see  #get(com.aoapps.net.partialurl.FieldSource)
+   */
+  public V getValue(FieldSource fieldSource) throws MalformedURLException {
+    ImmutableTriple<PartialURL, SinglePartialURL, V> match;
+    if (concurrency == Concurrency.COPY_ON_WRITE) {
+      match = getIndexed(snapshot, fieldSource);
+    } else {
+      readLock.lock();
+      try {
+        match = getIndexed(snapshot, fieldSource);
+      } finally {
+        readLock.unlock();
+      }
+    }
+    return (match == null) ? null : match.right;
+  }
+
+  /**
+   * Gets the value associated with the given URL, returning the most specific match, or the given value when the URL
+   * is invalid.  Unlike {@link #getValue(com.aoapps.net.partialurl.FieldSource)}, invalid input is signalled by the
+   * result instead of {@link MalformedURLException}.
+   *
+   * <p>Input rejected by {@link FieldSource#isInvalid()} is not looked-up at all, so no exception is created.  This is
+   * the case even when the lookup would not have needed the invalid field.  Any other invalid field found during the
+   * lookup still costs its exception, but is caught and also returns {@code invalid}.</p>
+   *
+   * @param  invalid  The value returned for invalid input, such as a sentinel instance distinct from every value in
+   *                  the map
+   *
+   * @return  The matching value, {@code null} when no match or the matching value is {@code null}, or {@code invalid}
+   *          when the URL is invalid
+   *
+   * @see  #getValue(com.aoapps.net.partialurl.FieldSource)
+   */
+  public V getValue(FieldSource fieldSource, V invalid) {
+    if (fieldSource.isInvalid()) {
+      return invalid;
+    }
+    try {
+      return getValue(fieldSource);
+    } catch (MalformedURLException e) {
+      return invalid;
+    }
+  }
 }
@@ -0,0 +1,492 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of lookup results in front of a {@link PartialURLMap}, evicting results not recently used.
+ * This is effective when a small number of distinct requests make up the majority of lookups.
+ *
+ * <p>Results are cached by the lower-case scheme, host, port, context path, and the path up to and including its last
+ * slash (/).  Since {@link SinglePartialURL#getPrefix() prefixes} always end in a slash, the remainder of the path
+ * never affects the match.</p>
+ *
+ * <p>Lookups without a match may optionally be cached in a separate, independently bounded, negative cache.  This
+ * limits the cost of repeated requests that never match, such as bot traffic with unknown hosts, to a single hash
+ * probe.  Being separate, a flood of distinct non-matching requests will not evict cached matches.</p>
+ *
+ * <p>Each result is cached with the {@link PartialURLMap#getVersion() version} of the map it was looked-up in, and is
+ * only used while the map remains at that version.  Any modification of the map, whether by
+ * {@link PartialURLMap#put(com.aoapps.net.partialurl.PartialURL, java.lang.Object) put},
+ * {@link PartialURLMap#remove(com.aoapps.net.partialurl.PartialURL) remove},
+ * {@link PartialURLMap#replace(com.aoapps.net.partialurl.PartialURL, java.lang.Object) replace},
+ * {@link PartialURLMap#putAll(java.util.Map) putAll}, {@link PartialURLMap#setAll(java.util.Map) setAll}, or
+ * {@link PartialURLMap#load(java.io.Reader, java.util.function.Function) load}, changes the version, so results are
+ * never stale.  The cache is cleared by the first lookup to see the new version.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This class is thread safe.  Results are held in a {@link ConcurrentHashMap}, so a cache hit takes no lock and writes
+ * no shared memory beyond setting the referenced flag of a result not already referenced and counting the hit.
+ * Adding a result takes a lock, only held briefly and never while performing a lookup on the underlying map, to evict
+ * by the CLOCK (second chance) approximation of least-recently-used.</p>
+ */
+public class PartialURLMapCache<V> {
+
+  /**
+   * The normalized fields of a lookup that determine its result.
+   */
+  private static final class Key {
+
+    private final String scheme;
+    private final HostAddress host;
+    private final Port port;
+    private final Path contextPath;
+
+    /**
+     * The path, of which only the first {@link #prefixLength} characters are part of the key.  The prefix is hashed and
+     * compared in place, so is not copied to a new string.
+     */
+    private final String path;
+
+    private final int prefixLength;
+    private final int hash;
+
+    /**
+     * Creates a key from the fields of a request key, using its deepest prefix without scanning the path.
+     */
+    private Key(RequestKey requestKey) {
+      scheme = requestKey.getSchemeLowerCase();
+      host = requestKey.getHost();
+      port = requestKey.getPort();
+      contextPath = requestKey.getContextPath();
+      path = requestKey.getPathString();
+      int[] prefixEnds = requestKey.getPrefixEnds();
+      int last = prefixEnds.length - 1;
+      prefixLength = (last == -1) ? 0 : prefixEnds[last];
+      hash = hash(scheme, host, port, contextPath, (last == -1) ? 0 : requestKey.getPrefixHashes()[last]);
+    }
+
+    /**
+     * @param  path  The text of the path, or empty when there is no path
+     */
+    private Key(String scheme, HostAddress host, Port port, Path contextPath, String path) {
+      this.scheme = scheme;
+      this.host = host;
+      this.port = port;
+      this.contextPath = contextPath;
+      this.path = path;
+      prefixLength = path.lastIndexOf(Path.SEPARATOR_CHAR) + 1;
+      int prefixHash = 0;
+      for (int i = 0; i < prefixLength; i++) {
+        prefixHash = 31 * prefixHash + path.charAt(i);
+      }
+      hash = hash(scheme, host, port, contextPath, prefixHash);
+    }
+
+    /**
+     * @param  prefixHash  The {@link String#hashCode() hash code} of the prefix of the path
+     */
+    private static int hash(String scheme, HostAddress host, Port port, Path contextPath, int prefixHash) {
+      int h = scheme.hashCode();
+      h = h * 31 + Objects.hashCode(host);
+      h = h * 31 + Objects.hashCode(port);
+      h = h * 31 + Objects.hashCode(contextPath);
+      h = h * 31 + prefixHash;
+      return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return
+          hash == other.hash
+              && scheme.equals(other.scheme)
+              && prefixLength == other.prefixLength
+              && path.regionMatches(0, other.path, 0, prefixLength)
+              && Objects.equals(host, other.host)
+              && Objects.equals(port, other.port)
+              && Objects.equals(contextPath, other.contextPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A cached result.
+   */
+  private static final class Node<T> {
+
+    private final Key key;
+    private final T value;
+
+    /**
+     * The version of the map the result was looked-up in.
+     */
+    private final long version;
+
+    /**
+     * Set when used, and cleared as passed by the hand of the clock.
+     */
+    private volatile boolean referenced;
+
+    /**
+     * The position of this node in the clock.  Guarded by the clock.
+     */
+    private int slot;
+
+    private Node(Key key, T value, long version) {
+      this.key = key;
+      this.value = value;
+      this.version = version;
+    }
+  }
+
+  /**
+   * A size-bounded map evicting by the CLOCK algorithm, counting its evictions.  Lookups are lock-free, while adding
+   * and clearing are synchronized on this clock.
+   */
+  private static final class Clock<T> {
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<Key, Node<T>> map;
+
+    /**
+     * The nodes in the order passed by the hand, with the first {@code count} used.  Guarded by this clock.
+     */
+    private final Node<T>[] nodes;
+
+    private int count;
+
+    private int hand;
+
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private Clock(int maxSize) {
+      this.maxSize = maxSize;
+      this.map = new ConcurrentHashMap<>();
+      this.nodes = (Node<T>[]) new Node<?>[maxSize];
+    }
+
+    /**
+     * Gets the node for a key, marking it referenced.
+     *
+     * @return  The node or {@code null} when not cached at the given version
+     */
+    private Node<T> get(Key key, long version) {
+      Node<T> node = map.get(key);
+      if (node == null || node.version != version) {
+        return null;
+      }
+      // Only write when changed, so frequently used nodes are not written by every hit
+      if (!node.referenced) {
+        node.referenced = true;
+      }
+      return node;
+    }
+
+    /**
+     * Adds or replaces the node for a key.  When full, the hand passes over referenced nodes, clearing their referenced
+     * flag, and evicts the first node not referenced.
+     */
+    private synchronized void put(Key key, T value, long version) {
+      Node<T> node = new Node<>(key, value, version);
+      Node<T> existing = map.get(key);
+      if (existing != null) {
+        node.slot = existing.slot;
+      } else if (count < maxSize) {
+        node.slot = count++;
+      } else {
+        while (true) {
+          Node<T> victim = nodes[hand];
+          if (victim.referenced) {
+            victim.referenced = false;
+            hand = (hand + 1) % maxSize;
+          } else {
+            map.remove(victim.key);
+            evictions.increment();
+            node.slot = hand;
+            hand = (hand + 1) % maxSize;
+            break;
+          }
+        }
+      }
+      nodes[node.slot] = node;
+      map.put(key, node);
+    }
+
+    private synchronized void clear() {
+      map.clear();
+      Arrays.fill(nodes, null);
+      count = 0;
+      hand = 0;
+    }
+
+    private int size() {
+      return map.size();
+    }
+  }
+
+  private final PartialURLMap<V> map;
+
+  /**
+   * The newest version of the map seen, used to clear results of any older version.
+   */
+  private final AtomicLong cachedVersion;
+
+  private final Clock<PartialURLMatch<V>> cache;
+
+  /**
+   * The negative cache or {@code null} when disabled.
+   */
+  private final Clock<Boolean> negativeCache;
+
+  private final LongAdder rejects = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates a new cache in front of the given map, without a negative cache.
+   *
+   * @param  maxSize  The maximum number of matches to cache
+   */
+  public PartialURLMapCache(PartialURLMap<V> map, int maxSize) {
+    this(map, maxSize, 0);
+  }
+
+  /**
+   * Creates a new cache in front of the given map.
+   *
+   * @param  maxSize  The maximum number of matches to cache
+   * @param  maxNegativeSize  The maximum number of lookups without a match to cache or {@code 0} to not cache lookups
+   *                          without a match
+   */
+  public PartialURLMapCache(PartialURLMap<V> map, int maxSize, int maxNegativeSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize < 1: " + maxSize);
+    }
+    if (maxNegativeSize < 0) {
+      throw new IllegalArgumentException("maxNegativeSize < 0: " + maxNegativeSize);
+    }
+    this.map = Objects.requireNonNull(map);
+    this.cachedVersion = new AtomicLong(map.getVersion());
+    this.cache = new Clock<>(maxSize);
+    this.negativeCache = (maxNegativeSize == 0) ? null : new Clock<>(maxNegativeSize);
+  }
+
+  /**
+   * Gets the map this cache is in front of.
+   */
+  public PartialURLMap<V> getMap() {
+    return map;
+  }
+
+  /**
+   * Gets the maximum number of matches to cache.
+   */
+  public int getMaxSize() {
+    return cache.maxSize;
+  }
+
+  /**
+   * Gets the maximum number of lookups without a match to cache.
+   *
+   * @return  The maximum size or {@code 0} when the negative cache is disabled
+   */
+  public int getMaxNegativeSize() {
+    return (negativeCache == null) ? 0 : negativeCache.maxSize;
+  }
+
+  /**
+   * Clears the cache when the map has been modified since last seen.  Results of older versions are never used, so
+   * this only frees their space.
+   */
+  private void checkVersion(long version) {
+    long cv = cachedVersion.get();
+    if (version > cv && cachedVersion.compareAndSet(cv, version)) {
+      clear();
+    }
+  }
+
+  /**
+   * Gets the value associated with the given URL, returning the most specific match.
+   * This is equivalent to {@link PartialURLMap#get(com.aoapps.net.partialurl.FieldSource)}, but uses cached results
+   * when available.
+   *
+   * <p>Cached matches select their {@link PartialURLMatch#getUrl() URL} fields from the field source of the lookup
+   * that was cached.  Since the cache key includes every field the URL may be selected from, the match is equal to
+   * the one the map would return.</p>
+   *
+   * <p>A lookup whose scheme, port, contextPath, or host cannot match any entry of the map is rejected before the path
+   * is obtained or the cache key is built, and is neither cached nor looked-up in the map.</p>
+   *
+   * <p>When given a {@link RequestKey}, the cache key is built from its fields and its deepest precomputed prefix,
+   * without scanning or hashing the path again.</p>
+   *
+   * @return  The matching value or {@code null} of no match
+   *
+   * @see  PartialURLMap#get(com.aoapps.net.partialurl.FieldSource)
+   */
+  @SuppressWarnings("deprecation")
+  public PartialURLMatch<V> get(FieldSource fieldSource) throws MalformedURLException {
+    String scheme = fieldSource.getSchemeLowerCase();
+    Port port = fieldSource.getPort();
+    Path contextPath = fieldSource.getContextPath();
+    HostAddress host = fieldSource.getHost();
+    if (!map.mayMatch(scheme, port, contextPath, host)) {
+      rejects.increment();
+      return null;
+    }
+    Key key;
+    if (fieldSource instanceof RequestKey) {
+      // Already scanned once for all maps
+      key = new Key((RequestKey) fieldSource);
+    } else {
+      Path path = fieldSource.getPath();
+      key = new Key(scheme, host, port, contextPath, (path == null) ? "" : path.toString());
+    }
+    long version = map.getVersion();
+    checkVersion(version);
+    Node<PartialURLMatch<V>> node = cache.get(key, version);
+    if (node != null) {
+      hits.increment();
+      return node.value;
+    }
+    if (negativeCache != null && negativeCache.get(key, version) != null) {
+      negativeHits.increment();
+      return null;
+    }
+    misses.increment();
+    PartialURLMatch<V> match = map.get(fieldSource);
+    // Only cache when the map has not been modified during the lookup
+    if (map.getVersion() == version) {
+      if (match != null) {
+        cache.put(key, match, version);
+      } else if (negativeCache != null) {
+        negativeCache.put(key, Boolean.TRUE, version);
+      }
+    }
+    return match;
+  }
+
+  /**
+   * Gets the value associated with the given URL, returning the most specific match.
+   * This is equivalent to {@link PartialURLMap#getValue(com.aoapps.net.partialurl.FieldSource)}, but uses cached
+   * results when available.
+   *
+   * @return  The matching value or {@code null} when no match or the matching value is {@code null}
+   *
+   * @see  #get(com.aoapps.net.partialurl.FieldSource)
+   */
+  public V getValue(FieldSource fieldSource) throws MalformedURLException {
+    PartialURLMatch<V> match = get(fieldSource);
+    return (match == null) ? null : match.getValue();
+  }
+
+  /**
+   * Removes all cached results.  The counters are not reset.
+   */
+  public void clear() {
+    cache.clear();
+    if (negativeCache != null) {
+      negativeCache.clear();
+    }
+  }
+
+  /**
+   * Gets the number of matches currently cached.
+   */
+  public int getSize() {
+    return cache.size();
+  }
+
+  /**
+   * Gets the number of lookups without a match currently cached.
+   */
+  public int getNegativeSize() {
+    return (negativeCache == null) ? 0 : negativeCache.size();
+  }
+
+  /**
+   * Gets the number of lookups rejected by the map before building a cache key, since no entry can match their
+   * scheme, port, contextPath, or host.
+   */
+  public long getRejects() {
+    return rejects.sum();
+  }
+
+  /**
+   * Gets the number of lookups answered with a match from the cache.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Gets the number of lookups answered without a match from the negative cache.
+   */
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  /**
+   * Gets the number of lookups performed on the map.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Gets the number of matches removed to stay within {@link #getMaxSize()}.  Results removed because the map was
+   * modified are not counted.
+   */
+  public long getEvictions() {
+    return cache.evictions.sum();
+  }
+
+  /**
+   * Gets the number of lookups without a match removed to stay within {@link #getMaxNegativeSize()}.  Results removed
+   * because the map was modified are not counted.
+   */
+  public long getNegativeEvictions() {
+    return (negativeCache == null) ? 0 : negativeCache.evictions.sum();
+  }
+}
@@ -1,6 +1,6 @@
 /*
  * ao-net-partial-url - Matches and resolves partial URLs.
- * Copyright (C) 2018, 2019, 2020, 2021, 2022, 2023, 2024  AO Industries, Inc.
+ * Copyright (C) 2018, 2019, 2020, 2021, 2022, 2023, 2024, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -23,7 +23,12 @@
 
 package com.aoapps.net.partialurl;
 
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -33,9 +38,22 @@ public class PartialURLMatch<V> {
 
   private final PartialURL partialUrl;
   private final SinglePartialURL singleUrl;
-  private final URL url;
   private final V value;
 
+  /**
+   * The fields selected from the {@link FieldSource} for those fields that are {@code null} in {@link #singleUrl},
+   * captured at the time of the lookup.  Each is {@code null} when not needed or when {@link #url} was provided.
+   */
+  private final String scheme;
+  private final HostAddress host;
+  private final Port port;
+  private final Path contextPath;
+
+  /**
+   * The completed URL, resolved on first access.
+   */
+  private volatile URL url;
+
   PartialURLMatch(
       PartialURL partialUrl,
       SinglePartialURL singleUrl,
@@ -44,22 +62,69 @@ public class PartialURLMatch<V> {
   ) {
     this.partialUrl = partialUrl;
     this.singleUrl = singleUrl;
-    this.url = url;
     this.value = value;
+    this.scheme = null;
+    this.host = null;
+    this.port = null;
+    this.contextPath = null;
+    this.url = Objects.requireNonNull(url);
+  }
+
+  private PartialURLMatch(
+      PartialURL partialUrl,
+      SinglePartialURL singleUrl,
+      String scheme,
+      HostAddress host,
+      Port port,
+      Path contextPath,
+      V value
+  ) {
+    this.partialUrl = partialUrl;
+    this.singleUrl = singleUrl;
+    this.value = value;
+    this.scheme = scheme;
+    this.host = host;
+    this.port = port;
+    this.contextPath = contextPath;
+  }
+
+  /**
+   * Creates a match with the URL resolved on first access to {@link #getUrl()}.  Only the fields needed by
+   * {@link SinglePartialURL#toURL(com.aoapps.net.partialurl.FieldSource)} are obtained from the field source, and
+   * they are obtained immediately so the field source is not retained.
+   *
+   * @throws MalformedURLException  When unable to obtain a needed field from the field source
+   */
+  static <V> PartialURLMatch<V> valueOf(
+      PartialURL partialUrl,
+      SinglePartialURL singleUrl,
+      FieldSource fieldSource,
+      V value
+  ) throws MalformedURLException {
+    return new PartialURLMatch<>(
+        partialUrl,
+        singleUrl,
+        (singleUrl.getScheme() == null) ? fieldSource.getScheme() : null,
+        (singleUrl.getHost() == null) ? fieldSource.getHost() : null,
+        (singleUrl.getPort() == null) ? fieldSource.getPort() : null,
+        (singleUrl.getContextPath() == null) ? fieldSource.getContextPath() : null,
+        value
+    );
   }
 
   @Override
   public String toString() {
+    URL u = getUrl();
     if (partialUrl == singleUrl) {
-      return singleUrl + " → " + url;
+      return singleUrl + " → " + u;
     } else {
-      return partialUrl + " → " + singleUrl + " → " + url;
+      return partialUrl + " → " + singleUrl + " → " + u;
     }
   }
 
   /**
    * Two matches are equal when they have the same partialUrl (by .equals),
-   * singleUrl (by .equals), url (by .equals), and value (by identity).
+   * singleUrl (by .equals), url (by {@link #urlEquals(java.net.URL, java.net.URL)}), and value (by identity).
    */
   @Override
   public boolean equals(Object o) {
@@ -71,18 +136,61 @@ public class PartialURLMatch<V> {
         value == other.value
             && partialUrl.equals(other.partialUrl)
             && singleUrl.equals(other.singleUrl)
-            && url.equals(other.url);
+            && urlEquals(getUrl(), other.getUrl());
   }
 
   @Override
   public int hashCode() {
     int hash = partialUrl.hashCode();
     hash = hash * 31 + singleUrl.hashCode();
-    hash = hash * 31 + url.hashCode();
+    hash = hash * 31 + urlHashCode(getUrl());
     hash = hash * 31 + Objects.hashCode(value);
     return hash;
   }
 
+  /**
+   * Gets the host of a URL in lower-case, or {@code null} when it has no host.
+   */
+  private static String getHostLowerCase(URL url) {
+    String host = url.getHost();
+    return (host == null) ? null : host.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Gets the port of a URL, or its protocol's default port when not specified.
+   */
+  private static int getEffectivePort(URL url) {
+    int port = url.getPort();
+    return (port == -1) ? url.getDefaultPort() : port;
+  }
+
+  /**
+   * Compares two URLs by protocol, host (case-insensitive), port (with default port), file, and reference.
+   * This is consistent with {@link URL#equals(java.lang.Object)}, except hosts are compared by name only.
+   * {@link URL#equals(java.lang.Object)} may perform blocking name resolution to compare hosts by address, which this
+   * never does.
+   */
+  static boolean urlEquals(URL url1, URL url2) {
+    return
+        url1.getProtocol().equals(url2.getProtocol())
+            && getEffectivePort(url1) == getEffectivePort(url2)
+            && Objects.equals(url1.getFile(), url2.getFile())
+            && Objects.equals(url1.getRef(), url2.getRef())
+            && Objects.equals(getHostLowerCase(url1), getHostLowerCase(url2));
+  }
+
+  /**
+   * Computes a hash code consistent with {@link #urlEquals(java.net.URL, java.net.URL)}, without any name resolution.
+   */
+  static int urlHashCode(URL url) {
+    int hash = url.getProtocol().hashCode();
+    hash = hash * 31 + Objects.hashCode(getHostLowerCase(url));
+    hash = hash * 31 + getEffectivePort(url);
+    hash = hash * 31 + Objects.hashCode(url.getFile());
+    hash = hash * 31 + Objects.hashCode(url.getRef());
+    return hash;
+  }
+
   /**
    * Gets the partial URL that matched the lookup.
    * This might be a {@link MultiPartialURL}.
@@ -107,13 +215,49 @@ public class PartialURLMatch<V> {
    *
    * <p><b>Implementation Note:</b><br>
    * this implementation uses {@link SinglePartialURL#toURL(com.aoapps.net.partialurl.FieldSource)} on
-   * {@link #getSingleURL()}.</p>
+   * {@link #getSingleURL()}.  The URL is created on first access, so lookups that only use {@link #getValue()} never
+   * create it.  The fields are selected from the {@link FieldSource} at the time of the lookup.</p>
    *
    * @see  #getSingleURL()
    * @see  SinglePartialURL#toURL(com.aoapps.net.partialurl.FieldSource)
    */
   public URL getUrl() {
-    return url;
+    URL u = url;
+    if (u == null) {
+      // Racy single-check: concurrent first accesses may each create an equal URL
+      try {
+        u = singleUrl.toURL(new FieldSource() {
+          @Override
+          public String getScheme() {
+            return scheme;
+          }
+
+          @Override
+          public HostAddress getHost() {
+            return host;
+          }
+
+          @Override
+          public Port getPort() {
+            return port;
+          }
+
+          @Override
+          public Path getContextPath() {
+            return contextPath;
+          }
+
+          @Override
+          public Path getPath() {
+            throw new AssertionError("Path is not used by toURL");
+          }
+        });
+      } catch (MalformedURLException e) {
+        throw new AssertionError("Captured fields are never malformed", e);
+      }
+      url = u;
+    }
+    return u;
   }
 
   /**
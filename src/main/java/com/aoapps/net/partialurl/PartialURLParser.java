@@ -0,0 +1,675 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses the syntax produced by {@link SinglePartialURL#toString()} and {@link MultiPartialURL#toString()} back into
+ * a {@link PartialURL}.
+ *
+ * <pre>[scheme:]//host[:port]contextPathprefix</pre>
+ *
+ * <ul>
+ * <li>Each field is either a single value, a comma-separated set of values in braces, or a wildcard matching
+ *     any value: {@code *} for the host and port, {@code /*} for the context path, and {@code /**} for the
+ *     prefix.  A missing scheme matches any scheme.</li>
+ * <li>The port may be omitted when there is a single scheme of {@link PartialURL#HTTP} or {@link PartialURL#HTTPS},
+ *     meaning the default port of the scheme.</li>
+ * <li>The root context path is empty.</li>
+ * <li>A path without braces that ends in a slash is a prefix within the root context path.  A single context path
+ *     followed by a single prefix is written in braces, such as {@code //*:*{/context}/prefix/}, to mark where the
+ *     context path ends.</li>
+ * </ul>
+ *
+ * <p>Parsed values are interned by their text: each parser returns the same scheme, {@link HostAddress},
+ * {@link Port}, and {@link Path} instances for repeated values.  When parsing many partial URLs, such as by
+ * {@link PartialURLMap#load(java.io.Reader, java.util.function.Function)}, reuse a single parser so the values are
+ * shared across the resulting partial URLs.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This class is not thread safe.  Lookups of previously seen values do not allocate, and fields are parsed directly
+ * from the {@link CharSequence} without creating substrings.</p>
+ */
+final class PartialURLParser {
+
+  /**
+   * The longest host accepted by {@link #isInvalid(java.lang.CharSequence, int, java.lang.CharSequence)}, which is
+   * longer than any domain name or bracketed IPv6 address.
+   */
+  private static final int MAX_HOST_LENGTH = 255;
+
+  private static final int MAX_PORT = 65535;
+
+  /**
+   * The port number of an authority when there is no port and no default port for the scheme.
+   *
+   * @see  #parsePortNumber(java.lang.CharSequence, int, int, java.lang.String)
+   */
+  static final int NO_PORT = -1;
+
+  /**
+   * The port number of an authority when the port is not a number.
+   *
+   * @see  #parsePortNumber(java.lang.CharSequence, int, int, java.lang.String)
+   */
+  static final int INVALID_PORT = -2;
+
+  /**
+   * Finds the end of the host in a range of text containing an authority, without any userinfo.  A colon within a
+   * bracketed IPv6 address does not end the host.  This is shared by the field sources that split the text of a
+   * request.
+   *
+   * @return  The index of the colon before the port or {@code end} when there is no port
+   */
+  static int findHostEnd(CharSequence text, int start, int end) {
+    int colonSearchStart = start;
+    if (start < end && text.charAt(start) == '[') {
+      for (int i = start + 1; i < end; i++) {
+        if (text.charAt(i) == ']') {
+          colonSearchStart = i + 1;
+          break;
+        }
+      }
+    }
+    for (int i = end - 1; i >= colonSearchStart; i--) {
+      if (text.charAt(i) == ':') {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Parses the port of an authority, following its host, without creating an exception.  When there is no port, this
+   * is the default port of {@link PartialURL#HTTP} or {@link PartialURL#HTTPS}.
+   *
+   * @param  hostEnd  The end of the host, as found by {@link #findHostEnd(java.lang.CharSequence, int, int)}
+   * @param  end      The end of the authority
+   * @param  scheme   The scheme, already lower-case
+   *
+   * @return  The port number, which is not range checked, {@link #NO_PORT}, or {@link #INVALID_PORT}
+   */
+  static int parsePortNumber(CharSequence text, int hostEnd, int end, String scheme) {
+    int portStart = hostEnd + 1;
+    if (hostEnd == end || portStart == end) {
+      // Default port for the scheme
+      if (PartialURL.HTTP.equals(scheme)) {
+        return 80;
+      }
+      if (PartialURL.HTTPS.equals(scheme)) {
+        return 443;
+      }
+      return NO_PORT;
+    }
+    int portNum = 0;
+    for (int i = portStart; i < end; i++) {
+      char ch = text.charAt(i);
+      if (ch < '0' || ch > '9' || i - portStart >= 5) {
+        return INVALID_PORT;
+      }
+      portNum = portNum * 10 + (ch - '0');
+    }
+    return portNum;
+  }
+
+  /**
+   * Checks the text of the fields of a URL for syntax that can never be valid, without creating an exception.  This
+   * is the quick check shared by the implementations of {@link FieldSource#isInvalid()}.  It only rejects text that
+   * would certainly fail validation: a host that is empty, too long, or has characters not allowed in a hostname or IP
+   * address; a port out of range; or a non-empty path that does not begin with a slash (/) or contains a null
+   * character.
+   *
+   * @param  host  The text of the host, which may be a bracketed IPv6 address
+   * @param  port  The port number, including the default port for the scheme, or a negative value when there is no
+   *               port or it is not a number
+   * @param  path  The text of the path, which is empty when there is no path
+   */
+  static boolean isInvalid(CharSequence host, int port, CharSequence path) {
+    if (port < 1 || port > MAX_PORT) {
+      return true;
+    }
+    int hostLen = host.length();
+    if (hostLen == 0 || hostLen > MAX_HOST_LENGTH) {
+      return true;
+    }
+    boolean bracketed = host.charAt(0) == '[';
+    if (bracketed && (hostLen < 3 || host.charAt(hostLen - 1) != ']')) {
+      return true;
+    }
+    int end = bracketed ? (hostLen - 1) : hostLen;
+    for (int i = bracketed ? 1 : 0; i < end; i++) {
+      char ch = host.charAt(i);
+      if (
+          !(ch >= 'a' && ch <= 'z')
+              && !(ch >= 'A' && ch <= 'Z')
+              && !(ch >= '0' && ch <= '9')
+              && ch != '-'
+              && ch != '.'
+              && ch != '_'
+              && ch != ':'
+      ) {
+        return true;
+      }
+    }
+    int pathLen = path.length();
+    if (pathLen > 0) {
+      if (path.charAt(0) != Path.SEPARATOR_CHAR) {
+        return true;
+      }
+      for (int i = 1; i < pathLen; i++) {
+        if (path.charAt(i) == '\0') {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Interns values by their text, looked-up by a range of a {@link CharSequence} without creating a substring.
+   *
+   * @param  <T>  The type of value
+   */
+  private static final class Interner<T> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    private static int hash(CharSequence s, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + s.charAt(i);
+      }
+      return h ^ (h >>> 16);
+    }
+
+    private static boolean regionEquals(String key, CharSequence s, int start, int end) {
+      int len = end - start;
+      if (key.length() != len) {
+        return false;
+      }
+      for (int i = 0; i < len; i++) {
+        if (key.charAt(i) != s.charAt(start + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Gets the value for the given text.
+     *
+     * @return  The value or {@code null} when not yet interned
+     */
+    @SuppressWarnings("unchecked")
+    T get(CharSequence s, int start, int end) {
+      int mask = keys.length - 1;
+      int hash = hash(s, start, end);
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        String key = keys[slot];
+        if (key == null) {
+          return null;
+        }
+        if (hashes[slot] == hash && regionEquals(key, s, start, end)) {
+          return (T) values[slot];
+        }
+      }
+    }
+
+    /**
+     * Interns a value for text not yet interned.
+     */
+    void put(String key, T value) {
+      if ((size + 1) * 2 > keys.length) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        int capacity = oldKeys.length * 2;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldKeys[i] != null) {
+            insert(oldKeys[i], oldHashes[i], oldValues[i]);
+          }
+        }
+      }
+      insert(key, hash(key, 0, key.length()), value);
+      size++;
+    }
+
+    private void insert(String key, int hash, Object value) {
+      int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      hashes[slot] = hash;
+      values[slot] = value;
+    }
+  }
+
+  private final Interner<String> schemeInterner = new Interner<>();
+  private final Interner<HostAddress> hostInterner = new Interner<>();
+  private final Interner<Port> portInterner = new Interner<>();
+  private final Interner<Path> pathInterner = new Interner<>();
+
+  // Reused between calls to parse
+  private final List<String> schemes = new ArrayList<>();
+  private final List<HostAddress> hosts = new ArrayList<>();
+  private final List<Port> ports = new ArrayList<>();
+  private final List<Path> contextPaths = new ArrayList<>();
+  private final List<Path> prefixes = new ArrayList<>();
+
+  // The state of the current call to parse, where len is the end of the range parsed
+  private CharSequence s;
+  private int len;
+  private int pos;
+
+  /**
+   * Parses a partial URL.
+   *
+   * @throws  MalformedURLException  When the syntax is invalid or any field is not valid
+   */
+  PartialURL parse(CharSequence partialUrl) throws MalformedURLException {
+    return parse(partialUrl, 0, partialUrl.length());
+  }
+
+  /**
+   * Parses a partial URL from a range of characters, such as one field of a line.
+   *
+   * @throws  MalformedURLException  When the syntax is invalid or any field is not valid
+   */
+  PartialURL parse(CharSequence partialUrl, int start, int end) throws MalformedURLException {
+    s = partialUrl;
+    len = end;
+    pos = start;
+    try {
+      schemes.clear();
+      hosts.clear();
+      ports.clear();
+      contextPaths.clear();
+      prefixes.clear();
+      boolean schemesWildcard = parseSchemes();
+      boolean hostsWildcard = parseHosts();
+      boolean portsWildcard = parsePorts(schemesWildcard);
+      boolean contextPathsWildcard;
+      if (startsWith("/*") && pos + 2 < len && s.charAt(pos + 2) != '*') {
+        // "/*" followed by a prefix, but not "/**" for the root context path
+        contextPathsWildcard = true;
+        pos += 2;
+      } else {
+        contextPathsWildcard = false;
+        parseContextPaths();
+      }
+      boolean prefixesWildcard = parsePrefixes();
+      if (
+          schemes.size() <= 1
+              && hosts.size() <= 1
+              && ports.size() <= 1
+              && contextPaths.size() <= 1
+              && prefixes.size() <= 1
+      ) {
+        return PartialURL.valueOf(
+            schemesWildcard ? null : schemes.get(0),
+            hostsWildcard ? null : hosts.get(0),
+            portsWildcard ? null : ports.get(0),
+            contextPathsWildcard ? null : contextPaths.get(0),
+            prefixesWildcard ? null : prefixes.get(0)
+        );
+      } else {
+        return PartialURL.valueOf(
+            schemesWildcard ? null : schemes,
+            hostsWildcard ? null : hosts,
+            portsWildcard ? null : ports,
+            contextPathsWildcard ? null : contextPaths,
+            prefixesWildcard ? null : prefixes
+        );
+      }
+    } catch (IllegalArgumentException e) {
+      MalformedURLException newErr = new MalformedURLException(e.getMessage() + ": " + partialUrl);
+      newErr.initCause(e);
+      throw newErr;
+    } finally {
+      s = null;
+    }
+  }
+
+  private MalformedURLException error(String message) {
+    return new MalformedURLException(message + " at index " + pos + ": " + s);
+  }
+
+  private MalformedURLException error(String message, ValidationException cause) {
+    MalformedURLException newErr = error(message);
+    newErr.initCause(cause);
+    return newErr;
+  }
+
+  private boolean startsWith(String prefix) {
+    int prefixLen = prefix.length();
+    if (pos + prefixLen > len) {
+      return false;
+    }
+    for (int i = 0; i < prefixLen; i++) {
+      if (s.charAt(pos + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void expect(char ch) throws MalformedURLException {
+    if (pos >= len || s.charAt(pos) != ch) {
+      throw error("Expected '" + ch + '\'');
+    }
+    pos++;
+  }
+
+  /**
+   * Finds the end of a value, which is the next of the given delimiters or the end of the partial URL.
+   */
+  private int findEnd(String delimiters) {
+    int end = pos;
+    while (end < len && delimiters.indexOf(s.charAt(end)) == -1) {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+   * Parses one value or a set of values in braces, adding each value to the given list.
+   *
+   * @param  delimiters  The characters that end a single value not in braces
+   */
+  private <T> void parseValues(List<T> list, String delimiters, ValueParser<T> parser) throws MalformedURLException {
+    if (pos < len && s.charAt(pos) == '{') {
+      pos++;
+      while (true) {
+        int end = findEnd(",}");
+        if (end == len) {
+          throw error("Missing '}'");
+        }
+        list.add(parser.parse(end));
+        pos = end + 1;
+        if (s.charAt(end) == '}') {
+          break;
+        }
+      }
+    } else {
+      int end = findEnd(delimiters);
+      list.add(parser.parse(end));
+      pos = end;
+    }
+  }
+
+  @FunctionalInterface
+  private interface ValueParser<T> {
+    /**
+     * Parses the value from {@link #pos} to the given end.
+     */
+    T parse(int end) throws MalformedURLException;
+  }
+
+  /**
+   * @return  {@code true} when the scheme is a wildcard
+   */
+  private boolean parseSchemes() throws MalformedURLException {
+    if (startsWith("//")) {
+      pos += 2;
+      return true;
+    }
+    parseValues(schemes, ":", this::parseScheme);
+    expect(':');
+    expect('/');
+    expect('/');
+    return false;
+  }
+
+  private String parseScheme(int end) throws MalformedURLException {
+    if (pos == end) {
+      throw error("Empty scheme");
+    }
+    String scheme = schemeInterner.get(s, pos, end);
+    if (scheme == null) {
+      for (int i = pos; i < end; i++) {
+        char ch = s.charAt(i);
+        if (
+            !(ch >= 'a' && ch <= 'z')
+                && !(ch >= 'A' && ch <= 'Z')
+                && (
+                  i == pos
+                      || (
+                        !(ch >= '0' && ch <= '9')
+                            && ch != '+' && ch != '-' && ch != '.'
+                      )
+                )
+        ) {
+          throw error("Invalid scheme");
+        }
+      }
+      String key = s.subSequence(pos, end).toString();
+      String lower = key.toLowerCase(Locale.ROOT);
+      // Share the instance between different cases of the same scheme
+      scheme = schemeInterner.get(lower, 0, lower.length());
+      if (scheme == null) {
+        if (PartialURL.HTTP.equals(lower)) {
+          scheme = PartialURL.HTTP;
+        } else if (PartialURL.HTTPS.equals(lower)) {
+          scheme = PartialURL.HTTPS;
+        } else {
+          scheme = lower;
+        }
+        if (!key.equals(lower)) {
+          schemeInterner.put(lower, scheme);
+        }
+      }
+      schemeInterner.put(key, scheme);
+    }
+    return scheme;
+  }
+
+  /**
+   * @return  {@code true} when the host is a wildcard
+   */
+  private boolean parseHosts() throws MalformedURLException {
+    if (pos < len && s.charAt(pos) == PartialURL.WILDCARD_CHAR) {
+      pos++;
+      return true;
+    }
+    if (pos < len && s.charAt(pos) == '{') {
+      parseValues(hosts, "", this::parseHost);
+    } else {
+      int end;
+      if (pos < len && s.charAt(pos) == '[') {
+        // Bracketed IPv6 address contains ':'
+        end = findEnd("]");
+        if (end == len) {
+          throw error("Missing ']'");
+        }
+        end++;
+      } else {
+        end = findEnd(":/{");
+      }
+      hosts.add(parseHost(end));
+      pos = end;
+    }
+    return false;
+  }
+
+  private HostAddress parseHost(int end) throws MalformedURLException {
+    if (pos == end) {
+      throw error("Empty host");
+    }
+    HostAddress host = hostInterner.get(s, pos, end);
+    if (host == null) {
+      String key = s.subSequence(pos, end).toString();
+      try {
+        host = HostAddress.valueOf(key);
+      } catch (ValidationException e) {
+        throw error("Invalid host", e);
+      }
+      hostInterner.put(key, host);
+    }
+    return host;
+  }
+
+  /**
+   * @param  schemesWildcard  When the scheme is a wildcard, which requires the port
+   *
+   * @return  {@code true} when the port is a wildcard
+   */
+  private boolean parsePorts(boolean schemesWildcard) throws MalformedURLException {
+    if (pos < len && s.charAt(pos) == ':') {
+      pos++;
+      if (pos < len && s.charAt(pos) == PartialURL.WILDCARD_CHAR) {
+        pos++;
+        return true;
+      }
+      parseValues(ports, "/{", this::parsePort);
+    } else {
+      // Omitted for the default port of a single http or https scheme
+      String scheme = (schemesWildcard || schemes.size() != 1) ? null : schemes.get(0);
+      String defaultPort;
+      if (PartialURL.HTTP.equals(scheme)) {
+        defaultPort = "80";
+      } else if (PartialURL.HTTPS.equals(scheme)) {
+        defaultPort = "443";
+      } else {
+        throw error("Port required");
+      }
+      ports.add(getPort(defaultPort, 0, defaultPort.length()));
+    }
+    return false;
+  }
+
+  private Port parsePort(int end) throws MalformedURLException {
+    if (pos == end) {
+      throw error("Empty port");
+    }
+    return getPort(s, pos, end);
+  }
+
+  private Port getPort(CharSequence text, int start, int end) throws MalformedURLException {
+    Port port = portInterner.get(text, start, end);
+    if (port == null) {
+      int portNum = 0;
+      for (int i = start; i < end; i++) {
+        char ch = text.charAt(i);
+        if (ch < '0' || ch > '9' || i - start >= 5) {
+          throw error("Invalid port");
+        }
+        portNum = portNum * 10 + (ch - '0');
+      }
+      try {
+        port = Port.valueOf(portNum, Protocol.TCP);
+      } catch (ValidationException e) {
+        throw error("Invalid port", e);
+      }
+      portInterner.put(text.subSequence(start, end).toString(), port);
+    }
+    return port;
+  }
+
+  /**
+   * Parses the context path or paths, which are not a wildcard.  Braces at the end of the partial URL are prefixes,
+   * since the prefix always follows the context path.
+   */
+  private void parseContextPaths() throws MalformedURLException {
+    if (pos < len && s.charAt(pos) == '{') {
+      int start = pos;
+      parseValues(contextPaths, "", this::parsePath);
+      if (pos == len) {
+        // Prefixes in the root context path
+        contextPaths.clear();
+        contextPaths.add(Path.ROOT);
+        pos = start;
+      }
+    } else {
+      int end = findEnd("{");
+      if (end == len) {
+        // Unbraced path is either a context path followed by "/**" or a prefix in the root context path
+        int nullPrefixStart = end - PartialURL.NULL_PREFIX.length();
+        if (nullPrefixStart >= pos && PartialURL.NULL_PREFIX.contentEquals(s.subSequence(nullPrefixStart, end))) {
+          end = nullPrefixStart;
+        } else {
+          end = pos;
+        }
+      }
+      contextPaths.add(parsePath(end));
+      pos = end;
+    }
+  }
+
+  /**
+   * @return  {@code true} when the prefix is a wildcard
+   */
+  private boolean parsePrefixes() throws MalformedURLException {
+    if (pos >= len) {
+      throw error("Prefix required");
+    }
+    if (startsWith(PartialURL.NULL_PREFIX) && pos + PartialURL.NULL_PREFIX.length() == len) {
+      pos = len;
+      return true;
+    }
+    parseValues(prefixes, "", this::parsePath);
+    if (pos != len) {
+      throw error("Unexpected characters after prefix");
+    }
+    return false;
+  }
+
+  /**
+   * Parses a context path or prefix, where empty is {@link Path#ROOT}.
+   */
+  private Path parsePath(int end) throws MalformedURLException {
+    if (pos == end || (end == pos + 1 && s.charAt(pos) == Path.SEPARATOR_CHAR)) {
+      return Path.ROOT;
+    }
+    Path path = pathInterner.get(s, pos, end);
+    if (path == null) {
+      String key = s.subSequence(pos, end).toString();
+      try {
+        path = Path.valueOf(key);
+      } catch (ValidationException e) {
+        throw error("Invalid path", e);
+      }
+      pathInterner.put(key, path);
+    }
+    return path;
+  }
+}
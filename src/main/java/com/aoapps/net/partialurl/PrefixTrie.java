@@ -0,0 +1,445 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.net.Path;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A segment-based radix trie of {@link SinglePartialURL#getPrefix() prefixes}, used by {@link PartialURLMap} to find
+ * all registered prefixes of a path in a single forward pass without creating any substrings.
+ *
+ * <p>Each node is reached by an edge label consisting of one or more whole path segments, each ending in a slash (/).
+ * Prefixes with common leading segments share the nodes for those segments.  The root node has an empty label and
+ * holds the value for the {@code null} prefix.</p>
+ *
+ * <p>Children are found by their first segment in a small open-addressed table, hashing the segment directly from the
+ * path being searched.</p>
+ *
+ * <p><b>Implementation Note:</b><br>
+ * This class is not thread safe.  Once published in an immutable snapshot, it may be read concurrently.</p>
+ *
+ * @param  <T>  The type of value stored at each node
+ */
+final class PrefixTrie<T> {
+
+  private static final PrefixTrie<?>[] EMPTY_CHILDREN = {};
+
+  /**
+   * The edge label from the parent node, empty for the root.
+   */
+  private String label;
+
+  /**
+   * The hash of the first segment of {@link #label}, consistent with {@link #hashSegment(java.lang.String, int, int)}.
+   */
+  private int segmentHash;
+
+  /**
+   * The length of the first segment of {@link #label}, including its trailing slash.
+   */
+  private int segmentLength;
+
+  /**
+   * The value at this node or {@code null} when no prefix ends at this node.
+   */
+  private T value;
+
+  /**
+   * Open-addressed by {@link #segmentHash} with linear probing.  Length is zero or a power of two.
+   */
+  private PrefixTrie<T>[] children;
+
+  private int childCount;
+
+  /**
+   * Creates a new, empty root node.
+   */
+  @SuppressWarnings("unchecked")
+  PrefixTrie() {
+    this("", (PrefixTrie<T>[]) EMPTY_CHILDREN, 0);
+  }
+
+  /**
+   * Creates a shallow copy of a node.  The children are shared and must be copied before being modified.
+   */
+  PrefixTrie(PrefixTrie<T> other) {
+    this(other.label, other.children.clone(), other.childCount);
+    this.value = other.value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private PrefixTrie(String label) {
+    this(label, (PrefixTrie<T>[]) EMPTY_CHILDREN, 0);
+  }
+
+  private PrefixTrie(String label, PrefixTrie<T>[] children, int childCount) {
+    setLabel(label);
+    this.children = children;
+    this.childCount = childCount;
+  }
+
+  private void setLabel(String label) {
+    this.label = label;
+    if (label.isEmpty()) {
+      segmentHash = 0;
+      segmentLength = 0;
+    } else {
+      segmentLength = label.indexOf(Path.SEPARATOR_CHAR) + 1;
+      assert segmentLength > 0 : "Label must end in a slash: " + label;
+      segmentHash = hashSegment(label, 0, segmentLength);
+    }
+  }
+
+  /**
+   * Hashes the given region of a string.
+   */
+  private static int hashSegment(String str, int begin, int end) {
+    int hash = 0;
+    for (int i = begin; i < end; i++) {
+      hash = 31 * hash + str.charAt(i);
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Gets the length of the edge label from the parent node.
+   */
+  int getLabelLength() {
+    return label.length();
+  }
+
+  /**
+   * Gets the value at this node.
+   *
+   * @return  The value or {@code null} when no prefix ends at this node.
+   */
+  T getValue() {
+    return value;
+  }
+
+  /**
+   * Checks if this node has no value and no children.
+   */
+  boolean isEmpty() {
+    return value == null && childCount == 0;
+  }
+
+  /**
+   * Finds the slot of the child with the given first segment.
+   *
+   * @return  The slot of the child, or the negative of one more than the empty slot where it belongs.
+   */
+  private int findSlot(String str, int begin, int segmentLen, int hash) {
+    assert children.length > 0;
+    int mask = children.length - 1;
+    int slot = hash & mask;
+    while (true) {
+      PrefixTrie<T> child = children[slot];
+      if (child == null) {
+        return -(slot + 1);
+      }
+      if (
+          child.segmentHash == hash
+              && child.segmentLength == segmentLen
+              && child.label.regionMatches(0, str, begin, segmentLen)
+      ) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Gets the child whose entire edge label matches the given path at the given position.
+   *
+   * @param  pos  The position in the path, immediately following the label of this node
+   *
+   * @return  The child or {@code null} when there is no matching child
+   */
+  PrefixTrie<T> getChild(String path, int pos) {
+    if (childCount == 0) {
+      return null;
+    }
+    int segmentEnd = path.indexOf(Path.SEPARATOR_CHAR, pos) + 1;
+    if (segmentEnd == 0) {
+      return null;
+    }
+    return findChild(path, pos, segmentEnd - pos, hashSegment(path, pos, segmentEnd));
+  }
+
+  /**
+   * Gets the child whose entire edge label matches the given path at the given position, with the segment at that
+   * position already found and hashed, such as by {@link RequestKey}.  The path is not scanned for the end of the
+   * segment.
+   *
+   * @param  pos          The position in the path, immediately following the label of this node
+   * @param  segmentLen   The length of the segment at {@code pos}, including its trailing slash
+   * @param  segmentHash  The {@link String#hashCode() hash code} of the segment
+   *
+   * @return  The child or {@code null} when there is no matching child
+   *
+   * @see  RequestKey#getSegmentHashes()
+   */
+  PrefixTrie<T> getChild(String path, int pos, int segmentLen, int segmentHash) {
+    if (childCount == 0) {
+      return null;
+    }
+    return findChild(path, pos, segmentLen, segmentHash ^ (segmentHash >>> 16));
+  }
+
+  /**
+   * Finds the child with the given first segment, then matches the remainder of its edge label.
+   *
+   * @param  hash  The hash of the segment, consistent with {@link #hashSegment(java.lang.String, int, int)}
+   */
+  private PrefixTrie<T> findChild(String path, int pos, int segmentLen, int hash) {
+    int slot = findSlot(path, pos, segmentLen, hash);
+    if (slot < 0) {
+      return null;
+    }
+    PrefixTrie<T> child = children[slot];
+    String childLabel = child.label;
+    int childLabelLen = childLabel.length();
+    int firstSegmentLen = child.segmentLength;
+    return
+        childLabelLen == firstSegmentLen
+            || path.regionMatches(pos + firstSegmentLen, childLabel, firstSegmentLen, childLabelLen - firstSegmentLen)
+            ? child
+            : null;
+  }
+
+  /**
+   * Gets the value for the given prefix.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null} for the value at the root
+   */
+  T get(String prefix) {
+    if (prefix == null) {
+      return value;
+    }
+    PrefixTrie<T> node = this;
+    int pos = 0;
+    int len = prefix.length();
+    while (pos < len) {
+      node = node.getChild(prefix, pos);
+      if (node == null) {
+        return null;
+      }
+      pos += node.label.length();
+    }
+    return node.value;
+  }
+
+  /**
+   * Adds a child, which must not already exist by first segment.
+   */
+  @SuppressWarnings("unchecked")
+  private void addChild(PrefixTrie<T> child) {
+    if ((childCount + 1) * 2 > children.length) {
+      PrefixTrie<T>[] oldChildren = children;
+      children = (PrefixTrie<T>[]) new PrefixTrie<?>[Math.max(2, oldChildren.length * 2)];
+      for (PrefixTrie<T> oldChild : oldChildren) {
+        if (oldChild != null) {
+          int slot = findSlot(oldChild.label, 0, oldChild.segmentLength, oldChild.segmentHash);
+          assert slot < 0;
+          children[-(slot + 1)] = oldChild;
+        }
+      }
+    }
+    int slot = findSlot(child.label, 0, child.segmentLength, child.segmentHash);
+    assert slot < 0 : "Child already exists: " + child.label;
+    children[-(slot + 1)] = child;
+    childCount++;
+  }
+
+  /**
+   * Removes the child at the given slot.  The following children in the same probe sequence are re-inserted, so they
+   * remain reachable by linear probing.
+   */
+  private void removeChild(int slot) {
+    children[slot] = null;
+    childCount--;
+    int mask = children.length - 1;
+    for (int i = (slot + 1) & mask; children[i] != null; i = (i + 1) & mask) {
+      PrefixTrie<T> moved = children[i];
+      children[i] = null;
+      int newSlot = findSlot(moved.label, 0, moved.segmentLength, moved.segmentHash);
+      assert newSlot < 0;
+      children[-(newSlot + 1)] = moved;
+    }
+  }
+
+  /**
+   * Gets the value for a prefix that may be modified by the current update, creating it when missing.
+   * Nodes are created and edges split as needed.  This node must already be modifiable.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null} for the value at the root
+   * @param  copied  The set of objects created by the current update, by identity, or {@code null} to modify in-place.
+   *                 When non-null, any existing node or value not created by the current update is first copied,
+   *                 leaving any published snapshot unchanged.
+   */
+  T modifiableValue(String prefix, Supplier<? extends T> create, UnaryOperator<T> copy, Set<Object> copied) {
+    PrefixTrie<T> node = this;
+    if (prefix != null) {
+      int pos = 0;
+      int len = prefix.length();
+      while (pos < len) {
+        int segmentEnd = prefix.indexOf(Path.SEPARATOR_CHAR, pos) + 1;
+        if (segmentEnd == 0) {
+          throw new IllegalArgumentException("Prefix does not end in slash (" + Path.SEPARATOR_CHAR + "): " + prefix);
+        }
+        int segmentLen = segmentEnd - pos;
+        int slot = (node.childCount == 0) ? -1 : node.findSlot(prefix, pos, segmentLen, hashSegment(prefix, pos, segmentEnd));
+        if (slot < 0) {
+          PrefixTrie<T> leaf = new PrefixTrie<>(prefix.substring(pos));
+          if (copied != null) {
+            copied.add(leaf);
+          }
+          node.addChild(leaf);
+          node = leaf;
+          break;
+        }
+        PrefixTrie<T> child = node.children[slot];
+        if (copied != null && !copied.contains(child)) {
+          child = new PrefixTrie<>(child);
+          copied.add(child);
+          node.children[slot] = child;
+        }
+        // Find the length of the common whole segments
+        String childLabel = child.label;
+        int childLabelLen = childLabel.length();
+        int common = segmentLen;
+        while (common < childLabelLen) {
+          int nextEnd = childLabel.indexOf(Path.SEPARATOR_CHAR, common) + 1;
+          assert nextEnd != 0;
+          int nextLen = nextEnd - common;
+          if (
+              pos + common + nextLen > len
+                  || !prefix.regionMatches(pos + common, childLabel, common, nextLen)
+          ) {
+            break;
+          }
+          common = nextEnd;
+        }
+        if (common < childLabelLen) {
+          // Split the edge, the new intermediate node has the same first segment so takes the same slot
+          PrefixTrie<T> intermediate = new PrefixTrie<>(childLabel.substring(0, common));
+          if (copied != null) {
+            copied.add(intermediate);
+          }
+          child.setLabel(childLabel.substring(common));
+          intermediate.addChild(child);
+          node.children[slot] = intermediate;
+          child = intermediate;
+        }
+        node = child;
+        pos += common;
+      }
+    }
+    T nodeValue = node.value;
+    if (nodeValue == null) {
+      nodeValue = create.get();
+    } else if (copied == null || copied.contains(nodeValue)) {
+      return nodeValue;
+    } else {
+      nodeValue = copy.apply(nodeValue);
+    }
+    if (copied != null) {
+      copied.add(nodeValue);
+    }
+    node.value = nodeValue;
+    return nodeValue;
+  }
+
+  /**
+   * Removes the value for a prefix.  Nodes left without a value or children are removed, and a node left without a
+   * value and with a single child is merged with that child, so the trie remains as compact as when only the remaining
+   * prefixes were added.  This node must already be modifiable.
+   *
+   * @param  prefix  The prefix, ending in a slash (/), or {@code null} for the value at the root
+   * @param  copied  See {@link #modifiableValue(java.lang.String, java.util.function.Supplier, java.util.function.UnaryOperator, java.util.Set)}
+   *
+   * @return  The removed value or {@code null} when there was no value for the prefix
+   */
+  T removeValue(String prefix, Set<Object> copied) {
+    if (prefix == null) {
+      T oldValue = value;
+      value = null;
+      return oldValue;
+    }
+    // Check before copying any nodes
+    if (get(prefix) == null) {
+      return null;
+    }
+    return removeValue(prefix, 0, copied);
+  }
+
+  /**
+   * Removes the value for a prefix known to have a value.
+   *
+   * @param  pos  The position in the prefix, immediately following the label of this node
+   */
+  private T removeValue(String prefix, int pos, Set<Object> copied) {
+    if (pos == prefix.length()) {
+      T oldValue = value;
+      value = null;
+      return oldValue;
+    }
+    int segmentEnd = prefix.indexOf(Path.SEPARATOR_CHAR, pos) + 1;
+    int slot = findSlot(prefix, pos, segmentEnd - pos, hashSegment(prefix, pos, segmentEnd));
+    assert slot >= 0;
+    PrefixTrie<T> child = children[slot];
+    if (copied != null && !copied.contains(child)) {
+      child = new PrefixTrie<>(child);
+      copied.add(child);
+      children[slot] = child;
+    }
+    T oldValue = child.removeValue(prefix, pos + child.label.length(), copied);
+    if (child.value == null) {
+      if (child.childCount == 0) {
+        removeChild(slot);
+      } else if (child.childCount == 1) {
+        // Merge with the only grandchild, which has the same first segment so takes the same slot
+        PrefixTrie<T> grandchild = null;
+        for (PrefixTrie<T> c : child.children) {
+          if (c != null) {
+            grandchild = c;
+            break;
+          }
+        }
+        assert grandchild != null;
+        if (copied != null && !copied.contains(grandchild)) {
+          grandchild = new PrefixTrie<>(grandchild);
+          copied.add(grandchild);
+        }
+        grandchild.setLabel(child.label + grandchild.label);
+        children[slot] = grandchild;
+      }
+    }
+    return oldValue;
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import java.net.MalformedURLException;
+
+/**
+ * The fields of a request, obtained once from a {@link FieldSource} and shared by lookups in many
+ * {@link PartialURLMap maps}, such as for routing, authentication, and cache policy of the same request.
+ *
+ * <p>All fields are obtained and validated when the key is created, so the getters never throw.  The scheme is
+ * converted to lower-case, and the path is scanned once for the end of each of its prefixes, along with the
+ * {@link String#hashCode() hash code} of each prefix and of each segment.  These are used instead of scanning and
+ * hashing the path on each lookup: a map using {@link PartialURLMap.Storage#FLATTENED} or
+ * {@link PartialURLMap.Storage#OFF_HEAP} probes the prefixes directly, a map using
+ * {@link PartialURLMap.Storage#NESTED} walks its prefix trie by the segments, and {@link PartialURLMapCache} takes the
+ * deepest prefix as its cache key.</p>
+ *
+ * <p>Request keys are immutable value types, and may be shared between threads.</p>
+ */
+public final class RequestKey implements FieldSource {
+
+  private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+  /**
+   * Gets the request key for the given field source.
+   *
+   * @return  The field source itself when already a request key
+   *
+   * @throws  MalformedURLException  When any field is invalid
+   */
+  @SuppressWarnings("deprecation")
+  public static RequestKey valueOf(FieldSource fieldSource) throws MalformedURLException {
+    if (fieldSource instanceof RequestKey) {
+      return (RequestKey) fieldSource;
+    }
+    Path path = fieldSource.getPath();
+    return new RequestKey(
+        fieldSource.getSchemeLowerCase(),
+        fieldSource.getHost(),
+        fieldSource.getPort(),
+        fieldSource.getContextPath(),
+        path,
+        (path == null) ? "" : path.toString()
+    );
+  }
+
+  private final String scheme;
+  private final HostAddress host;
+  private final Port port;
+  private final Path contextPath;
+  private final Path path;
+  private final String pathStr;
+
+  /**
+   * The end of each prefix of the path, one past each slash (/), in ascending order.
+   */
+  private final int[] prefixEnds;
+
+  /**
+   * The {@link String#hashCode() hash code} of each prefix of the path, by the same index as {@link #prefixEnds}.
+   */
+  private final int[] prefixHashes;
+
+  /**
+   * The {@link String#hashCode() hash code} of each segment of the path, from the end of the previous prefix through
+   * the end of the prefix, by the same index as {@link #prefixEnds}.
+   */
+  private final int[] segmentHashes;
+
+  private RequestKey(String scheme, HostAddress host, Port port, Path contextPath, Path path, String pathStr) {
+    this.scheme = scheme;
+    this.host = host;
+    this.port = port;
+    this.contextPath = contextPath;
+    this.path = path;
+    this.pathStr = pathStr;
+    int len = pathStr.length();
+    int count = 0;
+    for (int i = 0; i < len; i++) {
+      if (pathStr.charAt(i) == Path.SEPARATOR_CHAR) {
+        count++;
+      }
+    }
+    if (count == 0) {
+      prefixEnds = EMPTY_INT_ARRAY;
+      prefixHashes = EMPTY_INT_ARRAY;
+      segmentHashes = EMPTY_INT_ARRAY;
+    } else {
+      prefixEnds = new int[count];
+      prefixHashes = new int[count];
+      segmentHashes = new int[count];
+      int hash = 0;
+      int segmentHash = 0;
+      int prefix = 0;
+      for (int i = 0; i < len; i++) {
+        char ch = pathStr.charAt(i);
+        hash = 31 * hash + ch;
+        segmentHash = 31 * segmentHash + ch;
+        if (ch == Path.SEPARATOR_CHAR) {
+          prefixEnds[prefix] = i + 1;
+          prefixHashes[prefix] = hash;
+          segmentHashes[prefix] = segmentHash;
+          segmentHash = 0;
+          prefix++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Two request keys are equal when they have equal scheme, host, port, contextPath, and path.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof RequestKey)) {
+      return false;
+    }
+    RequestKey other = (RequestKey) o;
+    return
+        scheme.equals(other.scheme)
+            && pathStr.equals(other.pathStr)
+            && host.equals(other.host)
+            && port.equals(other.port)
+            && contextPath.equals(other.contextPath);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = scheme.hashCode();
+    hash = hash * 31 + host.hashCode();
+    hash = hash * 31 + port.hashCode();
+    hash = hash * 31 + contextPath.hashCode();
+    hash = hash * 31 + pathStr.hashCode();
+    return hash;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This is the scheme already converted to lower-case.</p>
+   */
+  @Override
+  public String getScheme() {
+    return scheme;
+  }
+
+  @Override
+  public String getSchemeLowerCase() {
+    return scheme;
+  }
+
+  @Override
+  public HostAddress getHost() {
+    return host;
+  }
+
+  @Override
+  public Port getPort() {
+    return port;
+  }
+
+  @Override
+  public Path getContextPath() {
+    return contextPath;
+  }
+
+  @Override
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Gets the text of the path, which is empty when there is no path.
+   */
+  String getPathString() {
+    return pathStr;
+  }
+
+  /**
+   * Gets the end of each prefix of the path, in ascending order.  The array must not be modified.
+   */
+  @SuppressWarnings("ReturnOfCollectionOrArrayField") // Not modified by callers
+  int[] getPrefixEnds() {
+    return prefixEnds;
+  }
+
+  /**
+   * Gets the {@link String#hashCode() hash code} of each prefix of the path, by the same index as
+   * {@link #getPrefixEnds()}.  The array must not be modified.
+   */
+  @SuppressWarnings("ReturnOfCollectionOrArrayField") // Not modified by callers
+  int[] getPrefixHashes() {
+    return prefixHashes;
+  }
+
+  /**
+   * Gets the {@link String#hashCode() hash code} of each segment of the path, where the segment ending at
+   * {@code getPrefixEnds()[i]} begins at {@code getPrefixEnds()[i - 1]}, or at zero for the first.  The array must not be
+   * modified.
+   */
+  @SuppressWarnings("ReturnOfCollectionOrArrayField") // Not modified by callers
+  int[] getSegmentHashes() {
+    return segmentHashes;
+  }
+
+  /**
+   * Finds the index of the deepest prefix ending at or before the given limit.
+   *
+   * @param  prefixEnds  The end of each prefix, in ascending order
+   *
+   * @return  The index or {@code -1} when no prefix is short enough
+   */
+  static int deepestPrefix(int[] prefixEnds, int limit) {
+    int i = prefixEnds.length - 1;
+    while (i >= 0 && prefixEnds[i] > limit) {
+      i--;
+    }
+    return i;
+  }
+}
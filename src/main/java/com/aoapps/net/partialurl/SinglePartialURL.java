@@ -30,7 +30,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Locale;
 import java.util.Objects;
 import org.apache.commons.lang3.ObjectUtils;
 
@@ -101,7 +100,14 @@ public class SinglePartialURL extends PartialURL implements Comparable<SinglePar
     }
     String contextPathStr;
     if (contextPath != null) {
-      contextPathStr = (contextPath == Path.ROOT) ? "" : contextPath.toString();
+      if (contextPath == Path.ROOT) {
+        contextPathStr = "";
+      } else if (prefix != null) {
+        // Braces mark where the context path ends and the prefix begins
+        contextPathStr = '{' + contextPath.toString() + '}';
+      } else {
+        contextPathStr = contextPath.toString();
+      }
     } else {
       contextPathStr = NULL_CONTEXT_PATH;
     }
@@ -220,7 +226,7 @@ public class SinglePartialURL extends PartialURL implements Comparable<SinglePar
   public SinglePartialURL matches(FieldSource fieldSource) throws MalformedURLException {
     Path fieldPath;
     return
-        (scheme == null || scheme.equals(fieldSource.getScheme().toLowerCase(Locale.ROOT)))
+        (scheme == null || scheme.equals(fieldSource.getSchemeLowerCase()))
             && (host == null || host.equals(fieldSource.getHost()))
             && (port == null || port.equals(fieldSource.getPort()))
             && (contextPath == null || contextPath.equals(fieldSource.getContextPath()))
@@ -0,0 +1,598 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+
+/**
+ * Writes and reads the snapshot file of a {@link PartialURLMap}, which is an {@link OffHeapIndex} along with the other
+ * parts of the index, laid out so that the slots and keys of the off-heap index are used directly from the mapped file.
+ *
+ * <p>The file consists of:</p>
+ *
+ * <ol>
+ *   <li>The header, with the fields at the {@code HEADER_*} offsets.</li>
+ *   <li>The number of entries by scheme, by port, and by contextPath, then the number of keys of the off-heap index by
+ *       the hash of their host.</li>
+ *   <li>The factorized partial URLs and their values.</li>
+ *   <li>The partial URL and value of each entry of the off-heap index, in order by id.</li>
+ *   <li>The offset of each entry of the off-heap index, in order by id.</li>
+ *   <li>The slots then the keys of the off-heap index, each aligned to eight bytes and in the byte order given in the
+ *       header.</li>
+ * </ol>
+ *
+ * <p>Except for the slots and keys, all values are big-endian.  A string is a length ({@code -1} for {@code null})
+ * followed by the characters.  A port is the port number ({@code -1} for {@code null}) and the {@link Protocol}
+ * ordinal.  A partial URL is its schemes, hosts, ports, contextPaths, and prefixes, each as a number of values
+ * ({@code -1} for {@code null}) followed by the values, where hosts, contextPaths, and prefixes are strings.  A value
+ * is the id from {@link PartialURLMap.ValueCodec}.</p>
+ */
+final class SnapshotFile {
+
+  /**
+   * Identifies a snapshot file: "PURL".
+   */
+  private static final int MAGIC = 0x5055524C;
+
+  /**
+   * The version of the file format, incremented on any incompatible change.
+   */
+  private static final int VERSION = 3;
+
+  private static final int HEADER_MAGIC = 0;
+  private static final int HEADER_VERSION = HEADER_MAGIC + Integer.BYTES;
+  private static final int HEADER_SLOTS_ORDER = HEADER_VERSION + Integer.BYTES;
+  private static final int HEADER_KEYS_ORDER = HEADER_SLOTS_ORDER + Integer.BYTES;
+  private static final int HEADER_SIZE = HEADER_KEYS_ORDER + Integer.BYTES;
+  private static final int HEADER_NULL_HOST_COUNT = HEADER_SIZE + Integer.BYTES;
+  private static final int HEADER_MAX_PREFIX_LENGTH = HEADER_NULL_HOST_COUNT + Integer.BYTES;
+  private static final int HEADER_ID_COUNT = HEADER_MAX_PREFIX_LENGTH + Integer.BYTES;
+  private static final int HEADER_OFFSETS_OFFSET = HEADER_ID_COUNT + Integer.BYTES;
+  private static final int HEADER_SLOTS_OFFSET = HEADER_OFFSETS_OFFSET + Integer.BYTES;
+  private static final int HEADER_SLOTS_LENGTH = HEADER_SLOTS_OFFSET + Integer.BYTES;
+  private static final int HEADER_KEYS_OFFSET = HEADER_SLOTS_LENGTH + Integer.BYTES;
+  private static final int HEADER_KEYS_LENGTH = HEADER_KEYS_OFFSET + Integer.BYTES;
+  private static final int HEADER_BYTES = HEADER_KEYS_LENGTH + Integer.BYTES;
+
+  /**
+   * The alignment of the slots and keys.
+   */
+  private static final int ALIGNMENT = Long.BYTES;
+
+  /**
+   * The parts of the index stored in a snapshot file.
+   */
+  static final class Contents<V> {
+
+    private final OffHeapIndex<V> offHeap;
+    private final Map<MultiPartialURL, V> factorized;
+    private final Map<String, Integer> schemeCounts;
+    private final Map<Port, Integer> portCounts;
+    private final Map<Path, Integer> contextPathCounts;
+
+    /**
+     * Creates the contents of a snapshot file.
+     *
+     * @param  offHeap     The index of all partial URLs not factorized.  When written, every id must be used.
+     * @param  factorized  The factorized partial URLs and their values
+     */
+    Contents(
+        OffHeapIndex<V> offHeap,
+        Map<MultiPartialURL, V> factorized,
+        Map<String, Integer> schemeCounts,
+        Map<Port, Integer> portCounts,
+        Map<Path, Integer> contextPathCounts
+    ) {
+      this.offHeap = offHeap;
+      this.factorized = factorized;
+      this.schemeCounts = schemeCounts;
+      this.portCounts = portCounts;
+      this.contextPathCounts = contextPathCounts;
+    }
+
+    OffHeapIndex<V> getOffHeap() {
+      return offHeap;
+    }
+
+    Map<MultiPartialURL, V> getFactorized() {
+      return factorized;
+    }
+
+    Map<String, Integer> getSchemeCounts() {
+      return schemeCounts;
+    }
+
+    Map<Port, Integer> getPortCounts() {
+      return portCounts;
+    }
+
+    Map<Path, Integer> getContextPathCounts() {
+      return contextPathCounts;
+    }
+  }
+
+  /**
+   * Make no instances.
+   */
+  private SnapshotFile() {
+    throw new AssertionError();
+  }
+
+  private static int encodeOrder(ByteOrder order) {
+    return (order == ByteOrder.BIG_ENDIAN) ? 0 : 1;
+  }
+
+  private static ByteOrder decodeOrder(int order, java.nio.file.Path file) throws IOException {
+    switch (order) {
+      case 0:
+        return ByteOrder.BIG_ENDIAN;
+      case 1:
+        return ByteOrder.LITTLE_ENDIAN;
+      default:
+        throw new IOException("Invalid byte order: " + order + ": " + file);
+    }
+  }
+
+  private static int align(int offset) {
+    return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  /**
+   * Writes a single value.
+   */
+  @FunctionalInterface
+  private interface ValueWriter<T> {
+    void write(DataOutputStream out, T value) throws IOException;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(s.length());
+      out.writeChars(s);
+    }
+  }
+
+  private static void writePort(DataOutputStream out, Port port) throws IOException {
+    if (port == null) {
+      out.writeInt(-1);
+      out.writeInt(-1);
+    } else {
+      out.writeInt(port.getPort());
+      out.writeInt(port.getProtocol().ordinal());
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private static void writePath(DataOutputStream out, Path path) throws IOException {
+    writeString(out, Objects.toString(path, null));
+  }
+
+  /**
+   * Writes a number of values ({@code -1} for {@code null}) followed by the values.
+   */
+  private static <T> void writeValues(DataOutputStream out, Collection<? extends T> values, ValueWriter<T> writer) throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(values.size());
+      for (T value : values) {
+        writer.write(out, value);
+      }
+    }
+  }
+
+  private static <T> Collection<T> singletonOrNull(T value) {
+    return (value == null) ? null : Collections.singleton(value);
+  }
+
+  private static void writePartialUrl(DataOutputStream out, PartialURL partialUrl) throws IOException {
+    if (partialUrl instanceof MultiPartialURL) {
+      MultiPartialURL multiUrl = (MultiPartialURL) partialUrl;
+      writeValues(out, multiUrl.getSchemes(), SnapshotFile::writeString);
+      writeValues(out, multiUrl.getHosts(), (o, host) -> writeString(o, host.toString()));
+      writeValues(out, multiUrl.getPorts(), SnapshotFile::writePort);
+      writeValues(out, multiUrl.getContextPaths(), SnapshotFile::writePath);
+      writeValues(out, multiUrl.getPrefixes(), SnapshotFile::writePath);
+    } else {
+      SinglePartialURL singleUrl = (SinglePartialURL) partialUrl;
+      writeValues(out, singletonOrNull(singleUrl.getScheme()), SnapshotFile::writeString);
+      writeValues(out, singletonOrNull(singleUrl.getHost()), (o, host) -> writeString(o, host.toString()));
+      writeValues(out, singletonOrNull(singleUrl.getPort()), SnapshotFile::writePort);
+      writeValues(out, singletonOrNull(singleUrl.getContextPath()), SnapshotFile::writePath);
+      writeValues(out, singletonOrNull(singleUrl.getPrefix()), SnapshotFile::writePath);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Writes zeros until the channel is at the given position.
+   */
+  private static void pad(FileChannel channel, int position) throws IOException {
+    writeFully(channel, ByteBuffer.allocate(Math.toIntExact(position - channel.position())));
+  }
+
+  /**
+   * Writes a snapshot file.  The file is first written to a temporary file in the same directory, then moved into
+   * place, so that any process still using the previous file is not affected.
+   *
+   * @throws  IOException  When unable to write the file or the snapshot is too large to be mapped as a single buffer
+   */
+  static <V> void write(java.nio.file.Path file, Contents<V> contents, PartialURLMap.ValueCodec<V> codec) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    int[] offsets;
+    try (DataOutputStream out = new DataOutputStream(bout)) {
+      // Counts
+      out.writeInt(contents.schemeCounts.size());
+      for (Map.Entry<String, Integer> entry : contents.schemeCounts.entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+      out.writeInt(contents.portCounts.size());
+      for (Map.Entry<Port, Integer> entry : contents.portCounts.entrySet()) {
+        writePort(out, entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+      out.writeInt(contents.contextPathCounts.size());
+      for (Map.Entry<Path, Integer> entry : contents.contextPathCounts.entrySet()) {
+        writePath(out, entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+      int[] hostCounts = contents.offHeap.getHostCounts();
+      out.writeInt(hostCounts.length / 2);
+      for (int value : hostCounts) {
+        out.writeInt(value);
+      }
+      // Factorized
+      out.writeInt(contents.factorized.size());
+      for (Map.Entry<MultiPartialURL, V> entry : contents.factorized.entrySet()) {
+        writePartialUrl(out, entry.getKey());
+        out.writeInt(codec.encode(entry.getValue()));
+      }
+      // Entries
+      OffHeapIndex<V> offHeap = contents.offHeap;
+      offsets = new int[offHeap.getIdCount()];
+      for (int id = 0; id < offsets.length; id++) {
+        ImmutableTriple<PartialURL, SinglePartialURL, V> entry = offHeap.getEntry(id);
+        if (entry == null) {
+          throw new IllegalArgumentException("Unused id: " + id);
+        }
+        offsets[id] = HEADER_BYTES + out.size();
+        writePartialUrl(out, entry.left);
+        out.writeInt(codec.encode(entry.right));
+      }
+      for (int offset : offsets) {
+        out.writeInt(offset);
+      }
+    }
+    OffHeapIndex<V> offHeap = contents.offHeap;
+    ByteBuffer slots = offHeap.getSlots();
+    ByteBuffer keys = offHeap.getKeys();
+    int offsetsOffset = HEADER_BYTES + bout.size() - offsets.length * Integer.BYTES;
+    int slotsOffset = align(HEADER_BYTES + bout.size());
+    int keysOffset = align(slotsOffset + slots.remaining());
+    long length = (long) keysOffset + keys.remaining();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot too large: " + length + " bytes");
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(HEADER_MAGIC, MAGIC);
+    header.putInt(HEADER_VERSION, VERSION);
+    header.putInt(HEADER_SLOTS_ORDER, encodeOrder(slots.order()));
+    header.putInt(HEADER_KEYS_ORDER, encodeOrder(keys.order()));
+    header.putInt(HEADER_SIZE, offHeap.size());
+    header.putInt(HEADER_NULL_HOST_COUNT, offHeap.getNullHostCount());
+    header.putInt(HEADER_MAX_PREFIX_LENGTH, offHeap.getMaxPrefixLength());
+    header.putInt(HEADER_ID_COUNT, offsets.length);
+    header.putInt(HEADER_OFFSETS_OFFSET, offsetsOffset);
+    header.putInt(HEADER_SLOTS_OFFSET, slotsOffset);
+    header.putInt(HEADER_SLOTS_LENGTH, slots.remaining());
+    header.putInt(HEADER_KEYS_OFFSET, keysOffset);
+    header.putInt(HEADER_KEYS_LENGTH, keys.remaining());
+    java.nio.file.Path absolute = file.toAbsolutePath();
+    java.nio.file.Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName() + ".", ".tmp");
+    boolean moved = false;
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        writeFully(channel, header);
+        writeFully(channel, ByteBuffer.wrap(bout.toByteArray()));
+        pad(channel, slotsOffset);
+        writeFully(channel, slots);
+        pad(channel, keysOffset);
+        writeFully(channel, keys);
+        channel.force(false);
+      }
+      try {
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+      }
+      moved = true;
+    } finally {
+      if (!moved) {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+
+  /**
+   * Reads values from a buffer, starting at a given position.  Only absolute reads are performed on the buffer, so it
+   * may be shared by concurrent readers.
+   */
+  private static final class Reader {
+
+    private final ByteBuffer buffer;
+    private final java.nio.file.Path file;
+    private int pos;
+
+    private Reader(ByteBuffer buffer, java.nio.file.Path file, int pos) {
+      this.buffer = buffer;
+      this.file = file;
+      this.pos = pos;
+    }
+
+    /**
+     * Requires that the given number of values of the given size remain.
+     */
+    private void require(int count, int size) throws EOFException {
+      // Divided instead of multiplied, so a corrupt count cannot overflow
+      if (pos < 0 || count < 0 || count > (buffer.limit() - pos) / size) {
+        throw new EOFException("Unexpected end of snapshot at " + pos + ": " + file);
+      }
+    }
+
+    private int readInt() throws EOFException {
+      require(1, Integer.BYTES);
+      int i = buffer.getInt(pos);
+      pos += Integer.BYTES;
+      return i;
+    }
+
+    private String readString() throws EOFException {
+      int len = readInt();
+      if (len == -1) {
+        return null;
+      }
+      require(len, Character.BYTES);
+      char[] chars = new char[len];
+      for (int i = 0; i < len; i++) {
+        chars[i] = buffer.getChar(pos);
+        pos += Character.BYTES;
+      }
+      return new String(chars);
+    }
+
+    private Port readPort() throws IOException, ValidationException {
+      int port = readInt();
+      int protocol = readInt();
+      if (port == -1) {
+        return null;
+      }
+      Protocol[] protocols = Protocol.values();
+      if (protocol < 0 || protocol >= protocols.length) {
+        throw new IOException("Invalid protocol: " + protocol + ": " + file);
+      }
+      return Port.valueOf(port, protocols[protocol]);
+    }
+
+    private Path readPath() throws IOException, ValidationException {
+      String path = readString();
+      return (path == null) ? null : Path.valueOf(path);
+    }
+
+    /**
+     * Reads a single value.
+     */
+    @FunctionalInterface
+    private interface ValueReader<T> {
+      T read(Reader in) throws IOException, ValidationException;
+    }
+
+    /**
+     * Reads a number of values ({@code -1} for {@code null}) followed by the values.
+     */
+    private <T> List<T> readValues(ValueReader<T> reader) throws IOException, ValidationException {
+      int count = readInt();
+      if (count == -1) {
+        return null;
+      }
+      // Each value is at least one int
+      require(count, Integer.BYTES);
+      List<T> values = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        values.add(reader.read(this));
+      }
+      return values;
+    }
+
+    private PartialURL readPartialUrl() throws IOException, ValidationException {
+      return PartialURL.valueOf(
+          readValues(Reader::readString),
+          readValues(in -> HostAddress.valueOf(in.readString())),
+          readValues(Reader::readPort),
+          readValues(Reader::readPath),
+          readValues(Reader::readPath)
+      );
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length, ByteOrder order) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.limit(offset + length).position(offset);
+    return duplicate.slice().order(order);
+  }
+
+  /**
+   * Maps a snapshot file.  The slots and keys of the off-heap index are used directly from the read-only mapped file,
+   * and its entries are read from the file on first use.  All other parts are read immediately.
+   *
+   * <p>The file remains mapped until the buffers are garbage collected, even after the file is replaced.</p>
+   *
+   * @throws  IOException  When unable to read the file or the file is not a valid snapshot file
+   */
+  static <V> Contents<V> read(java.nio.file.Path file, PartialURLMap.ValueCodec<V> codec) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+        throw new IOException("Not a snapshot file: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+    if (buffer.getInt(HEADER_MAGIC) != MAGIC) {
+      throw new IOException("Not a snapshot file: " + file);
+    }
+    int version = buffer.getInt(HEADER_VERSION);
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version: " + version + ": " + file);
+    }
+    ByteOrder slotsOrder = decodeOrder(buffer.getInt(HEADER_SLOTS_ORDER), file);
+    ByteOrder keysOrder = decodeOrder(buffer.getInt(HEADER_KEYS_ORDER), file);
+    int size = buffer.getInt(HEADER_SIZE);
+    int nullHostCount = buffer.getInt(HEADER_NULL_HOST_COUNT);
+    int maxPrefixLength = buffer.getInt(HEADER_MAX_PREFIX_LENGTH);
+    int idCount = buffer.getInt(HEADER_ID_COUNT);
+    int offsetsOffset = buffer.getInt(HEADER_OFFSETS_OFFSET);
+    int slotsOffset = buffer.getInt(HEADER_SLOTS_OFFSET);
+    int slotsLength = buffer.getInt(HEADER_SLOTS_LENGTH);
+    int keysOffset = buffer.getInt(HEADER_KEYS_OFFSET);
+    int keysLength = buffer.getInt(HEADER_KEYS_LENGTH);
+    int slotCount = slotsLength / OffHeapIndex.SLOT_BYTES;
+    if (
+        size < 0 || nullHostCount < 0 || nullHostCount > size || maxPrefixLength < 0 || idCount < 0
+            || slotsLength % OffHeapIndex.SLOT_BYTES != 0 || Integer.bitCount(slotCount) != 1 || size >= slotCount
+            || slotsOffset < HEADER_BYTES || slotsOffset > buffer.limit() - slotsLength
+            || keysOffset < slotsOffset + slotsLength || keysLength < 0 || keysOffset > buffer.limit() - keysLength
+            || offsetsOffset < HEADER_BYTES || idCount > (slotsOffset - offsetsOffset) / Integer.BYTES
+    ) {
+      throw new IOException("Invalid snapshot header: " + file);
+    }
+    Reader in = new Reader(buffer, file, HEADER_BYTES);
+    try {
+      // Counts
+      int schemeCount = in.readInt();
+      Map<String, Integer> schemeCounts = new HashMap<>();
+      for (int i = 0; i < schemeCount; i++) {
+        schemeCounts.put(in.readString(), in.readInt());
+      }
+      int portCount = in.readInt();
+      Map<Port, Integer> portCounts = new HashMap<>();
+      for (int i = 0; i < portCount; i++) {
+        portCounts.put(in.readPort(), in.readInt());
+      }
+      int contextPathCount = in.readInt();
+      Map<Path, Integer> contextPathCounts = new HashMap<>();
+      for (int i = 0; i < contextPathCount; i++) {
+        contextPathCounts.put(in.readPath(), in.readInt());
+      }
+      int hostHashCount = in.readInt();
+      if (hostHashCount < 0 || hostHashCount > size) {
+        throw new IOException("Invalid host count: " + hostHashCount + ": " + file);
+      }
+      int[] hostCounts = new int[hostHashCount * 2];
+      long hostTotal = 0;
+      for (int i = 0; i < hostCounts.length; i += 2) {
+        hostCounts[i] = in.readInt();
+        int count = in.readInt();
+        if (count <= 0) {
+          throw new IOException("Invalid host count: " + count + ": " + file);
+        }
+        hostCounts[i + 1] = count;
+        hostTotal += count;
+      }
+      // Every key not of the null host is counted by its host
+      if (hostTotal != size - nullHostCount) {
+        throw new IOException("Invalid host counts: " + file);
+      }
+      // Factorized
+      int factorizedCount = in.readInt();
+      Map<MultiPartialURL, V> factorized = new LinkedHashMap<>();
+      for (int i = 0; i < factorizedCount; i++) {
+        PartialURL partialUrl = in.readPartialUrl();
+        if (!(partialUrl instanceof MultiPartialURL)) {
+          throw new IOException("Factorized partial URL is not a multi partial URL: " + partialUrl + ": " + file);
+        }
+        factorized.put((MultiPartialURL) partialUrl, codec.decode(in.readInt()));
+      }
+      // Entries, read on first use
+      ByteBuffer entriesBuffer = buffer;
+      IntFunction<ImmutableTriple<PartialURL, SinglePartialURL, V>> loader = id -> {
+        try {
+          Reader entryIn = new Reader(entriesBuffer, file, entriesBuffer.getInt(offsetsOffset + id * Integer.BYTES));
+          PartialURL partialUrl = entryIn.readPartialUrl();
+          return ImmutableTriple.of(partialUrl, null, codec.decode(entryIn.readInt()));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } catch (ValidationException e) {
+          throw new UncheckedIOException(new IOException("Invalid entry " + id + ": " + file, e));
+        }
+      };
+      OffHeapIndex<V> offHeap = new OffHeapIndex<>(
+          slice(buffer, slotsOffset, slotsLength, slotsOrder),
+          slice(buffer, keysOffset, keysLength, keysOrder),
+          size,
+          nullHostCount,
+          hostCounts,
+          maxPrefixLength,
+          idCount,
+          loader
+      );
+      return new Contents<>(offHeap, factorized, schemeCounts, portCounts, contextPathCounts);
+    } catch (ValidationException e) {
+      throw new IOException("Invalid snapshot: " + file, e);
+    }
+  }
+}
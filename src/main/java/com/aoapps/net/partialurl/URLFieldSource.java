@@ -45,6 +45,7 @@ public class URLFieldSource implements FieldSource {
   private HostAddress host;
   private Port port;
   private Path path;
+  private boolean pathCached;
 
   /**
    * Creates a field source for the given URL.
@@ -63,6 +64,19 @@ public class URLFieldSource implements FieldSource {
     return url.getProtocol();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p><b>Implementation Note:</b><br>
+   * This is the same as {@link #getScheme()}, since {@link URL} already converts the protocol to lower-case.</p>
+   *
+   * @see  URL#getProtocol()
+   */
+  @Override
+  public String getSchemeLowerCase() {
+    return url.getProtocol();
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -130,19 +144,33 @@ public class URLFieldSource implements FieldSource {
    */
   @Override
   public Path getPath() throws MalformedURLException {
-    String urlPath = url.getPath();
-    if (urlPath.isEmpty()) {
-      return null;
-    }
-    if (path == null) {
-      try {
-        path = Path.valueOf(urlPath);
-      } catch (ValidationException e) {
-        MalformedURLException newErr = new MalformedURLException();
-        newErr.initCause(e);
-        throw newErr;
+    if (!pathCached) {
+      String urlPath = url.getPath();
+      if (!urlPath.isEmpty()) {
+        try {
+          path = Path.valueOf(urlPath);
+        } catch (ValidationException e) {
+          MalformedURLException newErr = new MalformedURLException();
+          newErr.initCause(e);
+          throw newErr;
+        }
       }
+      pathCached = true;
     }
     return path;
   }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see  PartialURLParser#isInvalid(java.lang.CharSequence, int, java.lang.CharSequence)
+   */
+  @Override
+  public boolean isInvalid() {
+    int urlPort = url.getPort();
+    if (urlPort == -1) {
+      urlPort = url.getDefaultPort();
+    }
+    return PartialURLParser.isInvalid(url.getHost(), urlPort, url.getPath());
+  }
 }
@@ -0,0 +1,166 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Tests {@link ByteFieldSource}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class ByteFieldSourceTest {
+
+  /**
+   * Creates a field source over a direct buffer containing the authority then the path, with some leading bytes so the
+   * offsets are not zero.
+   */
+  private static ByteFieldSource newFieldSource(String scheme, String authority, String path) {
+    byte[] bytes = ("GET " + authority + path).getBytes(StandardCharsets.ISO_8859_1);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    int authorityStart = 4;
+    int pathStart = authorityStart + authority.length();
+    return new ByteFieldSource(scheme, buffer, authorityStart, pathStart, pathStart, bytes.length);
+  }
+
+  @Test
+  public void testDefaultPort() throws MalformedURLException, ValidationException {
+    ByteFieldSource fieldSource = newFieldSource("HTTPS", "aorepo.org", "/path/file");
+    assertEquals("https", fieldSource.getScheme());
+    assertSame(PartialURL.HTTPS, fieldSource.getSchemeLowerCase());
+    assertEquals(HostAddress.valueOf("aorepo.org"), fieldSource.getHost());
+    assertSame(fieldSource.getHost(), fieldSource.getHost());
+    assertEquals(Port.valueOf(443, Protocol.TCP), fieldSource.getPort());
+    assertSame(Path.ROOT, fieldSource.getContextPath());
+    assertEquals(Path.valueOf("/path/file"), fieldSource.getPath());
+    assertSame(fieldSource.getPath(), fieldSource.getPath());
+    assertTrue(fieldSource.isPlainText());
+  }
+
+  @Test
+  public void testExplicitPort() throws MalformedURLException, ValidationException {
+    ByteFieldSource fieldSource = newFieldSource("http", "aorepo.org:8080", "/");
+    assertEquals(HostAddress.valueOf("aorepo.org"), fieldSource.getHost());
+    assertEquals(Port.valueOf(8080, Protocol.TCP), fieldSource.getPort());
+    assertEquals(8080, fieldSource.getPortNumber());
+    assertEquals("aorepo.org", fieldSource.getHostText().toString());
+    assertEquals("/", fieldSource.getPathText().toString());
+  }
+
+  @Test
+  public void testEmptyPath() throws MalformedURLException {
+    ByteFieldSource fieldSource = newFieldSource("http", "aorepo.org", "");
+    assertNull(fieldSource.getPath());
+    assertTrue(fieldSource.isPlainText());
+  }
+
+  @Test
+  public void testIpv6() throws MalformedURLException, ValidationException {
+    ByteFieldSource fieldSource = newFieldSource("https", "[2001:DB8::D0]:8443", "/");
+    assertEquals(HostAddress.valueOf("[2001:DB8::D0]"), fieldSource.getHost());
+    assertEquals(Port.valueOf(8443, Protocol.TCP), fieldSource.getPort());
+    assertFalse(fieldSource.isPlainText());
+  }
+
+  @Test
+  public void testByteArray() throws MalformedURLException, ValidationException {
+    byte[] bytes = "xxaorepo.org:81/file".getBytes(StandardCharsets.ISO_8859_1);
+    ByteFieldSource fieldSource = new ByteFieldSource("ftp", bytes, 2, 15, 15, bytes.length);
+    assertEquals(HostAddress.valueOf("aorepo.org"), fieldSource.getHost());
+    assertEquals(Port.valueOf(81, Protocol.TCP), fieldSource.getPort());
+    assertEquals(Path.valueOf("/file"), fieldSource.getPath());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullScheme() {
+    newFieldSource(null, "aorepo.org", "/");
+  }
+
+  @Test(expected = MalformedURLException.class)
+  public void testNoDefaultPort() throws MalformedURLException {
+    ByteFieldSource fieldSource = newFieldSource("ftp", "aorepo.org", "/");
+    assertFalse(fieldSource.isPlainText());
+    fieldSource.getPort();
+  }
+
+  @Test(expected = MalformedURLException.class)
+  public void testInvalidPort() throws MalformedURLException {
+    ByteFieldSource fieldSource = newFieldSource("http", "aorepo.org:80a", "/");
+    assertFalse(fieldSource.isPlainText());
+    fieldSource.getPort();
+  }
+
+  @Test
+  public void testPlainText() {
+    assertTrue(newFieldSource("http", "WWW.AOREPO.ORG", "/path/%20/file").isPlainText());
+    assertFalse(newFieldSource("http", "192.0.2.45", "/").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org.", "/").isPlainText());
+    assertFalse(newFieldSource("http", "", "/").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org", "path").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org", "/path file").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org:99999", "/").isPlainText());
+    assertFalse(newFieldSource("http", "a..b.com", "/").isPlainText());
+    assertFalse(newFieldSource("http", "-a.com", "/").isPlainText());
+    assertFalse(newFieldSource("http", "a-.com", "/").isPlainText());
+    assertFalse(newFieldSource("http", ".com", "/").isPlainText());
+    assertFalse(newFieldSource("http", "a" + "b".repeat(63) + ".com", "/").isPlainText());
+    assertTrue(newFieldSource("http", "a" + "b".repeat(62) + ".com", "/").isPlainText());
+    assertFalse(newFieldSource("http", "a.".repeat(126) + "com", "/").isPlainText());
+    assertTrue(newFieldSource("http", "a.".repeat(125) + "com", "/").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org", "//").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org", "/a/../b").isPlainText());
+    assertFalse(newFieldSource("http", "aorepo.org", "/a/.").isPlainText());
+    assertTrue(newFieldSource("http", "aorepo.org", "/a/.b/").isPlainText());
+  }
+
+  @Test
+  public void testIsInvalid() {
+    assertFalse(newFieldSource("http", "aorepo.org", "/path").isInvalid());
+    assertFalse(newFieldSource("http", "aorepo.org", "").isInvalid());
+    assertFalse(newFieldSource("https", "[2001:DB8::D0]:8443", "/").isInvalid());
+    assertFalse(newFieldSource("http", "192.0.2.45:8080", "/").isInvalid());
+    assertTrue(newFieldSource("http", "", "/").isInvalid());
+    assertTrue(newFieldSource("http", "aorepo.org:80a", "/").isInvalid());
+    assertTrue(newFieldSource("http", "aorepo.org:99999", "/").isInvalid());
+    assertTrue(newFieldSource("ftp", "aorepo.org", "/").isInvalid());
+    assertTrue(newFieldSource("http", "aorepo.org/evil", "/").isInvalid());
+    assertTrue(newFieldSource("http", "[2001:DB8::D0", "/").isInvalid());
+    assertTrue(newFieldSource("http", "aorepo.org", "path").isInvalid());
+  }
+}
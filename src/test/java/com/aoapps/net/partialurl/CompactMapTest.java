@@ -0,0 +1,125 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Tests {@link CompactMap}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class CompactMapTest {
+
+  /**
+   * Sizes through each representation and back.
+   */
+  private static final int MAX_SIZE = CompactMap.ARRAY_MAX_SIZE * 3;
+
+  @Test
+  public void testPutGetRemove() {
+    CompactMap<String, Integer> map = new CompactMap<>();
+    Map<String, Integer> expected = new HashMap<>();
+    assertTrue(map.isEmpty());
+    for (int i = 0; i < MAX_SIZE; i++) {
+      // Includes a null key
+      String key = (i == 1) ? null : ("key" + i);
+      assertNull(map.put(key, i));
+      expected.put(key, i);
+      assertEquals(expected, map);
+      assertEquals(expected.hashCode(), map.hashCode());
+      assertEquals(Integer.valueOf(i), map.get(key));
+      assertTrue(map.containsKey(key));
+      assertFalse(map.containsKey("missing"));
+    }
+    for (int i = 0; i < MAX_SIZE; i++) {
+      String key = (i == 1) ? null : ("key" + i);
+      assertEquals(Integer.valueOf(i), map.put(key, -i));
+      expected.put(key, -i);
+    }
+    assertEquals(expected, map);
+    for (int i = MAX_SIZE - 1; i >= 0; i--) {
+      String key = (i == 1) ? null : ("key" + i);
+      assertNull(map.remove("missing"));
+      assertEquals(Integer.valueOf(-i), map.remove(key));
+      assertNull(map.remove(key));
+      expected.remove(key);
+      assertEquals(expected, map);
+    }
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testCopy() {
+    for (int size = 0; size < MAX_SIZE; size++) {
+      CompactMap<String, Integer> map = new CompactMap<>();
+      for (int i = 0; i < size; i++) {
+        map.put("key" + i, i);
+      }
+      CompactMap<String, Integer> copy = new CompactMap<>(map);
+      assertEquals(map, copy);
+      copy.put("added", -1);
+      copy.remove("key0");
+      assertEquals(size, map.size());
+      assertFalse(map.containsKey("added"));
+      assertEquals(map, new CompactMap<>(new HashMap<>(map)));
+    }
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    for (int size = 1; size < MAX_SIZE; size++) {
+      CompactMap<String, Integer> map = new CompactMap<>();
+      Map<String, Integer> expected = new HashMap<>();
+      for (int i = 0; i < size; i++) {
+        map.put("key" + i, i);
+        expected.put("key" + i, i);
+      }
+      // Remove even values
+      int count = 0;
+      for (Iterator<Map.Entry<String, Integer>> iter = map.entrySet().iterator(); iter.hasNext(); ) {
+        Map.Entry<String, Integer> entry = iter.next();
+        count++;
+        if (entry.getValue() % 2 == 0) {
+          iter.remove();
+          expected.remove(entry.getKey());
+        }
+      }
+      assertEquals(size, count);
+      assertEquals(expected, map);
+      // Usable after removals during iteration
+      map.put("added", -1);
+      expected.put("added", -1);
+      assertEquals(expected, map);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.junit.Test;
+
+/**
+ * Tests {@link FlatIndex}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class FlatIndexTest {
+
+  private static final HostAddress aorepo;
+  private static final HostAddress aoindustries;
+  private static final Port port443;
+
+  static {
+    try {
+      aorepo = HostAddress.valueOf("aorepo.org");
+      aoindustries = HostAddress.valueOf("aoindustries.com");
+      port443 = Port.valueOf(443, Protocol.TCP);
+    } catch (ValidationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static ImmutableTriple<PartialURL, SinglePartialURL, Integer> newEntry(
+      HostAddress host,
+      String prefix,
+      Port port,
+      String scheme,
+      int value
+  ) throws ValidationException {
+    SinglePartialURL singleUrl = PartialURL.valueOf(scheme, host, port, null, (prefix == null) ? null : Path.valueOf(prefix));
+    return ImmutableTriple.of(singleUrl, singleUrl, value);
+  }
+
+  private static ImmutableTriple<PartialURL, SinglePartialURL, Integer> put(
+      FlatIndex<Integer> index,
+      HostAddress host,
+      String prefix,
+      Port port,
+      String scheme,
+      int value
+  ) throws ValidationException {
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> entry = newEntry(host, prefix, port, scheme, value);
+    assertNull(index.put(host, null, prefix, port, scheme, entry));
+    return entry;
+  }
+
+  private static Integer search(FlatIndex<Integer> index, HostAddress host, String path, Port port, String scheme) {
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> match = index.search(
+        host, null, true, path, port, true, scheme, true
+    );
+    return (match == null) ? null : match.right;
+  }
+
+  @Test
+  public void testPutGetRemove() throws ValidationException {
+    FlatIndex<Integer> index = new FlatIndex<>();
+    assertTrue(index.isEmpty());
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> entry = put(index, aorepo, "/prefix/", port443, "https", 1);
+    assertSame(entry, index.get(aorepo, null, "/prefix/", port443, "https"));
+    assertNull(index.get(aorepo, null, "/prefix/", port443, null));
+    assertNull(index.get(null, null, "/prefix/", port443, "https"));
+    assertNull(index.get(aorepo, null, null, port443, "https"));
+    // Replaces
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> replacement = newEntry(aorepo, "/prefix/", port443, "https", 2);
+    assertSame(entry, index.put(aorepo, null, "/prefix/", port443, "https", replacement));
+    assertSame(replacement, index.get(aorepo, null, "/prefix/", port443, "https"));
+    assertSame(replacement, index.remove(aorepo, null, "/prefix/", port443, "https"));
+    assertNull(index.remove(aorepo, null, "/prefix/", port443, "https"));
+    assertTrue(index.isEmpty());
+  }
+
+  @Test
+  public void testSearchOrder() throws ValidationException {
+    FlatIndex<Integer> index = new FlatIndex<>();
+    put(index, null, null, null, null, 1);
+    put(index, null, "/", null, null, 2);
+    put(index, null, "/a/b/", null, null, 3);
+    put(index, null, "/a/b/", port443, null, 4);
+    put(index, aorepo, null, null, null, 5);
+    put(index, aorepo, "/a/", null, "http", 6);
+    // Host before deeper prefix without host
+    assertEquals(Integer.valueOf(5), search(index, aorepo, "/a/b/c", port443, "https"));
+    assertEquals(Integer.valueOf(6), search(index, aorepo, "/a/b/c", port443, "http"));
+    // Deepest prefix first, then port before any port
+    assertEquals(Integer.valueOf(4), search(index, null, "/a/b/c", port443, "https"));
+    assertEquals(Integer.valueOf(3), search(index, null, "/a/b/", null, "https"));
+    // Shorter prefix, then root, then null prefix
+    assertEquals(Integer.valueOf(2), search(index, null, "/a/bc", null, "https"));
+    assertEquals(Integer.valueOf(2), search(index, null, "/", null, "https"));
+    assertEquals(Integer.valueOf(1), search(index, null, "", null, "https"));
+    index.remove(null, null, null, null, null);
+    assertNull(search(index, null, "", null, "https"));
+  }
+
+  @Test
+  public void testSearchSpecificOnly() throws ValidationException {
+    FlatIndex<Integer> index = new FlatIndex<>();
+    put(index, null, "/a/", null, null, 1);
+    put(index, null, "/a/", port443, "https", 2);
+    assertEquals(Integer.valueOf(2), search(index, null, "/a/b", port443, "https"));
+    // Not searching any port or any scheme
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> match = index.search(null, null, true, "/a/b", port443, false, "http", false);
+    assertNull(match);
+    match = index.search(null, null, true, "/a/b", null, true, null, true);
+    assertEquals(Integer.valueOf(1), match.right);
+  }
+
+  @Test
+  public void testMayMatchHost() throws ValidationException {
+    FlatIndex<Integer> index = new FlatIndex<>();
+    assertFalse(index.mayMatchHost(aorepo));
+    put(index, aorepo, "/a/", null, null, 1);
+    put(index, aorepo, "/b/", null, null, 2);
+    assertTrue(index.mayMatchHost(aorepo));
+    assertFalse(index.mayMatchHost(aoindustries));
+    assertFalse(index.mayMatchHost(null));
+    assertNull(search(index, aoindustries, "/a/", null, "https"));
+    index.remove(aorepo, null, "/a/", null, null);
+    assertTrue(index.mayMatchHost(aorepo));
+    index.remove(aorepo, null, "/b/", null, null);
+    assertFalse(index.mayMatchHost(aorepo));
+    // Any host matches every host
+    put(index, null, "/a/", null, null, 3);
+    assertTrue(index.mayMatchHost(aoindustries));
+    assertTrue(index.mayMatchHost(null));
+    assertEquals(Integer.valueOf(3), search(index, aoindustries, "/a/", null, "https"));
+  }
+
+  @Test
+  public void testManyWithRemovals() throws ValidationException {
+    final int count = 1000;
+    FlatIndex<Integer> index = new FlatIndex<>();
+    for (int i = 0; i < count; i++) {
+      put(index, (i % 3 == 0) ? null : aorepo, "/p" + i + "/", null, null, i);
+    }
+    FlatIndex<Integer> copy = new FlatIndex<>(index);
+    for (int i = 0; i < count; i += 2) {
+      assertEquals(Integer.valueOf(i), index.remove((i % 3 == 0) ? null : aorepo, null, "/p" + i + "/", null, null).right);
+    }
+    for (int i = 0; i < count; i++) {
+      HostAddress host = (i % 3 == 0) ? null : aorepo;
+      assertEquals((i % 2 == 0) ? null : Integer.valueOf(i), search(index, aorepo, "/p" + i + "/file", null, "https"));
+      // The copy is not affected
+      assertEquals(Integer.valueOf(i), copy.get(host, null, "/p" + i + "/", null, null).right);
+    }
+  }
+}
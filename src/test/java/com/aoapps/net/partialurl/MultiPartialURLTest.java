@@ -1,6 +1,6 @@
 /*
  * ao-net-partial-url - Matches and resolves partial URLs.
- * Copyright (C) 2018, 2021, 2022  AO Industries, Inc.
+ * Copyright (C) 2018, 2021, 2022, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -26,6 +26,7 @@ package com.aoapps.net.partialurl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.aoapps.lang.validation.ValidationException;
@@ -35,8 +36,11 @@ import com.aoapps.net.Port;
 import com.aoapps.net.Protocol;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import org.junit.Test;
 
 /**
@@ -843,6 +847,86 @@ public class MultiPartialURLTest {
     iter.next(); // Should fail
   }
 
+  private static MultiPartialURL getTestCombinationsUrl() throws ValidationException {
+    return (MultiPartialURL) PartialURL.valueOf(
+        new String[]{"https", "http"},
+        new HostAddress[]{HostAddress.valueOf("aorepo.org"), HostAddress.valueOf("www.aorepo.org")},
+        new Port[]{Port.valueOf(443, Protocol.TCP), Port.valueOf(80, Protocol.TCP), Port.valueOf(8080, Protocol.TCP)},
+        null,
+        new Path[]{Path.valueOf("/a/"), Path.valueOf("/a/b/"), Path.ROOT}
+    );
+  }
+
+  @Test
+  public void testGetCombinationsRandomAccess() throws ValidationException {
+    MultiPartialURL multiUrl = getTestCombinationsUrl();
+    List<SinglePartialURL> combinations = multiUrl.getCombinations();
+    assertEquals(2 * 2 * 3 * 3, combinations.size());
+    Set<SinglePartialURL> distinct = new HashSet<>();
+    int index = 0;
+    for (SinglePartialURL single : combinations) {
+      assertEquals(single, combinations.get(index));
+      assertTrue(combinations.contains(single));
+      assertEquals(index, combinations.indexOf(single));
+      assertTrue(distinct.add(single));
+      index++;
+    }
+    assertEquals(combinations.size(), index);
+  }
+
+  @Test
+  public void testGetCombinationsPrimaryIdentity() throws ValidationException {
+    MultiPartialURL multiUrl = getTestCombinationsUrl();
+    int found = 0;
+    for (SinglePartialURL single : multiUrl.getCombinations()) {
+      if (single.equals(multiUrl.getPrimary())) {
+        assertSame(multiUrl.getPrimary(), single);
+        found++;
+      }
+    }
+    assertEquals(1, found);
+  }
+
+  @Test
+  public void testGetCombinationsNotContains() throws ValidationException {
+    List<SinglePartialURL> combinations = getTestCombinationsUrl().getCombinations();
+    assertFalse(combinations.contains(PartialURL.valueOf("ftp", HostAddress.valueOf("aorepo.org"), Port.valueOf(443, Protocol.TCP), null, Path.ROOT)));
+    assertFalse(combinations.contains(PartialURL.valueOf("https", HostAddress.valueOf("aorepo.org"), Port.valueOf(443, Protocol.TCP), Path.ROOT, Path.ROOT)));
+    assertFalse(combinations.contains(PartialURL.valueOf("https", HostAddress.valueOf("aorepo.org"), Port.valueOf(443, Protocol.TCP), null, null)));
+    assertFalse(combinations.contains(PartialURL.valueOf("https", HostAddress.valueOf("aorepo.org"), Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/b/"))));
+    assertFalse(combinations.contains("https://aorepo.org/"));
+    assertEquals(-1, combinations.indexOf(PartialURL.DEFAULT));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetCombinationsUnmodifiable() throws ValidationException {
+    getTestCombinationsUrl().getCombinations().add(PartialURL.DEFAULT);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGetCombinationsMoreThanIntegerMaxValue() throws ValidationException {
+    final int perField = 200;
+    HostAddress[] hosts = new HostAddress[perField];
+    Port[] ports = new Port[perField];
+    Path[] contextPaths = new Path[perField];
+    Path[] prefixes = new Path[perField];
+    for (int i = 0; i < perField; i++) {
+      hosts[i] = HostAddress.valueOf("host" + i + ".aorepo.org");
+      ports[i] = Port.valueOf(8000 + i, Protocol.TCP);
+      contextPaths[i] = Path.valueOf("/context" + i);
+      prefixes[i] = Path.valueOf("/prefix" + i + "/");
+    }
+    MultiPartialURL multiUrl = (MultiPartialURL) PartialURL.valueOf(
+        new String[]{"https", "http", "ftp"},
+        hosts,
+        ports,
+        contextPaths,
+        prefixes
+    );
+    assertEquals(3L * perField * perField * perField * perField, multiUrl.getCombinationCount());
+    multiUrl.getCombinations();
+  }
+
   // </editor-fold>
 
   // <editor-fold defaultstate="collapsed" desc="Test toURL">
@@ -0,0 +1,209 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.junit.Test;
+
+/**
+ * Tests {@link OffHeapIndex}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class OffHeapIndexTest {
+
+  private static final HostAddress aorepo;
+  private static final Port port443;
+
+  static {
+    try {
+      aorepo = HostAddress.valueOf("aorepo.org");
+      port443 = Port.valueOf(443, Protocol.TCP);
+    } catch (ValidationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static ImmutableTriple<PartialURL, SinglePartialURL, Integer> newEntry(int value) throws ValidationException {
+    return ImmutableTriple.of(PartialURL.valueOf(Path.valueOf("/value" + value + "/")), null, value);
+  }
+
+  private static int put(
+      OffHeapIndex<Integer> index,
+      HostAddress host,
+      String prefix,
+      Port port,
+      String scheme,
+      int value
+  ) throws ValidationException {
+    int id = index.addEntry(newEntry(value));
+    index.put(host, null, prefix, port, scheme, id);
+    return id;
+  }
+
+  private static Integer search(OffHeapIndex<Integer> index, HostAddress host, String path, Port port, String scheme) {
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> match = index.search(
+        host, null, true, path, port, true, scheme, true
+    );
+    return (match == null) ? null : match.right;
+  }
+
+  @Test
+  public void testPutGetRemove() throws ValidationException {
+    OffHeapIndex<Integer> index = new OffHeapIndex<>();
+    assertTrue(index.isEmpty());
+    int id = put(index, aorepo, "/prefix/", port443, "https", 1);
+    assertEquals(id, index.getId(aorepo, null, "/prefix/", port443, "https"));
+    assertEquals(Integer.valueOf(1), index.get(aorepo, null, "/prefix/", port443, "https").right);
+    // Hosts compared ignoring case
+    assertEquals(id, index.getId(HostAddress.valueOf("AOREPO.org"), null, "/prefix/", port443, "https"));
+    assertEquals(-1, index.getId(aorepo, null, "/prefix/", port443, null));
+    assertEquals(-1, index.getId(null, null, "/prefix/", port443, "https"));
+    assertEquals(-1, index.getId(aorepo, null, null, port443, "https"));
+    assertEquals(-1, index.getId(aorepo, null, "/prefix/", Port.valueOf(443, Protocol.UDP), "https"));
+    assertEquals(-1, index.getId(aorepo, Path.valueOf("/prefix"), "/prefix/", port443, "https"));
+    // Replacing the entry
+    ImmutableTriple<PartialURL, SinglePartialURL, Integer> replacement = newEntry(2);
+    index.setEntry(id, replacement);
+    assertSame(replacement, index.get(aorepo, null, "/prefix/", port443, "https"));
+    assertTrue(index.remove(aorepo, null, "/prefix/", port443, "https"));
+    assertFalse(index.remove(aorepo, null, "/prefix/", port443, "https"));
+    assertTrue(index.isEmpty());
+  }
+
+  @Test
+  public void testSharedEntry() throws ValidationException {
+    OffHeapIndex<Integer> index = new OffHeapIndex<>();
+    int id = put(index, aorepo, "/a/", null, "https", 1);
+    index.put(aorepo, null, "/a/", null, "http", id);
+    assertTrue(index.remove(aorepo, null, "/a/", null, "https"));
+    // Still used by the other key
+    assertEquals(Integer.valueOf(1), search(index, aorepo, "/a/b", null, "http"));
+    assertTrue(index.remove(aorepo, null, "/a/", null, "http"));
+    // The id is reused once no longer used
+    assertEquals(id, put(index, null, null, null, null, 2));
+    assertEquals(Integer.valueOf(2), search(index, aorepo, "/a/b", null, "http"));
+  }
+
+  @Test
+  public void testSearchText() throws ValidationException {
+    OffHeapIndex<Integer> index = new OffHeapIndex<>();
+    put(index, aorepo, "/a/", port443, "https", 1);
+    put(index, null, null, null, null, 2);
+    // Hashed and compared from text, with hosts ignoring case
+    StringBuilder path = new StringBuilder("/a/b/c");
+    int tcp = Protocol.TCP.ordinal();
+    assertEquals(Integer.valueOf(1), index.search("AOREPO.ORG", null, true, path, 443, tcp, true, "https", true).right);
+    assertEquals(Integer.valueOf(2), index.search("aorepo.org", null, true, path, 80, tcp, true, "https", true).right);
+    assertEquals(Integer.valueOf(2), index.search("aorepo.org", null, true, "/b/", 443, tcp, true, "https", true).right);
+    assertEquals(Integer.valueOf(2), index.search("aorepo.org", null, true, "", -1, tcp, true, null, true).right);
+    assertNull(index.search("aorepo.org", null, false, path, 443, tcp, false, "https", false));
+  }
+
+  @Test
+  public void testSearchOrder() throws ValidationException {
+    OffHeapIndex<Integer> index = new OffHeapIndex<>();
+    put(index, null, null, null, null, 1);
+    put(index, null, "/", null, null, 2);
+    put(index, null, "/a/b/", null, null, 3);
+    put(index, null, "/a/b/", port443, null, 4);
+    put(index, aorepo, null, null, null, 5);
+    put(index, aorepo, "/a/", null, "http", 6);
+    // Host before deeper prefix without host
+    assertEquals(Integer.valueOf(5), search(index, aorepo, "/a/b/c", port443, "https"));
+    assertEquals(Integer.valueOf(6), search(index, aorepo, "/a/b/c", port443, "http"));
+    // Deepest prefix first, then port before any port
+    assertEquals(Integer.valueOf(4), search(index, null, "/a/b/c", port443, "https"));
+    assertEquals(Integer.valueOf(3), search(index, null, "/a/b/", null, "https"));
+    // Shorter prefix, then root, then null prefix
+    assertEquals(Integer.valueOf(2), search(index, null, "/a/bc", null, "https"));
+    assertEquals(Integer.valueOf(2), search(index, null, "/", null, "https"));
+    assertEquals(Integer.valueOf(1), search(index, null, "", null, "https"));
+    index.remove(null, null, null, null, null);
+    assertNull(search(index, null, "", null, "https"));
+  }
+
+  @Test
+  public void testManyWithRemovals() throws ValidationException {
+    final int count = 1000;
+    OffHeapIndex<Integer> index = new OffHeapIndex<>();
+    for (int i = 0; i < count; i++) {
+      put(index, (i % 3 == 0) ? null : aorepo, "/p" + i + "/", null, null, i);
+    }
+    OffHeapIndex<Integer> copy = new OffHeapIndex<>(index);
+    // Removes enough to rebuild, reclaiming the removed keys
+    for (int i = 0; i < count; i++) {
+      if (i % 4 != 1) {
+        assertTrue(index.remove((i % 3 == 0) ? null : aorepo, null, "/p" + i + "/", null, null));
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      HostAddress host = (i % 3 == 0) ? null : aorepo;
+      assertEquals((i % 4 != 1) ? null : Integer.valueOf(i), search(index, aorepo, "/p" + i + "/file", null, "https"));
+      // The copy is not affected
+      assertEquals(Integer.valueOf(i), copy.get(host, null, "/p" + i + "/", null, null).right);
+    }
+  }
+
+  @Test
+  public void testMayMatchHost() throws ValidationException {
+    final int count = 100;
+    OffHeapIndex<Integer> index = new OffHeapIndex<>();
+    assertFalse(index.mayMatchHost(null));
+    assertFalse(index.mayMatchHost("aorepo.org"));
+    for (int i = 0; i < count; i++) {
+      put(index, HostAddress.valueOf("host" + i + ".aorepo.org"), null, null, null, i);
+    }
+    for (int i = 0; i < count; i++) {
+      // Ignoring case
+      assertTrue(index.mayMatchHost("HOST" + i + ".aorepo.org"));
+    }
+    assertFalse(index.mayMatchHost(null));
+    assertFalse(index.mayMatchHost("aorepo.org"));
+    assertNull(search(index, aorepo, "/", null, "https"));
+    // Removes every other host, re-inserting the following hashes
+    for (int i = 0; i < count; i += 2) {
+      assertTrue(index.remove(HostAddress.valueOf("host" + i + ".aorepo.org"), null, null, null, null));
+    }
+    for (int i = 0; i < count; i++) {
+      assertEquals(i % 2 != 0, index.mayMatchHost("host" + i + ".aorepo.org"));
+    }
+    assertEquals(count / 2, index.getHostCounts().length / 2);
+    // Any host may match a null host
+    put(index, null, null, null, null, count);
+    assertTrue(index.mayMatchHost("aorepo.org"));
+    assertTrue(index.mayMatchHost(null));
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Tests {@link PartialURLMapCache}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class PartialURLMapCacheTest {
+
+  private static final SinglePartialURL prefixOnly;
+  private static final SinglePartialURL prefixSubOnly;
+  private static final SinglePartialURL aorepoOnly;
+
+  static {
+    try {
+      prefixOnly = PartialURL.valueOf(Path.valueOf("/prefix/"));
+      prefixSubOnly = PartialURL.valueOf(Path.valueOf("/prefix/sub/"));
+      aorepoOnly = PartialURL.valueOf(null, HostAddress.valueOf("aorepo.org"), null, null, null);
+    } catch (ValidationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static PartialURLMapCache<Integer> getTestCache(PartialURLMap.Concurrency concurrency, int maxSize) {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+    testMap.put(prefixOnly, 1);
+    testMap.put(aorepoOnly, 2);
+    return new PartialURLMapCache<>(testMap, maxSize);
+  }
+
+  private static URLFieldSource getFieldSource(String url) throws MalformedURLException {
+    return new URLFieldSource(new URL(url));
+  }
+
+  private static void assertCounters(PartialURLMapCache<?> cache, long hits, long misses, long evictions) {
+    assertEquals("hits", hits, cache.getHits());
+    assertEquals("misses", misses, cache.getMisses());
+    assertEquals("evictions", evictions, cache.getEvictions());
+  }
+
+  @Test
+  public void testGetHitsAndMisses() throws MalformedURLException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.READ_WRITE_LOCK, 10);
+    PartialURLMatch<Integer> match = cache.get(getFieldSource("http://aoindustries.com/prefix/file1"));
+    assertEquals(Integer.valueOf(1), match.getValue());
+    assertCounters(cache, 0, 1, 0);
+    // Same directory shares the cached result
+    assertSame(match, cache.get(getFieldSource("http://aoindustries.com/prefix/file2")));
+    assertSame(match, cache.get(getFieldSource("HTTP://aoindustries.com:80/prefix/")));
+    assertCounters(cache, 2, 1, 0);
+    assertEquals(match, cache.getMap().get(getFieldSource("http://aoindustries.com/prefix/file1")));
+    // Different directory is a different entry, even when matching the same partial URL
+    assertEquals(match, cache.get(getFieldSource("http://aoindustries.com/prefix/other/")));
+    assertCounters(cache, 2, 2, 0);
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void testPathWithoutSlashNotMatchesPrefix() throws MalformedURLException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.COPY_ON_WRITE, 10);
+    assertEquals(Integer.valueOf(1), cache.getValue(getFieldSource("http://aoindustries.com/prefix/")));
+    assertNull(cache.getValue(getFieldSource("http://aoindustries.com/prefix")));
+    assertNull(cache.getValue(getFieldSource("http://aoindustries.com/prefix")));
+    assertCounters(cache, 0, 3, 0);
+  }
+
+  @Test
+  public void testEvictsNotRecentlyUsed() throws MalformedURLException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.COPY_ON_WRITE, 2);
+    PartialURLMatch<Integer> match1 = cache.get(getFieldSource("http://aorepo.org/a/"));
+    cache.get(getFieldSource("http://aorepo.org/b/"));
+    assertSame(match1, cache.get(getFieldSource("http://aorepo.org/a/")));
+    cache.get(getFieldSource("http://aorepo.org/c/"));
+    assertCounters(cache, 1, 3, 1);
+    assertEquals(2, cache.getSize());
+    // Recently used retained
+    assertSame(match1, cache.get(getFieldSource("http://aorepo.org/a/")));
+    assertCounters(cache, 2, 3, 1);
+    // Not recently used evicted
+    cache.get(getFieldSource("http://aorepo.org/b/"));
+    assertCounters(cache, 2, 4, 2);
+  }
+
+  @Test
+  public void testPutInvalidates() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMapCache<Integer> cache = getTestCache(concurrency, 10);
+      assertEquals(Integer.valueOf(1), cache.getValue(getFieldSource("http://aoindustries.com/prefix/sub/file")));
+      assertEquals(Integer.valueOf(1), cache.getValue(getFieldSource("http://aoindustries.com/prefix/sub/file")));
+      assertCounters(cache, 1, 1, 0);
+      cache.getMap().put(prefixSubOnly, 3);
+      assertEquals(Integer.valueOf(3), cache.getValue(getFieldSource("http://aoindustries.com/prefix/sub/file")));
+      assertCounters(cache, 1, 2, 0);
+      assertEquals(1, cache.getSize());
+    }
+  }
+
+  @Test
+  public void testClear() throws MalformedURLException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.READ_WRITE_LOCK, 10);
+    cache.get(getFieldSource("http://aorepo.org/"));
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    cache.get(getFieldSource("http://aorepo.org/"));
+    assertCounters(cache, 0, 2, 0);
+  }
+
+  @Test
+  public void testNegativeCacheDisabledByDefault() throws MalformedURLException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.COPY_ON_WRITE, 10);
+    assertEquals(0, cache.getMaxNegativeSize());
+    assertNull(cache.get(getFieldSource("http://unknown.example.com/")));
+    assertNull(cache.get(getFieldSource("http://unknown.example.com/")));
+    assertCounters(cache, 0, 2, 0);
+    assertEquals(0, cache.getNegativeHits());
+    assertEquals(0, cache.getNegativeSize());
+  }
+
+  @Test
+  public void testNegativeCache() throws MalformedURLException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    testMap.put(prefixOnly, 1);
+    testMap.put(aorepoOnly, 2);
+    PartialURLMapCache<Integer> cache = new PartialURLMapCache<>(testMap, 10, 2);
+    assertNull(cache.get(getFieldSource("http://unknown1.example.com/")));
+    assertNull(cache.get(getFieldSource("http://unknown1.example.com/other")));
+    assertNull(cache.get(getFieldSource("http://unknown2.example.com/")));
+    assertEquals(1, cache.getNegativeHits());
+    assertEquals(2, cache.getNegativeSize());
+    assertEquals(0, cache.getNegativeEvictions());
+    // Not recently used evicted
+    assertNull(cache.get(getFieldSource("http://unknown3.example.com/")));
+    assertEquals(1, cache.getNegativeEvictions());
+    assertNull(cache.get(getFieldSource("http://unknown2.example.com/")));
+    assertEquals(1, cache.getNegativeHits());
+    assertEquals(2, cache.getNegativeEvictions());
+    // Matches not evicted by non-matches
+    assertEquals(Integer.valueOf(2), cache.getValue(getFieldSource("http://aorepo.org/")));
+    for (int i = 0; i < 10; i++) {
+      assertNull(cache.get(getFieldSource("http://flood" + i + ".example.com/")));
+    }
+    assertEquals(Integer.valueOf(2), cache.getValue(getFieldSource("http://aorepo.org/")));
+    assertCounters(cache, 1, 15, 0);
+  }
+
+  @Test
+  public void testPutInvalidatesNegativeCache() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    // Any host, so not rejected before the negative cache
+    testMap.put(prefixOnly, 1);
+    PartialURLMapCache<Integer> cache = new PartialURLMapCache<>(testMap, 10, 10);
+    assertNull(cache.get(getFieldSource("http://www.aorepo.org/")));
+    assertNull(cache.get(getFieldSource("http://www.aorepo.org/")));
+    assertEquals(1, cache.getNegativeHits());
+    cache.getMap().put(PartialURL.valueOf(null, HostAddress.valueOf("www.aorepo.org"), null, null, null), 3);
+    assertEquals(Integer.valueOf(3), cache.getValue(getFieldSource("http://www.aorepo.org/")));
+    assertEquals(0, cache.getNegativeSize());
+  }
+
+  @Test
+  public void testRejectsBeforeCaching() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      for (PartialURLMap.Storage storage : PartialURLMap.Storage.values()) {
+        PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+        testMap.put(aorepoOnly, 2);
+        PartialURLMapCache<Integer> cache = new PartialURLMapCache<>(testMap, 10, 10);
+        // Unknown host
+        assertNull(cache.get(getFieldSource("http://unknown.example.com/")));
+        assertNull(cache.get(getFieldSource("http://unknown.example.com/")));
+        assertEquals(2, cache.getRejects());
+        assertEquals(0, cache.getNegativeSize());
+        assertCounters(cache, 0, 0, 0);
+        assertEquals(Integer.valueOf(2), cache.getValue(getFieldSource("HTTPS://AOREPO.ORG/")));
+        assertCounters(cache, 0, 1, 0);
+        // Nothing can match an empty map
+        testMap.remove(aorepoOnly);
+        assertNull(cache.get(getFieldSource("http://aorepo.org/")));
+        assertEquals(3, cache.getRejects());
+        assertCounters(cache, 0, 1, 0);
+      }
+    }
+  }
+
+  @Test
+  public void testRequestKeySharesCachedResult() throws MalformedURLException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.COPY_ON_WRITE, 10);
+    PartialURLMatch<Integer> match = cache.get(getFieldSource("http://aoindustries.com/prefix/file1"));
+    assertSame(match, cache.get(RequestKey.valueOf(getFieldSource("http://aoindustries.com/prefix/file2"))));
+    assertCounters(cache, 1, 1, 0);
+    // Different directory
+    assertEquals(match, cache.get(RequestKey.valueOf(getFieldSource("http://aoindustries.com/prefix/other/file"))));
+    assertSame(
+        cache.get(RequestKey.valueOf(getFieldSource("http://aoindustries.com/prefix/other/"))),
+        cache.get(getFieldSource("http://aoindustries.com/prefix/other/file3"))
+    );
+    assertCounters(cache, 3, 2, 0);
+    // No path
+    assertNull(cache.get(RequestKey.valueOf(getFieldSource("http://aoindustries.com"))));
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void testConcurrentGets() throws InterruptedException {
+    PartialURLMapCache<Integer> cache = getTestCache(PartialURLMap.Concurrency.COPY_ON_WRITE, 8);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int offset = t;
+      threads[t] = new Thread(() -> {
+        try {
+          // More distinct lookups than the cache holds, so adding and evicting run concurrently with hits
+          for (int i = 0; i < 10000; i++) {
+            int dir = (i + offset) % 16;
+            assertEquals(Integer.valueOf(2), cache.getValue(getFieldSource("http://aorepo.org/d" + dir + "/")));
+            assertEquals(Integer.valueOf(1), cache.getValue(getFieldSource("http://aoindustries.com/prefix/d" + dir + "/")));
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertEquals(8, cache.getSize());
+    assertEquals(threads.length * 10000L * 2, cache.getHits() + cache.getMisses());
+    // Concurrent misses of the same lookup replace instead of evict
+    assertTrue(cache.getEvictions() <= cache.getMisses() - 8);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxNegativeSizeTooSmall() {
+    new PartialURLMapCache<>(new PartialURLMap<>(), 1, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxSizeTooSmall() {
+    new PartialURLMapCache<>(new PartialURLMap<>(), 0);
+  }
+}
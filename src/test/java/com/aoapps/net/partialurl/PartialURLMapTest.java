@@ -1,6 +1,6 @@
 /*
  * ao-net-partial-url - Matches and resolves partial URLs.
- * Copyright (C) 2018, 2019, 2021, 2022  AO Industries, Inc.
+ * Copyright (C) 2018, 2019, 2021, 2022, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -24,15 +24,32 @@
 package com.aoapps.net.partialurl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNoException;
+import static org.junit.Assume.assumeTrue;
 
 import com.aoapps.lang.validation.ValidationException;
 import com.aoapps.net.HostAddress;
 import com.aoapps.net.Path;
 import com.aoapps.net.Port;
 import com.aoapps.net.Protocol;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.junit.Test;
 
 /**
@@ -536,6 +553,1300 @@ public class PartialURLMapTest {
   }
   // </editor-fold>
 
+  // <editor-fold defaultstate="collapsed" desc="Test concurrency strategies">
+  private static PartialURLMap<Integer> getTestCopyOnWriteMap() {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE);
+    testMap.put(httpsOnly, 1);
+    testMap.put(hostsOnly, 2);
+    testMap.put(port443Only, 3);
+    testMap.put(contextsOnly, 4);
+    testMap.put(prefixOnly, 5);
+    return testMap;
+  }
+
+  @Test
+  public void testCopyOnWriteGetByHostsMatches() throws MalformedURLException {
+    assertEquals(
+        new PartialURLMatch<>(
+            hostsOnly,
+            wwwAorepoOnly,
+            new URL("ftp://www.aorepo.org:81"),
+            2
+        ),
+        getTestCopyOnWriteMap().get(new URLFieldSource(new URL("ftp://WWW.AOREPO.ORG:81/")))
+    );
+  }
+
+  @Test
+  public void testCopyOnWriteGetByContextsMatches() throws MalformedURLException {
+    assertEquals(
+        new PartialURLMatch<>(
+            contextsOnly,
+            contextSubOnly,
+            new URL("ftp://aoindustries.com:81/context/sub"),
+            4
+        ),
+        getTestCopyOnWriteMap().get(
+            new URLFieldSource(new URL("ftp://aoindustries.com:81/")) {
+              @Override
+              public Path getContextPath() {
+                try {
+                  return Path.valueOf("/context/sub");
+                } catch (ValidationException e) {
+                  throw new AssertionError(e);
+                }
+              }
+            }
+        )
+    );
+  }
+
+  @Test
+  public void testCopyOnWriteGetNotMatches() throws MalformedURLException {
+    assertNull(
+        getTestCopyOnWriteMap().get(new URLFieldSource(new URL("ftp://aoindustries.com:81/")))
+    );
+  }
+
+  @Test
+  public void testCopyOnWritePutConflictLeavesMapUnchanged() throws MalformedURLException {
+    PartialURLMap<Integer> testMap = getTestCopyOnWriteMap();
+    try {
+      // First combination is new, second conflicts with aorepoOnly through hostsOnly
+      testMap.put(PartialURL.valueOf(null, new HostAddress[]{HostAddress.valueOf("aoindustries.com"), HostAddress.valueOf("aorepo.org")}, null, null), 6);
+      fail("IllegalStateException expected");
+    } catch (IllegalStateException e) {
+      // Expected
+    } catch (ValidationException e) {
+      throw new AssertionError(e);
+    }
+    assertNull(
+        testMap.get(new URLFieldSource(new URL("ftp://aoindustries.com:81/")))
+    );
+  }
+
+  @Test
+  public void testCopyOnWriteGetDuringPuts() throws MalformedURLException, InterruptedException {
+    for (PartialURLMap.Storage storage : PartialURLMap.Storage.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, storage);
+      testMap.put(prefixOnly, 1);
+      Thread writer = new Thread(() -> {
+        try {
+          for (int i = 0; i < 1000; i++) {
+            testMap.put(PartialURL.valueOf(null, HostAddress.valueOf("host" + i + ".aoindustries.com"), null, null, Path.valueOf("/prefix/sub" + i + "/")), i);
+          }
+        } catch (ValidationException e) {
+          throw new AssertionError(e);
+        }
+      });
+      writer.start();
+      try {
+        FieldSource fieldSource = new URLFieldSource(new URL("http://aoindustries.com/prefix/sub/file"));
+        while (writer.isAlive()) {
+          assertEquals(Integer.valueOf(1), testMap.getValue(fieldSource));
+          // Each lookup searches a single snapshot, never one being modified
+          assertEquals(Integer.valueOf(1), testMap.get(fieldSource).getValue());
+        }
+      } finally {
+        writer.join();
+      }
+      assertEquals(Integer.valueOf(999), testMap.getValue(new URLFieldSource(new URL("http://host999.aoindustries.com/prefix/sub999/"))));
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test putAll">
+  private static Map<PartialURL, Integer> getTestPutAllEntries() {
+    Map<PartialURL, Integer> entries = new LinkedHashMap<>();
+    entries.put(httpsOnly, 1);
+    entries.put(hostsOnly, 2);
+    entries.put(port443Only, 3);
+    entries.put(contextsOnly, 4);
+    entries.put(prefixOnly, 5);
+    return entries;
+  }
+
+  @Test
+  public void testPutAllMatches() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.putAll(getTestPutAllEntries());
+      assertEquals(
+          new PartialURLMatch<>(
+              hostsOnly,
+              wwwAorepoOnly,
+              new URL("ftp://www.aorepo.org:81"),
+              2
+          ),
+          testMap.get(new URLFieldSource(new URL("ftp://WWW.AOREPO.ORG:81/")))
+      );
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/file"))));
+      assertNull(testMap.get(new URLFieldSource(new URL("ftp://aoindustries.com:81/"))));
+    }
+  }
+
+  @Test
+  public void testPutAllAfterPut() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.put(prefixSubOnly, 6);
+      testMap.putAll(getTestPutAllEntries());
+      testMap.put(port80Only, 7);
+      assertEquals(Integer.valueOf(6), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/sub/file"))));
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/file"))));
+      assertEquals(Integer.valueOf(7), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:80/"))));
+    }
+  }
+
+  @Test
+  public void testPutAllConflictWithExistingLeavesMapUnchanged() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.put(aorepoOnly, 6);
+      try {
+        testMap.putAll(getTestPutAllEntries());
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      assertNull(testMap.get(new URLFieldSource(new URL("https://aoindustries.com/"))));
+      assertNull(testMap.get(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/file"))));
+      assertEquals(Integer.valueOf(6), testMap.getValue(new URLFieldSource(new URL("https://aorepo.org/"))));
+    }
+  }
+
+  @Test
+  public void testPutAllConflictWithinEntriesLeavesMapUnchanged() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      Map<PartialURL, Integer> entries = getTestPutAllEntries();
+      entries.put(wwwAorepoOnly, 6);
+      try {
+        testMap.putAll(entries);
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      assertNull(testMap.get(new URLFieldSource(new URL("https://aoindustries.com/"))));
+      assertEquals(0, testMap.getVersion());
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test remove and replace">
+  @Test
+  public void testRemove() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.putAll(getTestPutAllEntries());
+      testMap.put(prefixSubOnly, 6);
+      assertEquals(Integer.valueOf(6), testMap.remove(prefixSubOnly));
+      assertNull(testMap.remove(prefixSubOnly));
+      // Falls back to the shallower prefix
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/sub/file"))));
+      assertEquals(Integer.valueOf(2), testMap.remove(hostsOnly));
+      assertNull(testMap.get(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+      // May be added again once removed
+      testMap.put(wwwAorepoOnly, 7);
+      assertEquals(Integer.valueOf(7), testMap.getValue(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+    }
+  }
+
+  @Test
+  public void testRemoveOnlyEqualPartialUrl() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.put(hostsOnly, 2);
+      long version = testMap.getVersion();
+      // A single combination of hostsOnly was not itself added
+      assertNull(testMap.remove(wwwAorepoOnly));
+      assertEquals(version, testMap.getVersion());
+      assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+    }
+  }
+
+  @Test
+  public void testRemoveAllLeavesEmptyIndex() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      Map<PartialURL, Integer> entries = getTestPutAllEntries();
+      testMap.putAll(entries);
+      for (Map.Entry<PartialURL, Integer> entry : entries.entrySet()) {
+        assertEquals(entry.getValue(), testMap.remove(entry.getKey()));
+      }
+      assertNull(testMap.get(new URLFieldSource(new URL("https://aorepo.org:443/context/prefix/"))));
+      // All entries may be added again
+      testMap.putAll(entries);
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/file"))));
+    }
+  }
+
+  @Test
+  public void testRemoveFactorized() throws MalformedURLException, ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = getTestFactorizedMap(concurrency);
+      assertEquals(Integer.valueOf(1), testMap.remove(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/"), Path.valueOf("/a/b/"))));
+      assertNull(testMap.get(new URLFieldSource(new URL("http://host3.aorepo.org/a/b/file"))));
+      assertEquals(Integer.valueOf(3), testMap.getValue(new URLFieldSource(new URL("http://host2.aorepo.org/a/b/file"))));
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("http://host3.aoindustries.com/"))));
+    }
+  }
+
+  @Test
+  public void testReplace() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.putAll(getTestPutAllEntries());
+      assertEquals(Integer.valueOf(2), testMap.replace(hostsOnly, 6));
+      assertEquals(
+          new PartialURLMatch<>(
+              hostsOnly,
+              wwwAorepoOnly,
+              new URL("ftp://www.aorepo.org:81"),
+              6
+          ),
+          testMap.get(new URLFieldSource(new URL("ftp://WWW.AOREPO.ORG:81/")))
+      );
+      assertEquals(Integer.valueOf(6), testMap.getValue(new URLFieldSource(new URL("ftp://aorepo.org:81/"))));
+      // Not added when missing
+      assertNull(testMap.replace(prefixSubOnly, 7));
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/sub/file"))));
+    }
+  }
+
+  @Test
+  public void testReplaceFactorized() throws MalformedURLException, ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = getTestFactorizedMap(concurrency);
+      assertEquals(Integer.valueOf(5), testMap.replace(getTestFactorizedUrl(".aoindustries.com"), 6));
+      assertEquals(Integer.valueOf(6), testMap.getValue(new URLFieldSource(new URL("http://host3.aoindustries.com/"))));
+      assertEquals(Integer.valueOf(6), testMap.getValue(new URLFieldSource(new URL("https://host19.aoindustries.com/"))));
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test setAll">
+  @Test
+  public void testPutConflictLeavesMapUnchanged() throws MalformedURLException, ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.put(aorepoOnly, 1);
+      // First combination is new, second conflicts with aorepoOnly
+      PartialURL conflicting = PartialURL.valueOf(null, new HostAddress[]{HostAddress.valueOf("aoindustries.com"), HostAddress.valueOf("aorepo.org")}, null, null);
+      try {
+        testMap.put(conflicting, 2);
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      assertNull(testMap.get(new URLFieldSource(new URL("ftp://aoindustries.com:81/"))));
+      assertNull(testMap.remove(conflicting));
+      // Not left in the index
+      testMap.put(PartialURL.valueOf(null, HostAddress.valueOf("aoindustries.com"), null, null, null), 3);
+      assertEquals(Integer.valueOf(3), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/"))));
+    }
+  }
+
+  @Test
+  public void testSetAll() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.putAll(getTestPutAllEntries());
+      Map<PartialURL, Integer> entries = getTestPutAllEntries();
+      // Removed
+      entries.remove(hostsOnly);
+      // Replaced
+      entries.put(prefixOnly, 6);
+      // Added, reusing a combination of the removed hostsOnly
+      entries.put(wwwAorepoOnly, 7);
+      testMap.setAll(entries);
+      assertNull(testMap.get(new URLFieldSource(new URL("ftp://aorepo.org:81/"))));
+      assertEquals(Integer.valueOf(6), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/file"))));
+      assertEquals(Integer.valueOf(7), testMap.getValue(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+      assertEquals(Integer.valueOf(1), testMap.getValue(new URLFieldSource(new URL("https://aoindustries.com:8443/"))));
+      // Remove all
+      testMap.setAll(Collections.emptyMap());
+      assertNull(testMap.get(new URLFieldSource(new URL("https://aoindustries.com:8443/"))));
+      assertNull(testMap.remove(httpsOnly));
+    }
+  }
+
+  @Test
+  public void testSetAllUnchanged() {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.putAll(getTestPutAllEntries());
+      long version = testMap.getVersion();
+      testMap.setAll(getTestPutAllEntries());
+      assertEquals(version, testMap.getVersion());
+    }
+  }
+
+  @Test
+  public void testSetAllConflictLeavesMapUnchanged() throws MalformedURLException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.putAll(getTestPutAllEntries());
+      Map<PartialURL, Integer> entries = getTestPutAllEntries();
+      entries.remove(httpsOnly);
+      entries.put(prefixOnly, 6);
+      // Conflicts with hostsOnly, which remains
+      entries.put(wwwAorepoOnly, 7);
+      try {
+        testMap.setAll(entries);
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      assertEquals(Integer.valueOf(1), testMap.getValue(new URLFieldSource(new URL("https://aoindustries.com:8443/"))));
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/file"))));
+      assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+      // Contents unchanged, so the same changes fail again
+      try {
+        testMap.setAll(entries);
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test flattened and off-heap storage">
+  /**
+   * The storages that use a single table instead of the nested index.
+   */
+  private static final PartialURLMap.Storage[] TABLE_STORAGES = {
+      PartialURLMap.Storage.FLATTENED,
+      PartialURLMap.Storage.OFF_HEAP
+  };
+
+  private static final String[] FLATTENED_TEST_URLS = {
+      "https://aorepo.org/",
+      "ftp://WWW.AOREPO.ORG:81/",
+      "ftp://aoindustries.com:81/",
+      "ftp://aoindustries.com:81/prefix",
+      "ftp://aoindustries.com:81/prefix/",
+      "ftp://aoindustries.com:81/prefix/file",
+      "ftp://aoindustries.com:81/prefix/sub/file",
+      "ftp://aoindustries.com:81/prefix/subsub/file",
+      "ftp://aoindustries.com:443/prefix/sub/",
+      "http://aoindustries.com:80/prefix/sub/file",
+      "https://aoindustries.com:8443/context/prefix/sub/"
+  };
+
+  /**
+   * Asserts that a flattened or off-heap map has the same results as a nested map with the same entries.
+   */
+  private static void assertFlattenedMatchesNested(PartialURLMap<Integer> flattened, PartialURLMap<Integer> nested) throws MalformedURLException {
+    assertNotEquals(PartialURLMap.Storage.NESTED, flattened.getStorage());
+    assertEquals(PartialURLMap.Storage.NESTED, nested.getStorage());
+    for (String url : FLATTENED_TEST_URLS) {
+      assertEquals(
+          url,
+          nested.get(new URLFieldSource(new URL(url))),
+          flattened.get(new URLFieldSource(new URL(url)))
+      );
+    }
+  }
+
+  @Test
+  public void testFlattenedMatchesNested() throws MalformedURLException, ValidationException {
+    Map<PartialURL, Integer> entries = getTestPutAllEntries();
+    entries.put(prefixSubOnly, 6);
+    entries.put(port80Only, 7);
+    entries.put(PartialURL.valueOf(null, null, Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/sub/")), 8);
+    PartialURLMap<Integer> nested = new PartialURLMap<>();
+    nested.putAll(entries);
+    for (PartialURLMap.Storage storage : TABLE_STORAGES) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> flattened = new PartialURLMap<>(concurrency, storage);
+        for (Map.Entry<PartialURL, Integer> entry : entries.entrySet()) {
+          flattened.put(entry.getKey(), entry.getValue());
+        }
+        assertFlattenedMatchesNested(flattened, nested);
+      }
+    }
+  }
+
+  @Test
+  public void testFlattenedPutConflictLeavesMapUnchanged() throws MalformedURLException {
+    for (PartialURLMap.Storage storage : TABLE_STORAGES) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+        testMap.putAll(getTestPutAllEntries());
+        try {
+          testMap.put(aorepoOnly, 6);
+          fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+          // Expected
+        }
+        assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("ftp://aorepo.org:81/"))));
+      }
+    }
+  }
+
+  @Test
+  public void testFlattenedFactorized() throws MalformedURLException, ValidationException {
+    for (PartialURLMap.Storage storage : TABLE_STORAGES) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> testMap = getTestFactorizedMap(concurrency, storage);
+        assertEquals(Integer.valueOf(1), testMap.getValue(new URLFieldSource(new URL("http://host3.aorepo.org/a/b/file"))));
+        assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("https://host1.aorepo.org/a/b/c/"))));
+        assertEquals(Integer.valueOf(3), testMap.getValue(new URLFieldSource(new URL("https://host2.aorepo.org:8443/a/b/"))));
+        assertEquals(Integer.valueOf(4), testMap.getValue(new URLFieldSource(new URL("https://host4.aorepo.org:8080/a/b/c/d/"))));
+        testMap.put(
+            PartialURL.valueOf("https", HostAddress.valueOf("host7.aorepo.org"), Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/e/")),
+            6
+        );
+        try {
+          // Conflicts with a single entry already in the flattened index
+          testMap.put(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/e/")), 7);
+          fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+          // Expected
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFlattenedRemoveAndSetAll() throws MalformedURLException {
+    for (PartialURLMap.Storage storage : TABLE_STORAGES) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+        testMap.putAll(getTestPutAllEntries());
+        testMap.put(prefixSubOnly, 6);
+        assertEquals(Integer.valueOf(6), testMap.remove(prefixSubOnly));
+        assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/sub/file"))));
+        assertEquals(Integer.valueOf(2), testMap.replace(hostsOnly, 7));
+        assertEquals(Integer.valueOf(7), testMap.getValue(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+        Map<PartialURL, Integer> entries = getTestPutAllEntries();
+        entries.remove(httpsOnly);
+        entries.put(prefixesOnly, 8);
+        entries.remove(prefixOnly);
+        testMap.setAll(entries);
+        PartialURLMap<Integer> nested = new PartialURLMap<>();
+        nested.putAll(entries);
+        assertFlattenedMatchesNested(testMap, nested);
+      }
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test snapshot files">
+  private static final PartialURLMap.ValueCodec<Integer> INTEGER_CODEC = new PartialURLMap.ValueCodec<Integer>() {
+    @Override
+    public int encode(Integer value) {
+      return value;
+    }
+
+    @Override
+    public Integer decode(int id) {
+      return id;
+    }
+  };
+
+  /**
+   * Writes the map to a snapshot file then maps it.
+   */
+  private static PartialURLMap<Integer> writeAndMapSnapshot(PartialURLMap<Integer> testMap, PartialURLMap.Concurrency concurrency) throws IOException {
+    java.nio.file.Path file = Files.createTempFile("PartialURLMapTest.", ".snapshot");
+    try {
+      testMap.writeSnapshot(file, INTEGER_CODEC);
+      return PartialURLMap.mapSnapshot(file, concurrency, INTEGER_CODEC);
+    } finally {
+      // Remains mapped after deleted
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testSnapshotMatchesNested() throws IOException, ValidationException {
+    Map<PartialURL, Integer> entries = getTestPutAllEntries();
+    entries.put(prefixSubOnly, 6);
+    entries.put(port80Only, 7);
+    entries.put(PartialURL.valueOf(null, null, Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/sub/")), 8);
+    PartialURLMap<Integer> nested = new PartialURLMap<>();
+    nested.putAll(entries);
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> mapped = writeAndMapSnapshot(nested, concurrency);
+      assertEquals(PartialURLMap.Storage.OFF_HEAP, mapped.getStorage());
+      assertEquals(concurrency, mapped.getConcurrency());
+      assertFlattenedMatchesNested(mapped, nested);
+    }
+  }
+
+  @Test
+  public void testSnapshotEmpty() throws IOException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> mapped = writeAndMapSnapshot(new PartialURLMap<>(), concurrency);
+      assertNull(mapped.getValue(new URLFieldSource(new URL("https://aorepo.org/"))));
+      mapped.put(aorepoOnly, 1);
+      assertEquals(Integer.valueOf(1), mapped.getValue(new URLFieldSource(new URL("https://aorepo.org/"))));
+    }
+  }
+
+  @Test
+  public void testSnapshotFactorized() throws IOException, ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> mapped = writeAndMapSnapshot(getTestFactorizedMap(concurrency), concurrency);
+      assertEquals(Integer.valueOf(1), mapped.getValue(new URLFieldSource(new URL("http://host3.aorepo.org/a/b/file"))));
+      assertEquals(Integer.valueOf(2), mapped.getValue(new URLFieldSource(new URL("https://host1.aorepo.org/a/b/c/"))));
+      assertEquals(Integer.valueOf(3), mapped.getValue(new URLFieldSource(new URL("https://host2.aorepo.org:8443/a/b/"))));
+      assertEquals(Integer.valueOf(4), mapped.getValue(new URLFieldSource(new URL("https://host4.aorepo.org:8080/a/b/c/d/"))));
+      assertEquals(Integer.valueOf(5), mapped.getValue(new URLFieldSource(new URL("https://host4.aoindustries.com/"))));
+      try {
+        mapped.put(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/b/"), Path.valueOf("/c/")), 6);
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testSnapshotModified() throws IOException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>();
+      testMap.putAll(getTestPutAllEntries());
+      testMap.put(prefixSubOnly, 6);
+      PartialURLMap<Integer> mapped = writeAndMapSnapshot(testMap, concurrency);
+      try {
+        mapped.put(aorepoOnly, 9);
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      assertEquals(Integer.valueOf(6), mapped.remove(prefixSubOnly));
+      assertEquals(Integer.valueOf(5), mapped.getValue(new URLFieldSource(new URL("ftp://aoindustries.com:81/prefix/sub/file"))));
+      assertEquals(Integer.valueOf(2), mapped.replace(hostsOnly, 7));
+      assertEquals(Integer.valueOf(7), mapped.getValue(new URLFieldSource(new URL("ftp://www.aorepo.org:81/"))));
+      Map<PartialURL, Integer> entries = getTestPutAllEntries();
+      entries.remove(httpsOnly);
+      entries.put(prefixesOnly, 8);
+      entries.remove(prefixOnly);
+      mapped.setAll(entries);
+      PartialURLMap<Integer> nested = new PartialURLMap<>();
+      nested.putAll(entries);
+      assertFlattenedMatchesNested(mapped, nested);
+      // Written again after modified
+      assertFlattenedMatchesNested(writeAndMapSnapshot(mapped, concurrency), nested);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testSnapshotInvalid() throws IOException {
+    java.nio.file.Path file = Files.createTempFile("PartialURLMapTest.", ".snapshot");
+    try {
+      Files.write(file, new byte[128]);
+      PartialURLMap.mapSnapshot(file, PartialURLMap.Concurrency.COPY_ON_WRITE, INTEGER_CODEC);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * A length that overflows to a small positive number of bytes when multiplied by {@link Character#BYTES}.
+   */
+  @Test(expected = IOException.class)
+  public void testSnapshotCorruptLength() throws IOException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    testMap.putAll(getTestPutAllEntries());
+    java.nio.file.Path file = Files.createTempFile("PartialURLMapTest.", ".snapshot");
+    try {
+      testMap.writeSnapshot(file, INTEGER_CODEC);
+      ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+      // The number of schemes follows the 52-byte header, then the length of the first scheme
+      assertTrue(bytes.getInt(52) > 0);
+      bytes.putInt(56, 0x80000001);
+      Files.write(file, bytes.array());
+      PartialURLMap.mapSnapshot(file, PartialURLMap.Concurrency.COPY_ON_WRITE, INTEGER_CODEC);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test load">
+  @Test
+  public void testLoad() throws IOException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    testMap.load(
+        new StringReader(
+            "# Comment\n"
+                + "https://aorepo.org/ 1\n"
+                + "\n"
+                + "  {http,https}://{aorepo.org,www.aorepo.org}:*/prefix/\t2  \n"
+                + "//*:*/*/**\n"
+        ),
+        value -> value.isEmpty() ? null : Integer.valueOf(value)
+    );
+    assertEquals(Integer.valueOf(1), testMap.getValue(new URLFieldSource(new URL("https://aorepo.org/"))));
+    assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("http://www.aorepo.org/prefix/file"))));
+    PartialURLMatch<Integer> match = testMap.get(new URLFieldSource(new URL("http://aoindustries.com/")));
+    assertSame(PartialURL.DEFAULT, match.getPartialURL());
+    assertNull(match.getValue());
+  }
+
+  @Test
+  public void testLoadInvalidUnchanged() throws IOException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    try {
+      testMap.load(new StringReader("https://aorepo.org/ 1\n//*:*/*/prefix 2\n"), Integer::valueOf);
+      fail("MalformedURLException expected");
+    } catch (MalformedURLException e) {
+      assertTrue(e.getMessage().startsWith("Line 2: "));
+    }
+    assertNull(testMap.get(new URLFieldSource(new URL("https://aorepo.org/"))));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testLoadRepeated() throws IOException {
+    new PartialURLMap<Integer>().load(new StringReader("https://aorepo.org/ 1\nHTTPS://aorepo.org:443/ 2\n"), Integer::valueOf);
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test byte field source">
+  /**
+   * Creates a field source over the bytes of the authority and path of a URL in a direct buffer.
+   */
+  private static ByteFieldSource newByteFieldSource(String url) throws MalformedURLException {
+    URL parsed = new URL(url);
+    String authority = parsed.getAuthority();
+    byte[] bytes = (authority + parsed.getPath()).getBytes(StandardCharsets.ISO_8859_1);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    return new ByteFieldSource(parsed.getProtocol(), buffer, 0, authority.length(), authority.length(), bytes.length);
+  }
+
+  @Test
+  public void testByteFieldSourceMatchesUrl() throws MalformedURLException, ValidationException {
+    Map<PartialURL, Integer> entries = getTestPutAllEntries();
+    entries.put(prefixSubOnly, 6);
+    entries.put(port80Only, 7);
+    entries.put(PartialURL.valueOf(null, null, Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/sub/")), 8);
+    for (PartialURLMap.Storage storage : PartialURLMap.Storage.values()) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+        testMap.putAll(entries);
+        for (String url : FLATTENED_TEST_URLS) {
+          PartialURLMatch<Integer> expected = testMap.get(new URLFieldSource(new URL(url)));
+          assertEquals(url, (expected == null) ? null : expected.getValue(), testMap.getValue(newByteFieldSource(url)));
+          PartialURLMatch<Integer> match = testMap.get(newByteFieldSource(url));
+          assertEquals(url, (expected == null) ? null : expected.getPartialURL(), (match == null) ? null : match.getPartialURL());
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the value of a lookup, or the class of the exception thrown.
+   */
+  private static Object getValueOrException(PartialURLMap<Integer> map, FieldSource fieldSource) {
+    try {
+      return map.getValue(fieldSource);
+    } catch (MalformedURLException e) {
+      return e.getClass();
+    }
+  }
+
+  @Test
+  public void testByteFieldSourceInvalidHostMatchesNested() throws MalformedURLException {
+    PartialURLMap<Integer> nested = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.NESTED);
+    PartialURLMap<Integer> offHeap = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.OFF_HEAP);
+    for (PartialURLMap<Integer> map : Arrays.asList(nested, offHeap)) {
+      map.put(PartialURL.valueOf(Path.ROOT), 1);
+    }
+    for (String host : new String[] {"a..b.com", "-a.com", "a-.com", ".com", "a" + "b".repeat(63) + ".com", "a.".repeat(127) + "com"}) {
+      String url = "http://" + host + "/path";
+      assertEquals(url, getValueOrException(nested, newByteFieldSource(url)), getValueOrException(offHeap, newByteFieldSource(url)));
+      assertEquals(url, nested.getValue(newByteFieldSource(url), INVALID), offHeap.getValue(newByteFieldSource(url), INVALID));
+      assertEquals(
+          url,
+          getValueOrException(nested, new CharSequenceFieldSource(url)),
+          getValueOrException(offHeap, new CharSequenceFieldSource(url))
+      );
+    }
+  }
+
+  @Test
+  public void testByteFieldSourceFactorized() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = getTestFactorizedMap(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.OFF_HEAP);
+    assertEquals(Integer.valueOf(1), testMap.getValue(newByteFieldSource("http://host3.aorepo.org/a/b/file")));
+    assertEquals(Integer.valueOf(3), testMap.getValue(newByteFieldSource("https://host2.aorepo.org:8443/a/b/")));
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test char sequence field source">
+  @Test
+  public void testCharSequenceFieldSourceMatchesUrl() throws MalformedURLException, ValidationException {
+    Map<PartialURL, Integer> entries = getTestPutAllEntries();
+    entries.put(prefixSubOnly, 6);
+    entries.put(port80Only, 7);
+    entries.put(PartialURL.valueOf(null, null, Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/sub/")), 8);
+    for (PartialURLMap.Storage storage : PartialURLMap.Storage.values()) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+        testMap.putAll(entries);
+        for (String url : FLATTENED_TEST_URLS) {
+          PartialURLMatch<Integer> expected = testMap.get(new URLFieldSource(new URL(url)));
+          assertEquals(url, (expected == null) ? null : expected.getValue(), testMap.getValue(new CharSequenceFieldSource(url)));
+          PartialURLMatch<Integer> match = testMap.get(new CharSequenceFieldSource(url));
+          assertEquals(url, expected, match);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCharSequenceFieldSourceFactorized() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = getTestFactorizedMap(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.OFF_HEAP);
+    assertEquals(Integer.valueOf(1), testMap.getValue(new CharSequenceFieldSource("http://host3.aorepo.org/a/b/file")));
+    assertEquals(Integer.valueOf(3), testMap.getValue(new CharSequenceFieldSource("https://host2.aorepo.org:8443/a/b/")));
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test request key">
+  @Test
+  public void testRequestKeyMatchesUrl() throws MalformedURLException, ValidationException {
+    Map<PartialURL, Integer> entries = getTestPutAllEntries();
+    entries.put(prefixSubOnly, 6);
+    entries.put(port80Only, 7);
+    entries.put(PartialURL.valueOf(null, null, Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/sub/")), 8);
+    for (PartialURLMap.Storage storage : PartialURLMap.Storage.values()) {
+      for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+        PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+        testMap.putAll(entries);
+        for (String url : FLATTENED_TEST_URLS) {
+          RequestKey key = RequestKey.valueOf(new URLFieldSource(new URL(url)));
+          PartialURLMatch<Integer> expected = testMap.get(new URLFieldSource(new URL(url)));
+          assertEquals(url, expected, testMap.get(key));
+          assertEquals(url, (expected == null) ? null : expected.getValue(), testMap.getValue(key));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRequestKeySharedByMaps() throws MalformedURLException, ValidationException {
+    RequestKey key = RequestKey.valueOf(new CharSequenceFieldSource("https://aoindustries.com/prefix/sub/file"));
+    PartialURLMap<Integer> nested = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.NESTED);
+    nested.put(prefixOnly, 1);
+    PartialURLMap<Integer> flattened = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.FLATTENED);
+    flattened.put(prefixSubOnly, 2);
+    flattened.put(PartialURL.valueOf(Path.valueOf("/prefix/sub/file/deeper/")), 3);
+    PartialURLMap<Integer> offHeap = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.OFF_HEAP);
+    offHeap.put(PartialURL.valueOf(Path.ROOT), 4);
+    offHeap.put(PartialURL.valueOf(Path.valueOf("/other/")), 5);
+    assertEquals(Integer.valueOf(1), nested.getValue(key));
+    assertEquals(Integer.valueOf(2), flattened.getValue(key));
+    assertEquals(Integer.valueOf(4), offHeap.getValue(key));
+    assertNull(offHeap.getValue(RequestKey.valueOf(new CharSequenceFieldSource("https://aoindustries.com"))));
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test invalid input">
+  private static final Integer INVALID = -1;
+
+  @Test
+  public void testGetValueInvalid() throws MalformedURLException {
+    for (PartialURLMap.Storage storage : PartialURLMap.Storage.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(PartialURLMap.Concurrency.COPY_ON_WRITE, storage);
+      testMap.putAll(getTestPutAllEntries());
+      for (String url : FLATTENED_TEST_URLS) {
+        assertEquals(url, testMap.getValue(new URLFieldSource(new URL(url))), testMap.getValue(new CharSequenceFieldSource(url), INVALID));
+      }
+      assertSame(INVALID, testMap.getValue(new CharSequenceFieldSource("http:///path"), INVALID));
+      assertSame(INVALID, testMap.getValue(new CharSequenceFieldSource("http://aorepo.org:0/"), INVALID));
+      assertSame(INVALID, testMap.getValue(new URLFieldSource(new URL("file:/path")), INVALID));
+    }
+  }
+
+  @Test
+  public void testGetValueInvalidCatchesException() {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    testMap.putAll(getTestPutAllEntries());
+    FieldSource fieldSource = new FieldSource() {
+      @Override
+      public String getScheme() throws MalformedURLException {
+        throw new MalformedURLException();
+      }
+
+      @Override
+      public HostAddress getHost() throws MalformedURLException {
+        throw new MalformedURLException();
+      }
+
+      @Override
+      public Port getPort() throws MalformedURLException {
+        throw new MalformedURLException();
+      }
+
+      @Override
+      public Path getContextPath() throws MalformedURLException {
+        throw new MalformedURLException();
+      }
+
+      @Override
+      public Path getPath() throws MalformedURLException {
+        throw new MalformedURLException();
+      }
+    };
+    assertFalse(fieldSource.isInvalid());
+    assertSame(INVALID, testMap.getValue(fieldSource, INVALID));
+  }
+
+  @Test
+  public void testUrlFieldSourceIsInvalid() throws MalformedURLException {
+    assertFalse(new URLFieldSource(new URL("https://aorepo.org/path")).isInvalid());
+    assertFalse(new URLFieldSource(new URL("ftp://aorepo.org/")).isInvalid());
+    assertTrue(new URLFieldSource(new URL("file:/path")).isInvalid());
+    assertTrue(new URLFieldSource(new URL("http://aorepo.org:0/")).isInvalid());
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test prefix depth">
+  @Test
+  public void testGetDeeperPrefixFallsBackWhenPortNotMatches() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    SinglePartialURL deep443 = PartialURL.valueOf(null, null, Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/sub/"));
+    testMap.put(deep443, 1);
+    testMap.put(prefixOnly, 2);
+    testMap.put(PartialURL.valueOf(Path.valueOf("/prefix/subsub/")), 3);
+    assertEquals(
+        new PartialURLMatch<>(
+            deep443,
+            deep443,
+            new URL("https://aoindustries.com/prefix/sub/"),
+            1
+        ),
+        testMap.get(new URLFieldSource(new URL("https://aoindustries.com/prefix/sub/file")))
+    );
+    assertEquals(
+        new PartialURLMatch<>(
+            prefixOnly,
+            prefixOnly,
+            new URL("http://aoindustries.com/prefix/"),
+            2
+        ),
+        testMap.get(new URLFieldSource(new URL("http://aoindustries.com/prefix/sub/file")))
+    );
+    assertEquals(
+        new PartialURLMatch<>(
+            prefixOnly,
+            prefixOnly,
+            new URL("http://aoindustries.com/prefix/"),
+            2
+        ),
+        testMap.get(new URLFieldSource(new URL("http://aoindustries.com/prefix/subsub")))
+    );
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test lazy URL">
+  /**
+   * A field source that may no longer be used once closed, such as one backed by a completed request.
+   */
+  private static class ClosableFieldSource extends URLFieldSource {
+
+    private boolean closed;
+
+    private ClosableFieldSource(URL url) {
+      super(url);
+    }
+
+    private void checkNotClosed() {
+      if (closed) {
+        throw new IllegalStateException("Field source used after closed");
+      }
+    }
+
+    @Override
+    public String getScheme() {
+      checkNotClosed();
+      return super.getScheme();
+    }
+
+    @Override
+    public HostAddress getHost() throws MalformedURLException {
+      checkNotClosed();
+      return super.getHost();
+    }
+
+    @Override
+    public Port getPort() throws MalformedURLException {
+      checkNotClosed();
+      return super.getPort();
+    }
+
+    @Override
+    public Path getContextPath() {
+      checkNotClosed();
+      return super.getContextPath();
+    }
+
+    @Override
+    public Path getPath() throws MalformedURLException {
+      checkNotClosed();
+      return super.getPath();
+    }
+  }
+
+  @Test
+  public void testGetUrlAfterFieldSourceClosed() throws MalformedURLException {
+    ClosableFieldSource fieldSource = new ClosableFieldSource(new URL("HTTPS://AOREPO.ORG:8443/prefix/suffix"));
+    PartialURLMatch<Integer> match = getTestSingleFieldSingleMap().get(fieldSource);
+    fieldSource.closed = true;
+    assertEquals(Integer.valueOf(2), match.getValue());
+    assertEquals(new URL("https://aorepo.org:8443"), match.getUrl());
+    assertSame("URL is created only once", match.getUrl(), match.getUrl());
+  }
+
+  @Test
+  public void testGetUrlSelectsOnlyNullFields() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    SinglePartialURL complete = PartialURL.valueOf(
+        "https",
+        HostAddress.valueOf("aoindustries.com"),
+        Port.valueOf(443, Protocol.TCP),
+        Path.ROOT,
+        Path.valueOf("/prefix/")
+    );
+    testMap.put(complete, 1);
+    ClosableFieldSource fieldSource = new ClosableFieldSource(new URL("https://aoindustries.com/prefix/suffix"));
+    PartialURLMatch<Integer> match = testMap.get(fieldSource);
+    fieldSource.closed = true;
+    assertEquals(new URL("https://aoindustries.com/prefix/"), match.getUrl());
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test early reject">
+  /**
+   * A field source that fails if the path is requested.
+   */
+  private static class NoPathFieldSource extends URLFieldSource {
+
+    private NoPathFieldSource(URL url) {
+      super(url);
+    }
+
+    @Override
+    public Path getPath() {
+      throw new AssertionError("Path requested for lookup that should have been rejected");
+    }
+  }
+
+  private static PartialURLMap<Integer> getTestEarlyRejectMap(PartialURLMap.Concurrency concurrency) throws ValidationException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+    testMap.put(
+        PartialURL.valueOf(
+            "https",
+            HostAddress.valueOf("aorepo.org"),
+            Port.valueOf(443, Protocol.TCP),
+            Path.valueOf("/context"),
+            Path.valueOf("/prefix/")
+        ),
+        1
+    );
+    testMap.put(
+        PartialURL.valueOf(
+            "https",
+            HostAddress.valueOf("www.aorepo.org"),
+            Port.valueOf(443, Protocol.TCP),
+            null,
+            Path.valueOf("/prefix/")
+        ),
+        2
+    );
+    return testMap;
+  }
+
+  @Test
+  public void testEarlyRejectUnknownHost() throws MalformedURLException, ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = getTestEarlyRejectMap(concurrency);
+      assertNull(testMap.get(new NoPathFieldSource(new URL("https://unknown.example.com/prefix/"))));
+      assertNull(testMap.getValue(new NoPathFieldSource(new URL("https://unknown.example.com/prefix/"))));
+    }
+  }
+
+  @Test
+  public void testEarlyRejectUnknownScheme() throws MalformedURLException, ValidationException {
+    assertNull(getTestEarlyRejectMap(PartialURLMap.Concurrency.READ_WRITE_LOCK).get(new NoPathFieldSource(new URL("http://aorepo.org:443/prefix/"))));
+  }
+
+  @Test
+  public void testEarlyRejectUnknownPort() throws MalformedURLException, ValidationException {
+    assertNull(getTestEarlyRejectMap(PartialURLMap.Concurrency.READ_WRITE_LOCK).get(new NoPathFieldSource(new URL("https://aorepo.org:8443/prefix/"))));
+  }
+
+  @Test
+  public void testEarlyRejectNotWhenNullHost() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = getTestEarlyRejectMap(PartialURLMap.Concurrency.COPY_ON_WRITE);
+    testMap.put(PartialURL.valueOf("https", null, null, null, Path.valueOf("/prefix/")), 3);
+    assertEquals(Integer.valueOf(3), testMap.getValue(new URLFieldSource(new URL("https://unknown.example.com/prefix/"))));
+    assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("https://www.aorepo.org/prefix/"))));
+  }
+
+  @Test
+  public void testEarlyRejectEmpty() throws MalformedURLException {
+    assertNull(new PartialURLMap<Integer>().get(new NoPathFieldSource(new URL("https://aorepo.org/prefix/"))));
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test factorized indexing">
+  private static final int FACTORIZED_HOSTS = 20;
+
+  /**
+   * Gets a multi partial URL with enough combinations to be factorized.
+   */
+  private static MultiPartialURL getTestFactorizedUrl(String hostSuffix, Path... prefixes) throws ValidationException {
+    HostAddress[] hosts = new HostAddress[FACTORIZED_HOSTS];
+    for (int i = 0; i < hosts.length; i++) {
+      hosts[i] = HostAddress.valueOf("host" + i + hostSuffix);
+    }
+    return (MultiPartialURL) PartialURL.valueOf(
+        new String[]{"https", "http"},
+        hosts,
+        new Port[]{Port.valueOf(443, Protocol.TCP), Port.valueOf(80, Protocol.TCP)},
+        null,
+        prefixes
+    );
+  }
+
+  private static PartialURLMap<Integer> getTestFactorizedMap(PartialURLMap.Concurrency concurrency) throws ValidationException {
+    return getTestFactorizedMap(concurrency, PartialURLMap.Storage.NESTED);
+  }
+
+  private static PartialURLMap<Integer> getTestFactorizedMap(PartialURLMap.Concurrency concurrency, PartialURLMap.Storage storage) throws ValidationException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+    testMap.put(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/"), Path.valueOf("/a/b/")), 1);
+    testMap.put(PartialURL.valueOf(null, HostAddress.valueOf("host1.aorepo.org"), null, null, Path.valueOf("/a/b/c/")), 2);
+    testMap.put(PartialURL.valueOf(null, HostAddress.valueOf("host2.aorepo.org"), null, null, Path.valueOf("/a/")), 3);
+    testMap.put(PartialURL.valueOf(null, null, null, null, Path.valueOf("/a/b/c/d/")), 4);
+    testMap.put(getTestFactorizedUrl(".aoindustries.com"), 5);
+    return testMap;
+  }
+
+  @Test
+  public void testGetFactorized() throws MalformedURLException, ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = getTestFactorizedMap(concurrency);
+      // Deepest prefix of factorized
+      MultiPartialURL multi = getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/"), Path.valueOf("/a/b/"));
+      URLFieldSource fieldSource = new URLFieldSource(new URL("http://host3.aorepo.org/a/b/file"));
+      PartialURLMatch<Integer> match = testMap.get(fieldSource);
+      assertEquals(Integer.valueOf(1), match.getValue());
+      assertEquals(multi, match.getPartialURL());
+      assertEquals(multi.matches(fieldSource), match.getSingleURL());
+      assertEquals(new URL("http://host3.aorepo.org/a/b/"), match.getUrl());
+      // Deeper single with host takes priority
+      assertEquals(Integer.valueOf(2), testMap.getValue(new URLFieldSource(new URL("https://host1.aorepo.org/a/b/c/"))));
+      // Deeper factorized takes priority over single with host
+      assertEquals(Integer.valueOf(1), testMap.getValue(new URLFieldSource(new URL("https://host2.aorepo.org/a/b/"))));
+      assertEquals(Integer.valueOf(3), testMap.getValue(new URLFieldSource(new URL("https://host2.aorepo.org:8443/a/b/"))));
+      // Factorized with host takes priority over deeper single without host
+      assertEquals(Integer.valueOf(1), testMap.getValue(new URLFieldSource(new URL("https://host4.aorepo.org/a/b/c/d/"))));
+      assertEquals(Integer.valueOf(4), testMap.getValue(new URLFieldSource(new URL("https://host4.aorepo.org:8080/a/b/c/d/"))));
+      // Not matches factorized
+      assertNull(testMap.get(new URLFieldSource(new URL("ftp://host3.aorepo.org:80/a/b/"))));
+      assertNull(testMap.get(new URLFieldSource(new URL("https://host3.aorepo.org/b/"))));
+      assertNull(testMap.get(new URLFieldSource(new URL("https://host" + FACTORIZED_HOSTS + ".aorepo.org/a/"))));
+      // Factorized without prefixes
+      assertEquals(Integer.valueOf(5), testMap.getValue(new URLFieldSource(new URL("https://host19.aoindustries.com/any/path"))));
+    }
+  }
+
+  @Test
+  public void testGetFactorizedPrimary() throws MalformedURLException, ValidationException {
+    MultiPartialURL multi = getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/"));
+    PartialURLMap<Integer> testMap = new PartialURLMap<>();
+    testMap.put(multi, 1);
+    assertSame(
+        multi.getPrimary(),
+        testMap.get(new URLFieldSource(new URL("https://host0.aorepo.org/a/"))).getSingleURL()
+    );
+  }
+
+  @Test
+  public void testPutSingleConflictsWithFactorized() throws ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = getTestFactorizedMap(concurrency);
+      try {
+        testMap.put(
+            PartialURL.valueOf("http", HostAddress.valueOf("host7.aorepo.org"), Port.valueOf(80, Protocol.TCP), null, Path.valueOf("/a/b/")),
+            6
+        );
+        fail("Conflict expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testPutFactorizedConflictsWithSingle() throws ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency);
+      testMap.put(
+          PartialURL.valueOf("https", HostAddress.valueOf("host7.aorepo.org"), Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/a/")),
+          1
+      );
+      try {
+        testMap.put(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/"), Path.valueOf("/a/b/")), 2);
+        fail("Conflict expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testPutFactorizedConflictsWithFactorized() throws ValidationException {
+    for (PartialURLMap.Concurrency concurrency : PartialURLMap.Concurrency.values()) {
+      PartialURLMap<Integer> testMap = getTestFactorizedMap(concurrency);
+      try {
+        testMap.put(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/a/b/"), Path.valueOf("/c/")), 6);
+        fail("Conflict expected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      // No conflict when any field is disjoint
+      testMap.put(getTestFactorizedUrl(".aorepo.org", Path.valueOf("/c/"), Path.valueOf("/d/")), 7);
+    }
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test allocation-free lookups">
+  private static final int ALLOCATION_ITERATIONS = 100000;
+
+  /**
+   * Gets the number of bytes allocated by {@link PartialURLMap#getValue(com.aoapps.net.partialurl.FieldSource)} over
+   * {@link #ALLOCATION_ITERATIONS} lookups, after warm-up.
+   *
+   * <p>{@code com.sun.management.ThreadMXBean} is accessed reflectively, since this module does not read
+   * {@code java.management} or {@code jdk.management}.</p>
+   */
+  private static long getValueAllocatedBytes(PartialURLMap<Integer> testMap, FieldSource fieldSource, Integer expected) throws MalformedURLException {
+    Object threadBean;
+    Method getThreadAllocatedBytes;
+    try {
+      threadBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+      Class<?> sunThreadBean = Class.forName("com.sun.management.ThreadMXBean");
+      assumeTrue(sunThreadBean.isInstance(threadBean));
+      assumeTrue((Boolean) sunThreadBean.getMethod("isThreadAllocatedMemorySupported").invoke(threadBean));
+      sunThreadBean.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadBean, true);
+      getThreadAllocatedBytes = sunThreadBean.getMethod("getThreadAllocatedBytes", long.class);
+    } catch (ClassNotFoundException e) {
+      assumeNoException(e);
+      throw new AssertionError(e);
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+    // Warm-up, also caching the results within the field source
+    for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+      assertSame(expected, testMap.getValue(fieldSource));
+    }
+    try {
+      long threadId = Thread.currentThread().getId();
+      long before = (Long) getThreadAllocatedBytes.invoke(threadBean, threadId);
+      int mismatches = 0;
+      for (int i = 0; i < ALLOCATION_ITERATIONS; i++) {
+        if (testMap.getValue(fieldSource) != expected) {
+          mismatches++;
+        }
+      }
+      long allocated = (Long) getThreadAllocatedBytes.invoke(threadBean, threadId) - before;
+      assertEquals(0, mismatches);
+      return allocated;
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static PartialURLMap<Integer> getTestAllocationMap(PartialURLMap.Concurrency concurrency) throws ValidationException {
+    return getTestAllocationMap(concurrency, PartialURLMap.Storage.NESTED);
+  }
+
+  private static PartialURLMap<Integer> getTestAllocationMap(PartialURLMap.Concurrency concurrency, PartialURLMap.Storage storage) throws ValidationException {
+    PartialURLMap<Integer> testMap = new PartialURLMap<>(concurrency, storage);
+    testMap.put(httpsOnly, 1);
+    testMap.put(wwwAorepoOnly, 2);
+    testMap.put(PartialURL.valueOf(null, HostAddress.valueOf("aorepo.org"), Port.valueOf(443, Protocol.TCP), null, Path.valueOf("/prefix/")), 3);
+    testMap.put(PartialURL.valueOf("http", HostAddress.valueOf("aorepo.org"), null, null, Path.valueOf("/prefix/sub/")), 4);
+    testMap.put(contextOnly, 5);
+    return testMap;
+  }
+
+  @Test
+  public void testGetValueMatchesGet() throws MalformedURLException, ValidationException {
+    PartialURLMap<Integer> testMap = getTestAllocationMap(PartialURLMap.Concurrency.READ_WRITE_LOCK);
+    for (String url : new String[]{
+        "https://aorepo.org/prefix/sub/file",
+        "http://aorepo.org/prefix/sub/file",
+        "http://aorepo.org/prefix/file",
+        "http://www.aorepo.org/",
+        "https://aoindustries.com/",
+        "http://aoindustries.com/"
+    }) {
+      FieldSource fieldSource = new URLFieldSource(new URL(url));
+      PartialURLMatch<Integer> match = testMap.get(fieldSource);
+      assertSame(url, (match == null) ? null : match.getValue(), testMap.getValue(fieldSource));
+    }
+  }
+
+  @Test
+  public void testGetValueDoesNotAllocateReadWriteLock() throws MalformedURLException, ValidationException {
+    long allocated = getValueAllocatedBytes(
+        getTestAllocationMap(PartialURLMap.Concurrency.READ_WRITE_LOCK),
+        new URLFieldSource(new URL("https://aorepo.org/prefix/sub/file")),
+        3
+    );
+    assertTrue("Lookups must not allocate, but allocated " + allocated + " bytes in " + ALLOCATION_ITERATIONS + " lookups", allocated < ALLOCATION_ITERATIONS);
+  }
+
+  @Test
+  public void testGetValueDoesNotAllocateCopyOnWrite() throws MalformedURLException, ValidationException {
+    long allocated = getValueAllocatedBytes(
+        getTestAllocationMap(PartialURLMap.Concurrency.COPY_ON_WRITE),
+        new URLFieldSource(new URL("https://aorepo.org/prefix/sub/file")),
+        3
+    );
+    assertTrue("Lookups must not allocate, but allocated " + allocated + " bytes in " + ALLOCATION_ITERATIONS + " lookups", allocated < ALLOCATION_ITERATIONS);
+  }
+
+  @Test
+  public void testGetValueDoesNotAllocateFlattened() throws MalformedURLException, ValidationException {
+    long allocated = getValueAllocatedBytes(
+        getTestAllocationMap(PartialURLMap.Concurrency.COPY_ON_WRITE, PartialURLMap.Storage.FLATTENED),
+        new URLFieldSource(new URL("https://aorepo.org/prefix/sub/file")),
+        3
+    );
+    assertTrue("Lookups must not allocate, but allocated " + allocated + " bytes in " + ALLOCATION_ITERATIONS + " lookups", allocated < ALLOCATION_ITERATIONS);
+  }
+
+  @Test
+  public void testGetValueDoesNotAllocateNotMatches() throws MalformedURLException, ValidationException {
+    long allocated = getValueAllocatedBytes(
+        getTestAllocationMap(PartialURLMap.Concurrency.COPY_ON_WRITE),
+        new URLFieldSource(new URL("ftp://aoindustries.com/prefix/sub/file")),
+        null
+    );
+    assertTrue("Lookups must not allocate, but allocated " + allocated + " bytes in " + ALLOCATION_ITERATIONS + " lookups", allocated < ALLOCATION_ITERATIONS);
+  }
+
+  @Test
+  public void testGetValueDoesNotAllocateFactorized() throws MalformedURLException, ValidationException {
+    long allocated = getValueAllocatedBytes(
+        getTestFactorizedMap(PartialURLMap.Concurrency.COPY_ON_WRITE),
+        new URLFieldSource(new URL("https://host2.aorepo.org/a/b/file")),
+        1
+    );
+    assertTrue("Lookups must not allocate, but allocated " + allocated + " bytes in " + ALLOCATION_ITERATIONS + " lookups", allocated < ALLOCATION_ITERATIONS);
+  }
+  // </editor-fold>
+
   // TODO: Test multiple fields with multiple values, while testing ordering when multiple fields match
 
 }
@@ -0,0 +1,147 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.Path;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import org.junit.Test;
+
+/**
+ * Tests {@link PartialURLMatch}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class PartialURLMatchTest {
+
+  /**
+   * A stream handler that fails when any host name resolution is attempted, including through
+   * {@link URL#equals(java.lang.Object)} and {@link URL#hashCode()}.
+   */
+  private static final URLStreamHandler noResolveHandler = new URLStreamHandler() {
+    @Override
+    protected URLConnection openConnection(URL u) {
+      throw new AssertionError("Connection attempted: " + u);
+    }
+
+    @Override
+    protected int getDefaultPort() {
+      return 80;
+    }
+
+    @Override
+    protected InetAddress getHostAddress(URL u) {
+      throw new AssertionError("Host resolution attempted: " + u);
+    }
+
+    @Override
+    protected boolean hostsEqual(URL u1, URL u2) {
+      throw new AssertionError("Host resolution attempted: " + u1 + ", " + u2);
+    }
+
+    @Override
+    protected boolean equals(URL u1, URL u2) {
+      throw new AssertionError("URL.equals may resolve hosts: " + u1 + ", " + u2);
+    }
+
+    @Override
+    protected int hashCode(URL u) {
+      throw new AssertionError("URL.hashCode may resolve hosts: " + u);
+    }
+  };
+
+  private static final SinglePartialURL prefixOnly;
+
+  static {
+    try {
+      prefixOnly = PartialURL.valueOf(Path.valueOf("/prefix/"));
+    } catch (ValidationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static PartialURLMatch<Integer> getTestMatch(String host, int port, String file, Integer value) throws MalformedURLException {
+    return new PartialURLMatch<>(
+        prefixOnly,
+        prefixOnly,
+        new URL("http", host, port, file, noResolveHandler),
+        value
+    );
+  }
+
+  @Test
+  public void testEqualsDoesNotResolve() throws MalformedURLException {
+    Integer value = 1;
+    PartialURLMatch<Integer> match1 = getTestMatch("aoindustries.com", -1, "/prefix/", value);
+    PartialURLMatch<Integer> match2 = getTestMatch("AOINDUSTRIES.COM", 80, "/prefix/", value);
+    assertEquals(match1, match2);
+    assertEquals(match1.hashCode(), match2.hashCode());
+  }
+
+  @Test
+  public void testNotEqualsDifferentHostDoesNotResolve() throws MalformedURLException {
+    Integer value = 1;
+    assertNotEquals(
+        getTestMatch("localhost", -1, "/prefix/", value),
+        getTestMatch("127.0.0.1", -1, "/prefix/", value)
+    );
+  }
+
+  @Test
+  public void testNotEqualsDifferentPort() throws MalformedURLException {
+    Integer value = 1;
+    assertNotEquals(
+        getTestMatch("aoindustries.com", 80, "/prefix/", value),
+        getTestMatch("aoindustries.com", 8080, "/prefix/", value)
+    );
+  }
+
+  @Test
+  public void testNotEqualsDifferentFile() throws MalformedURLException {
+    Integer value = 1;
+    assertNotEquals(
+        getTestMatch("aoindustries.com", 80, "/prefix/", value),
+        getTestMatch("aoindustries.com", 80, "/prefix/sub/", value)
+    );
+  }
+
+  @Test
+  public void testUrlEqualsDefaultPortAndHostCase() throws MalformedURLException {
+    URL url1 = new URL("https://aoindustries.com/prefix/");
+    URL url2 = new URL("HTTPS://AOIndustries.com:443/prefix/");
+    assertTrue(PartialURLMatch.urlEquals(url1, url2));
+    assertEquals(PartialURLMatch.urlHashCode(url1), PartialURLMatch.urlHashCode(url2));
+    assertFalse(PartialURLMatch.urlEquals(url1, new URL("https://aoindustries.com/prefix/#ref")));
+    assertFalse(PartialURLMatch.urlEquals(url1, new URL("http://aoindustries.com/prefix/")));
+  }
+}
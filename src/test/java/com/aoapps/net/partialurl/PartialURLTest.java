@@ -25,12 +25,14 @@ package com.aoapps.net.partialurl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import com.aoapps.lang.validation.ValidationException;
 import com.aoapps.net.HostAddress;
 import com.aoapps.net.Path;
 import com.aoapps.net.Port;
 import com.aoapps.net.Protocol;
+import java.net.MalformedURLException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
@@ -254,4 +256,158 @@ public class PartialURLTest {
     );
   }
   // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test parse">
+  private static void assertParsesToString(PartialURL partialUrl) throws MalformedURLException {
+    assertEquals(partialUrl, PartialURL.parse(partialUrl.toString()));
+  }
+
+  @Test
+  public void testParseDefault() throws MalformedURLException {
+    assertSame(PartialURL.DEFAULT, PartialURL.parse("//*:*/*/**"));
+  }
+
+  @Test
+  public void testParseSingle() throws MalformedURLException, ValidationException {
+    HostAddress host = HostAddress.valueOf("aoindustries.com");
+    Port port = Port.valueOf(8443, Protocol.TCP);
+    Path contextPath = Path.valueOf("/context");
+    Path prefix = Path.valueOf("/prefix/");
+    assertParsesToString(PartialURL.valueOf("https", null, null, null, null));
+    assertParsesToString(PartialURL.valueOf(null, host, null, null, null));
+    assertParsesToString(PartialURL.valueOf(null, HostAddress.valueOf("192.0.2.45"), null, null, null));
+    assertParsesToString(PartialURL.valueOf(null, null, port, null, null));
+    assertParsesToString(PartialURL.valueOf(null, null, null, contextPath, null));
+    assertParsesToString(PartialURL.valueOf(null, null, null, Path.ROOT, null));
+    assertParsesToString(PartialURL.valueOf(null, null, null, null, prefix));
+    assertParsesToString(PartialURL.valueOf(null, null, null, null, Path.ROOT));
+    assertParsesToString(PartialURL.valueOf(null, null, null, contextPath, prefix));
+    assertParsesToString(PartialURL.valueOf(null, null, null, Path.ROOT, prefix));
+    assertParsesToString(PartialURL.valueOf("https", host, port, contextPath, prefix));
+    assertParsesToString(PartialURL.valueOf("http", host, Port.valueOf(80, Protocol.TCP), Path.ROOT, Path.ROOT));
+    assertParsesToString(PartialURL.valueOf("https", host, Port.valueOf(443, Protocol.TCP), Path.ROOT, Path.ROOT));
+    assertParsesToString(PartialURL.valueOf("https", host, Port.valueOf(80, Protocol.TCP), Path.ROOT, Path.ROOT));
+  }
+
+  @Test
+  public void testParseMulti() throws MalformedURLException, ValidationException {
+    HostAddress[] hosts = {HostAddress.valueOf("aoindustries.com"), HostAddress.valueOf("192.0.2.45")};
+    Port[] ports = {Port.valueOf(80, Protocol.TCP), Port.valueOf(443, Protocol.TCP)};
+    Path[] contextPaths = {Path.valueOf("/context"), Path.ROOT};
+    Path[] prefixes = {Path.valueOf("/prefix/"), Path.ROOT};
+    assertParsesToString(PartialURL.valueOf(new String[]{"http", "https"}, null, null, null));
+    assertParsesToString(PartialURL.valueOf(null, hosts, null, null));
+    assertParsesToString(PartialURL.valueOf(null, null, ports, null));
+    assertParsesToString(PartialURL.valueOf(null, null, null, contextPaths));
+    assertParsesToString(PartialURL.valueOf(null, null, null, null, prefixes));
+    assertParsesToString(PartialURL.valueOf(null, null, null, contextPaths, prefixes));
+    assertParsesToString(PartialURL.valueOf(null, null, null, new Path[]{Path.ROOT}, prefixes));
+    assertParsesToString(PartialURL.valueOf(new String[]{"http", "https"}, hosts, ports, contextPaths, prefixes));
+    assertParsesToString(PartialURL.valueOf(new String[]{"https"}, hosts, new Port[]{ports[1]}, new Path[]{contextPaths[0]}, prefixes[0]));
+    assertParsesToString(PartialURL.valueOf(new String[]{"http", "https"}, hosts, new Port[]{ports[1]}, new Path[]{contextPaths[0]}, prefixes[0]));
+  }
+
+  @Test
+  public void testParseSchemeLowerCase() throws MalformedURLException, ValidationException {
+    PartialURL partialUrl = PartialURL.parse("HTTPS://aoindustries.com/");
+    assertSame(PartialURL.HTTPS, partialUrl.getPrimary().getScheme());
+    assertEquals(Port.valueOf(443, Protocol.TCP), partialUrl.getPrimary().getPort());
+  }
+
+  @Test
+  public void testParseInterns() throws MalformedURLException {
+    PartialURLParser parser = new PartialURLParser();
+    SinglePartialURL partialUrl1 = parser.parse("https://aoindustries.com:8443{/context}/prefix/").getPrimary();
+    SinglePartialURL partialUrl2 = parser.parse("//{aoindustries.com,aorepo.org}:8443/*/prefix/").getPrimary();
+    assertSame(partialUrl1.getHost(), partialUrl2.getHost());
+    assertSame(partialUrl1.getPort(), partialUrl2.getPort());
+    assertSame(partialUrl1.getPrefix(), partialUrl2.getPrefix());
+  }
+
+  @Test
+  public void testParseRange() throws MalformedURLException {
+    assertSame(PartialURL.DEFAULT, new PartialURLParser().parse("  //*:*/*/** 1", 2, 12));
+  }
+
+  private static void assertParseFails(String partialUrl) {
+    try {
+      PartialURL.parse(partialUrl);
+      fail("MalformedURLException expected: " + partialUrl);
+    } catch (MalformedURLException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testParseInvalid() {
+    assertParseFails("");
+    assertParseFails("//");
+    assertParseFails("//*");
+    assertParseFails("//*:*");
+    assertParseFails("//*:*/*");
+    assertParseFails("ftp://aoindustries.com/");
+    assertParseFails("1http://*:*/*/**");
+    assertParseFails("//*:99999/*/**");
+    assertParseFails("//*:port/*/**");
+    assertParseFails("//{aoindustries.com,aorepo.org:*/*/**");
+    assertParseFails("//*:*/*/prefix");
+    assertParseFails("//*:*{/context/}/prefix/");
+    assertParseFails("//*:*/*/**extra");
+  }
+  // </editor-fold>
+
+  // <editor-fold defaultstate="collapsed" desc="Test scheme lower-case">
+  /**
+   * A field source only providing a scheme, to test the default {@link FieldSource#getSchemeLowerCase()}.
+   */
+  private static FieldSource schemeOnly(String scheme) {
+    return new FieldSource() {
+      @Override
+      public String getScheme() {
+        return scheme;
+      }
+
+      @Override
+      public HostAddress getHost() {
+        throw new AssertionError();
+      }
+
+      @Override
+      public Port getPort() {
+        throw new AssertionError();
+      }
+
+      @Override
+      public Path getContextPath() {
+        throw new AssertionError();
+      }
+
+      @Override
+      public Path getPath() {
+        throw new AssertionError();
+      }
+    };
+  }
+
+  @Test
+  public void testGetSchemeLowerCaseDefault() throws MalformedURLException {
+    assertSame(PartialURL.HTTPS, schemeOnly("HTTPS").getSchemeLowerCase());
+    assertSame(PartialURL.HTTP, schemeOnly("Http").getSchemeLowerCase());
+    String ftp = "ftp";
+    assertSame(ftp, schemeOnly(ftp).getSchemeLowerCase());
+    assertEquals("ftp", schemeOnly("FTP").getSchemeLowerCase());
+  }
+
+  @Test
+  public void testValueOfSchemeConstants() {
+    assertSame(PartialURL.HTTPS, PartialURL.valueOf("HTTPS", null, null, null, null).getScheme());
+    assertSame(PartialURL.HTTP, PartialURL.valueOf(new String("http"), null, null, null, null).getScheme());
+  }
+
+  @Test
+  public void testMatchesUpperCaseScheme() throws MalformedURLException {
+    SinglePartialURL httpsOnly = PartialURL.valueOf(PartialURL.HTTPS, null, null, null, null);
+    assertSame(httpsOnly, httpsOnly.matches(schemeOnly("HTTPS")));
+  }
+  // </editor-fold>
 }
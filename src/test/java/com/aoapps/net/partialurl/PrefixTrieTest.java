@@ -0,0 +1,249 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Tests {@link PrefixTrie}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class PrefixTrieTest {
+
+  private static PrefixTrie<List<String>> getTestTrie(String... prefixes) {
+    PrefixTrie<List<String>> trie = new PrefixTrie<>();
+    for (String prefix : prefixes) {
+      trie.modifiableValue(prefix, ArrayList::new, ArrayList::new, null).add(prefix);
+    }
+    return trie;
+  }
+
+  /**
+   * Finds all matching prefixes, shallowest first, by walking children.
+   */
+  private static List<String> getMatches(PrefixTrie<List<String>> trie, String path) {
+    List<String> matches = new ArrayList<>();
+    PrefixTrie<List<String>> node = trie;
+    int pos = 0;
+    while (node != null) {
+      List<String> value = node.getValue();
+      if (value != null) {
+        matches.addAll(value);
+      }
+      node = node.getChild(path, pos);
+      if (node != null) {
+        pos += node.getLabelLength();
+      }
+    }
+    return matches;
+  }
+
+  @Test
+  public void testGet() {
+    PrefixTrie<List<String>> trie = getTestTrie(null, "/", "/a/b/", "/a/", "/a/c/d/", "/ab/");
+    assertEquals(Collections.singletonList(null), trie.get(null));
+    assertEquals(Collections.singletonList("/"), trie.get("/"));
+    assertEquals(Collections.singletonList("/a/"), trie.get("/a/"));
+    assertEquals(Collections.singletonList("/a/b/"), trie.get("/a/b/"));
+    assertEquals(Collections.singletonList("/a/c/d/"), trie.get("/a/c/d/"));
+    assertEquals(Collections.singletonList("/ab/"), trie.get("/ab/"));
+    assertNull(trie.get("/a/c/"));
+    assertNull(trie.get("/b/"));
+    assertNull(trie.get("/a/b/c/"));
+  }
+
+  @Test
+  public void testGetChildMatchesWholeSegments() {
+    PrefixTrie<List<String>> trie = getTestTrie(null, "/", "/a/", "/a/b/", "/ab/", "/a/c/d/");
+    assertEquals(Arrays.asList(null, "/", "/a/", "/a/b/"), getMatches(trie, "/a/b/c"));
+    assertEquals(Arrays.asList(null, "/", "/a/"), getMatches(trie, "/a/bc/"));
+    assertEquals(Arrays.asList(null, "/", "/a/"), getMatches(trie, "/a/c/"));
+    assertEquals(Arrays.asList(null, "/", "/a/", "/a/c/d/"), getMatches(trie, "/a/c/d/e"));
+    assertEquals(Arrays.asList(null, "/", "/ab/"), getMatches(trie, "/ab/"));
+    assertEquals(Arrays.asList(null, "/"), getMatches(trie, "/ab"));
+    assertEquals(Collections.singletonList(null), getMatches(trie, ""));
+  }
+
+  @Test
+  public void testGetChildBySegments() throws MalformedURLException {
+    PrefixTrie<List<String>> trie = getTestTrie(null, "/", "/a/", "/a/b/", "/ab/", "/a/c/d/");
+    for (String path : new String[] {"/a/b/c", "/a/bc/", "/a/c/", "/a/c/d/e", "/ab/", "/ab", ""}) {
+      // Walked by the segments of a request key, the same as by scanning the path
+      int[] prefixEnds = {};
+      int[] segmentHashes = {};
+      if (!path.isEmpty()) {
+        RequestKey key = RequestKey.valueOf(new CharSequenceFieldSource("http://aorepo.org" + path));
+        prefixEnds = key.getPrefixEnds();
+        segmentHashes = key.getSegmentHashes();
+      }
+      List<String> matches = new ArrayList<>();
+      PrefixTrie<List<String>> node = trie;
+      int pos = 0;
+      int segment = 0;
+      while (node != null) {
+        List<String> value = node.getValue();
+        if (value != null) {
+          matches.addAll(value);
+        }
+        if (segment == prefixEnds.length) {
+          break;
+        }
+        node = node.getChild(path, pos, prefixEnds[segment] - pos, segmentHashes[segment]);
+        if (node != null) {
+          pos += node.getLabelLength();
+          while (prefixEnds[segment] < pos) {
+            segment++;
+          }
+          segment++;
+        }
+      }
+      assertEquals(path, getMatches(trie, path), matches);
+    }
+  }
+
+  @Test
+  public void testManyChildren() {
+    String[] prefixes = new String[1000];
+    for (int i = 0; i < prefixes.length; i++) {
+      prefixes[i] = "/dir" + i + "/sub/";
+    }
+    PrefixTrie<List<String>> trie = getTestTrie(prefixes);
+    for (String prefix : prefixes) {
+      assertEquals(Collections.singletonList(prefix), trie.get(prefix));
+      assertEquals(Collections.singletonList(prefix), getMatches(trie, prefix + "file"));
+    }
+    assertNull(trie.get("/dir1000/sub/"));
+  }
+
+  @Test
+  public void testCopyLeavesOriginalUnchanged() {
+    PrefixTrie<List<String>> original = getTestTrie("/a/b/", "/c/");
+    final List<String> originalValue = original.get("/a/b/");
+    PrefixTrie<List<String>> copy = new PrefixTrie<>(original);
+    Set<Object> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+    copied.add(copy);
+    copy.modifiableValue("/a/", ArrayList::new, ArrayList::new, copied).add("/a/");
+    copy.modifiableValue("/a/b/", ArrayList::new, ArrayList::new, copied).add("second");
+    // Original unchanged
+    assertNull(original.get("/a/"));
+    assertSame(originalValue, original.get("/a/b/"));
+    assertEquals(Collections.singletonList("/a/b/"), originalValue);
+    // Copy updated
+    assertEquals(Collections.singletonList("/a/"), copy.get("/a/"));
+    assertNotSame(originalValue, copy.get("/a/b/"));
+    assertEquals(Arrays.asList("/a/b/", "second"), copy.get("/a/b/"));
+    // Shared subtree not copied
+    assertSame(original.get("/c/"), copy.get("/c/"));
+  }
+
+  @Test
+  public void testRemoveValue() {
+    PrefixTrie<List<String>> trie = getTestTrie(null, "/", "/a/b/", "/a/", "/a/c/d/", "/ab/");
+    assertEquals(Collections.singletonList("/a/"), trie.removeValue("/a/", null));
+    assertNull(trie.get("/a/"));
+    assertNull(trie.removeValue("/a/", null));
+    assertNull(trie.removeValue("/x/", null));
+    assertEquals(Arrays.asList(null, "/", "/a/b/"), getMatches(trie, "/a/b/file"));
+    assertEquals(Arrays.asList(null, "/", "/a/c/d/"), getMatches(trie, "/a/c/d/file"));
+    assertEquals(Collections.singletonList(null), trie.removeValue(null, null));
+    assertNull(trie.get(null));
+    assertEquals(Arrays.asList("/", "/ab/"), getMatches(trie, "/ab/file"));
+  }
+
+  @Test
+  public void testRemoveValuePrunesAndMerges() {
+    PrefixTrie<List<String>> trie = getTestTrie("/a/b/c/", "/a/b/d/");
+    // "/a/b/" is an intermediate node without a value
+    assertEquals(3, getMatchedNodeCount(trie, "/a/b/c/"));
+    trie.removeValue("/a/b/d/", null);
+    // Intermediate node merged with its only remaining child
+    assertEquals(2, getMatchedNodeCount(trie, "/a/b/c/"));
+    assertEquals(Collections.singletonList("/a/b/c/"), getMatches(trie, "/a/b/c/file"));
+    trie.removeValue("/a/b/c/", null);
+    assertTrue(trie.isEmpty());
+  }
+
+  /**
+   * Counts the nodes visited, including the root, while matching a path.
+   */
+  private static int getMatchedNodeCount(PrefixTrie<?> trie, String path) {
+    int count = 0;
+    PrefixTrie<?> node = trie;
+    int pos = 0;
+    while (node != null) {
+      count++;
+      node = node.getChild(path, pos);
+      if (node != null) {
+        pos += node.getLabelLength();
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testRemoveValueManyChildren() {
+    String[] prefixes = new String[1000];
+    for (int i = 0; i < prefixes.length; i++) {
+      prefixes[i] = "/dir" + i + "/";
+    }
+    PrefixTrie<List<String>> trie = getTestTrie(prefixes);
+    for (int i = 0; i < prefixes.length; i += 2) {
+      assertEquals(Collections.singletonList(prefixes[i]), trie.removeValue(prefixes[i], null));
+    }
+    for (int i = 0; i < prefixes.length; i++) {
+      assertEquals((i % 2 == 0) ? null : Collections.singletonList(prefixes[i]), trie.get(prefixes[i]));
+    }
+  }
+
+  @Test
+  public void testCopyRemoveLeavesOriginalUnchanged() {
+    PrefixTrie<List<String>> original = getTestTrie("/a/b/", "/a/c/", "/d/");
+    PrefixTrie<List<String>> copy = new PrefixTrie<>(original);
+    Set<Object> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+    copied.add(copy);
+    copy.removeValue("/a/b/", copied);
+    // Original unchanged
+    assertEquals(Collections.singletonList("/a/b/"), original.get("/a/b/"));
+    assertEquals(Collections.singletonList("/a/c/"), original.get("/a/c/"));
+    // Copy updated
+    assertNull(copy.get("/a/b/"));
+    assertEquals(Collections.singletonList("/a/c/"), copy.get("/a/c/"));
+    // Shared subtree not copied
+    assertSame(original.get("/d/"), copy.get("/d/"));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * ao-net-partial-url - Matches and resolves partial URLs.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-net-partial-url.
+ *
+ * ao-net-partial-url is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-net-partial-url is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-net-partial-url.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.net.partialurl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.aoapps.lang.validation.ValidationException;
+import com.aoapps.net.HostAddress;
+import com.aoapps.net.Path;
+import com.aoapps.net.Port;
+import com.aoapps.net.Protocol;
+import java.net.MalformedURLException;
+import org.junit.Test;
+
+/**
+ * Tests {@link RequestKey}.
+ *
+ * @author  AO Industries, Inc.
+ */
+public class RequestKeyTest {
+
+  @Test
+  public void testValueOf() throws MalformedURLException, ValidationException {
+    RequestKey key = RequestKey.valueOf(new CharSequenceFieldSource("HTTPS://aorepo.org/a/bc/file"));
+    assertSame(PartialURL.HTTPS, key.getScheme());
+    assertSame(PartialURL.HTTPS, key.getSchemeLowerCase());
+    assertEquals(HostAddress.valueOf("aorepo.org"), key.getHost());
+    assertEquals(Port.valueOf(443, Protocol.TCP), key.getPort());
+    assertSame(Path.ROOT, key.getContextPath());
+    assertEquals(Path.valueOf("/a/bc/file"), key.getPath());
+    assertEquals("/a/bc/file", key.getPathString());
+  }
+
+  @Test
+  public void testValueOfRequestKey() throws MalformedURLException {
+    RequestKey key = RequestKey.valueOf(new CharSequenceFieldSource("http://aorepo.org/"));
+    assertSame(key, RequestKey.valueOf(key));
+  }
+
+  @Test
+  public void testPrefixes() throws MalformedURLException {
+    RequestKey key = RequestKey.valueOf(new CharSequenceFieldSource("http://aorepo.org/a/bc/file"));
+    assertArrayEquals(new int[] {1, 3, 6}, key.getPrefixEnds());
+    assertArrayEquals(
+        new int[] {"/".hashCode(), "/a/".hashCode(), "/a/bc/".hashCode()},
+        key.getPrefixHashes()
+    );
+    assertArrayEquals(
+        new int[] {"/".hashCode(), "a/".hashCode(), "bc/".hashCode()},
+        key.getSegmentHashes()
+    );
+  }
+
+  @Test
+  public void testNoPath() throws MalformedURLException {
+    RequestKey key = RequestKey.valueOf(new CharSequenceFieldSource("http://aorepo.org"));
+    assertNull(key.getPath());
+    assertEquals("", key.getPathString());
+    assertEquals(0, key.getPrefixEnds().length);
+    assertEquals(0, key.getPrefixHashes().length);
+    assertEquals(0, key.getSegmentHashes().length);
+  }
+
+  @Test
+  public void testDeepestPrefix() {
+    int[] prefixEnds = {1, 3, 6};
+    assertEquals(2, RequestKey.deepestPrefix(prefixEnds, 10));
+    assertEquals(2, RequestKey.deepestPrefix(prefixEnds, 6));
+    assertEquals(1, RequestKey.deepestPrefix(prefixEnds, 5));
+    assertEquals(0, RequestKey.deepestPrefix(prefixEnds, 1));
+    assertEquals(-1, RequestKey.deepestPrefix(prefixEnds, 0));
+    assertEquals(-1, RequestKey.deepestPrefix(new int[0], 10));
+  }
+
+  @Test
+  public void testEquals() throws MalformedURLException {
+    RequestKey key1 = RequestKey.valueOf(new CharSequenceFieldSource("HTTP://aorepo.org:80/path"));
+    RequestKey key2 = RequestKey.valueOf(new CharSequenceFieldSource("http://aorepo.org/path?query"));
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertNotEquals(key1, RequestKey.valueOf(new CharSequenceFieldSource("http://aorepo.org/path/")));
+    assertNotEquals(key1, RequestKey.valueOf(new CharSequenceFieldSource("https://aorepo.org/path")));
+  }
+
+  @Test(expected = MalformedURLException.class)
+  public void testValueOfInvalid() throws MalformedURLException {
+    RequestKey.valueOf(new CharSequenceFieldSource("http:///path"));
+  }
+}
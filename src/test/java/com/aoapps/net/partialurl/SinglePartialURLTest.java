@@ -135,6 +135,22 @@ public class SinglePartialURLTest {
     );
   }
 
+  @Test
+  public void testToStringContextPathAndPrefix() throws ValidationException {
+    assertEquals(
+        "//*:*{/context}/prefix/",
+        PartialURL.valueOf(null, null, null, Path.valueOf("/context"), Path.valueOf("/prefix/")).toString()
+    );
+  }
+
+  @Test
+  public void testToStringContextPathRootAndPrefix() throws ValidationException {
+    assertEquals(
+        "//*:*/context/prefix/",
+        PartialURL.valueOf(null, null, null, Path.ROOT, Path.valueOf("/context/prefix/")).toString()
+    );
+  }
+
   @Test
   public void testToStringCompleteHttpDefaultPort() throws ValidationException {
     assertEquals(